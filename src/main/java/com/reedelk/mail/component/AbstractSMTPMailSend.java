@@ -0,0 +1,167 @@
+package com.reedelk.mail.component;
+
+import com.reedelk.mail.component.smtp.InlineImageDefinition;
+import com.reedelk.mail.internal.MailSessionService;
+import com.reedelk.mail.internal.exception.MailMessageConfigurationException;
+import com.reedelk.mail.internal.smtp.MailMessageFields;
+import com.reedelk.mail.internal.smtp.MailSendDefinition;
+import com.reedelk.mail.internal.smtp.attachment.InlineImageResolver;
+import com.reedelk.mail.internal.smtp.attachment.StreamAttachments;
+import com.reedelk.mail.internal.smtp.attachment.cache.AttachmentCache;
+import com.reedelk.mail.internal.smtp.attachment.cache.AttachmentCacheService;
+import com.reedelk.mail.internal.smtp.attachment.loader.AttachmentLoader;
+import com.reedelk.mail.internal.smtp.attachment.loader.AttachmentLoaderService;
+import com.reedelk.mail.internal.smtp.dispatch.Priority;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPool;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPoolService;
+import com.reedelk.mail.internal.smtp.type.MailTypeFactory;
+import com.reedelk.mail.internal.smtp.type.MailTypeStrategy;
+import com.reedelk.mail.internal.smtp.type.MailTypeStrategyResult;
+import com.reedelk.runtime.api.flow.FlowContext;
+import com.reedelk.runtime.api.message.Message;
+import com.reedelk.runtime.api.message.MessageAttributes;
+import com.reedelk.runtime.api.message.MessageBuilder;
+import com.reedelk.runtime.api.script.dynamicvalue.DynamicString;
+import org.apache.commons.mail.EmailException;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import java.io.IOException;
+import java.util.List;
+
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.PRIORITY_INVALID;
+import static com.reedelk.runtime.api.commons.ComponentPrecondition.Configuration.requireNotNull;
+import static com.reedelk.runtime.api.commons.ComponentPrecondition.Configuration.requireNotNullOrBlank;
+import static com.reedelk.runtime.api.commons.StringUtils.isBlank;
+
+/**
+ * The lifecycle shared by the synchronous and asynchronous mail send components: the mail message
+ * is built the same way, the components differ in how it is delivered. The properties and the
+ * service references are declared on each component, since the component annotations of a
+ * superclass are not processed.
+ */
+public abstract class AbstractSMTPMailSend implements MailSendDefinition {
+
+    private Session session;
+    private MailMessageFields messageFields;
+    private MailTypeStrategy mailType;
+    private SMTPTransportPool transportPool;
+    private AttachmentCache attachmentCache;
+    private AttachmentLoader attachmentLoader;
+    private InlineImageResolver inlineImageResolver;
+
+    public abstract List<InlineImageDefinition> getInlineImages();
+
+    public abstract String getInlineImagesDirectory();
+
+    public abstract DynamicString getPriority();
+
+    protected abstract MailSessionService sessionService();
+
+    protected abstract SMTPTransportPoolService transportPoolService();
+
+    protected abstract AttachmentCacheService attachmentCacheService();
+
+    protected abstract AttachmentLoaderService attachmentLoaderService();
+
+    public void initialize() {
+        SMTPConfiguration connection = getConnection();
+        requireNotNull(getClass(), connection, "SMTP Configuration is not defined.");
+        requireNotNullOrBlank(getClass(), getFrom(), "'From' must not be blank");
+        requireNotNullOrBlank(getClass(), getTo(), "'To' must not be blank");
+        messageFields = MailMessageFields.from(this);
+        mailType = MailTypeFactory.from(this, getConverterService());
+        session = sessionService().acquire(connection);
+        transportPool = transportPoolService().acquire(connection, session);
+        attachmentCache = attachmentCacheService().acquire(connection);
+        attachmentLoader = attachmentLoaderService().acquire(connection);
+        inlineImageResolver = new InlineImageResolver(getInlineImages(), getInlineImagesDirectory(), attachmentCache);
+    }
+
+    public void dispose() {
+        if (mailType != null) {
+            mailType.dispose();
+            mailType = null;
+        }
+        if (attachmentCache != null) {
+            attachmentCacheService().release(attachmentCache);
+            attachmentCache = null;
+        }
+        if (attachmentLoader != null) {
+            attachmentLoaderService().release(attachmentLoader);
+            attachmentLoader = null;
+        }
+        if (transportPool != null) {
+            transportPoolService().release(transportPool);
+            transportPool = null;
+        }
+        if (session != null) {
+            sessionService().release(session);
+            session = null;
+        }
+    }
+
+    /**
+     * Builds the mail message to be sent from the given message, with its cached attachments already encoded.
+     */
+    protected MailTypeStrategyResult build(FlowContext flowContext, Message message) throws EmailException, MessagingException, IOException {
+        MailTypeStrategyResult result = mailType.create(flowContext, message);
+
+        result.email.buildMimeMessage();
+        if (attachmentCache != null) {
+            try {
+                attachmentCache.encodeParts(result.email.getMimeMessage());
+            } catch (MessagingException | IOException exception) {
+                // The message is not sent: its streams would never be closed otherwise.
+                StreamAttachments.close(result.email.getMimeMessage());
+                throw exception;
+            }
+        }
+        return result;
+    }
+
+    protected Message output(MailTypeStrategyResult result, MessageAttributes attributes) {
+        MessageBuilder output = MessageBuilder.get(getClass());
+        // A body from a binary payload is output as it is, without being converted to a string.
+        if (result.content != null) output.withBinary(result.content, result.mimeType);
+        else output.withString(result.text, result.mimeType);
+
+        return output.attributes(attributes).build();
+    }
+
+    protected Priority priority(FlowContext flowContext, Message message) {
+        DynamicString priority = getPriority();
+        if (priority == null || isBlank(priority.value())) return Priority.NORMAL;
+        String evaluated = getScriptService().evaluate(priority, flowContext, message).orElse(null);
+        if (isBlank(evaluated)) return Priority.NORMAL;
+        Priority result = Priority.of(evaluated);
+        if (result == null) {
+            throw new MailMessageConfigurationException(PRIORITY_INVALID.format(evaluated, priority.toString()));
+        }
+        return result;
+    }
+
+    protected SMTPTransportPool transportPool() {
+        return transportPool;
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    public AttachmentCache getAttachmentCache() {
+        return attachmentCache;
+    }
+
+    public AttachmentLoader getAttachmentLoader() {
+        return attachmentLoader;
+    }
+
+    public InlineImageResolver getInlineImageResolver() {
+        return inlineImageResolver;
+    }
+
+    public MailMessageFields getMessageFields() {
+        return messageFields;
+    }
+}
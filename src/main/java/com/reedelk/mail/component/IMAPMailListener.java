@@ -4,6 +4,7 @@ import com.reedelk.mail.component.imap.IMAPFlags;
 import com.reedelk.mail.component.imap.IMAPListeningStrategy;
 import com.reedelk.mail.internal.CloseableService;
 import com.reedelk.mail.internal.MailPoller;
+import com.reedelk.mail.internal.MailSessionService;
 import com.reedelk.mail.internal.imap.IMAPIdleListener;
 import com.reedelk.mail.internal.imap.IMAPIdleListenerSettings;
 import com.reedelk.mail.internal.imap.IMAPPollingStrategy;
@@ -16,6 +17,7 @@ import com.reedelk.runtime.api.message.MessageAttributes;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
 
+import javax.mail.Session;
 import java.util.Optional;
 
 import static com.reedelk.runtime.api.commons.ComponentPrecondition.Configuration.requireNotNull;
@@ -118,6 +120,10 @@ public class IMAPMailListener extends AbstractInbound {
 
     @Reference
     CloseableService closeableService;
+    @Reference
+    MailSessionService sessionService;
+
+    private Session session;
 
     @Override
     public void onStart() {
@@ -126,6 +132,8 @@ public class IMAPMailListener extends AbstractInbound {
         requireNotNull(IMAPMailListener.class, connection.getUsername(), "IMAP username must not be empty.");
         requireNotNull(IMAPMailListener.class, connection.getPassword(), "IMAP password must not be empty.");
 
+        session = sessionService.acquire(connection);
+
         // Default strategy is polling.
         IMAPListeningStrategy strategy =
                 Optional.ofNullable(this.strategy)
@@ -136,6 +144,7 @@ public class IMAPMailListener extends AbstractInbound {
                     .markDeleteOnSuccess(markDeleteOnSuccess)
                     .deleteOnSuccess(deleteOnSuccess)
                     .configuration(connection)
+                    .session(session)
                     .matcher(flags)
                     .folder(folder)
                     .batch(batch)
@@ -153,6 +162,7 @@ public class IMAPMailListener extends AbstractInbound {
             IMAPIdleListenerSettings settings = IMAPIdleListenerSettings.create()
                     .deleteOnSuccess(deleteOnSuccess)
                     .configuration(connection)
+                    .session(session)
                     .folder(folder)
                     .batch(batch)
                     .peek(peek)
@@ -166,6 +176,10 @@ public class IMAPMailListener extends AbstractInbound {
     @Override
     public void onShutdown() {
         closeableService.unregister(this);
+        if (session != null) {
+            sessionService.release(session);
+            session = null;
+        }
     }
 
     public void setConnection(IMAPConfiguration connection) {
@@ -2,6 +2,7 @@ package com.reedelk.mail.component;
 
 import com.reedelk.mail.internal.CloseableService;
 import com.reedelk.mail.internal.MailPoller;
+import com.reedelk.mail.internal.MailSessionService;
 import com.reedelk.mail.internal.PollingStrategy;
 import com.reedelk.mail.internal.pop3.POP3PollingStrategy;
 import com.reedelk.mail.internal.pop3.POP3PollingStrategySettings;
@@ -13,6 +14,8 @@ import com.reedelk.runtime.api.message.MessageAttributes;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
 
+import javax.mail.Session;
+
 import static com.reedelk.runtime.api.commons.ComponentPrecondition.Configuration.requireNotNull;
 import static org.osgi.service.component.annotations.ServiceScope.PROTOTYPE;
 
@@ -61,6 +64,10 @@ public class POP3MailListener extends AbstractInbound {
 
     @Reference
     CloseableService closeableService;
+    @Reference
+    MailSessionService sessionService;
+
+    private Session session;
 
     @Override
     public void onStart() {
@@ -69,9 +76,12 @@ public class POP3MailListener extends AbstractInbound {
         requireNotNull(POP3MailListener.class, connection.getUsername(), "POP3 username must not be empty.");
         requireNotNull(POP3MailListener.class, connection.getPassword(), "POP3 password must not be empty.");
 
+        session = sessionService.acquire(connection);
+
         POP3PollingStrategySettings settings = POP3PollingStrategySettings.create()
                 .deleteOnSuccess(deleteOnSuccess)
                 .configuration(connection)
+                .session(session)
                 .batch(batch)
                 .limit(limit)
                 .build();
@@ -84,6 +94,10 @@ public class POP3MailListener extends AbstractInbound {
     @Override
     public void onShutdown() {
         closeableService.unregister(this);
+        if (session != null) {
+            sessionService.release(session);
+            session = null;
+        }
     }
 
     public POP3Configuration getConnection() {
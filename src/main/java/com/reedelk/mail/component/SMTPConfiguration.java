@@ -1,5 +1,6 @@
 package com.reedelk.mail.component;
 
+import com.reedelk.mail.component.smtp.HostSelectionPolicy;
 import com.reedelk.mail.component.smtp.SMTPProtocol;
 import com.reedelk.runtime.api.annotation.*;
 import com.reedelk.runtime.api.component.Implementor;
@@ -19,8 +20,10 @@ public class SMTPConfiguration implements Implementor {
 
     @Property("Host")
     @Hint("smtp.domain.com")
-    @Example("smtp.domain.com")
-    @Description("The SMTP server host to be used for the connection.")
+    @Example("smtp1.domain.com, smtp2.domain.com:2525")
+    @Description("The SMTP server host to be used for the connection. Several relay hosts might be given " +
+            "separated by commas, each one optionally followed by its port: the emails are spread among them " +
+            "according to the host selection policy. Hosts without a port use the port of this configuration.")
     private String host;
 
     @Property("Port")
@@ -66,6 +69,237 @@ public class SMTPConfiguration implements Implementor {
     @When(propertyName = "protocol", propertyValue = "SMTP")
     private Boolean startTlsEnabled;
 
+    @Property("Pipelining Enabled")
+    @Example("false")
+    @DefaultValue("true")
+    @Description("If true and the server supports the PIPELINING extension, the sender and recipients " +
+            "of an email are sent to the server in a single group of commands instead of waiting for the reply " +
+            "to each one of them. This reduces the time needed to send emails with many recipients.")
+    private Boolean pipeliningEnabled;
+
+    @Property("8BITMIME Enabled")
+    @Example("true")
+    @DefaultValue("false")
+    @Description("If true and the server supports the 8BITMIME extension, text parts which would otherwise be " +
+            "quoted-printable or base64 encoded are sent unencoded. This reduces the size of the emails sent " +
+            "and the time spent encoding them.")
+    private Boolean eightBitMimeEnabled;
+
+    @Property("Chunking Enabled")
+    @Example("true")
+    @DefaultValue("false")
+    @Description("If true and the server supports the CHUNKING extension, the content of an email is sent " +
+            "with BDAT commands in fixed size chunks. Emails with lines starting with a dot are still sent " +
+            "with the DATA command.")
+    private Boolean chunkingEnabled;
+
+    @Property("Max Pool Size")
+    @Hint("4")
+    @Example("8")
+    @DefaultValue("4")
+    @Group("Connection Pool")
+    @Description("The maximum number of SMTP connections kept open and shared by all the components " +
+            "using this configuration.")
+    private Integer poolMaxSize;
+
+    @Property("Max Messages Per Connection")
+    @Hint("100")
+    @Example("500")
+    @DefaultValue("100")
+    @Group("Connection Pool")
+    @Description("The maximum number of messages sent over a single SMTP connection. " +
+            "When the limit is reached the connection is closed and a new one is opened.")
+    private Integer poolMaxMessagesPerConnection;
+
+    @Property("Idle Timeout")
+    @Hint("60000")
+    @Example("30000")
+    @DefaultValue("60000")
+    @Group("Connection Pool")
+    @Description("Time in milliseconds after which an unused SMTP connection is closed and removed from the pool.")
+    private Integer poolIdleTimeout;
+
+    @Property("Borrow Timeout")
+    @Hint("30000")
+    @Example("10000")
+    @DefaultValue("30000")
+    @Group("Connection Pool")
+    @Description("Time in milliseconds an email waits for a free SMTP connection when all the connections " +
+            "of the pool are in use. If no connection is freed up within this time, the email fails.")
+    private Integer poolBorrowTimeout;
+
+    @Property("Max Queued Deliveries")
+    @Hint("1000")
+    @Example("5000")
+    @DefaultValue("1000")
+    @Group("Connection Pool")
+    @Description("The maximum number of emails handed over to the delivery threads of the pool and not delivered yet, " +
+            "e.g. asynchronous sends and envelopes. When reached, asynchronous sends fail right away, " +
+            "while the other sends wait for a place at most the borrow timeout.")
+    private Integer poolMaxQueuedDeliveries;
+
+    @Property("Max Messages Per Second")
+    @Hint("10")
+    @Example("5")
+    @DefaultValue("0")
+    @Group("Rate Limits")
+    @Description("The maximum number of emails sent per second by all the components using this configuration. " +
+            "Emails exceeding the limit wait before being sent. If 0, the number of emails is not limited.")
+    private Integer maxMessagesPerSecond;
+
+    @Property("Max Recipients Per Second")
+    @Hint("100")
+    @Example("50")
+    @DefaultValue("0")
+    @Group("Rate Limits")
+    @Description("The maximum number of recipients (to, cc and bcc) of the emails sent per second by all the components " +
+            "using this configuration. If 0, the number of recipients is not limited.")
+    private Integer maxRecipientsPerSecond;
+
+    @Property("Max Bytes Per Second")
+    @Hint("1048576")
+    @Example("524288")
+    @DefaultValue("0")
+    @Group("Rate Limits")
+    @Description("The maximum number of bytes of the emails sent per second by all the components using this configuration. " +
+            "Since the size of an email is known once it has been sent, bytes exceeding the limit delay the following emails. " +
+            "If 0, the number of bytes is not limited.")
+    private Integer maxBytesPerSecond;
+
+    @Property("Max Connections Per Domain")
+    @Hint("2")
+    @Example("5")
+    @DefaultValue("0")
+    @Group("Recipient Domains")
+    @Description("The maximum number of emails sent at the same time to the recipients of a single domain, e.g. gmail.com. " +
+            "Emails to several domains are sent separately to each one of them, so that the emails to a domain " +
+            "held back by its limits do not delay the emails to the other domains. If 0, the number is not limited.")
+    private Integer domainMaxConnections;
+
+    @Property("Max Messages Per Second Per Domain")
+    @Hint("10")
+    @Example("5")
+    @DefaultValue("0")
+    @Group("Recipient Domains")
+    @Description("The maximum number of emails sent per second to the recipients of a single domain. " +
+            "Emails exceeding the limit wait in the queue of their domain. If 0, the number of emails is not limited.")
+    private Integer domainMaxMessagesPerSecond;
+
+    @Property("Host Selection")
+    @Example("LEAST_OUTSTANDING")
+    @DefaultValue("ROUND_ROBIN")
+    @Group("Relay Hosts")
+    @Description("How the relay host of each email is selected when several hosts are given: in turn (Round Robin), " +
+            "the host with the fewest emails being sent (Least Outstanding) or the host expected to send the email " +
+            "first given its recent response times (Latency).")
+    private HostSelectionPolicy hostSelection;
+
+    @Property("Host Ejection Time")
+    @Hint("30000")
+    @Example("60000")
+    @DefaultValue("30000")
+    @Group("Relay Hosts")
+    @Description("Time in milliseconds a relay host is not used after it could not be connected to, " +
+            "it timed out or it replied with a transient failure.")
+    private Integer hostEjectionTime;
+
+    @Property("Spool Directory")
+    @Hint("/var/spool/reedelk-mail")
+    @Example("/var/spool/reedelk-mail")
+    @Group("Spool")
+    @Description("The directory where the emails sent with spool enabled are stored until they are delivered. " +
+            "If not set, a directory named after the host, port and username of this configuration " +
+            "is created in the system temporary directory.")
+    private String spoolDirectory;
+
+    @Property("Max Delivery Attempts")
+    @Hint("10")
+    @Example("20")
+    @DefaultValue("10")
+    @Group("Spool")
+    @Description("The maximum number of attempts to deliver a spooled email before it is discarded.")
+    private Integer spoolMaxAttempts;
+
+    @Property("Retry Interval")
+    @Hint("5000")
+    @Example("10000")
+    @DefaultValue("5000")
+    @Group("Spool")
+    @Description("Time in milliseconds to wait before retrying a failed delivery of a spooled email. " +
+            "The interval doubles after each failed attempt, up to a maximum of 10 minutes.")
+    private Integer spoolRetryInterval;
+
+    @Property("Idempotency Window")
+    @Hint("86400000")
+    @Example("3600000")
+    @DefaultValue("86400000")
+    @Group("Idempotency")
+    @Description("Time in milliseconds during which an email sent with an idempotency key is not sent again " +
+            "with the same key: the outcome of the first email is returned instead.")
+    private Integer idempotencyWindow;
+
+    @Property("Idempotency Max Keys")
+    @Hint("100000")
+    @Example("1000000")
+    @DefaultValue("100000")
+    @Group("Idempotency")
+    @Description("The maximum number of idempotency keys kept by all the components using this configuration. " +
+            "When reached, the oldest keys are forgotten before the end of their window.")
+    private Integer idempotencyMaxKeys;
+
+    @Property("Idempotency Store File")
+    @Hint("/var/lib/reedelk-mail/idempotency.keys")
+    @Example("/var/lib/reedelk-mail/idempotency.keys")
+    @Group("Idempotency")
+    @Description("The file the idempotency keys are stored in, so that they are still known after a restart. " +
+            "If not set, the keys are kept in memory only.")
+    private String idempotencyStoreFile;
+
+    @Property("Attachment Cache Size")
+    @Hint("16777216")
+    @Example("67108864")
+    @DefaultValue("0")
+    @Group("Attachment Cache")
+    @Description("The maximum size in bytes of the file and project resource attachments kept in memory " +
+            "by all the components using this configuration, so that they are not read again each time they are sent. " +
+            "The least recently used attachments are evicted first, and attachments larger than a quarter " +
+            "of this size are never cached. If 0, attachments are not cached.")
+    private Integer attachmentCacheSize;
+
+    @Property("Attachment Cache Off Heap")
+    @Example("true")
+    @DefaultValue("false")
+    @Group("Attachment Cache")
+    @Description("If true the cached attachments are stored outside of the Java heap.")
+    private Boolean attachmentCacheOffHeap;
+
+    @Property("Cache Encoded Attachments")
+    @Example("true")
+    @DefaultValue("false")
+    @Group("Attachment Cache")
+    @Description("If true the cached attachments are also kept encoded as MIME parts, headers included, " +
+            "and written as they are in the emails sent: cached attachments are not encoded again each time they are sent.")
+    private Boolean attachmentCacheEncoded;
+
+    @Property("Attachment Loading Threads")
+    @Hint("4")
+    @Example("8")
+    @DefaultValue("4")
+    @Group("Attachment Loading")
+    @Description("The number of threads loading the attachments of the emails concurrently, shared by all " +
+            "the components using this configuration. The attachments are always added to the emails " +
+            "in the order they are defined. If 1, the attachments are loaded one after the other.")
+    private Integer attachmentLoadThreads;
+
+    @Property("Attachment Loading Max In-Flight Bytes")
+    @Hint("33554432")
+    @Example("67108864")
+    @DefaultValue("33554432")
+    @Group("Attachment Loading")
+    @Description("The maximum size in bytes of the attachments loaded and not yet added to their emails: " +
+            "when reached, further attachments are loaded only once the first ones have been added.")
+    private Integer attachmentLoadMaxInFlightBytes;
+
     public SMTPProtocol getProtocol() {
         return protocol;
     }
@@ -129,4 +363,212 @@ public class SMTPConfiguration implements Implementor {
     public void setStartTlsEnabled(Boolean startTlsEnabled) {
         this.startTlsEnabled = startTlsEnabled;
     }
+
+    public Boolean getPipeliningEnabled() {
+        return pipeliningEnabled;
+    }
+
+    public void setPipeliningEnabled(Boolean pipeliningEnabled) {
+        this.pipeliningEnabled = pipeliningEnabled;
+    }
+
+    public Boolean getEightBitMimeEnabled() {
+        return eightBitMimeEnabled;
+    }
+
+    public void setEightBitMimeEnabled(Boolean eightBitMimeEnabled) {
+        this.eightBitMimeEnabled = eightBitMimeEnabled;
+    }
+
+    public Boolean getChunkingEnabled() {
+        return chunkingEnabled;
+    }
+
+    public void setChunkingEnabled(Boolean chunkingEnabled) {
+        this.chunkingEnabled = chunkingEnabled;
+    }
+
+    public Integer getPoolMaxSize() {
+        return poolMaxSize;
+    }
+
+    public void setPoolMaxSize(Integer poolMaxSize) {
+        this.poolMaxSize = poolMaxSize;
+    }
+
+    public Integer getPoolMaxMessagesPerConnection() {
+        return poolMaxMessagesPerConnection;
+    }
+
+    public void setPoolMaxMessagesPerConnection(Integer poolMaxMessagesPerConnection) {
+        this.poolMaxMessagesPerConnection = poolMaxMessagesPerConnection;
+    }
+
+    public Integer getPoolIdleTimeout() {
+        return poolIdleTimeout;
+    }
+
+    public void setPoolIdleTimeout(Integer poolIdleTimeout) {
+        this.poolIdleTimeout = poolIdleTimeout;
+    }
+
+    public Integer getPoolBorrowTimeout() {
+        return poolBorrowTimeout;
+    }
+
+    public void setPoolBorrowTimeout(Integer poolBorrowTimeout) {
+        this.poolBorrowTimeout = poolBorrowTimeout;
+    }
+
+    public Integer getPoolMaxQueuedDeliveries() {
+        return poolMaxQueuedDeliveries;
+    }
+
+    public void setPoolMaxQueuedDeliveries(Integer poolMaxQueuedDeliveries) {
+        this.poolMaxQueuedDeliveries = poolMaxQueuedDeliveries;
+    }
+
+    public Integer getMaxMessagesPerSecond() {
+        return maxMessagesPerSecond;
+    }
+
+    public void setMaxMessagesPerSecond(Integer maxMessagesPerSecond) {
+        this.maxMessagesPerSecond = maxMessagesPerSecond;
+    }
+
+    public Integer getMaxRecipientsPerSecond() {
+        return maxRecipientsPerSecond;
+    }
+
+    public void setMaxRecipientsPerSecond(Integer maxRecipientsPerSecond) {
+        this.maxRecipientsPerSecond = maxRecipientsPerSecond;
+    }
+
+    public Integer getMaxBytesPerSecond() {
+        return maxBytesPerSecond;
+    }
+
+    public void setMaxBytesPerSecond(Integer maxBytesPerSecond) {
+        this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    public Integer getDomainMaxConnections() {
+        return domainMaxConnections;
+    }
+
+    public void setDomainMaxConnections(Integer domainMaxConnections) {
+        this.domainMaxConnections = domainMaxConnections;
+    }
+
+    public Integer getDomainMaxMessagesPerSecond() {
+        return domainMaxMessagesPerSecond;
+    }
+
+    public void setDomainMaxMessagesPerSecond(Integer domainMaxMessagesPerSecond) {
+        this.domainMaxMessagesPerSecond = domainMaxMessagesPerSecond;
+    }
+
+    public HostSelectionPolicy getHostSelection() {
+        return hostSelection;
+    }
+
+    public void setHostSelection(HostSelectionPolicy hostSelection) {
+        this.hostSelection = hostSelection;
+    }
+
+    public Integer getHostEjectionTime() {
+        return hostEjectionTime;
+    }
+
+    public void setHostEjectionTime(Integer hostEjectionTime) {
+        this.hostEjectionTime = hostEjectionTime;
+    }
+
+    public String getSpoolDirectory() {
+        return spoolDirectory;
+    }
+
+    public void setSpoolDirectory(String spoolDirectory) {
+        this.spoolDirectory = spoolDirectory;
+    }
+
+    public Integer getSpoolMaxAttempts() {
+        return spoolMaxAttempts;
+    }
+
+    public void setSpoolMaxAttempts(Integer spoolMaxAttempts) {
+        this.spoolMaxAttempts = spoolMaxAttempts;
+    }
+
+    public Integer getSpoolRetryInterval() {
+        return spoolRetryInterval;
+    }
+
+    public void setSpoolRetryInterval(Integer spoolRetryInterval) {
+        this.spoolRetryInterval = spoolRetryInterval;
+    }
+
+    public Integer getIdempotencyWindow() {
+        return idempotencyWindow;
+    }
+
+    public void setIdempotencyWindow(Integer idempotencyWindow) {
+        this.idempotencyWindow = idempotencyWindow;
+    }
+
+    public Integer getIdempotencyMaxKeys() {
+        return idempotencyMaxKeys;
+    }
+
+    public void setIdempotencyMaxKeys(Integer idempotencyMaxKeys) {
+        this.idempotencyMaxKeys = idempotencyMaxKeys;
+    }
+
+    public String getIdempotencyStoreFile() {
+        return idempotencyStoreFile;
+    }
+
+    public void setIdempotencyStoreFile(String idempotencyStoreFile) {
+        this.idempotencyStoreFile = idempotencyStoreFile;
+    }
+
+    public Integer getAttachmentCacheSize() {
+        return attachmentCacheSize;
+    }
+
+    public void setAttachmentCacheSize(Integer attachmentCacheSize) {
+        this.attachmentCacheSize = attachmentCacheSize;
+    }
+
+    public Boolean getAttachmentCacheOffHeap() {
+        return attachmentCacheOffHeap;
+    }
+
+    public void setAttachmentCacheOffHeap(Boolean attachmentCacheOffHeap) {
+        this.attachmentCacheOffHeap = attachmentCacheOffHeap;
+    }
+
+    public Boolean getAttachmentCacheEncoded() {
+        return attachmentCacheEncoded;
+    }
+
+    public void setAttachmentCacheEncoded(Boolean attachmentCacheEncoded) {
+        this.attachmentCacheEncoded = attachmentCacheEncoded;
+    }
+
+    public Integer getAttachmentLoadThreads() {
+        return attachmentLoadThreads;
+    }
+
+    public void setAttachmentLoadThreads(Integer attachmentLoadThreads) {
+        this.attachmentLoadThreads = attachmentLoadThreads;
+    }
+
+    public Integer getAttachmentLoadMaxInFlightBytes() {
+        return attachmentLoadMaxInFlightBytes;
+    }
+
+    public void setAttachmentLoadMaxInFlightBytes(Integer attachmentLoadMaxInFlightBytes) {
+        this.attachmentLoadMaxInFlightBytes = attachmentLoadMaxInFlightBytes;
+    }
 }
@@ -0,0 +1,169 @@
+package com.reedelk.mail.component;
+
+import com.reedelk.mail.internal.MailSessionService;
+import com.reedelk.mail.internal.attribute.SMTPBulkAttributes;
+import com.reedelk.mail.internal.exception.MailMessageConfigurationException;
+import com.reedelk.mail.internal.smtp.attachment.StreamAttachments;
+import com.reedelk.mail.internal.smtp.bulk.BulkMailBuilder;
+import com.reedelk.mail.internal.smtp.bulk.BulkMailResult;
+import com.reedelk.mail.internal.smtp.transport.SMTPBulkTransport;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPool;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPoolService;
+import com.reedelk.runtime.api.annotation.*;
+import com.reedelk.runtime.api.component.ProcessorSync;
+import com.reedelk.runtime.api.converter.ConverterService;
+import com.reedelk.runtime.api.flow.FlowContext;
+import com.reedelk.runtime.api.message.Message;
+import com.reedelk.runtime.api.message.MessageAttributes;
+import com.reedelk.runtime.api.message.MessageBuilder;
+import com.reedelk.runtime.api.script.ScriptEngineService;
+import com.reedelk.runtime.api.script.dynamicvalue.DynamicString;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ServiceScope;
+
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.BULK_MAIL_NOT_MAP;
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.BULK_PAYLOAD_NOT_LIST;
+import static com.reedelk.runtime.api.commons.ComponentPrecondition.Configuration.requireNotNull;
+
+@ModuleComponent("Mail Bulk Send (SMTP)")
+@ComponentOutput(
+        attributes = SMTPBulkAttributes.class,
+        payload = List.class,
+        description = "The list of mail messages given as input.")
+@ComponentInput(
+        payload = List.class,
+        description = "The list of mail messages to send. Each mail message is a map with the following keys: " +
+                "'from', 'to', 'cc', 'bcc', 'replyTo', 'subject', 'body', 'charset', 'contentType' and 'attachments'.")
+@Description("Sends a list of emails using SMTP or SMTPs over a single connection. " +
+        "Each mail message is defined by a map, e.g: " +
+        "<code>{'to': 'to@domain.com', 'subject': 'My subject', 'body': 'My body'}</code>. " +
+        "A mail message which could not be sent does not stop the sending of the following ones: " +
+        "the outcome of each mail message is available in the 'results' output attribute.")
+@Component(service = SMTPMailBulkSend.class, scope = ServiceScope.PROTOTYPE)
+public class SMTPMailBulkSend implements ProcessorSync {
+
+    @DialogTitle("SMTP Connection")
+    @Property("SMTP Connection")
+    private SMTPConfiguration connection;
+
+    @Property("Default From address")
+    @Hint("from@domain.com")
+    @Description("Sets the source address to be used for the mail messages not defining the 'from' key. " +
+            "It can be a static or a dynamic expression.")
+    @Example("<ul>" +
+            "<li>Static string: from@domain.com</li>" +
+            "<li>Config property: ${my.source.email.config.property}</li>" +
+            "</ul>")
+    private DynamicString from;
+
+    @Reference
+    ScriptEngineService scriptService;
+    @Reference
+    ConverterService converterService;
+    @Reference
+    MailSessionService sessionService;
+    @Reference
+    SMTPTransportPoolService transportPoolService;
+
+    private Session session;
+    private SMTPTransportPool transportPool;
+
+    @Override
+    public void initialize() {
+        requireNotNull(SMTPMailBulkSend.class, connection, "SMTP Configuration is not defined.");
+        session = sessionService.acquire(connection);
+        transportPool = transportPoolService.acquire(connection, session);
+    }
+
+    @Override
+    public Message apply(FlowContext flowContext, Message message) {
+        Object payload = message.payload();
+        if (!(payload instanceof List)) {
+            String type = payload == null ? null : payload.getClass().getName();
+            throw new MailMessageConfigurationException(BULK_PAYLOAD_NOT_LIST.format(type));
+        }
+
+        String defaultFrom = scriptService.evaluate(from, flowContext, message).orElse(null);
+
+        List<?> mails = (List<?>) payload;
+        List<BulkMailResult> results = new ArrayList<>();
+
+        try (SMTPBulkTransport transport = transportPool.bulk()) {
+            for (int index = 0; index < mails.size(); index++) {
+                results.add(send(transport, mails.get(index), index, defaultFrom));
+            }
+        }
+
+        MessageAttributes attributes = new SMTPBulkAttributes(results);
+
+        return MessageBuilder.get(SMTPMailBulkSend.class)
+                .withJavaObject(payload)
+                .attributes(attributes)
+                .build();
+    }
+
+    @Override
+    public void dispose() {
+        if (transportPool != null) {
+            transportPoolService.release(transportPool);
+            transportPool = null;
+        }
+        if (session != null) {
+            sessionService.release(session);
+            session = null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private BulkMailResult send(SMTPBulkTransport transport, Object mail, int index, String defaultFrom) {
+        long start = System.currentTimeMillis();
+        try {
+            if (!(mail instanceof Map)) {
+                String type = mail == null ? null : mail.getClass().getName();
+                throw new MailMessageConfigurationException(BULK_MAIL_NOT_MAP.format(index, type));
+            }
+
+            MimeMessage mimeMessage = BulkMailBuilder.get((Map<String, Object>) mail, index)
+                    .converter(converterService)
+                    .scriptService(scriptService)
+                    .defaultFrom(defaultFrom)
+                    .session(session)
+                    .build();
+
+            try {
+                transport.send(mimeMessage);
+            } finally {
+                StreamAttachments.close(mimeMessage);
+            }
+
+            return BulkMailResult.accepted(index, mimeMessage.getMessageID(), System.currentTimeMillis() - start);
+
+        } catch (Exception exception) {
+            // A mail message which could not be sent must not prevent the following ones from being sent.
+            return BulkMailResult.rejected(index, System.currentTimeMillis() - start, exception.getMessage());
+        }
+    }
+
+    public SMTPConfiguration getConnection() {
+        return connection;
+    }
+
+    public void setConnection(SMTPConfiguration connection) {
+        this.connection = connection;
+    }
+
+    public DynamicString getFrom() {
+        return from;
+    }
+
+    public void setFrom(DynamicString from) {
+        this.from = from;
+    }
+}
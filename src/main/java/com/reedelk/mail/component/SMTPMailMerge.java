@@ -0,0 +1,344 @@
+package com.reedelk.mail.component;
+
+import com.reedelk.mail.component.smtp.AttachmentDefinition;
+import com.reedelk.mail.component.smtp.BodyDefinition;
+import com.reedelk.mail.internal.MailSessionService;
+import com.reedelk.mail.internal.attribute.SMTPMailMergeAttributes;
+import com.reedelk.mail.internal.commons.Defaults;
+import com.reedelk.mail.internal.exception.MailMessageConfigurationException;
+import com.reedelk.mail.internal.smtp.MailAttachmentBuilder;
+import com.reedelk.mail.internal.smtp.attachment.cache.AttachmentCache;
+import com.reedelk.mail.internal.smtp.attachment.cache.AttachmentCacheService;
+import com.reedelk.mail.internal.smtp.attachment.loader.AttachmentLoader;
+import com.reedelk.mail.internal.smtp.attachment.loader.AttachmentLoaderService;
+import com.reedelk.mail.internal.smtp.merge.MailMerge;
+import com.reedelk.mail.internal.smtp.merge.MailMergeAttachments;
+import com.reedelk.mail.internal.smtp.merge.MailMergeResult;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPool;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPoolService;
+import com.reedelk.runtime.api.annotation.*;
+import com.reedelk.runtime.api.component.ProcessorSync;
+import com.reedelk.runtime.api.converter.ConverterService;
+import com.reedelk.runtime.api.flow.FlowContext;
+import com.reedelk.runtime.api.message.Message;
+import com.reedelk.runtime.api.message.MessageAttributes;
+import com.reedelk.runtime.api.message.MessageBuilder;
+import com.reedelk.runtime.api.message.content.MimeType;
+import com.reedelk.runtime.api.script.ScriptEngineService;
+import com.reedelk.runtime.api.script.dynamicvalue.DynamicString;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ServiceScope;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.*;
+import static com.reedelk.runtime.api.commons.ComponentPrecondition.Configuration.requireNotNull;
+import static com.reedelk.runtime.api.commons.ComponentPrecondition.Configuration.requireNotNullOrBlank;
+import static com.reedelk.runtime.api.commons.StringUtils.isBlank;
+import static java.util.stream.Collectors.toList;
+
+@ModuleComponent("Mail Merge Send (SMTP)")
+@ComponentOutput(
+        attributes = SMTPMailMergeAttributes.class,
+        payload = List.class,
+        description = "The list of recipient records given as input.")
+@ComponentInput(
+        payload = List.class,
+        description = "The list of recipient records. Each record is a map with the 'to' address of the recipient " +
+                "and the values of the template fields, e.g: <code>{'to': 'john@domain.com', 'name': 'John'}</code>.")
+@Description("Sends a personalized email to each recipient record of a list using SMTP or SMTPs. " +
+        "The subject and the body are templates with placeholders, e.g. <code>Dear {{name}}</code>, " +
+        "filled in with the fields of each recipient record. The templates and the attachments are evaluated " +
+        "once for all the recipients, and the emails are delivered in parallel over the pooled connections. " +
+        "An email which could not be sent does not stop the sending of the following ones: " +
+        "the outcome of each recipient is available in the 'results' output attribute.")
+@Component(service = SMTPMailMerge.class, scope = ServiceScope.PROTOTYPE)
+public class SMTPMailMerge implements ProcessorSync {
+
+    @DialogTitle("SMTP Connection")
+    @Property("SMTP Connection")
+    private SMTPConfiguration connection;
+
+    @Property("From address")
+    @Hint("from@domain.com")
+    @Description("Sets the source address to be used in the emails. " +
+            "It can be a static or a dynamic expression.")
+    @Example("<ul>" +
+            "<li>Static string: from@domain.com</li>" +
+            "<li>Config property: ${my.source.email.config.property}</li>" +
+            "</ul>")
+    private DynamicString from;
+
+    @Property("Subject Template")
+    @Hint("Hello {{name}}")
+    @Example("Your order {{orderId}} has been shipped")
+    @Description("Sets the subject template of the emails. Placeholders, e.g. <code>{{name}}</code>, " +
+            "are replaced with the fields of each recipient record.")
+    private DynamicString subject;
+
+    @Property("Body Template")
+    @Group("Body")
+    @Description("Sets the body template of the emails. Placeholders, e.g. <code>{{name}}</code>, " +
+            "are replaced with the fields of each recipient record.")
+    private BodyDefinition body;
+
+    @Property("Attachments")
+    @Group("Attachments")
+    @TabGroup("Attachments List")
+    @ListDisplayProperty("name")
+    @DialogTitle("Attachment Configuration")
+    @Description("The attachments sent to all the recipients: they are encoded once.")
+    private List<AttachmentDefinition> attachments = new ArrayList<>();
+
+    @Property("Max In-Flight")
+    @Hint("100")
+    @Example("500")
+    @DefaultValue("100")
+    @Group("Delivery")
+    @Description("The maximum number of emails waiting to be delivered: when reached, " +
+            "the following emails are built only once some of the in-flight ones have been delivered.")
+    private Integer maxInFlight;
+
+    @Reference
+    ScriptEngineService scriptService;
+    @Reference
+    ConverterService converterService;
+    @Reference
+    MailSessionService sessionService;
+    @Reference
+    SMTPTransportPoolService transportPoolService;
+    @Reference
+    AttachmentCacheService attachmentCacheService;
+    @Reference
+    AttachmentLoaderService attachmentLoaderService;
+
+    private Session session;
+    private Semaphore inFlight;
+    private SMTPTransportPool transportPool;
+    private AttachmentCache attachmentCache;
+    private AttachmentLoader attachmentLoader;
+
+    @Override
+    public void initialize() {
+        requireNotNull(SMTPMailMerge.class, connection, "SMTP Configuration is not defined.");
+        requireNotNullOrBlank(SMTPMailMerge.class, from, "'From' must not be blank");
+        requireNotNull(SMTPMailMerge.class, body, "'Body Template' must not be empty");
+        requireNotNullOrBlank(SMTPMailMerge.class, body.getContent(), "'Body Template' must not be empty");
+        session = sessionService.acquire(connection);
+        transportPool = transportPoolService.acquire(connection, session);
+        attachmentCache = attachmentCacheService.acquire(connection);
+        attachmentLoader = attachmentLoaderService.acquire(connection);
+        inFlight = new Semaphore(Optional.ofNullable(maxInFlight).orElse(Defaults.MailMerge.MAX_IN_FLIGHT));
+    }
+
+    @Override
+    public Message apply(FlowContext flowContext, Message message) {
+        Object payload = message.payload();
+        if (!(payload instanceof Iterable)) {
+            String type = payload == null ? null : payload.getClass().getName();
+            throw new MailMessageConfigurationException(MERGE_PAYLOAD_NOT_LIST.format(type));
+        }
+
+        MailMerge merge = mailMergeOf(flowContext, message);
+
+        long start = System.currentTimeMillis();
+
+        List<CompletableFuture<MailMergeResult>> deliveries = new ArrayList<>();
+        int index = 0;
+        for (Object record : (Iterable<?>) payload) {
+            deliveries.add(send(merge, record, index++));
+        }
+
+        List<MailMergeResult> results = deliveries.stream()
+                .map(CompletableFuture::join)
+                .collect(toList());
+
+        MessageAttributes attributes = new SMTPMailMergeAttributes(results, System.currentTimeMillis() - start);
+
+        return MessageBuilder.get(SMTPMailMerge.class)
+                .withJavaObject(payload)
+                .attributes(attributes)
+                .build();
+    }
+
+    @Override
+    public void dispose() {
+        if (attachmentCache != null) {
+            attachmentCacheService.release(attachmentCache);
+            attachmentCache = null;
+        }
+        if (attachmentLoader != null) {
+            attachmentLoaderService.release(attachmentLoader);
+            attachmentLoader = null;
+        }
+        if (transportPool != null) {
+            transportPoolService.release(transportPool);
+            transportPool = null;
+        }
+        if (session != null) {
+            sessionService.release(session);
+            session = null;
+        }
+    }
+
+    private MailMerge mailMergeOf(FlowContext flowContext, Message message) {
+        try {
+            String evaluatedFrom = scriptService.evaluate(from, flowContext, message)
+                    .orElseThrow(() -> new MailMessageConfigurationException(FROM_ERROR.format(from.toString())));
+            String evaluatedSubject = scriptService.evaluate(subject, flowContext, message).orElse(null);
+            String evaluatedBody = scriptService.evaluate(body.getContent(), flowContext, message)
+                    .orElseThrow(() -> new MailMessageConfigurationException(MAIL_BODY_EMPTY_ERROR.format()));
+
+            MailMergeAttachments mergeAttachments = new MailMergeAttachments();
+            List<ByteBuffer> encodedAttachments;
+            try {
+                MailAttachmentBuilder.get(mergeAttachments)
+                        .message(message)
+                        .context(flowContext)
+                        .attachments(attachments)
+                        .converter(converterService)
+                        .scriptEngine(scriptService)
+                        .cache(attachmentCache)
+                        .loader(attachmentLoader)
+                        .build();
+                encodedAttachments = mergeAttachments.encoded();
+            } finally {
+                mergeAttachments.close();
+            }
+
+            return MailMerge.create()
+                    .session(session)
+                    .from(evaluatedFrom)
+                    .subject(evaluatedSubject)
+                    .body(evaluatedBody)
+                    .charset(isBlank(body.getCharset()) ? StandardCharsets.UTF_8.toString() : body.getCharset())
+                    .html(isHtml(body.getContentType()))
+                    .attachments(encodedAttachments)
+                    .build();
+
+        } catch (MailMessageConfigurationException exception) {
+            throw exception;
+        } catch (Exception exception) {
+            throw new MailMessageConfigurationException(MAIL_MESSAGE_ERROR.format(exception.getMessage()), exception);
+        }
+    }
+
+    // The content type might have parameters, e.g: 'text/html; charset=UTF-8'.
+    private static boolean isHtml(String contentType) {
+        if (isBlank(contentType)) return false;
+        MimeType mimeType = MimeType.parse(contentType);
+        MimeType html = MimeType.TEXT_HTML;
+        return html.getPrimaryType().equalsIgnoreCase(mimeType.getPrimaryType()) &&
+                html.getSubType().equalsIgnoreCase(mimeType.getSubType());
+    }
+
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<MailMergeResult> send(MailMerge merge, Object record, int index) {
+        long start = System.currentTimeMillis();
+        String to = null;
+        try {
+            if (!(record instanceof Map)) {
+                String type = record == null ? null : record.getClass().getName();
+                throw new MailMessageConfigurationException(MERGE_RECORD_NOT_MAP.format(index, type));
+            }
+
+            Map<String, Object> fields = (Map<String, Object>) record;
+            to = fields.get(MailMerge.TO) == null ? null : fields.get(MailMerge.TO).toString();
+
+            MimeMessage mimeMessage = merge.messageFor(fields, index);
+
+            acquireInFlight(index);
+
+            String recipient = to;
+            return transportPool.sendAsync(mimeMessage).handle((unused, throwable) -> {
+                inFlight.release();
+                long latency = System.currentTimeMillis() - start;
+                return throwable == null ?
+                        MailMergeResult.accepted(index, recipient, messageIdOf(mimeMessage), latency) :
+                        MailMergeResult.rejected(index, recipient, latency, throwable.getMessage());
+            });
+
+        } catch (Exception exception) {
+            // A recipient which could not be sent must not prevent the following ones from being sent.
+            return CompletableFuture.completedFuture(
+                    MailMergeResult.rejected(index, to, System.currentTimeMillis() - start, exception.getMessage()));
+        }
+    }
+
+    // Bounds the messages built and not delivered yet: the flow waits for the deliveries to catch up.
+    private void acquireInFlight(int index) throws MessagingException {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException(MERGE_INTERRUPTED.format(index), exception);
+        }
+    }
+
+    private static String messageIdOf(MimeMessage mimeMessage) {
+        try {
+            return mimeMessage.getMessageID();
+        } catch (MessagingException exception) {
+            return null;
+        }
+    }
+
+    public SMTPConfiguration getConnection() {
+        return connection;
+    }
+
+    public void setConnection(SMTPConfiguration connection) {
+        this.connection = connection;
+    }
+
+    public DynamicString getFrom() {
+        return from;
+    }
+
+    public void setFrom(DynamicString from) {
+        this.from = from;
+    }
+
+    public DynamicString getSubject() {
+        return subject;
+    }
+
+    public void setSubject(DynamicString subject) {
+        this.subject = subject;
+    }
+
+    public BodyDefinition getBody() {
+        return body;
+    }
+
+    public void setBody(BodyDefinition body) {
+        this.body = body;
+    }
+
+    public List<AttachmentDefinition> getAttachments() {
+        return attachments;
+    }
+
+    public void setAttachments(List<AttachmentDefinition> attachments) {
+        this.attachments = attachments;
+    }
+
+    public Integer getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void setMaxInFlight(Integer maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+}
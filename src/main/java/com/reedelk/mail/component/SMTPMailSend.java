@@ -2,9 +2,20 @@ package com.reedelk.mail.component;
 
 import com.reedelk.mail.component.smtp.AttachmentDefinition;
 import com.reedelk.mail.component.smtp.BodyDefinition;
+import com.reedelk.mail.component.smtp.InlineImageDefinition;
+import com.reedelk.mail.internal.MailSessionService;
 import com.reedelk.mail.internal.attribute.SMTPAttributes;
 import com.reedelk.mail.internal.exception.MailMessageConfigurationException;
-import com.reedelk.mail.internal.smtp.type.MailTypeFactory;
+import com.reedelk.mail.internal.smtp.attachment.StreamAttachments;
+import com.reedelk.mail.internal.smtp.attachment.cache.AttachmentCacheService;
+import com.reedelk.mail.internal.smtp.attachment.loader.AttachmentLoaderService;
+import com.reedelk.mail.internal.smtp.dispatch.Priority;
+import com.reedelk.mail.internal.smtp.idempotency.IdempotencyStore;
+import com.reedelk.mail.internal.smtp.idempotency.IdempotencyStoreService;
+import com.reedelk.mail.internal.smtp.spool.MailSpool;
+import com.reedelk.mail.internal.smtp.spool.SMTPSpoolService;
+import com.reedelk.mail.internal.smtp.transport.EnvelopeResult;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPoolService;
 import com.reedelk.mail.internal.smtp.type.MailTypeStrategyResult;
 import com.reedelk.runtime.api.annotation.*;
 import com.reedelk.runtime.api.component.ProcessorSync;
@@ -16,16 +27,27 @@ import com.reedelk.runtime.api.message.MessageBuilder;
 import com.reedelk.runtime.api.script.ScriptEngineService;
 import com.reedelk.runtime.api.script.dynamicvalue.DynamicObject;
 import com.reedelk.runtime.api.script.dynamicvalue.DynamicString;
+import org.apache.commons.mail.EmailException;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ServiceScope;
 
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.io.IOException;
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.ENVELOPES_REJECTED;
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.IDEMPOTENCY_KEY_EMPTY;
 import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.MAIL_MESSAGE_ERROR;
-import static com.reedelk.runtime.api.commons.ComponentPrecondition.Configuration.requireNotNull;
-import static com.reedelk.runtime.api.commons.ComponentPrecondition.Configuration.requireNotNullOrBlank;
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.SPOOL_WRITE_ERROR;
+import static com.reedelk.runtime.api.commons.ComponentPrecondition.Configuration.requireTrue;
+import static com.reedelk.runtime.api.commons.StringUtils.isBlank;
 
 @ModuleComponent("Mail Send (SMTP)")
 @ComponentOutput(
@@ -40,7 +62,7 @@ import static com.reedelk.runtime.api.commons.ComponentPrecondition.Configuratio
         "Attachments might come from different sources such as " +
         "filesystem files, project resources or evaluated script expressions.")
 @Component(service = SMTPMailSend.class, scope = ServiceScope.PROTOTYPE)
-public class SMTPMailSend implements ProcessorSync {
+public class SMTPMailSend extends AbstractSMTPMailSend implements ProcessorSync {
 
     @DialogTitle("SMTP Connection")
     @Property("SMTP Connection")
@@ -123,33 +145,132 @@ public class SMTPMailSend implements ProcessorSync {
     @DialogTitle("Attachment Configuration")
     private List<AttachmentDefinition> attachments = new ArrayList<>();
 
+    @Property("Inline Images")
+    @Group("Inline Images")
+    @TabGroup("Inline Images List")
+    @ListDisplayProperty("source")
+    @DialogTitle("Inline Image Configuration")
+    @Description("The project resource images embedded in HTML bodies: each image referenced by its source, " +
+            "e.g. <code>&lt;img src=\"logo.png\"&gt;</code>, is sent as an inline part of the email.")
+    private List<InlineImageDefinition> inlineImages = new ArrayList<>();
+
+    @Property("Inline Images Directory")
+    @Hint("/var/mail/images")
+    @Example("/var/mail/images")
+    @Group("Inline Images")
+    @Description("The directory on the filesystem the images referenced by HTML bodies are read from, " +
+            "when they are not defined as inline images. The sources are relative to this directory, " +
+            "and images outside of it are never embedded. If empty, only the inline images defined above are embedded.")
+    private String inlineImagesDirectory;
+
+    @Property("Priority")
+    @Hint("NORMAL")
+    @Example("<ul>" +
+            "<li>Static string: HIGH</li>" +
+            "<li>Dynamic: <code>message.attributes().transactional ? 'HIGH' : 'LOW'</code></li>" +
+            "</ul>")
+    @Group("Delivery")
+    @Description("The priority of the email when it waits for a connection of the SMTP Connection pool: " +
+            "HIGH, NORMAL or LOW. The emails waiting are given the connections freed up in proportion to " +
+            "their priority, the emails with lower priorities still being sent. Not applied to spooled emails. " +
+            "If empty, the priority is NORMAL.")
+    private DynamicString priority;
+
+    @Property("Spool")
+    @Example("true")
+    @DefaultValue("false")
+    @Group("Delivery")
+    @Description("If true the email is stored in a durable spool on the local disk before being sent: " +
+            "the flow continues as soon as the email has been stored, and the email is delivered in the background. " +
+            "Failed deliveries are retried, and emails not delivered yet are sent again after a restart. " +
+            "The spool location and retry policy are defined in the SMTP Connection.")
+    private Boolean spool;
+
+    @Property("Max Recipients Per Envelope")
+    @Hint("100")
+    @Example("500")
+    @DefaultValue("0")
+    @Group("Delivery")
+    @Description("If the email has more recipients (to, cc and bcc) than this number, it is sent in several envelopes, " +
+            "each one with at most this number of recipients. The email is rendered once and its envelopes are sent " +
+            "in parallel over the pooled connections. The outcome of each envelope is available in the 'envelopes' " +
+            "output attribute: an error is raised only if none of the envelopes could be sent. " +
+            "Not applied to spooled emails. If 0, the email is always sent in a single envelope.")
+    private Integer maxRecipientsPerEnvelope;
+
+    @Property("Idempotency Key")
+    @Hint("#[message.attributes().orderId]")
+    @Example("<code>'password-reset-' + context.requestId</code>")
+    @Group("Delivery")
+    @Description("If set, an email is not sent again when an email with the same key has already been sent " +
+            "within the idempotency window of the SMTP Connection, e.g. when a flow is retried after a timeout: " +
+            "the output attributes recorded when the first email was sent are returned instead, " +
+            "together with the input payload. If empty, the email is always sent.")
+    private DynamicString idempotencyKey;
+
+    @Property("Idempotency Namespace")
+    @Hint("order-confirmation")
+    @Example("password-reset")
+    @Group("Delivery")
+    @Description("The namespace of the idempotency keys of this component: a key only matches the keys of " +
+            "the emails sent with the same namespace and SMTP Connection, so that different emails sent with " +
+            "e.g. the same order id are all sent. Mandatory if the idempotency key is set.")
+    private String idempotencyNamespace;
+
     @Reference
     ScriptEngineService scriptService;
     @Reference
     ConverterService converterService;
+    @Reference
+    MailSessionService sessionService;
+    @Reference
+    SMTPTransportPoolService transportPoolService;
+    @Reference
+    AttachmentCacheService attachmentCacheService;
+    @Reference
+    AttachmentLoaderService attachmentLoaderService;
+    @Reference
+    SMTPSpoolService spoolService;
+    @Reference
+    IdempotencyStoreService idempotencyStoreService;
+
+    private MailSpool mailSpool;
+    private IdempotencyStore idempotencyStore;
 
     @Override
     public void initialize() {
-        requireNotNull(SMTPMailSend.class, connection, "SMTP Configuration is not defined.");
-        requireNotNullOrBlank(SMTPMailSend.class, from, "'From' must not be blank");
-        requireNotNullOrBlank(SMTPMailSend.class, to, "'To' must not be blank");
+        super.initialize();
+        if (Boolean.TRUE.equals(spool)) {
+            mailSpool = spoolService.acquire(connection, getSession(), transportPoolService);
+        }
+        if (idempotencyKey != null && !isBlank(idempotencyKey.value())) {
+            requireTrue(SMTPMailSend.class, !isBlank(idempotencyNamespace),
+                    "'Idempotency Namespace' must not be blank when an idempotency key is set");
+            idempotencyStore = idempotencyStoreService.acquire(connection);
+        }
     }
 
     @Override
     public Message apply(FlowContext flowContext, Message message) {
         try {
 
-            MailTypeStrategyResult result = MailTypeFactory
-                    .from(this, converterService)
-                    .create(flowContext, message);
+            if (idempotencyStore == null) return send(flowContext, message);
 
-            result.email.send();
+            String key = scriptService.evaluate(idempotencyKey, flowContext, message)
+                    .filter(value -> !isBlank(value))
+                    .orElseThrow(() -> new MailMessageConfigurationException(IDEMPOTENCY_KEY_EMPTY.format(idempotencyKey.toString())));
 
-            MessageAttributes attributes = new SMTPAttributes(result.email);
+            Message[] sent = new Message[1];
+            Map<String, Serializable> recorded = idempotencyStore.sendOnce(idempotencyNamespace, key, () -> {
+                sent[0] = send(flowContext, message);
+                return sent[0].getAttributes();
+            });
+            if (sent[0] != null) return sent[0];
 
+            // Already sent with the same key: the email is not built nor sent again.
             return MessageBuilder.get(SMTPMailSend.class)
-                    .withString(result.text, result.mimeType)
-                    .attributes(attributes)
+                    .withJavaObject(message.payload())
+                    .attributes(new SMTPAttributes(recorded))
                     .build();
 
         } catch (MailMessageConfigurationException exception) {
@@ -159,6 +280,82 @@ public class SMTPMailSend implements ProcessorSync {
         }
     }
 
+    @Override
+    public void dispose() {
+        if (idempotencyStore != null) {
+            idempotencyStoreService.release(idempotencyStore);
+            idempotencyStore = null;
+        }
+        if (mailSpool != null) {
+            spoolService.release(mailSpool);
+            mailSpool = null;
+        }
+        super.dispose();
+    }
+
+    private Message send(FlowContext flowContext, Message message) throws EmailException, MessagingException, IOException {
+        MailTypeStrategyResult result = build(flowContext, message);
+
+        MimeMessage mimeMessage = result.email.getMimeMessage();
+        List<EnvelopeResult> envelopes = Collections.emptyList();
+        try {
+            if (mailSpool != null) {
+                spool(mimeMessage);
+            } else if (isSplit(mimeMessage)) {
+                envelopes = sendEnvelopes(mimeMessage, priority(flowContext, message));
+            } else {
+                envelopes = transportPool().send(mimeMessage, priority(flowContext, message));
+            }
+        } finally {
+            StreamAttachments.close(mimeMessage);
+        }
+
+        MessageAttributes attributes = new SMTPAttributes(result.email, envelopes);
+        return output(result, attributes);
+    }
+
+    private boolean isSplit(MimeMessage mimeMessage) throws MessagingException {
+        if (maxRecipientsPerEnvelope == null || maxRecipientsPerEnvelope <= 0) return false;
+        Address[] recipients = mimeMessage.getAllRecipients();
+        return recipients != null && recipients.length > maxRecipientsPerEnvelope;
+    }
+
+    private List<EnvelopeResult> sendEnvelopes(MimeMessage mimeMessage, Priority priority) throws MessagingException {
+        List<EnvelopeResult> envelopes = transportPool().sendEnvelopes(mimeMessage, maxRecipientsPerEnvelope, priority);
+        if (envelopes.stream().noneMatch(EnvelopeResult::isAccepted)) {
+            throw new MailMessageConfigurationException(ENVELOPES_REJECTED.format(envelopes.get(0).getError()));
+        }
+        return envelopes;
+    }
+
+    @Override
+    protected MailSessionService sessionService() {
+        return sessionService;
+    }
+
+    @Override
+    protected SMTPTransportPoolService transportPoolService() {
+        return transportPoolService;
+    }
+
+    @Override
+    protected AttachmentCacheService attachmentCacheService() {
+        return attachmentCacheService;
+    }
+
+    @Override
+    protected AttachmentLoaderService attachmentLoaderService() {
+        return attachmentLoaderService;
+    }
+
+    private void spool(MimeMessage mimeMessage) throws MessagingException {
+        try {
+            mailSpool.append(mimeMessage);
+        } catch (IOException exception) {
+            throw new MailMessageConfigurationException(SPOOL_WRITE_ERROR.format(exception.getMessage()), exception);
+        }
+    }
+
     public SMTPConfiguration getConnection() {
         return connection;
     }
@@ -239,6 +436,30 @@ public class SMTPMailSend implements ProcessorSync {
         this.attachments = attachments;
     }
 
+    public List<InlineImageDefinition> getInlineImages() {
+        return inlineImages;
+    }
+
+    public void setInlineImages(List<InlineImageDefinition> inlineImages) {
+        this.inlineImages = inlineImages;
+    }
+
+    public String getInlineImagesDirectory() {
+        return inlineImagesDirectory;
+    }
+
+    public void setInlineImagesDirectory(String inlineImagesDirectory) {
+        this.inlineImagesDirectory = inlineImagesDirectory;
+    }
+
+    public DynamicString getPriority() {
+        return priority;
+    }
+
+    public void setPriority(DynamicString priority) {
+        this.priority = priority;
+    }
+
     public ScriptEngineService getScriptService() {
         return scriptService;
     }
@@ -246,4 +467,36 @@ public class SMTPMailSend implements ProcessorSync {
     public ConverterService getConverterService() {
         return converterService;
     }
+
+    public Boolean getSpool() {
+        return spool;
+    }
+
+    public void setSpool(Boolean spool) {
+        this.spool = spool;
+    }
+
+    public Integer getMaxRecipientsPerEnvelope() {
+        return maxRecipientsPerEnvelope;
+    }
+
+    public void setMaxRecipientsPerEnvelope(Integer maxRecipientsPerEnvelope) {
+        this.maxRecipientsPerEnvelope = maxRecipientsPerEnvelope;
+    }
+
+    public DynamicString getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public void setIdempotencyKey(DynamicString idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    public String getIdempotencyNamespace() {
+        return idempotencyNamespace;
+    }
+
+    public void setIdempotencyNamespace(String idempotencyNamespace) {
+        this.idempotencyNamespace = idempotencyNamespace;
+    }
 }
@@ -0,0 +1,377 @@
+package com.reedelk.mail.component;
+
+import com.reedelk.mail.component.smtp.AttachmentDefinition;
+import com.reedelk.mail.component.smtp.BodyDefinition;
+import com.reedelk.mail.component.smtp.InlineImageDefinition;
+import com.reedelk.mail.internal.MailSessionService;
+import com.reedelk.mail.internal.attribute.SMTPAttributes;
+import com.reedelk.mail.internal.commons.Defaults;
+import com.reedelk.mail.internal.exception.MailMessageConfigurationException;
+import com.reedelk.mail.internal.smtp.attachment.StreamAttachments;
+import com.reedelk.mail.internal.smtp.attachment.cache.AttachmentCacheService;
+import com.reedelk.mail.internal.smtp.attachment.loader.AttachmentLoaderService;
+import com.reedelk.mail.internal.smtp.dispatch.Priority;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPoolService;
+import com.reedelk.mail.internal.smtp.type.MailTypeStrategyResult;
+import com.reedelk.runtime.api.annotation.*;
+import com.reedelk.runtime.api.component.OnResult;
+import com.reedelk.runtime.api.component.ProcessorAsync;
+import com.reedelk.runtime.api.converter.ConverterService;
+import com.reedelk.runtime.api.flow.FlowContext;
+import com.reedelk.runtime.api.message.Message;
+import com.reedelk.runtime.api.script.ScriptEngineService;
+import com.reedelk.runtime.api.script.dynamicvalue.DynamicObject;
+import com.reedelk.runtime.api.script.dynamicvalue.DynamicString;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ServiceScope;
+
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.MAIL_MESSAGE_ERROR;
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.MAX_IN_FLIGHT_EXCEEDED;
+
+@ModuleComponent("Mail Send Async (SMTP)")
+@ComponentOutput(
+        attributes = SMTPAttributes.class,
+        payload = String.class,
+        description = "The text (or HTML) of the Mail message sent.")
+@ComponentInput(
+        payload = String.class,
+        description = "The text (or HTML) of the Mail message to send.")
+@Description("Sends an email using SMTP or SMPTs without blocking the flow while the email is delivered: " +
+        "the email is handed over to a delivery thread and the flow continues once the SMTP server has accepted it. " +
+        "Several attachments can be configured to be sent together in the email. " +
+        "Attachments might come from different sources such as " +
+        "filesystem files, project resources or evaluated script expressions.")
+@Component(service = SMTPMailSendAsync.class, scope = ServiceScope.PROTOTYPE)
+public class SMTPMailSendAsync extends AbstractSMTPMailSend implements ProcessorAsync {
+
+    @DialogTitle("SMTP Connection")
+    @Property("SMTP Connection")
+    private SMTPConfiguration connection;
+
+    @Property("From address")
+    @Hint("from@domain.com")
+    @Description("Sets the source address to be used in the email. " +
+            "It can be a static or a dynamic expression.")
+    @Example("<ul>" +
+            "<li>Static string: from@domain.com</li>" +
+            "<li>Config property: ${my.source.email.config.property}</li>" +
+            "</ul>")
+    private DynamicString from;
+
+    @Property("To addresses")
+    @Hint("toAddress1@domain.com,toAddress2@domain.com,toAddress3@domain.com")
+    @Description("Sets the destination addresses of the email. " +
+            "It can contain a comma separated list of recipients.")
+    @Example("<ul>" +
+            "<li>To string: toAddress1@domain.com,toAddress2@domain.com</li>" +
+            "<li>To joined from list: <code>['toAddress1@domain.com','toAddress2@domain.com'].join(',')</code></li>" +
+            "</ul>")
+    private DynamicString to;
+
+    @Property("Subject")
+    @Hint("My email subject")
+    @Example("An important subject")
+    @Description("Sets the subject to be used in the email.")
+    private DynamicString subject;
+
+    @Property("Content")
+    @Group("Body")
+    private BodyDefinition body;
+
+    @Property("Cc addresses")
+    @Group("Recipients")
+    @Hint("cc1@domain.com,cc2@domain.com,cc3@domain.com")
+    @Description("The 'CC' addresses to be used in the email. " +
+            "It can contain a comma separated list of addresses.")
+    @Example("<ul>" +
+            "<li>Cc string: cc1@domain.com,cc2@domain.com</li>" +
+            "<li>Cc joined from list: <code>['cc1@domain.com','cc2@domain.com'].join(',')</code></li>" +
+            "</ul>")
+    private DynamicString cc;
+
+    @Property("Bcc addresses")
+    @Group("Recipients")
+    @Hint("bcc1@domain.com,bcc2@domain.com,bcc3@domain.com")
+    @Description("The 'BCC' addresses to be used in the email. " +
+            "It can contain a comma separated list of addresses.")
+    @Example("<ul>" +
+            "<li>Bcc string: bcc1@domain.com,bcc2@domain.com</li>" +
+            "<li>Bcc joined from list: <code>['bcc1@domain.com','bcc2@domain.com'].join(',')</code></li>" +
+            "</ul>")
+    private DynamicString bcc;
+
+    @Property("Reply To addresses")
+    @Group("Recipients")
+    @Hint("replyTo1@domain.com,replyTo2@domain.com,replyTo3@domain.com")
+    @Description("The 'Reply To' addresses to be used in the email. " +
+            "It can contain a comma separated list of reply to addresses.")
+    private DynamicString replyTo;
+
+    @Property("Attachments Map")
+    @InitValue("#[]")
+    @Example("<code>context.emailAttachments</code>")
+    @Group("Attachments")
+    @Description("Sets the attachments map to be used as a source of the mail attachments. " +
+            "An attachments map can be created using: " +
+            "<code>" +
+            "{'attachment1': MailAttachmentBuilder.create().text('hello world').filename('my-text.txt').build() }" +
+            "</code>")
+    private DynamicObject attachmentsMap;
+
+    @Property("Attachments")
+    @Group("Attachments")
+    @TabGroup("Attachments List")
+    @ListDisplayProperty("name")
+    @DialogTitle("Attachment Configuration")
+    private List<AttachmentDefinition> attachments = new ArrayList<>();
+
+    @Property("Inline Images")
+    @Group("Inline Images")
+    @TabGroup("Inline Images List")
+    @ListDisplayProperty("source")
+    @DialogTitle("Inline Image Configuration")
+    @Description("The project resource images embedded in HTML bodies: each image referenced by its source, " +
+            "e.g. <code>&lt;img src=\"logo.png\"&gt;</code>, is sent as an inline part of the email.")
+    private List<InlineImageDefinition> inlineImages = new ArrayList<>();
+
+    @Property("Inline Images Directory")
+    @Hint("/var/mail/images")
+    @Example("/var/mail/images")
+    @Group("Inline Images")
+    @Description("The directory on the filesystem the images referenced by HTML bodies are read from, " +
+            "when they are not defined as inline images. The sources are relative to this directory, " +
+            "and images outside of it are never embedded. If empty, only the inline images defined above are embedded.")
+    private String inlineImagesDirectory;
+
+    @Property("Priority")
+    @Hint("NORMAL")
+    @Example("<ul>" +
+            "<li>Static string: HIGH</li>" +
+            "<li>Dynamic: <code>message.attributes().transactional ? 'HIGH' : 'LOW'</code></li>" +
+            "</ul>")
+    @Group("Delivery")
+    @Description("The priority of the email when it waits for a connection of the SMTP Connection pool: " +
+            "HIGH, NORMAL or LOW. The emails waiting are given the connections freed up in proportion to " +
+            "their priority, the emails with lower priorities still being sent. Not applied to spooled emails. " +
+            "If empty, the priority is NORMAL.")
+    private DynamicString priority;
+
+    @Property("Max In-Flight")
+    @Hint("100")
+    @Example("500")
+    @DefaultValue("100")
+    @Group("Delivery")
+    @Description("The maximum number of emails this component accepts for delivery without having " +
+            "received the outcome from the SMTP server yet. When the limit is reached, " +
+            "the flow sending a new email fails instead of waiting for a delivery to complete.")
+    private Integer maxInFlight;
+
+    @Reference
+    ScriptEngineService scriptService;
+    @Reference
+    ConverterService converterService;
+    @Reference
+    MailSessionService sessionService;
+    @Reference
+    SMTPTransportPoolService transportPoolService;
+    @Reference
+    AttachmentCacheService attachmentCacheService;
+    @Reference
+    AttachmentLoaderService attachmentLoaderService;
+
+    private Semaphore inFlight;
+    private int realMaxInFlight;
+
+    @Override
+    public void initialize() {
+        super.initialize();
+        realMaxInFlight = Optional.ofNullable(maxInFlight).orElse(Defaults.AsyncSend.MAX_IN_FLIGHT);
+        inFlight = new Semaphore(realMaxInFlight);
+    }
+
+    @Override
+    public void apply(FlowContext flowContext, Message message, OnResult callback) {
+        MailTypeStrategyResult result;
+        Priority priority;
+        try {
+            // The mail message is built on the flow thread, only the delivery is asynchronous.
+            result = build(flowContext, message);
+            priority = priority(flowContext, message);
+
+        } catch (MailMessageConfigurationException exception) {
+            callback.onError(flowContext, exception);
+            return;
+        } catch (Exception exception) {
+            callback.onError(flowContext, new MailMessageConfigurationException(MAIL_MESSAGE_ERROR.format(exception.getMessage()), exception));
+            return;
+        }
+
+        MimeMessage mimeMessage = result.email.getMimeMessage();
+        if (!inFlight.tryAcquire()) {
+            StreamAttachments.close(mimeMessage);
+            callback.onError(flowContext, new MailMessageConfigurationException(MAX_IN_FLIGHT_EXCEEDED.format(realMaxInFlight)));
+            return;
+        }
+
+        transportPool().sendAsync(mimeMessage, priority).whenComplete((envelopes, throwable) -> {
+            inFlight.release();
+            StreamAttachments.close(mimeMessage);
+
+            if (throwable != null) {
+                // Deliveries complete exceptionally with the exception of the delivery itself, never wrapped (see SMTPTransportPool#sendAsync).
+                Exception exception = (Exception) throwable;
+                callback.onError(flowContext, new MailMessageConfigurationException(MAIL_MESSAGE_ERROR.format(exception.getMessage()), exception));
+                return;
+            }
+
+            callback.onResult(flowContext, output(result, new SMTPAttributes(result.email, envelopes)));
+        });
+    }
+
+    @Override
+    protected MailSessionService sessionService() {
+        return sessionService;
+    }
+
+    @Override
+    protected SMTPTransportPoolService transportPoolService() {
+        return transportPoolService;
+    }
+
+    @Override
+    protected AttachmentCacheService attachmentCacheService() {
+        return attachmentCacheService;
+    }
+
+    @Override
+    protected AttachmentLoaderService attachmentLoaderService() {
+        return attachmentLoaderService;
+    }
+
+    public SMTPConfiguration getConnection() {
+        return connection;
+    }
+
+    public void setConnection(SMTPConfiguration connection) {
+        this.connection = connection;
+    }
+
+    public DynamicString getFrom() {
+        return from;
+    }
+
+    public void setFrom(DynamicString from) {
+        this.from = from;
+    }
+
+    public DynamicString getTo() {
+        return to;
+    }
+
+    public void setTo(DynamicString to) {
+        this.to = to;
+    }
+
+    public DynamicString getSubject() {
+        return subject;
+    }
+
+    public void setSubject(DynamicString subject) {
+        this.subject = subject;
+    }
+
+    public DynamicString getCc() {
+        return cc;
+    }
+
+    public void setCc(DynamicString cc) {
+        this.cc = cc;
+    }
+
+    public DynamicString getBcc() {
+        return bcc;
+    }
+
+    public void setBcc(DynamicString bcc) {
+        this.bcc = bcc;
+    }
+
+    public DynamicString getReplyTo() {
+        return replyTo;
+    }
+
+    public void setReplyTo(DynamicString replyTo) {
+        this.replyTo = replyTo;
+    }
+
+    public BodyDefinition getBody() {
+        return body;
+    }
+
+    public void setBody(BodyDefinition body) {
+        this.body = body;
+    }
+
+    public DynamicObject getAttachmentsMap() {
+        return attachmentsMap;
+    }
+
+    public void setAttachmentsMap(DynamicObject attachmentsMap) {
+        this.attachmentsMap = attachmentsMap;
+    }
+
+    public List<AttachmentDefinition> getAttachments() {
+        return attachments;
+    }
+
+    public void setAttachments(List<AttachmentDefinition> attachments) {
+        this.attachments = attachments;
+    }
+
+    public List<InlineImageDefinition> getInlineImages() {
+        return inlineImages;
+    }
+
+    public void setInlineImages(List<InlineImageDefinition> inlineImages) {
+        this.inlineImages = inlineImages;
+    }
+
+    public String getInlineImagesDirectory() {
+        return inlineImagesDirectory;
+    }
+
+    public void setInlineImagesDirectory(String inlineImagesDirectory) {
+        this.inlineImagesDirectory = inlineImagesDirectory;
+    }
+
+    public DynamicString getPriority() {
+        return priority;
+    }
+
+    public void setPriority(DynamicString priority) {
+        this.priority = priority;
+    }
+
+    public ScriptEngineService getScriptService() {
+        return scriptService;
+    }
+
+    public ConverterService getConverterService() {
+        return converterService;
+    }
+
+    public Integer getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void setMaxInFlight(Integer maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+}
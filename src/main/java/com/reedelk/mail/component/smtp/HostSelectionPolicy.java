@@ -0,0 +1,12 @@
+package com.reedelk.mail.component.smtp;
+
+import com.reedelk.runtime.api.annotation.DisplayName;
+
+public enum HostSelectionPolicy {
+    @DisplayName("Round Robin")
+    ROUND_ROBIN,
+    @DisplayName("Least Outstanding")
+    LEAST_OUTSTANDING,
+    @DisplayName("Latency (EWMA)")
+    LATENCY_EWMA
+}
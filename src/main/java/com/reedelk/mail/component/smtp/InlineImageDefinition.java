@@ -0,0 +1,43 @@
+package com.reedelk.mail.component.smtp;
+
+import com.reedelk.runtime.api.annotation.*;
+import com.reedelk.runtime.api.component.Implementor;
+import com.reedelk.runtime.api.resource.ResourceBinary;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ServiceScope;
+
+@Component(service = InlineImageDefinition.class, scope = ServiceScope.PROTOTYPE)
+public class InlineImageDefinition implements Implementor {
+
+    @Property("Image Source")
+    @Hint("logo.png")
+    @Example("images/logo.png")
+    @Description("The source of the image as referenced in the HTML body, " +
+            "e.g. 'logo.png' for the image <code>&lt;img src=\"logo.png\"&gt;</code>.")
+    private String source;
+
+    @Property("Resource file")
+    // This is because the properties in this object are displayed in a dialog.
+    // Therefore the browse file input field must stretch / shrink according to the dialog size.
+    @WidthAuto
+    @Example("assets/images/logo.png")
+    @HintBrowseFile("Select Image File ...")
+    @Description("The path and name of the image file to be read from the project's resources folder.")
+    private ResourceBinary resourceFile;
+
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    public ResourceBinary getResourceFile() {
+        return resourceFile;
+    }
+
+    public void setResourceFile(ResourceBinary resourceFile) {
+        this.resourceFile = resourceFile;
+    }
+}
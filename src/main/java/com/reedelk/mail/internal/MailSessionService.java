@@ -0,0 +1,104 @@
+package com.reedelk.mail.internal;
+
+import com.reedelk.mail.component.IMAPConfiguration;
+import com.reedelk.mail.component.POP3Configuration;
+import com.reedelk.mail.component.SMTPConfiguration;
+import com.reedelk.mail.internal.imap.IMAPProperties;
+import com.reedelk.mail.internal.pop3.POP3Properties;
+import com.reedelk.mail.internal.smtp.SMTPProperties;
+import org.apache.commons.mail.DefaultAuthenticator;
+import org.osgi.service.component.annotations.Component;
+
+import javax.mail.Session;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+
+import static org.osgi.service.component.annotations.ServiceScope.SINGLETON;
+
+/**
+ * Caches mail sessions so that components referencing the same SMTP, IMAP or POP3 configuration
+ * share a single session instead of building properties and resolving providers for each message.
+ * Sessions are keyed by the content of the configuration: a changed configuration maps to a new
+ * session, while the old one is evicted once the last component using it releases it.
+ */
+@Component(service = MailSessionService.class, scope = SINGLETON, immediate = true)
+public class MailSessionService {
+
+    private final Map<SessionKey, SessionEntry> sessions = new HashMap<>();
+
+    public Session acquire(SMTPConfiguration configuration) {
+        String username = configuration.getUsername();
+        String password = configuration.getPassword();
+        SessionKey key = new SessionKey(new SMTPProperties(configuration), true, username, password);
+        return acquire(key);
+    }
+
+    public Session acquire(IMAPConfiguration configuration) {
+        // IMAP stores are connected with explicit credentials.
+        return acquire(new SessionKey(new IMAPProperties(configuration), false, null, null));
+    }
+
+    public Session acquire(POP3Configuration configuration) {
+        // POP3 stores are connected with explicit credentials.
+        return acquire(new SessionKey(new POP3Properties(configuration), false, null, null));
+    }
+
+    public synchronized void release(Session session) {
+        sessions.values().removeIf(entry -> entry.session == session && --entry.references == 0);
+    }
+
+    private synchronized Session acquire(SessionKey key) {
+        SessionEntry entry = sessions.computeIfAbsent(key, sessionKey -> new SessionEntry(sessionKey.create()));
+        entry.references++;
+        return entry.session;
+    }
+
+    private static class SessionEntry {
+
+        final Session session;
+        int references;
+
+        SessionEntry(Session session) {
+            this.session = session;
+        }
+    }
+
+    private static class SessionKey {
+
+        final Properties properties;
+        final boolean authenticated;
+        final String username;
+        final String password;
+
+        SessionKey(Properties properties, boolean authenticated, String username, String password) {
+            this.properties = properties;
+            this.authenticated = authenticated;
+            this.username = username;
+            this.password = password;
+        }
+
+        Session create() {
+            return authenticated ?
+                    Session.getInstance(properties, new DefaultAuthenticator(username, password)) :
+                    Session.getInstance(properties);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            SessionKey that = (SessionKey) o;
+            return authenticated == that.authenticated &&
+                    properties.equals(that.properties) &&
+                    Objects.equals(username, that.username) &&
+                    Objects.equals(password, that.password);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(properties, authenticated, username, password);
+        }
+    }
+}
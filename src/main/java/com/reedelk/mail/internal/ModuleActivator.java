@@ -1,6 +1,12 @@
 package com.reedelk.mail.internal;
 
 import com.reedelk.mail.internal.script.GlobalFunctions;
+import com.reedelk.mail.internal.smtp.attachment.StreamAttachments;
+import com.reedelk.mail.internal.smtp.attachment.cache.AttachmentCacheService;
+import com.reedelk.mail.internal.smtp.attachment.loader.AttachmentLoaderService;
+import com.reedelk.mail.internal.smtp.idempotency.IdempotencyStoreService;
+import com.reedelk.mail.internal.smtp.spool.SMTPSpoolService;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPoolService;
 import com.reedelk.runtime.api.script.ScriptEngineService;
 import org.osgi.framework.BundleContext;
 import org.osgi.service.component.annotations.Activate;
@@ -17,6 +23,16 @@ public class ModuleActivator {
     private ScriptEngineService scriptEngine;
     @Reference
     private CloseableService closeableService;
+    @Reference
+    private SMTPSpoolService spoolService;
+    @Reference
+    private SMTPTransportPoolService transportPoolService;
+    @Reference
+    private AttachmentCacheService attachmentCacheService;
+    @Reference
+    private AttachmentLoaderService attachmentLoaderService;
+    @Reference
+    private IdempotencyStoreService idempotencyStoreService;
 
     @Activate
     public void start(BundleContext context) {
@@ -31,5 +47,12 @@ public class ModuleActivator {
         // This is needed because other modules using this component might be shutdown
         // only later.
         closeableService.closeAll();
+        // Spools first: their delivery workers use the transport pools.
+        spoolService.closeAll();
+        transportPoolService.closeAll();
+        attachmentCacheService.closeAll();
+        attachmentLoaderService.closeAll();
+        idempotencyStoreService.closeAll();
+        StreamAttachments.closeAll();
     }
 }
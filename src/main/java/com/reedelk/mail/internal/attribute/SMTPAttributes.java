@@ -1,5 +1,6 @@
 package com.reedelk.mail.internal.attribute;
 
+import com.reedelk.mail.internal.smtp.transport.EnvelopeResult;
 import com.reedelk.runtime.api.annotation.Type;
 import com.reedelk.runtime.api.annotation.TypeProperty;
 import com.reedelk.runtime.api.message.MessageAttributes;
@@ -7,8 +8,11 @@ import com.reedelk.runtime.api.type.ListOfString;
 import org.apache.commons.mail.Email;
 
 import javax.mail.internet.InternetAddress;
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import static com.reedelk.mail.internal.attribute.SMTPAttributes.*;
 import static com.reedelk.runtime.api.commons.SerializableUtils.asSerializableList;
@@ -23,6 +27,7 @@ import static java.util.stream.Collectors.toList;
 @TypeProperty(name = REPLY_TO, type = ListOfString.class)
 @TypeProperty(name = SENT_DATE, type = long.class)
 @TypeProperty(name = MESSAGE_NUMBER, type = int.class)
+@TypeProperty(name = ENVELOPES, type = List.class)
 public class SMTPAttributes extends MessageAttributes {
 
     static final String FROM = "from";
@@ -33,8 +38,17 @@ public class SMTPAttributes extends MessageAttributes {
     static final String REPLY_TO = "replyTo";
     static final String SENT_DATE = "sentDate";
     static final String MESSAGE_NUMBER = "messageNumber";
+    static final String ENVELOPES = "envelopes";
 
     public SMTPAttributes(Email mail) {
+        this(mail, Collections.emptyList());
+    }
+
+    /**
+     * The envelopes are not empty only if the mail has been split in several envelopes,
+     * by number of recipients or by recipient domain.
+     */
+    public SMTPAttributes(Email mail, List<EnvelopeResult> envelopes) {
         put(SUBJECT, mail.getSubject());
         put(SENT_DATE, mail.getSentDate().getTime());
         put(MESSAGE_NUMBER, mail.getMimeMessage().getMessageNumber());
@@ -43,6 +57,16 @@ public class SMTPAttributes extends MessageAttributes {
         put(TO, asList(mail.getToAddresses()));
         put(CC, asList(mail.getCcAddresses()));
         put(BCC, asList(mail.getBccAddresses()));
+        put(ENVELOPES, asSerializableList(envelopes.stream()
+                .map(EnvelopeResult::asMap)
+                .collect(toList())));
+    }
+
+    /**
+     * The attributes recorded when a mail with the same idempotency key has been sent.
+     */
+    public SMTPAttributes(Map<String, Serializable> recorded) {
+        putAll(recorded);
     }
 
     private ArrayList<String> asList(List<InternetAddress> addresses) {
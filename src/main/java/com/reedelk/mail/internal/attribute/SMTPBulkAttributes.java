@@ -0,0 +1,32 @@
+package com.reedelk.mail.internal.attribute;
+
+import com.reedelk.mail.internal.smtp.bulk.BulkMailResult;
+import com.reedelk.runtime.api.annotation.Type;
+import com.reedelk.runtime.api.annotation.TypeProperty;
+import com.reedelk.runtime.api.message.MessageAttributes;
+
+import java.util.List;
+
+import static com.reedelk.mail.internal.attribute.SMTPBulkAttributes.*;
+import static com.reedelk.runtime.api.commons.SerializableUtils.asSerializableList;
+import static java.util.stream.Collectors.toList;
+
+@Type
+@TypeProperty(name = SENT, type = int.class)
+@TypeProperty(name = FAILED, type = int.class)
+@TypeProperty(name = RESULTS, type = List.class)
+public class SMTPBulkAttributes extends MessageAttributes {
+
+    static final String SENT = "sent";
+    static final String FAILED = "failed";
+    static final String RESULTS = "results";
+
+    public SMTPBulkAttributes(List<BulkMailResult> results) {
+        int sent = (int) results.stream().filter(BulkMailResult::isAccepted).count();
+        put(SENT, sent);
+        put(FAILED, results.size() - sent);
+        put(RESULTS, asSerializableList(results.stream()
+                .map(BulkMailResult::asMap)
+                .collect(toList())));
+    }
+}
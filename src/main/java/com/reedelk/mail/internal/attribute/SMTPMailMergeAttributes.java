@@ -0,0 +1,41 @@
+package com.reedelk.mail.internal.attribute;
+
+import com.reedelk.mail.internal.smtp.merge.MailMergeResult;
+import com.reedelk.runtime.api.annotation.Type;
+import com.reedelk.runtime.api.annotation.TypeProperty;
+import com.reedelk.runtime.api.message.MessageAttributes;
+
+import java.util.List;
+
+import static com.reedelk.mail.internal.attribute.SMTPMailMergeAttributes.*;
+import static com.reedelk.runtime.api.commons.SerializableUtils.asSerializableList;
+import static java.util.stream.Collectors.toList;
+
+@Type
+@TypeProperty(name = SENT, type = int.class)
+@TypeProperty(name = FAILED, type = int.class)
+@TypeProperty(name = DURATION, type = long.class)
+@TypeProperty(name = THROUGHPUT, type = double.class)
+@TypeProperty(name = RESULTS, type = List.class)
+public class SMTPMailMergeAttributes extends MessageAttributes {
+
+    static final String SENT = "sent";
+    static final String FAILED = "failed";
+    static final String DURATION = "duration";
+    static final String THROUGHPUT = "throughput";
+    static final String RESULTS = "results";
+
+    /**
+     * The duration is in milliseconds, the throughput in mail messages sent per second.
+     */
+    public SMTPMailMergeAttributes(List<MailMergeResult> results, long duration) {
+        int sent = (int) results.stream().filter(MailMergeResult::isAccepted).count();
+        put(SENT, sent);
+        put(FAILED, results.size() - sent);
+        put(DURATION, duration);
+        put(THROUGHPUT, duration == 0 ? 0d : sent * 1000d / duration);
+        put(RESULTS, asSerializableList(results.stream()
+                .map(MailMergeResult::asMap)
+                .collect(toList())));
+    }
+}
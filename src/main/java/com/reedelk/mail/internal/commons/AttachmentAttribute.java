@@ -8,7 +8,9 @@ public enum AttachmentAttribute {
 
     CHARSET("charset"),
     FILENAME("filename"),
-    CONTENT_TYPE("content-type");
+    CONTENT_TYPE("content-type"),
+    FILE("file"),
+    STREAM("stream");
 
     private final String attributeName;
 
@@ -2,6 +2,7 @@ package com.reedelk.mail.internal.commons;
 
 import javax.mail.Folder;
 import javax.mail.Store;
+import javax.mail.Transport;
 
 public class CloseableUtils {
 
@@ -37,4 +38,13 @@ public class CloseableUtils {
             // ignore
         }
     }
+
+    public static void close(Transport transport) {
+        if (transport == null) return;
+        try {
+            transport.close();
+        } catch (Exception e) {
+            // ignore
+        }
+    }
 }
@@ -1,13 +1,20 @@
 package com.reedelk.mail.internal.commons;
 
+import com.reedelk.mail.component.smtp.HostSelectionPolicy;
+
 public class Defaults {
 
     public static final String UNKNOWN_ATTACHMENT_MIME_EXTENSION = "dat";
+    // The time after which the stream of an attachment object which has not been sent is closed.
+    public static final int STREAM_ATTACHMENT_EXPIRY = 600000;
 
     public static final int FLOW_MAX_MESSAGE_TIMEOUT_SECONDS = 180;
     public static final int CONNECT_TIMEOUT = 180000;
     public static final int SOCKET_TIMEOUT = 60000;
     public static final boolean TLS_ENABLE = false;
+    public static final boolean PIPELINING_ENABLE = true;
+    public static final boolean EIGHT_BIT_MIME_ENABLE = false;
+    public static final boolean CHUNKING_ENABLE = false;
     public static final boolean PEEK = false;
     public static final String IMAP_FOLDER_NAME = "INBOX";
     public static final String POP_FOLDER_NAME = "INBOX";
@@ -22,6 +29,7 @@ public class Defaults {
 
         public static final String TRANSPORT = "smtp";
         public static final int DEFAULT_PORT = 25;
+        public static final int CHUNK_SIZE = 64 * 1024;
     }
 
     public static class SMTPs {
@@ -80,4 +88,91 @@ public class Defaults {
         public static final boolean DELETE_ON_SUCCESS = false;
         public static final boolean BATCH_EMAILS = false;
     }
+
+    public static class TransportPool {
+
+        private TransportPool() {
+        }
+
+        public static final int MAX_SIZE = 4;
+        public static final int MAX_MESSAGES_PER_CONNECTION = 100;
+        public static final int IDLE_TIMEOUT = 60000;
+        public static final int BORROW_TIMEOUT = 30000;
+        public static final int MAX_QUEUED_DELIVERIES = 1000;
+    }
+
+    public static class RelayHosts {
+
+        private RelayHosts() {
+        }
+
+        public static final HostSelectionPolicy SELECTION = HostSelectionPolicy.ROUND_ROBIN;
+        public static final int EJECTION_TIME = 30000;
+    }
+
+    public static class Idempotency {
+
+        private Idempotency() {
+        }
+
+        public static final long WINDOW = 86400000L;
+        public static final long WAIT_TIMEOUT = TransportPool.BORROW_TIMEOUT + SOCKET_TIMEOUT;
+        public static final int MAX_KEYS = 100000;
+    }
+
+    public static class RateLimit {
+
+        private RateLimit() {
+        }
+
+        public static final int UNLIMITED = 0;
+    }
+
+    public static class AsyncSend {
+
+        private AsyncSend() {
+        }
+
+        public static final int MAX_IN_FLIGHT = 100;
+    }
+
+    public static class MailMerge {
+
+        private MailMerge() {
+        }
+
+        public static final int MAX_IN_FLIGHT = 100;
+    }
+
+    public static class Spool {
+
+        private Spool() {
+        }
+
+        public static final String DIRECTORY_NAME = "reedelk-mail-spool";
+        public static final int MAX_ATTEMPTS = 10;
+        public static final int RETRY_INTERVAL = 5000;
+        public static final int MAX_RETRY_INTERVAL = 600000;
+        public static final int SYNC_BATCH_SIZE = 64;
+        public static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+    }
+
+    public static class AttachmentCache {
+
+        private AttachmentCache() {
+        }
+
+        public static final long MAX_SIZE = 0;
+        public static final boolean OFF_HEAP = false;
+        public static final boolean ENCODED_PARTS = false;
+    }
+
+    public static class AttachmentLoader {
+
+        private AttachmentLoader() {
+        }
+
+        public static final int THREADS = 4;
+        public static final long MAX_IN_FLIGHT_BYTES = 32L * 1024 * 1024;
+    }
 }
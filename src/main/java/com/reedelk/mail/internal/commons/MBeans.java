@@ -0,0 +1,47 @@
+package com.reedelk.mail.internal.commons;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.METRICS_REGISTRATION_ERROR;
+
+/**
+ * Registers the module metrics with the platform MBean server.
+ * Metrics are not essential: registration errors are only logged.
+ */
+public class MBeans {
+
+    private static final Logger logger = LoggerFactory.getLogger(MBeans.class);
+
+    private static final String OBJECT_NAME = "com.reedelk.mail:type=%s,name=%s";
+
+    private MBeans() {
+    }
+
+    /**
+     * Returns the object name the given MBean has been registered with, null if it could not be registered.
+     */
+    public static ObjectName register(Object mbean, String type, String name) {
+        try {
+            ObjectName objectName = new ObjectName(String.format(OBJECT_NAME, type, ObjectName.quote(name)));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, objectName);
+            return objectName;
+        } catch (JMException exception) {
+            logger.warn(METRICS_REGISTRATION_ERROR.format(type, name, exception.getMessage()), exception);
+            return null;
+        }
+    }
+
+    public static void unregister(ObjectName objectName) {
+        if (objectName == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException exception) {
+            // nothing we can do.
+        }
+    }
+}
@@ -34,14 +34,54 @@ public class Messages {
         MAIL_MESSAGE_ERROR("The mail message could not be built, error=[%s]"),
         ATTACHMENT_FILE_NAME("The attachment file name must not be empty (expression=[%s])"),
         ATTACHMENT_FILE_EMPTY("The attachment file from expression=[%s] is empty"),
+        ATTACHMENT_FILE_NOT_READABLE("The attachment file=[%s] does not exist or it is not readable"),
         ATTACHMENT_FILE_NAME_EMPTY("The attachment file name from expression=[%s] is empty"),
         ATTACHMENT_RESOURCE_MUST_NOT_BE_EMPTY("The attachment resource file must not be empty for attachment source type 'Resource'"),
+        ATTACHMENT_LOAD_INTERRUPTED("Interrupted while waiting for the attachments to be loaded"),
+        ATTACHMENT_LOADER_CLOSED("The attachments could not be loaded: the attachment loader has been closed"),
+        ATTACHMENT_STREAM_CONSUMED("The attachment=[%s] stream has already been read or it has expired: an attachment with stream data can be sent only once"),
         FROM_ERROR("'from' address must not be empty (expression=[%s])"),
         TO_ERROR("'to' addresses must not be empty (expression=[%s])"),
         CC_ERROR("Could not evaluate 'cc' addresses=[%s] (expression=[%s])"),
         BCC_ERROR("Could not evaluate 'bcc' addresses=[%s] (expression=[%s])"),
         SUBJECT_ERROR("Could not evaluate 'Subject' message=[%s] (expression=[%s])"),
-        REPLY_TO_ERROR("Could not evaluate 'ReplyTo' addresses=[%s] (expression=[%s])");
+        REPLY_TO_ERROR("Could not evaluate 'ReplyTo' addresses=[%s] (expression=[%s])"),
+        NO_RECIPIENT_ADDRESSES("The mail message does not have any recipient address"),
+        TRANSPORT_POOL_CLOSED("The SMTP connection pool has been closed"),
+        PRIORITY_INVALID("The priority=[%s] must be one of HIGH, NORMAL or LOW (expression=[%s])"),
+        HOST_PORT_INVALID("The port of the SMTP host=[%s] is not a valid number"),
+        TRANSPORT_POOL_EXHAUSTED("Could not obtain an SMTP connection from the pool within [%d] ms"),
+        TRANSPORT_POOL_MAX_SIZE_INVALID("The SMTP connection pool max size=[%d] must be greater than 0"),
+        DELIVERY_QUEUE_FULL("The SMTP delivery queue is full, max queued deliveries=[%d]"),
+        DELIVERY_QUEUE_SIZE_INVALID("The SMTP max queued deliveries=[%d] must be greater than 0"),
+        BULK_PAYLOAD_NOT_LIST("The bulk send payload must be a list of mail messages, type=[%s] found instead"),
+        BULK_MAIL_NOT_MAP("The bulk mail message at index=[%d] must be a map, type=[%s] found instead"),
+        BULK_MAIL_FROM_ERROR("'from' address must not be empty (bulk mail message index=[%d])"),
+        BULK_MAIL_TO_ERROR("'to' addresses must not be empty (bulk mail message index=[%d])"),
+        BULK_MAIL_ATTACHMENTS_ERROR("Expected a map of attachment objects (bulk mail message index=[%d])"),
+        MERGE_PAYLOAD_NOT_LIST("The mail merge payload must be a list of recipient records, type=[%s] found instead"),
+        MERGE_RECORD_NOT_MAP("The recipient record at index=[%d] must be a map, type=[%s] found instead"),
+        MERGE_RECORD_TO_ERROR("'to' address must not be empty (recipient record index=[%d])"),
+        MERGE_FIELD_NOT_FOUND("The template field=[%s] is not defined (recipient record index=[%d])"),
+        MERGE_INTERRUPTED("Interrupted while waiting for the in-flight mail merge messages (recipient record index=[%d])"),
+        MAX_IN_FLIGHT_EXCEEDED("The mail message could not be sent, the maximum number of in-flight mail messages=[%d] has been reached"),
+        SPOOL_OPEN_ERROR("Could not open mail spool directory=[%s], error=[%s]"),
+        ENVELOPES_REJECTED("None of the envelopes of the mail message could be sent, first error=[%s]"),
+        SPOOL_WRITE_ERROR("Could not store mail message in the spool, error=[%s]"),
+        SPOOL_READ_ERROR("Could not read spooled mail message id=[%d], the message has been discarded, error=[%s]"),
+        SPOOL_RECOVERY_ERROR("Could not fully recover mail spool segment=[%s], error=[%s]"),
+        SPOOL_DISCARD_ERROR("Could not take back the mail messages not stored in spool segment=[%s], they might be delivered after a restart, error=[%s]"),
+        SPOOL_DELIVERY_RETRY("Could not deliver spooled mail message id=[%d] (attempt=[%d]), retrying in [%d] ms, error=[%s]"),
+        SPOOL_DELIVERY_DISCARDED("Could not deliver spooled mail message id=[%d] (attempt=[%d]), the message has been discarded, error=[%s]"),
+        SPOOL_DELIVERY_PARTIAL("Could not deliver spooled mail message id=[%d] to recipients=[%s], the message has been delivered to the other recipients and it is not sent again, error=[%s]"),
+        SPOOL_CLOSED("The mail spool has been closed"),
+        IDEMPOTENCY_KEY_EMPTY("The idempotency key must not be empty (expression=[%s])"),
+        IDEMPOTENCY_KEY_WAIT_TIMEOUT("Timed out after [%d] ms waiting for the email being sent with the same idempotency key=[%s]"),
+        IDEMPOTENCY_STORE_OPEN_ERROR("Could not open idempotency store file=[%s], error=[%s]"),
+        IDEMPOTENCY_STORE_READ_ERROR("Could not fully read idempotency store file=[%s], error=[%s]"),
+        IDEMPOTENCY_STORE_WRITE_ERROR("Could not write idempotency key to store file=[%s], the key is kept in memory only, error=[%s]"),
+        RATE_LIMIT_INTERRUPTED("Interrupted while waiting for the SMTP rate limits"),
+        METRICS_REGISTRATION_ERROR("Could not register metrics type=[%s], name=[%s], error=[%s]");
 
         private String message;
 
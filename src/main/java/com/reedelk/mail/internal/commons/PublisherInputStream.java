@@ -0,0 +1,107 @@
+package com.reedelk.mail.internal.commons;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * An input stream reading the chunks of a byte array publisher as they are read from the stream:
+ * a new chunk is requested only when the previous one has been consumed, therefore at most one
+ * chunk is held in memory at any time. Closing the stream before its end cancels the subscription.
+ */
+public class PublisherInputStream extends InputStream implements Subscriber<byte[]> {
+
+    private static final Object COMPLETE = new Object();
+
+    private final BlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+
+    private volatile Subscription subscription;
+
+    private byte[] current;
+    private int position;
+    private boolean done;
+
+    public PublisherInputStream(Publisher<byte[]> publisher) {
+        publisher.subscribe(this);
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(byte[] chunk) {
+        signals.add(chunk);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        signals.add(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        signals.add(COMPLETE);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int read = read(single, 0, 1);
+        return read == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) return 0;
+        while (current == null || position == current.length) {
+            if (!next()) return -1;
+        }
+        int read = Math.min(length, current.length - position);
+        System.arraycopy(current, position, buffer, offset, read);
+        position += read;
+        return read;
+    }
+
+    @Override
+    public void close() {
+        if (!done) {
+            done = true;
+            if (subscription != null) subscription.cancel();
+        }
+    }
+
+    private boolean next() throws IOException {
+        if (done) return false;
+
+        Object signal;
+        try {
+            signal = signals.take();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+
+        if (signal == COMPLETE) {
+            done = true;
+            return false;
+        }
+        if (signal instanceof Throwable) {
+            done = true;
+            throw new IOException((Throwable) signal);
+        }
+
+        current = (byte[]) signal;
+        position = 0;
+        subscription.request(1);
+        return true;
+    }
+}
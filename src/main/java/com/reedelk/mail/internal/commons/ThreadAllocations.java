@@ -0,0 +1,51 @@
+package com.reedelk.mail.internal.commons;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * Measures the bytes allocated on the heap by the current thread. The measure is available only
+ * on JVMs supporting it (e.g. HotSpot): the extended thread MXBean is accessed reflectively so that
+ * the module does not depend on JVM specific packages.
+ */
+public class ThreadAllocations {
+
+    public static final long NOT_SUPPORTED = -1;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final Method ALLOCATED_BYTES = allocatedBytesMethod();
+
+    private ThreadAllocations() {
+    }
+
+    public static boolean isSupported() {
+        return ALLOCATED_BYTES != null;
+    }
+
+    /**
+     * Returns the total bytes allocated so far by the current thread, or NOT_SUPPORTED.
+     */
+    public static long current() {
+        if (ALLOCATED_BYTES == null) return NOT_SUPPORTED;
+        try {
+            return (long) ALLOCATED_BYTES.invoke(THREADS, Thread.currentThread().getId());
+        } catch (ReflectiveOperationException | RuntimeException exception) {
+            return NOT_SUPPORTED;
+        }
+    }
+
+    private static Method allocatedBytesMethod() {
+        // The method must be looked up on the public interface: the implementation class is not accessible.
+        for (Class<?> type = THREADS.getClass(); type != null; type = type.getSuperclass()) {
+            for (Class<?> implemented : type.getInterfaces()) {
+                try {
+                    return implemented.getMethod("getThreadAllocatedBytes", long.class);
+                } catch (NoSuchMethodException exception) {
+                    // try the next one.
+                }
+            }
+        }
+        return null;
+    }
+}
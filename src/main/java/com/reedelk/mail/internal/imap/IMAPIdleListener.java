@@ -41,7 +41,7 @@ public class IMAPIdleListener implements Closeable {
 
         String password = configuration.getPassword();
 
-        Session session = Session.getInstance(new IMAPProperties(configuration));
+        Session session = settings.getSession();
 
         int folderOpenMode = Folder.READ_WRITE;
 
@@ -3,11 +3,13 @@ package com.reedelk.mail.internal.imap;
 import com.reedelk.mail.component.IMAPConfiguration;
 import com.reedelk.mail.internal.commons.Defaults;
 
+import javax.mail.Session;
 import java.util.Optional;
 
 public class IMAPIdleListenerSettings {
 
     private IMAPConfiguration configuration;
+    private Session session;
     private String folder;
     private boolean deleteOnSuccess;
     private boolean peek;
@@ -17,6 +19,10 @@ public class IMAPIdleListenerSettings {
         return configuration;
     }
 
+    public Session getSession() {
+        return session;
+    }
+
     public String getFolder() {
         return folder;
     }
@@ -40,6 +46,7 @@ public class IMAPIdleListenerSettings {
     public static class Builder {
 
         private IMAPConfiguration configuration;
+        private Session session;
         private String folder;
         private Boolean peek;
         private Boolean batch;
@@ -50,6 +57,11 @@ public class IMAPIdleListenerSettings {
             return this;
         }
 
+        public Builder session(Session session) {
+            this.session = session;
+            return this;
+        }
+
         public Builder folder(String folder) {
             this.folder = folder;
             return this;
@@ -73,6 +85,7 @@ public class IMAPIdleListenerSettings {
         public IMAPIdleListenerSettings build() {
             IMAPIdleListenerSettings settings = new IMAPIdleListenerSettings();
             settings.configuration = configuration;
+            settings.session = session;
             settings.peek = Optional.ofNullable(peek).orElse(Defaults.PEEK);
             settings.folder = Optional.ofNullable(folder).orElse(Defaults.IMAP_FOLDER_NAME);
             settings.batch = Optional.ofNullable(batch).orElse(Defaults.Poller.BATCH_EMAILS);
@@ -109,8 +109,7 @@ public class IMAPPollingStrategy implements PollingStrategy {
 
     private Store getStore() throws MessagingException {
         IMAPConfiguration configuration = settings.getConfiguration();
-        Session session = Session.getInstance(new IMAPProperties(configuration));
-        Store store = session.getStore();
+        Store store = settings.getSession().getStore();
         store.connect(configuration.getHost(), configuration.getUsername(), configuration.getPassword());
         return store;
     }
@@ -4,12 +4,14 @@ import com.reedelk.mail.component.IMAPConfiguration;
 import com.reedelk.mail.component.imap.IMAPFlags;
 import com.reedelk.mail.internal.commons.Defaults;
 
+import javax.mail.Session;
 import java.util.Optional;
 
 public class IMAPPollingStrategySettings {
 
     private IMAPFlags matcher;
     private IMAPConfiguration configuration;
+    private Session session;
     private String folder;
     private int limit;
     private boolean peek;
@@ -28,6 +30,10 @@ public class IMAPPollingStrategySettings {
         return configuration;
     }
 
+    public Session getSession() {
+        return session;
+    }
+
     public String getFolder() {
         return folder;
     }
@@ -60,6 +66,7 @@ public class IMAPPollingStrategySettings {
 
         private IMAPFlags matcher;
         private IMAPConfiguration configuration;
+        private Session session;
 
         private String folder;
         private Integer limit;
@@ -103,6 +110,11 @@ public class IMAPPollingStrategySettings {
             return this;
         }
 
+        public Builder session(Session session) {
+            this.session = session;
+            return this;
+        }
+
         public Builder markDeleteOnSuccess(Boolean markDeleteOnSuccess) {
             this.markDeleteOnSuccess = markDeleteOnSuccess;
             return this;
@@ -111,6 +123,7 @@ public class IMAPPollingStrategySettings {
         public IMAPPollingStrategySettings build() {
             IMAPPollingStrategySettings settings = new IMAPPollingStrategySettings();
             settings.configuration = configuration;
+            settings.session = session;
             settings.peek = Optional.ofNullable(peek).orElse(Defaults.PEEK);
             settings.matcher = Optional.ofNullable(matcher).orElse(new IMAPFlags());
             settings.limit = Optional.ofNullable(limit).orElse(Defaults.Poller.LIMIT);
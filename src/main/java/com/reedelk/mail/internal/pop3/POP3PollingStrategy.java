@@ -76,8 +76,7 @@ public class POP3PollingStrategy implements PollingStrategy {
 
     private Store getStore() throws MessagingException {
         POP3Configuration configuration = settings.getConfiguration();
-        Session session = Session.getInstance(new POP3Properties(configuration));
-        Store store = session.getStore();
+        Store store = settings.getSession().getStore();
         store.connect(configuration.getHost(), configuration.getUsername(), configuration.getPassword());
         return store;
     }
@@ -3,11 +3,13 @@ package com.reedelk.mail.internal.pop3;
 import com.reedelk.mail.component.POP3Configuration;
 import com.reedelk.mail.internal.commons.Defaults;
 
+import javax.mail.Session;
 import java.util.Optional;
 
 public class POP3PollingStrategySettings {
 
     private POP3Configuration configuration;
+    private Session session;
     private boolean deleteOnSuccess;
     private boolean batch;
     private int limit;
@@ -19,6 +21,10 @@ public class POP3PollingStrategySettings {
         return configuration;
     }
 
+    public Session getSession() {
+        return session;
+    }
+
     public boolean isDeleteOnSuccess() {
         return deleteOnSuccess;
     }
@@ -37,6 +43,7 @@ public class POP3PollingStrategySettings {
 
     public static class Builder {
         private POP3Configuration configuration;
+        private Session session;
         private Boolean deleteOnSuccess;
         private Boolean batch;
         private Integer limit;
@@ -46,6 +53,11 @@ public class POP3PollingStrategySettings {
             return this;
         }
 
+        public Builder session(Session session) {
+            this.session = session;
+            return this;
+        }
+
         public Builder deleteOnSuccess(Boolean deleteOnSuccess) {
             this.deleteOnSuccess = deleteOnSuccess;
             return this;
@@ -64,6 +76,7 @@ public class POP3PollingStrategySettings {
         public POP3PollingStrategySettings build() {
             POP3PollingStrategySettings settings = new POP3PollingStrategySettings();
             settings.configuration = configuration;
+            settings.session = session;
             settings.limit = Optional.ofNullable(limit).orElse(Defaults.Poller.LIMIT);
             settings.batch = Optional.ofNullable(batch).orElse(Defaults.Poller.BATCH_EMAILS);
             settings.deleteOnSuccess = Optional.ofNullable(deleteOnSuccess).orElse(Defaults.Poller.DELETE_ON_SUCCESS);
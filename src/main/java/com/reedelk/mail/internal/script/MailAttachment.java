@@ -1,17 +1,26 @@
 package com.reedelk.mail.internal.script;
 
 import com.reedelk.mail.internal.commons.AttachmentAttribute;
+import com.reedelk.mail.internal.smtp.attachment.StreamAttachments;
 import com.reedelk.runtime.api.annotation.Type;
 import com.reedelk.runtime.api.annotation.TypeFunction;
 import com.reedelk.runtime.api.message.content.Attachment;
 import com.reedelk.runtime.api.message.content.MimeType;
 
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
 @Type(description = "A MailAttachment object encapsulates an Mail attachment " +
         "to be used as attachments when sending emails.")
 public class MailAttachment {
 
     private Attachment.Builder current;
 
+    // Text data is encoded when the attachment is built, with the charset set on the attachment.
+    private String text;
+    private String charset;
+
     MailAttachment() {
         current = Attachment.builder();
     }
@@ -30,6 +39,7 @@ public class MailAttachment {
             example = "MailAttachmentBuilder.create().charset('UTF-8')",
             description = "Sets the charset of the attachment object.")
     public MailAttachment charset(String charset) {
+        this.charset = charset;
         AttachmentAttribute.CHARSET.set(current, charset);
         return this;
     }
@@ -57,6 +67,7 @@ public class MailAttachment {
             example = "MailAttachmentBuilder.create().binary(message.payload())",
             description = "Sets binary data to the current attachment object. Default mime type is 'application/octet-stream'.")
     public MailAttachment binary(byte[] data) {
+        text = null;
         current.data(data);
         current.mimeType(MimeType.APPLICATION_BINARY);
         AttachmentAttribute.CONTENT_TYPE.set(current, MimeType.APPLICATION_BINARY.toString());
@@ -69,6 +80,7 @@ public class MailAttachment {
             description = "Sets binary data to the current attachment object with the given mime type.")
     public MailAttachment binary(byte[] data, String mimeType) {
         MimeType mimeTypeObject = MimeType.parse(mimeType);
+        text = null;
         current.data(data);
         current.mimeType(mimeTypeObject);
         AttachmentAttribute.CONTENT_TYPE.set(current, mimeTypeObject.toString());
@@ -78,22 +90,79 @@ public class MailAttachment {
     @TypeFunction(cursorOffset = 1,
             signature = "text(String data)",
             example = "MailAttachmentBuilder.create().text(message.payload())",
-            description = "Sets text data to the current attachment object. Default mime type is 'text/plain'.")
+            description = "Sets text data to the current attachment object. Default mime type is 'text/plain'. " +
+                    "The text is encoded with the attachment charset, 'UTF-8' if not defined.")
     public MailAttachment text(String text) {
-        current.data(text.getBytes());
-        current.mimeType(MimeType.TEXT_PLAIN);
-        AttachmentAttribute.CONTENT_TYPE.set(current, MimeType.TEXT_PLAIN.toString());
-        return this;
+        return text(text, MimeType.TEXT_PLAIN.toString());
     }
 
     @TypeFunction(cursorOffset = 1,
             signature = "text(String data, String mimeType)",
             example = "MailAttachmentBuilder.create().text(message.payload(), 'text/plain')",
-            description = "Sets text data to the current attachment object with the given mime type.")
+            description = "Sets text data to the current attachment object with the given mime type. " +
+                    "The text is encoded with the attachment charset, 'UTF-8' if not defined.")
     public MailAttachment text(String text, String mimeType) {
         MimeType mimeTypeObject = MimeType.parse(mimeType);
-        current.data(text.getBytes());
+        this.text = text;
+        current.mimeType(mimeTypeObject);
+        AttachmentAttribute.CONTENT_TYPE.set(current, mimeTypeObject.toString());
+        return this;
+    }
+
+    @TypeFunction(cursorOffset = 1,
+            signature = "text(String data, String mimeType, String charset)",
+            example = "MailAttachmentBuilder.create().text(message.payload(), 'text/csv', 'ISO-8859-1')",
+            description = "Sets text data to the current attachment object with the given mime type, " +
+                    "encoded with the given charset.")
+    public MailAttachment text(String text, String mimeType, String charset) {
+        return text(text, mimeType).charset(charset);
+    }
+
+    @TypeFunction(cursorOffset = 1,
+            signature = "file(String path)",
+            example = "MailAttachmentBuilder.create().file('/var/reports/report.pdf')",
+            description = "Sets the file with the given path as data of the current attachment object. " +
+                    "The file is read only when the mail is sent. Default mime type is 'application/octet-stream' " +
+                    "and default filename is the name of the file.")
+    public MailAttachment file(String path) {
+        return file(path, MimeType.APPLICATION_BINARY.toString());
+    }
+
+    @TypeFunction(cursorOffset = 1,
+            signature = "file(String path, String mimeType)",
+            example = "MailAttachmentBuilder.create().file('/var/reports/report.pdf', 'application/pdf')",
+            description = "Sets the file with the given path as data of the current attachment object " +
+                    "with the given mime type. The file is read only when the mail is sent.")
+    public MailAttachment file(String path, String mimeType) {
+        MimeType mimeTypeObject = MimeType.parse(mimeType);
+        text = null;
+        current.mimeType(mimeTypeObject);
+        AttachmentAttribute.FILE.set(current, path);
+        AttachmentAttribute.CONTENT_TYPE.set(current, mimeTypeObject.toString());
+        return this;
+    }
+
+    @TypeFunction(cursorOffset = 1,
+            signature = "stream(InputStream stream)",
+            example = "MailAttachmentBuilder.create().stream(inputStream)",
+            description = "Sets the given input stream as data of the current attachment object. " +
+                    "The stream is read only when the mail is sent, therefore the attachment object " +
+                    "can be sent only once. Default mime type is 'application/octet-stream'.")
+    public MailAttachment stream(InputStream stream) {
+        return stream(stream, MimeType.APPLICATION_BINARY.toString());
+    }
+
+    @TypeFunction(cursorOffset = 1,
+            signature = "stream(InputStream stream, String mimeType)",
+            example = "MailAttachmentBuilder.create().stream(inputStream, 'application/pdf')",
+            description = "Sets the given input stream as data of the current attachment object with the given " +
+                    "mime type. The stream is read only when the mail is sent, therefore the attachment object " +
+                    "can be sent only once.")
+    public MailAttachment stream(InputStream stream, String mimeType) {
+        MimeType mimeTypeObject = MimeType.parse(mimeType);
+        text = null;
         current.mimeType(mimeTypeObject);
+        AttachmentAttribute.STREAM.set(current, StreamAttachments.register(stream));
         AttachmentAttribute.CONTENT_TYPE.set(current, mimeTypeObject.toString());
         return this;
     }
@@ -102,6 +171,12 @@ public class MailAttachment {
             example = "MailAttachmentBuilder.create().text('sample text').build()",
             description = "Creates an MailAttachment object with the configured settings.")
     public Attachment build() {
+        if (text != null) {
+            Charset textCharset = charset == null ? StandardCharsets.UTF_8 : Charset.forName(charset);
+            // The charset attribute is the one the text has actually been encoded with.
+            if (charset == null) AttachmentAttribute.CHARSET.set(current, textCharset.name());
+            current.data(text.getBytes(textCharset));
+        }
         return current.build();
     }
 }
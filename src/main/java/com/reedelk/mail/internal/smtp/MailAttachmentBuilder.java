@@ -2,6 +2,8 @@ package com.reedelk.mail.internal.smtp;
 
 import com.reedelk.mail.component.smtp.AttachmentDefinition;
 import com.reedelk.mail.internal.smtp.attachment.AttachmentSourceStrategyFactory;
+import com.reedelk.mail.internal.smtp.attachment.cache.AttachmentCache;
+import com.reedelk.mail.internal.smtp.attachment.loader.AttachmentLoader;
 import com.reedelk.runtime.api.commons.Unchecked;
 import com.reedelk.runtime.api.converter.ConverterService;
 import com.reedelk.runtime.api.flow.FlowContext;
@@ -16,12 +18,15 @@ import java.util.Map;
 
 import static com.reedelk.runtime.api.commons.DynamicValueUtils.isNotNullOrBlank;
 import static com.reedelk.runtime.api.commons.Preconditions.checkArgument;
+import static java.util.stream.Collectors.toList;
 
 public class MailAttachmentBuilder {
 
     private MultiPartEmail email;
     private Message message;
     private FlowContext context;
+    private AttachmentCache cache;
+    private AttachmentLoader loader;
     private DynamicObject attachmentsMap;
     private ScriptEngineService scriptEngine;
     private ConverterService converterService;
@@ -60,6 +65,16 @@ public class MailAttachmentBuilder {
         return this;
     }
 
+    public MailAttachmentBuilder cache(AttachmentCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    public MailAttachmentBuilder loader(AttachmentLoader loader) {
+        this.loader = loader;
+        return this;
+    }
+
     public MailAttachmentBuilder attachments(List<AttachmentDefinition> attachments) {
         this.attachments = attachments;
         return this;
@@ -70,10 +85,22 @@ public class MailAttachmentBuilder {
             buildFromAttachmentsMap();
         }
 
-        attachments.forEach(Unchecked.consumer(definition ->
-                AttachmentSourceStrategyFactory
-                        .from(definition)
-                        .build(scriptEngine, definition, email, context, message)));
+        if (loader != null && attachments.size() > 1) {
+            // Added to the email in the order they are defined, whatever the order they are loaded.
+            List<AttachmentLoader.Load> loads = attachments.stream()
+                    .map(definition -> (AttachmentLoader.Load) target -> buildAttachment(definition, target))
+                    .collect(toList());
+            loader.load(email, loads);
+            return;
+        }
+
+        attachments.forEach(Unchecked.consumer(definition -> buildAttachment(definition, email)));
+    }
+
+    private void buildAttachment(AttachmentDefinition definition, MultiPartEmail target) {
+        AttachmentSourceStrategyFactory
+                .from(definition)
+                .build(scriptEngine, definition, target, context, message, cache);
     }
 
     @SuppressWarnings("unchecked")
@@ -26,6 +26,7 @@ public class MailMessageBuilder {
     private DynamicString bcc;
     private DynamicString replyTo;
     private DynamicString subject;
+    private MailMessageFields fields;
 
     private FlowContext context;
     private com.reedelk.runtime.api.message.Message message;
@@ -73,6 +74,11 @@ public class MailMessageBuilder {
         return this;
     }
 
+    public MailMessageBuilder fields(MailMessageFields fields) {
+        this.fields = fields;
+        return this;
+    }
+
     public MailMessageBuilder scriptService(ScriptEngineService scriptService) {
         this.scriptService = scriptService;
         return this;
@@ -85,40 +91,64 @@ public class MailMessageBuilder {
 
     public void build() throws EmailException {
         try {
+            // Static fields have been computed once, only script expressions are evaluated.
+
             // Mandatory
-            String evaluatedFrom = scriptService.evaluate(from, context, message)
-                    .orElseThrow(() -> new MailMessageConfigurationException(FROM_ERROR.format(from.toString())));
+            String evaluatedFrom = fields != null && fields.getFrom() != null ?
+                    fields.getFrom() :
+                    scriptService.evaluate(from, context, message)
+                            .orElseThrow(() -> new MailMessageConfigurationException(FROM_ERROR.format(from.toString())));
 
             email.setFrom(evaluatedFrom);
 
             // Mandatory
-            String evaluatedTo = scriptService.evaluate(to, context, message)
-                    .orElseThrow(() -> new MailMessageConfigurationException(TO_ERROR.format(to.toString())));
-            email.setTo(asList(InternetAddress.parse(evaluatedTo)));
+            if (fields != null && fields.getTo() != null) {
+                email.setTo(fields.getTo());
+            } else {
+                String evaluatedTo = scriptService.evaluate(to, context, message)
+                        .orElseThrow(() -> new MailMessageConfigurationException(TO_ERROR.format(to.toString())));
+                email.setTo(asList(InternetAddress.parse(evaluatedTo)));
+            }
 
             // Optional
-            scriptService.evaluate(cc, context, message)
-                    .filter(StringUtils::isNotBlank)
-                    .ifPresent(Unchecked.consumer(notBlankCC -> email.setCc(asList(InternetAddress.parse(notBlankCC))),
-                            (notBlankCC, exception) -> new MailMessageConfigurationException(CC_ERROR.format(notBlankCC, cc.toString()), exception)));
+            if (fields != null && fields.getCc() != null) {
+                if (!fields.getCc().isEmpty()) email.setCc(fields.getCc());
+            } else {
+                scriptService.evaluate(cc, context, message)
+                        .filter(StringUtils::isNotBlank)
+                        .ifPresent(Unchecked.consumer(notBlankCC -> email.setCc(asList(InternetAddress.parse(notBlankCC))),
+                                (notBlankCC, exception) -> new MailMessageConfigurationException(CC_ERROR.format(notBlankCC, cc.toString()), exception)));
+            }
 
             // Optional
-            scriptService.evaluate(bcc, context, message)
-                    .filter(StringUtils::isNotBlank)
-                    .ifPresent(Unchecked.consumer(notBlankBCC -> email.setBcc(asList(InternetAddress.parse(notBlankBCC))),
-                            (notBlankBCC, exception) -> new MailMessageConfigurationException(BCC_ERROR.format(notBlankBCC, bcc.toString()), exception)));
+            if (fields != null && fields.getBcc() != null) {
+                if (!fields.getBcc().isEmpty()) email.setBcc(fields.getBcc());
+            } else {
+                scriptService.evaluate(bcc, context, message)
+                        .filter(StringUtils::isNotBlank)
+                        .ifPresent(Unchecked.consumer(notBlankBCC -> email.setBcc(asList(InternetAddress.parse(notBlankBCC))),
+                                (notBlankBCC, exception) -> new MailMessageConfigurationException(BCC_ERROR.format(notBlankBCC, bcc.toString()), exception)));
+            }
 
             // Optional
-            scriptService.evaluate(replyTo, context, message)
-                    .filter(StringUtils::isNotBlank)
-                    .ifPresent(Unchecked.consumer(notBlankReplyTo -> email.setReplyTo(asList(InternetAddress.parse(notBlankReplyTo))),
-                            (notBlankReplyTo, exception) -> new MailMessageConfigurationException(REPLY_TO_ERROR.format(notBlankReplyTo, replyTo.toString()), exception)));
+            if (fields != null && fields.getReplyTo() != null) {
+                if (!fields.getReplyTo().isEmpty()) email.setReplyTo(fields.getReplyTo());
+            } else {
+                scriptService.evaluate(replyTo, context, message)
+                        .filter(StringUtils::isNotBlank)
+                        .ifPresent(Unchecked.consumer(notBlankReplyTo -> email.setReplyTo(asList(InternetAddress.parse(notBlankReplyTo))),
+                                (notBlankReplyTo, exception) -> new MailMessageConfigurationException(REPLY_TO_ERROR.format(notBlankReplyTo, replyTo.toString()), exception)));
+            }
 
             // Optional
-            scriptService.evaluate(subject, context, message)
-                    .filter(StringUtils::isNotBlank)
-                    .ifPresent(Unchecked.consumer(email::setSubject,
-                            (notBlankSubject, exception) -> new MailMessageConfigurationException(SUBJECT_ERROR.format(notBlankSubject, subject.toString()), exception)));
+            if (fields != null && fields.getSubject() != null) {
+                if (StringUtils.isNotBlank(fields.getSubject())) email.setSubject(fields.getSubject());
+            } else {
+                scriptService.evaluate(subject, context, message)
+                        .filter(StringUtils::isNotBlank)
+                        .ifPresent(Unchecked.consumer(email::setSubject,
+                                (notBlankSubject, exception) -> new MailMessageConfigurationException(SUBJECT_ERROR.format(notBlankSubject, subject.toString()), exception)));
+            }
 
         } catch (AddressException exception) {
             throw new MailMessageConfigurationException(exception.getMessage(), exception);
@@ -0,0 +1,92 @@
+package com.reedelk.mail.internal.smtp;
+
+import com.reedelk.runtime.api.script.dynamicvalue.DynamicString;
+
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+import java.util.Collections;
+import java.util.List;
+
+import static com.reedelk.runtime.api.commons.StringUtils.isBlank;
+import static java.util.Arrays.asList;
+
+/**
+ * The fields of a mail message whose values are static, i.e. not script expressions:
+ * they are computed (and addresses parsed) once, when the component is initialized,
+ * instead of being evaluated for each message. A field whose value is a script
+ * expression is null and it must be evaluated for each message.
+ * An empty list (or a blank subject) means the field is static and not set.
+ */
+public class MailMessageFields {
+
+    private String from;
+    private List<InternetAddress> to;
+    private List<InternetAddress> cc;
+    private List<InternetAddress> bcc;
+    private List<InternetAddress> replyTo;
+    private String subject;
+
+    private MailMessageFields() {
+    }
+
+    public static MailMessageFields from(MailSendDefinition definition) {
+        MailMessageFields fields = new MailMessageFields();
+        if (isStatic(definition.getFrom())) {
+            fields.from = definition.getFrom().value();
+        }
+        fields.to = addressesOf(definition.getTo());
+        fields.cc = addressesOf(definition.getCc());
+        fields.bcc = addressesOf(definition.getBcc());
+        fields.replyTo = addressesOf(definition.getReplyTo());
+        if (isStatic(definition.getSubject())) {
+            String subject = valueOf(definition.getSubject());
+            fields.subject = subject == null ? "" : subject;
+        }
+        return fields;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public List<InternetAddress> getTo() {
+        return to;
+    }
+
+    public List<InternetAddress> getCc() {
+        return cc;
+    }
+
+    public List<InternetAddress> getBcc() {
+        return bcc;
+    }
+
+    public List<InternetAddress> getReplyTo() {
+        return replyTo;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    private static List<InternetAddress> addressesOf(DynamicString addresses) {
+        if (!isStatic(addresses)) return null;
+        String value = valueOf(addresses);
+        if (isBlank(value)) return Collections.emptyList();
+        try {
+            return Collections.unmodifiableList(asList(InternetAddress.parse(value)));
+        } catch (AddressException exception) {
+            // Not valid addresses are parsed for each message, so that each one reports the error.
+            return null;
+        }
+    }
+
+    // A null dynamic value is static: it is never set.
+    private static boolean isStatic(DynamicString value) {
+        return value == null || !value.isScript();
+    }
+
+    private static String valueOf(DynamicString value) {
+        return value == null ? null : value.value();
+    }
+}
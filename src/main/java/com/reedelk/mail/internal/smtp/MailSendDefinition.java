@@ -0,0 +1,68 @@
+package com.reedelk.mail.internal.smtp;
+
+import com.reedelk.mail.component.SMTPConfiguration;
+import com.reedelk.mail.component.smtp.AttachmentDefinition;
+import com.reedelk.mail.component.smtp.BodyDefinition;
+import com.reedelk.mail.internal.smtp.attachment.InlineImageResolver;
+import com.reedelk.mail.internal.smtp.attachment.cache.AttachmentCache;
+import com.reedelk.mail.internal.smtp.attachment.loader.AttachmentLoader;
+import com.reedelk.runtime.api.converter.ConverterService;
+import com.reedelk.runtime.api.script.ScriptEngineService;
+import com.reedelk.runtime.api.script.dynamicvalue.DynamicObject;
+import com.reedelk.runtime.api.script.dynamicvalue.DynamicString;
+
+import javax.mail.Session;
+import java.util.List;
+
+/**
+ * The configuration of a mail to be sent, shared by the
+ * synchronous and asynchronous mail send components.
+ */
+public interface MailSendDefinition {
+
+    SMTPConfiguration getConnection();
+
+    DynamicString getFrom();
+
+    DynamicString getTo();
+
+    DynamicString getSubject();
+
+    DynamicString getCc();
+
+    DynamicString getBcc();
+
+    DynamicString getReplyTo();
+
+    BodyDefinition getBody();
+
+    DynamicObject getAttachmentsMap();
+
+    List<AttachmentDefinition> getAttachments();
+
+    ScriptEngineService getScriptService();
+
+    ConverterService getConverterService();
+
+    Session getSession();
+
+    /**
+     * The fields of the mail message which are computed once, when the component is initialized.
+     */
+    MailMessageFields getMessageFields();
+
+    /**
+     * Returns null if file and resource attachments are not cached.
+     */
+    AttachmentCache getAttachmentCache();
+
+    /**
+     * Returns null if the attachments are loaded one after the other.
+     */
+    AttachmentLoader getAttachmentLoader();
+
+    /**
+     * Resolves the images referenced by HTML bodies, to be embedded in the mail message.
+     */
+    InlineImageResolver getInlineImageResolver();
+}
@@ -1,7 +1,5 @@
 package com.reedelk.mail.internal.smtp;
 
-import com.reedelk.mail.component.SMTPConfiguration;
-import org.apache.commons.mail.DefaultAuthenticator;
 import org.apache.commons.mail.Email;
 
 import javax.mail.Session;
@@ -9,7 +7,7 @@ import javax.mail.Session;
 public class MailSessionBuilder {
 
     private final Email email;
-    private SMTPConfiguration configuration;
+    private Session session;
 
     public static MailSessionBuilder builder(Email email) {
         return new MailSessionBuilder(email);
@@ -19,19 +17,14 @@ public class MailSessionBuilder {
         this.email = email;
     }
 
-    public MailSessionBuilder configuration(SMTPConfiguration configuration) {
-        this.configuration = configuration;
+    public MailSessionBuilder session(Session session) {
+        this.session = session;
         return this;
     }
 
     public void build() {
-        SMTPProperties smtpProperties = new SMTPProperties(configuration);
-
-        String username = configuration.getUsername();
-        String password = configuration.getPassword();
-
-        Session session = Session.getInstance(smtpProperties, new DefaultAuthenticator(username, password));
-
+        // The session is built once for each SMTP configuration and
+        // shared by all the messages sent using that configuration.
         email.setMailSession(session);
     }
 }
@@ -4,7 +4,9 @@ import com.reedelk.mail.component.SMTPConfiguration;
 import com.reedelk.mail.component.smtp.SMTPProtocol;
 import com.reedelk.mail.internal.commons.Defaults;
 import com.reedelk.mail.internal.exception.MailMessageConfigurationException;
+import com.reedelk.mail.internal.smtp.transport.RelayHost;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.Properties;
 
@@ -20,14 +22,19 @@ public class SMTPProperties extends Properties {
                 .orElseThrow(() -> new MailMessageConfigurationException("Host is mandatory"));
 
         boolean startTlsEnable = Optional.ofNullable(configuration.getStartTlsEnabled()).orElse(Defaults.TLS_ENABLE);
+        boolean pipeliningEnable = Optional.ofNullable(configuration.getPipeliningEnabled()).orElse(Defaults.PIPELINING_ENABLE);
+        boolean eightBitMimeEnable = Optional.ofNullable(configuration.getEightBitMimeEnabled()).orElse(Defaults.EIGHT_BIT_MIME_ENABLE);
+        boolean chunkingEnable = Optional.ofNullable(configuration.getChunkingEnabled()).orElse(Defaults.CHUNKING_ENABLE);
         Integer connectionTimeout = Optional.ofNullable(configuration.getConnectTimeout()).orElse(Defaults.CONNECT_TIMEOUT);
         Integer socketTimeout = Optional.ofNullable(configuration.getSocketTimeout()).orElse(Defaults.SOCKET_TIMEOUT);
 
-        setProperty("mail.smtp.host", host);
         setProperty("mail.smtp.auth", Boolean.TRUE.toString());
         setProperty("mail.smtp.timeout", String.valueOf(socketTimeout));
         setProperty("mail.smtp.starttls.enable", String.valueOf(startTlsEnable));
         setProperty("mail.smtp.connectiontimeout", String.valueOf(connectionTimeout));
+        setProperty("mail.smtp.pipelining", String.valueOf(pipeliningEnable));
+        setProperty("mail.smtp.eightbitmime", String.valueOf(eightBitMimeEnable));
+        if (chunkingEnable) setProperty("mail.smtp.chunksize", String.valueOf(SMTP.CHUNK_SIZE));
 
         if (SMTPProtocol.SMTP.equals(protocol)) {
             // SMTP
@@ -41,5 +48,11 @@ public class SMTPProperties extends Properties {
             setProperty("mail.transport.protocol", SMTPs.TRANSPORT);
             setProperty("mail.smtp.port", String.valueOf(port));
         }
+
+        // With several relay hosts the session connects to the first one,
+        // the transport pool spreads the emails among all of them.
+        List<RelayHost> relayHosts = RelayHost.parse(host, Integer.parseInt(getProperty("mail.smtp.port")));
+        if (relayHosts.isEmpty()) throw new MailMessageConfigurationException("Host is mandatory");
+        setProperty("mail.smtp.host", relayHosts.get(0).getHost());
     }
 }
@@ -9,9 +9,17 @@ import com.reedelk.runtime.api.script.ScriptEngineService;
 import org.apache.commons.mail.EmailException;
 import org.apache.commons.mail.MultiPartEmail;
 
+import javax.activation.DataSource;
 import javax.mail.util.ByteArrayDataSource;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Map;
 
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.ATTACHMENT_FILE_NOT_READABLE;
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.ATTACHMENT_STREAM_CONSUMED;
+
 public class AttachmentObjectType implements AttachmentSourceStrategy {
 
     @Override
@@ -25,17 +33,41 @@ public class AttachmentObjectType implements AttachmentSourceStrategy {
         String charset = AttachmentAttribute.CHARSET.get(attachmentAttributes);
         String filename = AttachmentAttribute.FILENAME.get(attachmentAttributes);
         String contentType = AttachmentAttribute.CONTENT_TYPE.get(attachmentAttributes);
+        String file = AttachmentAttribute.FILE.get(attachmentAttributes);
+        String stream = AttachmentAttribute.STREAM.get(attachmentAttributes);
 
         String contentTypeWithCharset = ContentType.from(contentType, charset);
 
-        Object data = attachment.data();
+        try {
+            DataSource dataSource;
+
+            if (file != null) {
+                Path path = Paths.get(file);
+                if (!Files.isRegularFile(path) || !Files.isReadable(path)) {
+                    throw new MailAttachmentException(ATTACHMENT_FILE_NOT_READABLE.format(file));
+                }
+                if (filename == null) filename = path.getFileName().toString();
+                // The file content is read only when the message is sent.
+                dataSource = new FileAttachmentDataSource(path, contentTypeWithCharset);
 
-        byte[] bytes = converterService.convert(data, byte[].class);
+            } else if (stream != null) {
+                InputStream inputStream = StreamAttachments.take(stream);
+                if (inputStream == null) {
+                    throw new MailAttachmentException(ATTACHMENT_STREAM_CONSUMED.format(attachmentName));
+                }
+                dataSource = new StreamAttachmentDataSource(inputStream, contentTypeWithCharset, attachmentName);
 
-        try {
-            ByteArrayDataSource dataSource = new ByteArrayDataSource(bytes, contentTypeWithCharset);
+            } else {
+                Object data = attachment.data();
+                // Binary data is attached as it is, without being copied.
+                byte[] bytes = data instanceof byte[] ?
+                        (byte[]) data :
+                        converterService.convert(data, byte[].class);
 
-            dataSource.setName(attachmentName);
+                ByteArrayDataSource byteArrayDataSource = new ByteArrayDataSource(bytes, contentTypeWithCharset);
+                byteArrayDataSource.setName(attachmentName);
+                dataSource = byteArrayDataSource;
+            }
 
             email.attach(dataSource, filename, attachmentName);
 
@@ -1,6 +1,7 @@
 package com.reedelk.mail.internal.smtp.attachment;
 
 import com.reedelk.mail.component.smtp.AttachmentDefinition;
+import com.reedelk.mail.internal.smtp.attachment.cache.AttachmentCache;
 import com.reedelk.runtime.api.converter.ConverterService;
 import com.reedelk.runtime.api.flow.FlowContext;
 import com.reedelk.runtime.api.message.Message;
@@ -14,7 +15,8 @@ public interface AttachmentSourceStrategy {
                        AttachmentDefinition definition,
                        MultiPartEmail email,
                        FlowContext context,
-                       Message message) {
+                       Message message,
+                       AttachmentCache cache) {
         throw new UnsupportedOperationException("Operation not supported for type");
     }
 
@@ -3,6 +3,7 @@ package com.reedelk.mail.internal.smtp.attachment;
 import com.reedelk.mail.component.smtp.AttachmentDefinition;
 import com.reedelk.mail.internal.commons.ContentType;
 import com.reedelk.mail.internal.exception.MailAttachmentException;
+import com.reedelk.mail.internal.smtp.attachment.cache.AttachmentCache;
 import com.reedelk.runtime.api.flow.FlowContext;
 import com.reedelk.runtime.api.message.Message;
 import com.reedelk.runtime.api.script.ScriptEngineService;
@@ -23,7 +24,8 @@ public class ExpressionType implements AttachmentSourceStrategy {
                       AttachmentDefinition definition,
                       MultiPartEmail email,
                       FlowContext context,
-                      Message message) {
+                      Message message,
+                      AttachmentCache cache) {
 
         String name = definition.getName();
         String charset = definition.getCharset();
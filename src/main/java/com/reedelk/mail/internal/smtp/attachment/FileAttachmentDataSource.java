@@ -0,0 +1,24 @@
+package com.reedelk.mail.internal.smtp.attachment;
+
+import javax.activation.FileDataSource;
+import java.nio.file.Path;
+
+/**
+ * A data source streaming the attachment file content from disk when the mail message
+ * is written, instead of holding the whole content in memory. The content type is the
+ * one defined for the attachment rather than the one guessed from the file extension.
+ */
+class FileAttachmentDataSource extends FileDataSource {
+
+    private final String contentType;
+
+    FileAttachmentDataSource(Path path, String contentType) {
+        super(path.toFile());
+        this.contentType = contentType;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+}
@@ -3,6 +3,8 @@ package com.reedelk.mail.internal.smtp.attachment;
 import com.reedelk.mail.component.smtp.AttachmentDefinition;
 import com.reedelk.mail.internal.commons.ContentType;
 import com.reedelk.mail.internal.exception.MailAttachmentException;
+import com.reedelk.mail.internal.smtp.attachment.cache.AttachmentCache;
+import com.reedelk.mail.internal.smtp.attachment.cache.CachedAttachmentDataSource;
 import com.reedelk.runtime.api.flow.FlowContext;
 import com.reedelk.runtime.api.message.Message;
 import com.reedelk.runtime.api.script.ScriptEngineService;
@@ -10,13 +12,16 @@ import com.reedelk.runtime.api.script.dynamicvalue.DynamicString;
 import org.apache.commons.mail.EmailException;
 import org.apache.commons.mail.MultiPartEmail;
 
-import javax.mail.util.ByteArrayDataSource;
+import javax.activation.DataSource;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 
 import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.ATTACHMENT_FILE_EMPTY;
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.ATTACHMENT_FILE_NOT_READABLE;
 
 public class FileType extends AbstractAttachment {
 
@@ -25,7 +30,8 @@ public class FileType extends AbstractAttachment {
                       AttachmentDefinition definition,
                       MultiPartEmail email,
                       FlowContext context,
-                      Message message) {
+                      Message message,
+                      AttachmentCache cache) {
 
         String name = definition.getName();
         String charset = definition.getCharset();
@@ -40,18 +46,40 @@ public class FileType extends AbstractAttachment {
 
         String finalFileName = attachmentFileNameFrom(scriptEngine, context, message, userDefinedFileName, attachmentFilePath);
 
-        try {
+        if (!Files.isRegularFile(attachmentFilePath) || !Files.isReadable(attachmentFilePath)) {
+            throw new MailAttachmentException(ATTACHMENT_FILE_NOT_READABLE.format(filePathAndName));
+        }
 
-            byte[] data = Files.readAllBytes(attachmentFilePath);
+        try {
 
             String attachmentContentType = ContentType.from(contentType, charset);
 
-            ByteArrayDataSource dataSource = new ByteArrayDataSource(data, attachmentContentType);
+            DataSource dataSource = cache != null ?
+                    cached(cache, attachmentFilePath, attachmentContentType, finalFileName) :
+                    null;
+
+            if (dataSource == null) {
+                // The file content is read only when the message is sent.
+                dataSource = new FileAttachmentDataSource(attachmentFilePath, attachmentContentType);
+            }
 
             email.attach(dataSource, finalFileName, name);
 
-        } catch (IOException | EmailException exception) {
+        } catch (EmailException | IOException exception) {
             throw new MailAttachmentException(exception.getMessage(), exception);
         }
     }
+
+    static DataSource cached(AttachmentCache cache, Path path, String contentType, String fileName) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        if (!cache.accepts(attributes.size())) return null;
+
+        // A modified file has a different key: its previous content is evicted eventually.
+        String key = "file:" + path.toAbsolutePath().normalize() +
+                ":" + attributes.lastModifiedTime().toMillis() +
+                ":" + attributes.size();
+
+        ByteBuffer content = cache.get(key, maxSize -> Files.readAllBytes(path));
+        return content == null ? null : new CachedAttachmentDataSource(key, content, contentType, fileName);
+    }
 }
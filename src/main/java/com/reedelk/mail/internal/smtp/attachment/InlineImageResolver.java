@@ -0,0 +1,104 @@
+package com.reedelk.mail.internal.smtp.attachment;
+
+import com.reedelk.mail.component.smtp.InlineImageDefinition;
+import com.reedelk.mail.internal.smtp.attachment.cache.AttachmentCache;
+import com.reedelk.runtime.api.message.content.MimeType;
+import com.reedelk.runtime.api.resource.ResourceBinary;
+import org.apache.commons.mail.resolver.DataSourceBaseResolver;
+
+import javax.activation.DataSource;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static com.reedelk.runtime.api.commons.StringUtils.isBlank;
+
+/**
+ * Resolves the sources of the images referenced by the HTML body of an email, so that they
+ * are embedded in the email as inline parts. An image source is resolved from the project
+ * resources defined for it first, and otherwise from the images directory on the filesystem:
+ * sources outside of the images directory are never read. Sources which cannot be resolved,
+ * e.g. http URLs, are left untouched in the HTML body.
+ *
+ * When the attachment cache is enabled the images content, and their encoded parts, are cached:
+ * the same images embedded in each email are not read, nor encoded, again.
+ */
+public class InlineImageResolver extends DataSourceBaseResolver {
+
+    private static final String DATA_URL = "data:";
+
+    private final Map<String, ResourceBinary> resources = new HashMap<>();
+    private final Path directory;
+    private final AttachmentCache cache;
+
+    public InlineImageResolver(List<InlineImageDefinition> images, String directory, AttachmentCache cache) {
+        super(true);
+        Optional.ofNullable(images).ifPresent(definitions -> definitions.forEach(definition -> {
+            if (!isBlank(definition.getSource()) && definition.getResourceFile() != null) {
+                resources.put(definition.getSource(), definition.getResourceFile());
+            }
+        }));
+        this.directory = isBlank(directory) ? null : Paths.get(directory).toAbsolutePath().normalize();
+        this.cache = cache;
+    }
+
+    @Override
+    public DataSource resolve(String source) throws IOException {
+        return resolve(source, isLenient());
+    }
+
+    @Override
+    public DataSource resolve(String source, boolean isLenient) throws IOException {
+        if (isBlank(source) || isCid(source) || isHttpUrl(source) || source.startsWith(DATA_URL)) return null;
+
+        ResourceBinary resource = resources.get(source);
+        if (resource != null) {
+            Path resourcePath = Paths.get(resource.path());
+            String fileName = resourcePath.getFileName().toString();
+            String contentType = contentTypeOf(fileName);
+            DataSource dataSource = cache != null ?
+                    ResourceType.cached(cache, resource, contentType, fileName) :
+                    null;
+            return dataSource != null ?
+                    dataSource :
+                    new ResourceAttachmentDataSource(resource, contentType, fileName);
+        }
+
+        Path file = fileOf(source);
+        if (file == null) return null;
+
+        String contentType = contentTypeOf(file.getFileName().toString());
+        DataSource dataSource = cache != null ?
+                FileType.cached(cache, file, contentType, file.getFileName().toString()) :
+                null;
+        return dataSource != null ?
+                dataSource :
+                new FileAttachmentDataSource(file, contentType);
+    }
+
+    // Returns null if the source is not a readable file within the images directory.
+    private Path fileOf(String source) {
+        if (directory == null) return null;
+        try {
+            Path relative = isFileUrl(source) ? Paths.get(URI.create(source)) : Paths.get(source);
+            Path file = directory.resolve(relative).normalize();
+            if (!file.startsWith(directory)) return null;
+            return Files.isRegularFile(file) && Files.isReadable(file) ? file : null;
+        } catch (IllegalArgumentException exception) {
+            // Not a valid path, e.g. an invalid file URL.
+            return null;
+        }
+    }
+
+    private static String contentTypeOf(String fileName) {
+        String contentType = URLConnection.guessContentTypeFromName(fileName);
+        return contentType != null ? contentType : MimeType.APPLICATION_BINARY.toString();
+    }
+}
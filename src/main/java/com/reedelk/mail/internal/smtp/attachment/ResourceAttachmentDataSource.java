@@ -0,0 +1,46 @@
+package com.reedelk.mail.internal.smtp.attachment;
+
+import com.reedelk.mail.internal.commons.PublisherInputStream;
+import com.reedelk.runtime.api.resource.ResourceBinary;
+
+import javax.activation.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A data source streaming a project resource: each time the content is requested
+ * the resource data is read again, chunk by chunk, instead of being held in memory.
+ */
+class ResourceAttachmentDataSource implements DataSource {
+
+    private final ResourceBinary resource;
+    private final String contentType;
+    private final String name;
+
+    ResourceAttachmentDataSource(ResourceBinary resource, String contentType, String name) {
+        this.resource = resource;
+        this.contentType = contentType;
+        this.name = name;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new PublisherInputStream(resource.data());
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        throw new IOException("Resource attachments are read only");
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+}
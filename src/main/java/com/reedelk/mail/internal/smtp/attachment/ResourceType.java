@@ -2,8 +2,10 @@ package com.reedelk.mail.internal.smtp.attachment;
 
 import com.reedelk.mail.component.smtp.AttachmentDefinition;
 import com.reedelk.mail.internal.commons.ContentType;
+import com.reedelk.mail.internal.commons.PublisherInputStream;
 import com.reedelk.mail.internal.exception.MailAttachmentException;
-import com.reedelk.runtime.api.commons.StreamUtils;
+import com.reedelk.mail.internal.smtp.attachment.cache.AttachmentCache;
+import com.reedelk.mail.internal.smtp.attachment.cache.CachedAttachmentDataSource;
 import com.reedelk.runtime.api.flow.FlowContext;
 import com.reedelk.runtime.api.message.Message;
 import com.reedelk.runtime.api.resource.ResourceBinary;
@@ -12,7 +14,11 @@ import com.reedelk.runtime.api.script.dynamicvalue.DynamicString;
 import org.apache.commons.mail.EmailException;
 import org.apache.commons.mail.MultiPartEmail;
 
-import javax.mail.util.ByteArrayDataSource;
+import javax.activation.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Optional;
@@ -26,7 +32,8 @@ public class ResourceType extends AbstractAttachment {
                       AttachmentDefinition definition,
                       MultiPartEmail email,
                       FlowContext context,
-                      Message message) {
+                      Message message,
+                      AttachmentCache cache) {
 
         String name = definition.getName();
         String charset = definition.getCharset();
@@ -42,16 +49,42 @@ public class ResourceType extends AbstractAttachment {
 
         try {
 
-            byte[] data = StreamUtils.FromByteArray.consume(resourceFile.data());
-
             String attachmentContentType = ContentType.from(contentType, charset);
 
-            ByteArrayDataSource dataSource = new ByteArrayDataSource(data, attachmentContentType);
+            DataSource dataSource = cache != null ?
+                    cached(cache, resourceFile, attachmentContentType, finalFileName) :
+                    null;
+
+            if (dataSource == null) {
+                // The resource content is read only when the message is sent.
+                dataSource = new ResourceAttachmentDataSource(resourceFile, attachmentContentType, finalFileName);
+            }
 
             email.attach(dataSource, finalFileName, name);
 
-        } catch (EmailException exception) {
+        } catch (EmailException | IOException exception) {
             throw new MailAttachmentException(exception.getMessage(), exception);
         }
     }
+
+    static DataSource cached(AttachmentCache cache, ResourceBinary resource, String contentType, String fileName) throws IOException {
+        // Project resources do not change while the module is running.
+        String key = "resource:" + resource.path();
+        ByteBuffer content = cache.get(key, maxSize -> read(resource, maxSize));
+        return content == null ? null : new CachedAttachmentDataSource(key, content, contentType, fileName);
+    }
+
+    // Returns null if the resource is larger than the given max size: it is not read further.
+    private static byte[] read(ResourceBinary resource, long maxSize) throws IOException {
+        try (InputStream stream = new PublisherInputStream(resource.data())) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                content.write(buffer, 0, read);
+                if (content.size() > maxSize) return null;
+            }
+            return content.toByteArray();
+        }
+    }
 }
@@ -0,0 +1,99 @@
+package com.reedelk.mail.internal.smtp.attachment;
+
+import javax.activation.DataSource;
+import javax.mail.EncodingAware;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.ATTACHMENT_STREAM_CONSUMED;
+
+/**
+ * A data source reading the attachment content from an input stream while the mail message
+ * is written. The stream can be read only once: the encoding is not guessed by scanning the
+ * content beforehand, and closing a stream which has not been read yet (as done when the
+ * data source is validated) does not close the underlying one.
+ */
+class StreamAttachmentDataSource implements DataSource, EncodingAware {
+
+    private static final String BASE64 = "base64";
+
+    private final InputStream stream;
+    private final String contentType;
+    private final String name;
+
+    private boolean read;
+
+    StreamAttachmentDataSource(InputStream stream, String contentType, String name) {
+        this.stream = stream;
+        this.contentType = contentType;
+        this.name = name;
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        if (read) throw new IOException(ATTACHMENT_STREAM_CONSUMED.format(name));
+        return new FilterInputStream(stream) {
+
+            @Override
+            public int read() throws IOException {
+                consumed();
+                return super.read();
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                consumed();
+                return super.read(bytes, offset, length);
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                consumed();
+                return super.skip(n);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (isRead()) super.close();
+            }
+        };
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        throw new IOException("Stream attachments are read only");
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getEncoding() {
+        return BASE64;
+    }
+
+    /**
+     * Closes the stream, whether it has been read or not: the content can not be read anymore.
+     */
+    synchronized void close() {
+        read = true;
+        StreamAttachments.closeQuietly(stream);
+    }
+
+    private synchronized void consumed() {
+        read = true;
+    }
+
+    private synchronized boolean isRead() {
+        return read;
+    }
+}
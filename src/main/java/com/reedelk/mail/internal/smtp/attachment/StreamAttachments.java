@@ -0,0 +1,129 @@
+package com.reedelk.mail.internal.smtp.attachment;
+
+import com.reedelk.mail.internal.commons.Defaults;
+
+import javax.activation.DataHandler;
+import javax.mail.Multipart;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The input streams of the attachment objects created with stream data. An attachment object
+ * only holds binary data and string attributes: the stream is registered here and referenced by
+ * an id set as attribute of the attachment, which stays valid when the attributes are copied.
+ *
+ * A stream is taken out of the registry by the first mail message attaching it and it is closed
+ * once that message has been sent, whether it has been read or not. The streams of the attachment
+ * objects which are never sent, e.g. because the flow failed before, expire: they are closed and
+ * removed from the registry once they have been registered for longer than the expiry time, and
+ * when the module is stopped.
+ */
+public class StreamAttachments {
+
+    private static final String MULTIPART = "multipart/";
+    private static final long SWEEP_INTERVAL = 1000;
+
+    private static final Map<String, Registered> STREAMS = new ConcurrentHashMap<>();
+
+    private static volatile long lastSweep;
+
+    private StreamAttachments() {
+    }
+
+    /**
+     * Returns the id referencing the given stream.
+     */
+    public static String register(InputStream stream) {
+        long now = System.currentTimeMillis();
+        if (now - lastSweep >= SWEEP_INTERVAL) {
+            lastSweep = now;
+            closeExpired(now - Defaults.STREAM_ATTACHMENT_EXPIRY);
+        }
+        String id = UUID.randomUUID().toString();
+        STREAMS.put(id, new Registered(stream, now));
+        return id;
+    }
+
+    /**
+     * Returns the stream referenced by the given id, or null if it has already been taken or it
+     * has expired: a stream can be read only once, by the first mail message attaching it.
+     */
+    static InputStream take(String id) {
+        Registered registered = STREAMS.remove(id);
+        return registered == null ? null : registered.stream;
+    }
+
+    /**
+     * Closes the streams attached to the given mail message, once it has been sent.
+     */
+    public static void close(MimeMessage message) {
+        try {
+            close(message.getDataHandler());
+        } catch (MessagingException | IOException exception) {
+            // The content of the message could not be read: it has no stream attached.
+        }
+    }
+
+    /**
+     * Closes the streams attached to the given multipart, e.g. once its parts have been encoded.
+     */
+    public static void close(Multipart multipart) {
+        try {
+            for (int index = 0; index < multipart.getCount(); index++) {
+                close(multipart.getBodyPart(index).getDataHandler());
+            }
+        } catch (MessagingException | IOException exception) {
+            // The parts could not be read: they have no stream attached.
+        }
+    }
+
+    /**
+     * Closes the streams which have not been taken by any mail message.
+     */
+    public static void closeAll() {
+        closeExpired(Long.MAX_VALUE);
+    }
+
+    private static void closeExpired(long registeredBefore) {
+        STREAMS.forEach((id, registered) -> {
+            // Removed only if it has not been taken in the meantime.
+            if (registered.time < registeredBefore && STREAMS.remove(id, registered)) {
+                closeQuietly(registered.stream);
+            }
+        });
+    }
+
+    private static void close(DataHandler dataHandler) throws MessagingException, IOException {
+        if (dataHandler.getDataSource() instanceof StreamAttachmentDataSource) {
+            ((StreamAttachmentDataSource) dataHandler.getDataSource()).close();
+
+        } else if (dataHandler.getContentType().toLowerCase().startsWith(MULTIPART)) {
+            // The content of a multipart is the multipart object set when the message was built.
+            close((Multipart) dataHandler.getContent());
+        }
+    }
+
+    static void closeQuietly(InputStream stream) {
+        try {
+            stream.close();
+        } catch (IOException exception) {
+            // Nothing else can be done with the stream.
+        }
+    }
+
+    private static class Registered {
+
+        final InputStream stream;
+        final long time;
+
+        Registered(InputStream stream, long time) {
+            this.stream = stream;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.reedelk.mail.internal.smtp.attachment.cache;
+
+import com.reedelk.mail.internal.commons.MBeans;
+
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import javax.mail.BodyPart;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded LRU cache of attachment contents, keyed by the identity of the content
+ * (e.g. the file path together with its last modified time and size). Contents are
+ * held either on the heap or in direct buffers, and the least recently used ones are
+ * evicted when the total size exceeds the max size. A single content can not take
+ * more than a quarter of the max size: larger contents are not cached.
+ * If enabled, the MIME parts of the cached attachments are cached as well once
+ * encoded, so that their content is not encoded again for each message.
+ * Hits, misses and evictions are exposed through JMX.
+ */
+public class AttachmentCache implements AttachmentCacheMXBean {
+
+    private static final int MAX_ENTRY_SIZE_RATIO = 4;
+
+    private final Map<String, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private final AttachmentCacheSettings settings;
+    private final long maxEntrySize;
+
+    private ObjectName objectName;
+    private long size;
+
+    public AttachmentCache(AttachmentCacheSettings settings) {
+        this.settings = settings;
+        this.maxEntrySize = settings.getMaxSize() / MAX_ENTRY_SIZE_RATIO;
+    }
+
+    /**
+     * Returns true if a content with the given size can be cached.
+     */
+    public boolean accepts(long contentSize) {
+        return contentSize <= maxEntrySize;
+    }
+
+    /**
+     * Returns a read only view of the content with the given key, loading it if it is not cached.
+     * Returns null if the loaded content is too large to be cached.
+     */
+    public ByteBuffer get(String key, ContentLoader loader) throws IOException {
+        ByteBuffer content;
+        synchronized (this) {
+            content = entries.get(key);
+        }
+        if (content != null) {
+            hits.increment();
+            return content.asReadOnlyBuffer();
+        }
+
+        misses.increment();
+
+        // Loaded outside the lock: concurrent misses of the same key might load it more than once.
+        byte[] loaded = loader.load(maxEntrySize);
+        if (loaded == null || !accepts(loaded.length)) return null;
+
+        content = settings.isOffHeap() ?
+                (ByteBuffer) ByteBuffer.allocateDirect(loaded.length).put(loaded).flip() :
+                ByteBuffer.wrap(loaded);
+
+        store(key, content);
+        return content.asReadOnlyBuffer();
+    }
+
+    /**
+     * Replaces the parts of the given message whose content is held by this cache with their
+     * cached encoded version. It must be called before the message is sent or written.
+     */
+    public void encodeParts(MimeMessage message) throws MessagingException, IOException {
+        if (!settings.isEncodedParts()) return;
+        Object content = message.getContent();
+        if (content instanceof MimeMultipart) {
+            encodeParts((MimeMultipart) content);
+        }
+    }
+
+    public void register(String name) {
+        objectName = MBeans.register(this, "AttachmentCache", name);
+    }
+
+    public void close() {
+        MBeans.unregister(objectName);
+        objectName = null;
+        synchronized (this) {
+            entries.clear();
+            size = 0;
+        }
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public synchronized int getEntries() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized long getSize() {
+        return size;
+    }
+
+    @Override
+    public long getMaxSize() {
+        return settings.getMaxSize();
+    }
+
+    @Override
+    public boolean isOffHeap() {
+        return settings.isOffHeap();
+    }
+
+    private void encodeParts(MimeMultipart multipart) throws MessagingException, IOException {
+        for (int index = 0; index < multipart.getCount(); index++) {
+            BodyPart part = multipart.getBodyPart(index);
+            DataHandler dataHandler = part.getDataHandler();
+            DataSource dataSource = dataHandler.getDataSource();
+
+            if (dataSource instanceof CachedAttachmentDataSource && part instanceof MimeBodyPart) {
+                // The headers of the part (e.g. file name and disposition) are part of the encoded content.
+                String key = "part:" + ((CachedAttachmentDataSource) dataSource).getKey() +
+                        ":" + dataSource.getContentType() +
+                        ":" + String.join(":", Collections.list(((MimeBodyPart) part).getAllHeaderLines()));
+
+                ByteBuffer encoded = get(key, maxSize -> EncodedBodyPart.encode(part));
+                if (encoded != null) {
+                    multipart.removeBodyPart(index);
+                    multipart.addBodyPart(new EncodedBodyPart(encoded), index);
+                }
+
+            } else if (dataHandler.getContentType().startsWith("multipart/")) {
+                // e.g. the related parts of an HTML email.
+                Object content = dataHandler.getContent();
+                if (content instanceof MimeMultipart) {
+                    encodeParts((MimeMultipart) content);
+                }
+            }
+        }
+    }
+
+    private synchronized void store(String key, ByteBuffer content) {
+        ByteBuffer previous = entries.put(key, content);
+        if (previous != null) size -= previous.capacity();
+        size += content.capacity();
+
+        // Iteration order is from the least recently used entry.
+        Iterator<ByteBuffer> iterator = entries.values().iterator();
+        while (size > settings.getMaxSize() && iterator.hasNext()) {
+            size -= iterator.next().capacity();
+            iterator.remove();
+            evictions.increment();
+        }
+    }
+
+    public interface ContentLoader {
+
+        /**
+         * Returns the content, or null if the content is larger than the given max size.
+         */
+        byte[] load(long maxSize) throws IOException;
+    }
+}
@@ -0,0 +1,21 @@
+package com.reedelk.mail.internal.smtp.attachment.cache;
+
+public interface AttachmentCacheMXBean {
+
+    long getHits();
+
+    long getMisses();
+
+    long getEvictions();
+
+    int getEntries();
+
+    /**
+     * The total size in bytes of the cached attachments.
+     */
+    long getSize();
+
+    long getMaxSize();
+
+    boolean isOffHeap();
+}
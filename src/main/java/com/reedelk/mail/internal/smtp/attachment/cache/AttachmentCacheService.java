@@ -0,0 +1,66 @@
+package com.reedelk.mail.internal.smtp.attachment.cache;
+
+import com.reedelk.mail.component.SMTPConfiguration;
+import org.osgi.service.component.annotations.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.osgi.service.component.annotations.ServiceScope.SINGLETON;
+
+/**
+ * Keeps a single attachment cache for each distinct cache settings, so that all the components
+ * whose SMTP configurations have the same cache settings share the cached attachments.
+ * Caches are reference counted and cleared when the last component using them is disposed.
+ */
+@Component(service = AttachmentCacheService.class, scope = SINGLETON, immediate = true)
+public class AttachmentCacheService {
+
+    private final Map<AttachmentCacheSettings, CacheEntry> caches = new HashMap<>();
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    /**
+     * Returns null if the attachment cache is not enabled in the given configuration.
+     */
+    public synchronized AttachmentCache acquire(SMTPConfiguration configuration) {
+        AttachmentCacheSettings settings = AttachmentCacheSettings.create()
+                .configuration(configuration)
+                .build();
+
+        if (settings.getMaxSize() <= 0) return null;
+
+        CacheEntry entry = caches.computeIfAbsent(settings, cacheSettings -> {
+            AttachmentCache cache = new AttachmentCache(cacheSettings);
+            cache.register("cache-" + sequence.incrementAndGet());
+            return new CacheEntry(cache);
+        });
+        entry.references++;
+        return entry.cache;
+    }
+
+    public synchronized void release(AttachmentCache cache) {
+        caches.values().removeIf(entry -> {
+            if (entry.cache != cache) return false;
+            entry.references--;
+            if (entry.references > 0) return false;
+            entry.cache.close();
+            return true;
+        });
+    }
+
+    public synchronized void closeAll() {
+        caches.values().forEach(entry -> entry.cache.close());
+        caches.clear();
+    }
+
+    private static class CacheEntry {
+
+        final AttachmentCache cache;
+        int references;
+
+        CacheEntry(AttachmentCache cache) {
+            this.cache = cache;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.reedelk.mail.internal.smtp.attachment.cache;
+
+import com.reedelk.mail.component.SMTPConfiguration;
+import com.reedelk.mail.internal.commons.Defaults;
+
+import java.util.Objects;
+import java.util.Optional;
+
+public class AttachmentCacheSettings {
+
+    private long maxSize;
+    private boolean offHeap;
+    private boolean encodedParts;
+
+    private AttachmentCacheSettings() {
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    public boolean isEncodedParts() {
+        return encodedParts;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        AttachmentCacheSettings that = (AttachmentCacheSettings) o;
+        return maxSize == that.maxSize &&
+                offHeap == that.offHeap &&
+                encodedParts == that.encodedParts;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(maxSize, offHeap, encodedParts);
+    }
+
+    public static Builder create() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private Long maxSize;
+        private Boolean offHeap;
+        private Boolean encodedParts;
+
+        public Builder configuration(SMTPConfiguration configuration) {
+            this.maxSize = Optional.ofNullable(configuration.getAttachmentCacheSize()).map(Long::valueOf).orElse(null);
+            this.offHeap = configuration.getAttachmentCacheOffHeap();
+            this.encodedParts = configuration.getAttachmentCacheEncoded();
+            return this;
+        }
+
+        public Builder maxSize(Long maxSize) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        public Builder offHeap(Boolean offHeap) {
+            this.offHeap = offHeap;
+            return this;
+        }
+
+        public Builder encodedParts(Boolean encodedParts) {
+            this.encodedParts = encodedParts;
+            return this;
+        }
+
+        public AttachmentCacheSettings build() {
+            AttachmentCacheSettings settings = new AttachmentCacheSettings();
+            settings.maxSize = Optional.ofNullable(maxSize).orElse(Defaults.AttachmentCache.MAX_SIZE);
+            settings.offHeap = Optional.ofNullable(offHeap).orElse(Defaults.AttachmentCache.OFF_HEAP);
+            settings.encodedParts = Optional.ofNullable(encodedParts).orElse(Defaults.AttachmentCache.ENCODED_PARTS);
+            return settings;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.reedelk.mail.internal.smtp.attachment.cache;
+
+import com.reedelk.mail.internal.commons.ByteBufferInputStream;
+
+import javax.activation.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A data source reading an attachment content held by the attachment cache.
+ */
+public class CachedAttachmentDataSource implements DataSource {
+
+    private final String key;
+    private final ByteBuffer content;
+    private final String contentType;
+    private final String name;
+
+    public CachedAttachmentDataSource(String key, ByteBuffer content, String contentType, String name) {
+        this.key = key;
+        this.content = content;
+        this.contentType = contentType;
+        this.name = name;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        // Each stream reads the content from the beginning.
+        return new ByteBufferInputStream(content.duplicate());
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        throw new IOException("Cached attachments are read only");
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The key of the content in the attachment cache.
+     */
+    public String getKey() {
+        return key;
+    }
+}
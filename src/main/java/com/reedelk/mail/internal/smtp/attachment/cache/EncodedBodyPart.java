@@ -0,0 +1,94 @@
+package com.reedelk.mail.internal.smtp.attachment.cache;
+
+import com.reedelk.mail.internal.commons.ByteBufferInputStream;
+
+import javax.mail.BodyPart;
+import javax.mail.Header;
+import javax.mail.MessagingException;
+import javax.mail.internet.InternetHeaders;
+import javax.mail.internet.MimeBodyPart;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Enumeration;
+
+/**
+ * A body part whose headers and content have already been encoded: it is written as it is,
+ * without encoding its content again. Its headers are never updated.
+ */
+public class EncodedBodyPart extends MimeBodyPart {
+
+    private static final int WRITE_BUFFER_SIZE = 8192;
+
+    private final ByteBuffer encoded;
+    private final ByteBuffer content;
+
+    public EncodedBodyPart(ByteBuffer encoded) throws MessagingException {
+        this.encoded = encoded;
+        ByteBuffer buffer = encoded.duplicate();
+        // Reads the headers up to the blank line, the content starts right after it.
+        this.headers = new InternetHeaders(new ByteBufferInputStream(buffer));
+        this.content = buffer.slice();
+    }
+
+    /**
+     * Returns the given body part encoded as it would be written in a message.
+     */
+    public static byte[] encode(BodyPart part) throws IOException {
+        try {
+            Encoder encoder = new Encoder();
+            encoder.setDataHandler(part.getDataHandler());
+            Enumeration<Header> headers = part.getAllHeaders();
+            while (headers.hasMoreElements()) {
+                Header header = headers.nextElement();
+                encoder.addHeader(header.getName(), header.getValue());
+            }
+            return encoder.encode();
+        } catch (MessagingException exception) {
+            throw new IOException(exception.getMessage(), exception);
+        }
+    }
+
+    @Override
+    public void writeTo(OutputStream stream) throws IOException {
+        ByteBuffer buffer = encoded.duplicate();
+        if (buffer.hasArray()) {
+            stream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            return;
+        }
+        byte[] chunk = new byte[Math.min(WRITE_BUFFER_SIZE, buffer.remaining())];
+        while (buffer.hasRemaining()) {
+            int length = Math.min(chunk.length, buffer.remaining());
+            buffer.get(chunk, 0, length);
+            stream.write(chunk, 0, length);
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return content.remaining();
+    }
+
+    @Override
+    protected InputStream getContentStream() {
+        return new ByteBufferInputStream(content.duplicate());
+    }
+
+    @Override
+    protected void updateHeaders() {
+        // The headers have been set when the part was encoded.
+    }
+
+    private static class Encoder extends MimeBodyPart {
+
+        byte[] encode() throws MessagingException, IOException {
+            // Sets the content type and the transfer encoding headers.
+            updateHeaders();
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            writeTo(stream);
+            return stream.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.reedelk.mail.internal.smtp.attachment.loader;
+
+import org.apache.commons.mail.EmailException;
+import org.apache.commons.mail.MultiPartEmail;
+
+import javax.activation.DataSource;
+import javax.activation.FileDataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the attachments built by an attachment source strategy, instead of adding them to the email:
+ * attachments loaded concurrently are added to the email afterwards, in the order they were defined.
+ */
+class AttachmentCollector extends MultiPartEmail {
+
+    private final List<Collected> collected = new ArrayList<>();
+
+    private long size;
+
+    @Override
+    public MultiPartEmail attach(DataSource dataSource, String name, String description, String disposition) {
+        collected.add(new Collected(dataSource, name, description, disposition));
+        size += sizeOf(dataSource);
+        return this;
+    }
+
+    /**
+     * Returns the size in bytes of the collected attachments, which are going to be read when the email is sent.
+     */
+    long size() {
+        return size;
+    }
+
+    void addTo(MultiPartEmail email) throws EmailException {
+        for (Collected attachment : collected) {
+            email.attach(attachment.dataSource, attachment.name, attachment.description, attachment.disposition);
+        }
+    }
+
+    private static long sizeOf(DataSource dataSource) {
+        if (dataSource instanceof FileDataSource) {
+            return ((FileDataSource) dataSource).getFile().length();
+        }
+        // The streams of in-memory data sources, e.g. byte arrays or cached attachments, do not copy
+        // their content: their available bytes are the content size. For other streams, the available
+        // bytes are the best estimate which can be made without reading them.
+        try (InputStream content = dataSource.getInputStream()) {
+            return content.available();
+        } catch (IOException exception) {
+            return 0;
+        }
+    }
+
+    private static class Collected {
+
+        final DataSource dataSource;
+        final String name;
+        final String description;
+        final String disposition;
+
+        Collected(DataSource dataSource, String name, String description, String disposition) {
+            this.dataSource = dataSource;
+            this.name = name;
+            this.description = description;
+            this.disposition = disposition;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.reedelk.mail.internal.smtp.attachment.loader;
+
+import com.reedelk.mail.internal.commons.NamedThreadFactory;
+import com.reedelk.mail.internal.exception.MailAttachmentException;
+import org.apache.commons.mail.EmailException;
+import org.apache.commons.mail.MultiPartEmail;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.ATTACHMENT_LOAD_INTERRUPTED;
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.ATTACHMENT_LOADER_CLOSED;
+
+/**
+ * Loads the attachments of an email concurrently on a bounded pool of threads: slow sources,
+ * e.g. files on network mounts, are read in parallel. The attachments are added to the email
+ * in the order they were defined, whatever the order in which their loading completes.
+ *
+ * An attachment takes a permit before it starts loading and gives it back once it has been
+ * added to its email: there are never more attachments loading, or loaded and not yet added,
+ * than loading threads. Besides, no further attachment starts loading while the size of the
+ * ones loaded and not yet added exceeds the max in-flight bytes: the first ones in order are
+ * added to their email first.
+ */
+public class AttachmentLoader {
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final long maxInFlightBytes;
+    private final AtomicLong inFlightBytes = new AtomicLong();
+
+    AttachmentLoader(AttachmentLoaderSettings settings) {
+        this.executor = Executors.newFixedThreadPool(settings.getThreads(), new NamedThreadFactory("attachment-loader"));
+        this.permits = new Semaphore(settings.getThreads());
+        this.maxInFlightBytes = settings.getMaxInFlightBytes();
+    }
+
+    /**
+     * Builds all the given attachments concurrently and adds them to the email, in order.
+     * If an attachment could not be built, the exception it has thrown is re-thrown once
+     * all the attachments started loading have completed.
+     */
+    public void load(MultiPartEmail email, List<Load> loads) {
+        Deque<Future<AttachmentCollector>> loading = new ArrayDeque<>();
+        RuntimeException failure = null;
+        try {
+            for (Load load : loads) {
+                reserve(email, loading);
+                loading.addLast(submit(load));
+            }
+            while (!loading.isEmpty()) {
+                addTo(email, loading.removeFirst());
+            }
+        } catch (RuntimeException exception) {
+            failure = exception;
+        } finally {
+            // The attachments still loading must release their permits and in-flight bytes.
+            while (!loading.isEmpty()) {
+                discard(loading.removeFirst());
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Takes a permit for the next attachment of the email. The attachments of the email already loading
+     * are added to it first, in order, while there is no permit left or the max in-flight bytes are exceeded.
+     */
+    private void reserve(MultiPartEmail email, Deque<Future<AttachmentCollector>> loading) {
+        while (!loading.isEmpty()) {
+            if (inFlightBytes.get() < maxInFlightBytes && permits.tryAcquire()) return;
+            addTo(email, loading.removeFirst());
+        }
+        // Nothing of this email is in flight: the permits are given back by the other emails.
+        try {
+            permits.acquire();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new MailAttachmentException(ATTACHMENT_LOAD_INTERRUPTED.format(), exception);
+        }
+    }
+
+    private Future<AttachmentCollector> submit(Load load) {
+        try {
+            return executor.submit(() -> {
+                AttachmentCollector collector = new AttachmentCollector();
+                load.build(collector);
+                inFlightBytes.addAndGet(collector.size());
+                return collector;
+            });
+        } catch (RejectedExecutionException exception) {
+            permits.release();
+            throw new MailAttachmentException(ATTACHMENT_LOADER_CLOSED.format(), exception);
+        }
+    }
+
+    private void addTo(MultiPartEmail email, Future<AttachmentCollector> loaded) {
+        try {
+            AttachmentCollector collector = await(loaded);
+            try {
+                collector.addTo(email);
+            } catch (EmailException exception) {
+                throw new MailAttachmentException(exception.getMessage(), exception);
+            } finally {
+                inFlightBytes.addAndGet(-collector.size());
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(Future<AttachmentCollector> loaded) {
+        try {
+            AttachmentCollector collector = await(loaded);
+            inFlightBytes.addAndGet(-collector.size());
+        } catch (RuntimeException exception) {
+            // The first failure is the one reported.
+        } finally {
+            permits.release();
+        }
+    }
+
+    private static AttachmentCollector await(Future<AttachmentCollector> loaded) {
+        try {
+            return loaded.get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new MailAttachmentException(ATTACHMENT_LOAD_INTERRUPTED.format(), exception);
+        } catch (ExecutionException exception) {
+            Throwable cause = exception.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new MailAttachmentException(cause.getMessage(), (Exception) cause);
+        }
+    }
+
+    /**
+     * Builds an attachment into the given email, e.g. using an attachment source strategy.
+     */
+    public interface Load {
+
+        void build(MultiPartEmail email) throws Exception;
+    }
+}
@@ -0,0 +1,61 @@
+package com.reedelk.mail.internal.smtp.attachment.loader;
+
+import com.reedelk.mail.component.SMTPConfiguration;
+import org.osgi.service.component.annotations.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.osgi.service.component.annotations.ServiceScope.SINGLETON;
+
+/**
+ * Keeps a single attachment loader for each distinct loader settings, so that all the components
+ * whose SMTP configurations have the same loader settings share its threads and in-flight bytes.
+ * Loaders are reference counted and closed when the last component using them is disposed.
+ */
+@Component(service = AttachmentLoaderService.class, scope = SINGLETON, immediate = true)
+public class AttachmentLoaderService {
+
+    private final Map<AttachmentLoaderSettings, LoaderEntry> loaders = new HashMap<>();
+
+    /**
+     * Returns null if the attachments are loaded one after the other in the given configuration.
+     */
+    public synchronized AttachmentLoader acquire(SMTPConfiguration configuration) {
+        AttachmentLoaderSettings settings = AttachmentLoaderSettings.create()
+                .configuration(configuration)
+                .build();
+
+        if (settings.getThreads() <= 1) return null;
+
+        LoaderEntry entry = loaders.computeIfAbsent(settings,
+                loaderSettings -> new LoaderEntry(new AttachmentLoader(loaderSettings)));
+        entry.references++;
+        return entry.loader;
+    }
+
+    public synchronized void release(AttachmentLoader loader) {
+        loaders.values().removeIf(entry -> {
+            if (entry.loader != loader) return false;
+            entry.references--;
+            if (entry.references > 0) return false;
+            entry.loader.close();
+            return true;
+        });
+    }
+
+    public synchronized void closeAll() {
+        loaders.values().forEach(entry -> entry.loader.close());
+        loaders.clear();
+    }
+
+    private static class LoaderEntry {
+
+        final AttachmentLoader loader;
+        int references;
+
+        LoaderEntry(AttachmentLoader loader) {
+            this.loader = loader;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.reedelk.mail.internal.smtp.attachment.loader;
+
+import com.reedelk.mail.component.SMTPConfiguration;
+import com.reedelk.mail.internal.commons.Defaults;
+
+import java.util.Objects;
+import java.util.Optional;
+
+public class AttachmentLoaderSettings {
+
+    private int threads;
+    private long maxInFlightBytes;
+
+    private AttachmentLoaderSettings() {
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public long getMaxInFlightBytes() {
+        return maxInFlightBytes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        AttachmentLoaderSettings that = (AttachmentLoaderSettings) o;
+        return threads == that.threads &&
+                maxInFlightBytes == that.maxInFlightBytes;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(threads, maxInFlightBytes);
+    }
+
+    public static Builder create() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private Integer threads;
+        private Long maxInFlightBytes;
+
+        public Builder configuration(SMTPConfiguration configuration) {
+            this.threads = configuration.getAttachmentLoadThreads();
+            this.maxInFlightBytes = Optional.ofNullable(configuration.getAttachmentLoadMaxInFlightBytes()).map(Long::valueOf).orElse(null);
+            return this;
+        }
+
+        public Builder threads(Integer threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        public Builder maxInFlightBytes(Long maxInFlightBytes) {
+            this.maxInFlightBytes = maxInFlightBytes;
+            return this;
+        }
+
+        public AttachmentLoaderSettings build() {
+            AttachmentLoaderSettings settings = new AttachmentLoaderSettings();
+            settings.threads = Optional.ofNullable(threads).orElse(Defaults.AttachmentLoader.THREADS);
+            settings.maxInFlightBytes = Optional.ofNullable(maxInFlightBytes).orElse(Defaults.AttachmentLoader.MAX_IN_FLIGHT_BYTES);
+            return settings;
+        }
+    }
+}
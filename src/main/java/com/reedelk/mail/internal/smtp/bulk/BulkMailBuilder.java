@@ -0,0 +1,168 @@
+package com.reedelk.mail.internal.smtp.bulk;
+
+import com.reedelk.mail.internal.exception.MailMessageConfigurationException;
+import com.reedelk.mail.internal.smtp.attachment.AttachmentSourceStrategyFactory;
+import com.reedelk.runtime.api.commons.StringUtils;
+import com.reedelk.runtime.api.converter.ConverterService;
+import com.reedelk.runtime.api.message.content.Attachment;
+import com.reedelk.runtime.api.message.content.MimeType;
+import com.reedelk.runtime.api.script.ScriptEngineService;
+import org.apache.commons.mail.*;
+
+import javax.mail.Session;
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.*;
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.joining;
+
+/**
+ * Builds the mime message of a single mail of a bulk send from its map definition,
+ * e.g: {'to': 'to@domain.com', 'subject': 'My subject', 'body': 'My body'}.
+ */
+public class BulkMailBuilder {
+
+    public static final String FROM = "from";
+    public static final String TO = "to";
+    public static final String CC = "cc";
+    public static final String BCC = "bcc";
+    public static final String REPLY_TO = "replyTo";
+    public static final String SUBJECT = "subject";
+    public static final String BODY = "body";
+    public static final String CHARSET = "charset";
+    public static final String CONTENT_TYPE = "contentType";
+    public static final String ATTACHMENTS = "attachments";
+
+    private final Map<String, Object> mail;
+    private final int index;
+
+    private Session session;
+    private String defaultFrom;
+    private ScriptEngineService scriptService;
+    private ConverterService converterService;
+
+    private BulkMailBuilder(Map<String, Object> mail, int index) {
+        this.mail = mail;
+        this.index = index;
+    }
+
+    public static BulkMailBuilder get(Map<String, Object> mail, int index) {
+        return new BulkMailBuilder(mail, index);
+    }
+
+    public BulkMailBuilder session(Session session) {
+        this.session = session;
+        return this;
+    }
+
+    public BulkMailBuilder defaultFrom(String defaultFrom) {
+        this.defaultFrom = defaultFrom;
+        return this;
+    }
+
+    public BulkMailBuilder scriptService(ScriptEngineService scriptService) {
+        this.scriptService = scriptService;
+        return this;
+    }
+
+    public BulkMailBuilder converter(ConverterService converterService) {
+        this.converterService = converterService;
+        return this;
+    }
+
+    public MimeMessage build() throws EmailException {
+        Object attachments = mail.get(ATTACHMENTS);
+        boolean html = MimeType.TEXT_HTML.toString().equalsIgnoreCase(stringOf(CONTENT_TYPE));
+
+        Email email;
+        if (html) email = new HtmlEmail();
+        else if (attachments != null) email = new MultiPartEmail();
+        else email = new SimpleEmail();
+
+        email.setMailSession(session);
+
+        String from = StringUtils.isNotBlank(stringOf(FROM)) ? stringOf(FROM) : defaultFrom;
+        if (StringUtils.isBlank(from)) {
+            throw new MailMessageConfigurationException(BULK_MAIL_FROM_ERROR.format(index));
+        }
+        email.setFrom(from);
+
+        String to = addressesOf(TO);
+        if (StringUtils.isBlank(to)) {
+            throw new MailMessageConfigurationException(BULK_MAIL_TO_ERROR.format(index));
+        }
+        email.setTo(parse(to));
+
+        String cc = addressesOf(CC);
+        if (StringUtils.isNotBlank(cc)) email.setCc(parse(cc));
+
+        String bcc = addressesOf(BCC);
+        if (StringUtils.isNotBlank(bcc)) email.setBcc(parse(bcc));
+
+        String replyTo = addressesOf(REPLY_TO);
+        if (StringUtils.isNotBlank(replyTo)) email.setReplyTo(parse(replyTo));
+
+        String subject = stringOf(SUBJECT);
+        if (StringUtils.isNotBlank(subject)) email.setSubject(subject);
+
+        String charset = StringUtils.isNotBlank(stringOf(CHARSET)) ?
+                stringOf(CHARSET) :
+                StandardCharsets.UTF_8.toString();
+        email.setCharset(charset);
+
+        String body = stringOf(BODY);
+        if (StringUtils.isBlank(body)) {
+            throw new MailMessageConfigurationException(MAIL_BODY_EMPTY_ERROR.format());
+        }
+        if (html) ((HtmlEmail) email).setHtmlMsg(body);
+        else email.setMsg(body);
+
+        if (attachments != null) {
+            configureAttachments((MultiPartEmail) email, attachments);
+        }
+
+        email.buildMimeMessage();
+        return email.getMimeMessage();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void configureAttachments(MultiPartEmail email, Object attachments) {
+        if (!Attachment.isAttachmentMap(attachments)) {
+            throw new MailMessageConfigurationException(BULK_MAIL_ATTACHMENTS_ERROR.format(index));
+        }
+        Map<String, Attachment> attachmentsMap = (Map<String, Attachment>) attachments;
+        attachmentsMap.forEach((attachmentName, attachment) ->
+                AttachmentSourceStrategyFactory
+                        .fromAttachment()
+                        .build(scriptService, converterService, email, attachmentName, attachment));
+    }
+
+    private String stringOf(String key) {
+        Object value = mail.get(key);
+        return value == null ? null : value.toString();
+    }
+
+    // Addresses might be given either as a comma separated string or as a list of addresses.
+    private String addressesOf(String key) {
+        Object value = mail.get(key);
+        if (value instanceof Collection) {
+            return ((Collection<?>) value).stream()
+                    .map(String::valueOf)
+                    .collect(joining(","));
+        }
+        return value == null ? null : value.toString();
+    }
+
+    private Collection<InternetAddress> parse(String addresses) {
+        try {
+            return asList(InternetAddress.parse(addresses));
+        } catch (AddressException exception) {
+            throw new MailMessageConfigurationException(exception.getMessage(), exception);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.reedelk.mail.internal.smtp.bulk;
+
+import java.io.Serializable;
+import java.util.HashMap;
+
+public class BulkMailResult {
+
+    static final String INDEX = "index";
+    static final String ACCEPTED = "accepted";
+    static final String MESSAGE_ID = "messageId";
+    static final String LATENCY = "latency";
+    static final String ERROR = "error";
+
+    private final int index;
+    private final boolean accepted;
+    private final String messageId;
+    private final long latency;
+    private final String error;
+
+    private BulkMailResult(int index, boolean accepted, String messageId, long latency, String error) {
+        this.index = index;
+        this.accepted = accepted;
+        this.messageId = messageId;
+        this.latency = latency;
+        this.error = error;
+    }
+
+    public static BulkMailResult accepted(int index, String messageId, long latency) {
+        return new BulkMailResult(index, true, messageId, latency, null);
+    }
+
+    public static BulkMailResult rejected(int index, long latency, String error) {
+        return new BulkMailResult(index, false, null, latency, error);
+    }
+
+    public boolean isAccepted() {
+        return accepted;
+    }
+
+    public HashMap<String, Serializable> asMap() {
+        HashMap<String, Serializable> result = new HashMap<>();
+        result.put(INDEX, index);
+        result.put(ACCEPTED, accepted);
+        result.put(MESSAGE_ID, messageId);
+        result.put(LATENCY, latency);
+        result.put(ERROR, error);
+        return result;
+    }
+}
@@ -0,0 +1,181 @@
+package com.reedelk.mail.internal.smtp.dispatch;
+
+import com.reedelk.mail.internal.commons.MBeans;
+
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Gives the connections of a pool to the emails waiting for them, one priority lane for each
+ * priority. When a connection is freed up and emails are waiting in several lanes, the lane
+ * is chosen by smooth weighted round robin (see {@link WeightedLanes}): under contention each
+ * lane gets a share of the connections proportional to its weight, the emails of the lower
+ * priorities still getting theirs. Within a lane the emails get the connections in order of arrival.
+ * The time spent waiting in each lane is exposed through JMX.
+ */
+public class DispatchQueue implements DispatchQueueMXBean {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final WeightedLanes<Waiter> waiting = new WeightedLanes<>();
+    private final Lane[] lanes;
+    private final int maxSize;
+
+    private int available;
+    private ObjectName objectName;
+
+    public DispatchQueue(int maxSize) {
+        this.maxSize = maxSize;
+        this.available = maxSize;
+        Priority[] priorities = Priority.values();
+        this.lanes = new Lane[priorities.length];
+        for (int i = 0; i < priorities.length; i++) {
+            lanes[i] = new Lane(priorities[i]);
+        }
+    }
+
+    /**
+     * Waits for a connection in the lane of the given priority, at most the given timeout
+     * in milliseconds. Returns false if no connection has been given within the timeout.
+     */
+    public boolean acquire(Priority priority, long timeout) throws InterruptedException {
+        Lane lane = lanes[priority.ordinal()];
+        lock.lock();
+        try {
+            if (available > 0 && waiting.isEmpty()) {
+                available--;
+                lane.dispatched(0);
+                return true;
+            }
+
+            Waiter waiter = new Waiter(lane, lock.newCondition());
+            waiting.add(priority, waiter);
+            // The connection might have been freed up before this email got in its lane.
+            dispatch();
+
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+            try {
+                while (!waiter.granted) {
+                    if (nanos <= 0) {
+                        waiting.remove(priority, waiter);
+                        return false;
+                    }
+                    nanos = waiter.condition.awaitNanos(nanos);
+                }
+                return true;
+            } catch (InterruptedException exception) {
+                if (waiter.granted) release();
+                else waiting.remove(priority, waiter);
+                throw exception;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release() {
+        lock.lock();
+        try {
+            available++;
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of connections not given to any email.
+     */
+    public int availablePermits() {
+        lock.lock();
+        try {
+            return available;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void register(String name) {
+        objectName = MBeans.register(this, "SMTPDispatchQueue", name);
+    }
+
+    public void unregister() {
+        MBeans.unregister(objectName);
+        objectName = null;
+    }
+
+    @Override
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public int getAvailable() {
+        return availablePermits();
+    }
+
+    @Override
+    public List<LaneMetrics> getLanes() {
+        lock.lock();
+        try {
+            List<LaneMetrics> metrics = new ArrayList<>();
+            for (Lane lane : lanes) {
+                metrics.add(new LaneMetrics(lane.priority.name(), lane.priority.weight(),
+                        waiting.size(lane.priority), lane.dispatched, lane.totalWaitTime, lane.maxWaitTime));
+            }
+            return metrics;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock held.
+    private void dispatch() {
+        while (available > 0) {
+            Waiter waiter = waiting.poll();
+            if (waiter == null) return;
+
+            available--;
+            waiter.granted = true;
+            waiter.lane.dispatched(System.nanoTime() - waiter.enqueued);
+            waiter.condition.signal();
+        }
+    }
+
+    private static class Lane {
+
+        final Priority priority;
+
+        long dispatched;
+        long totalWaitTime;
+        long maxWaitTime;
+
+        Lane(Priority priority) {
+            this.priority = priority;
+        }
+
+        void dispatched(long waitNanos) {
+            long waitTime = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+            dispatched++;
+            totalWaitTime += waitTime;
+            maxWaitTime = Math.max(maxWaitTime, waitTime);
+        }
+    }
+
+    private static class Waiter {
+
+        final long enqueued = System.nanoTime();
+        final Lane lane;
+        final Condition condition;
+
+        boolean granted;
+
+        Waiter(Lane lane, Condition condition) {
+            this.lane = lane;
+            this.condition = condition;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.reedelk.mail.internal.smtp.dispatch;
+
+import java.util.List;
+
+public interface DispatchQueueMXBean {
+
+    int getMaxSize();
+
+    /**
+     * The number of connections not given to any email.
+     */
+    int getAvailable();
+
+    /**
+     * The wait times of each priority lane, highest priority first.
+     */
+    List<LaneMetrics> getLanes();
+}
@@ -0,0 +1,63 @@
+package com.reedelk.mail.internal.smtp.dispatch;
+
+/**
+ * The wait times of the emails of a priority lane, exposed through JMX.
+ */
+public class LaneMetrics {
+
+    private final String name;
+    private final int weight;
+    private final int waiting;
+    private final long dispatched;
+    private final long totalWaitTime;
+    private final long maxWaitTime;
+
+    public LaneMetrics(String name, int weight, int waiting, long dispatched, long totalWaitTime, long maxWaitTime) {
+        this.name = name;
+        this.weight = weight;
+        this.waiting = waiting;
+        this.dispatched = dispatched;
+        this.totalWaitTime = totalWaitTime;
+        this.maxWaitTime = maxWaitTime;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * The number of emails currently waiting for a connection.
+     */
+    public int getWaiting() {
+        return waiting;
+    }
+
+    /**
+     * The number of emails which have been given a connection.
+     */
+    public long getDispatched() {
+        return dispatched;
+    }
+
+    /**
+     * The total time in milliseconds emails have waited for a connection.
+     */
+    public long getTotalWaitTime() {
+        return totalWaitTime;
+    }
+
+    /**
+     * The longest time in milliseconds an email has waited for a connection.
+     */
+    public long getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    public long getAverageWaitTime() {
+        return dispatched == 0 ? 0 : totalWaitTime / dispatched;
+    }
+}
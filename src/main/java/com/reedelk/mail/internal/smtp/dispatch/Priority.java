@@ -0,0 +1,36 @@
+package com.reedelk.mail.internal.smtp.dispatch;
+
+import java.util.Locale;
+
+/**
+ * The priority lanes of the emails waiting for an SMTP connection. Each lane
+ * gets a share of the connections freed up proportional to its weight.
+ */
+public enum Priority {
+
+    HIGH(8),
+    NORMAL(3),
+    LOW(1);
+
+    private final int weight;
+
+    Priority(int weight) {
+        this.weight = weight;
+    }
+
+    public int weight() {
+        return weight;
+    }
+
+    /**
+     * Returns the priority with the given name, case insensitive, or null if there is none.
+     */
+    public static Priority of(String name) {
+        if (name == null) return null;
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException exception) {
+            return null;
+        }
+    }
+}
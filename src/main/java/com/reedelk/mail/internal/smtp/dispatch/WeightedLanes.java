@@ -0,0 +1,65 @@
+package com.reedelk.mail.internal.smtp.dispatch;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Items queued in one lane for each priority. The lane of the next item is chosen by smooth
+ * weighted round robin: each lane with items gains its weight, the lane with the most is chosen
+ * and loses the weights of all of them. Under contention each lane gets a share proportional to
+ * its weight, spread out instead of in bursts, the lower priorities still getting theirs.
+ * Within a lane the items are taken in order of arrival.
+ *
+ * Not thread safe: callers must synchronize the access.
+ */
+public class WeightedLanes<T> {
+
+    private final List<ArrayDeque<T>> lanes = new ArrayList<>();
+    private final int[] current;
+
+    public WeightedLanes() {
+        Priority[] priorities = Priority.values();
+        for (int i = 0; i < priorities.length; i++) {
+            lanes.add(new ArrayDeque<>());
+        }
+        this.current = new int[priorities.length];
+    }
+
+    public void add(Priority priority, T item) {
+        lanes.get(priority.ordinal()).add(item);
+    }
+
+    public boolean remove(Priority priority, T item) {
+        return lanes.get(priority.ordinal()).remove(item);
+    }
+
+    /**
+     * Takes the next item, or returns null if there is none.
+     */
+    public T poll() {
+        Priority[] priorities = Priority.values();
+        int selected = -1;
+        int totalWeight = 0;
+        for (int i = 0; i < priorities.length; i++) {
+            if (lanes.get(i).isEmpty()) continue;
+            current[i] += priorities[i].weight();
+            totalWeight += priorities[i].weight();
+            if (selected < 0 || current[i] > current[selected]) selected = i;
+        }
+        if (selected < 0) return null;
+        current[selected] -= totalWeight;
+        return lanes.get(selected).poll();
+    }
+
+    public boolean isEmpty() {
+        for (ArrayDeque<T> lane : lanes) {
+            if (!lane.isEmpty()) return false;
+        }
+        return true;
+    }
+
+    public int size(Priority priority) {
+        return lanes.get(priority.ordinal()).size();
+    }
+}
@@ -0,0 +1,114 @@
+package com.reedelk.mail.internal.smtp.idempotency;
+
+import com.reedelk.mail.component.SMTPConfiguration;
+import com.reedelk.mail.internal.commons.Defaults;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+import java.util.Optional;
+
+import static com.reedelk.runtime.api.commons.StringUtils.isNotBlank;
+
+public class IdempotencySettings {
+
+    private long window;
+    private long waitTimeout;
+    private int maxKeys;
+    private Path file;
+
+    private IdempotencySettings() {
+    }
+
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * The time an email waits for the email being sent with the same key: the time the latter
+     * might wait for a connection of the pool, and then for the replies of the server.
+     */
+    public long getWaitTimeout() {
+        return waitTimeout;
+    }
+
+    public int getMaxKeys() {
+        return maxKeys;
+    }
+
+    /**
+     * The file the keys are stored in, or null if they are kept in memory only.
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        IdempotencySettings that = (IdempotencySettings) o;
+        return window == that.window &&
+                waitTimeout == that.waitTimeout &&
+                maxKeys == that.maxKeys &&
+                Objects.equals(file, that.file);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(window, waitTimeout, maxKeys, file);
+    }
+
+    public static Builder create() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private Long window;
+        private Long waitTimeout;
+        private Integer maxKeys;
+        private Path file;
+
+        public Builder configuration(SMTPConfiguration configuration) {
+            this.window = Optional.ofNullable(configuration.getIdempotencyWindow()).map(Long::valueOf).orElse(null);
+            int borrowTimeout = Optional.ofNullable(configuration.getPoolBorrowTimeout()).orElse(Defaults.TransportPool.BORROW_TIMEOUT);
+            int socketTimeout = Optional.ofNullable(configuration.getSocketTimeout()).orElse(Defaults.SOCKET_TIMEOUT);
+            this.waitTimeout = (long) borrowTimeout + socketTimeout;
+            this.maxKeys = configuration.getIdempotencyMaxKeys();
+            this.file = isNotBlank(configuration.getIdempotencyStoreFile()) ?
+                    Paths.get(configuration.getIdempotencyStoreFile()) :
+                    null;
+            return this;
+        }
+
+        public Builder window(Long window) {
+            this.window = window;
+            return this;
+        }
+
+        public Builder waitTimeout(Long waitTimeout) {
+            this.waitTimeout = waitTimeout;
+            return this;
+        }
+
+        public Builder maxKeys(Integer maxKeys) {
+            this.maxKeys = maxKeys;
+            return this;
+        }
+
+        public Builder file(Path file) {
+            this.file = file;
+            return this;
+        }
+
+        public IdempotencySettings build() {
+            IdempotencySettings settings = new IdempotencySettings();
+            settings.window = Optional.ofNullable(window).orElse(Defaults.Idempotency.WINDOW);
+            settings.waitTimeout = Optional.ofNullable(waitTimeout).orElse(Defaults.Idempotency.WAIT_TIMEOUT);
+            settings.maxKeys = Optional.ofNullable(maxKeys).orElse(Defaults.Idempotency.MAX_KEYS);
+            settings.file = file;
+            return settings;
+        }
+    }
+}
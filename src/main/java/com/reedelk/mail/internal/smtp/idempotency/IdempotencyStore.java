@@ -0,0 +1,232 @@
+package com.reedelk.mail.internal.smtp.idempotency;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.*;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Records the outcome of the emails sent with an idempotency key, so that an email sent again
+ * with the same key within the window is not sent twice: the outcome recorded the first time is
+ * returned instead. An email being sent with a key makes the others with the same key wait for it,
+ * at most the wait timeout; if it fails the key is not recorded, and the next one is sent.
+ *
+ * The store is shared by the components using the same settings: keys are recorded within the
+ * namespace of the component sending the email, they do not match the keys of other namespaces.
+ *
+ * The keys are kept in memory, at most the maximum number of keys, the oldest ones being evicted
+ * first. If a file is given, the keys are also appended to it as they are recorded, and they are
+ * read back when the store is opened: the file is compacted when it holds twice as many keys.
+ */
+public class IdempotencyStore implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyStore.class);
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final ConcurrentHashMap<String, Record> records = new ConcurrentHashMap<>();
+    // The recorded keys, oldest first: keys are recorded with the same window, thus in expiration order.
+    private final ConcurrentLinkedQueue<Record> recorded = new ConcurrentLinkedQueue<>();
+    private final IdempotencySettings settings;
+
+    private DataOutputStream journal;
+    private int journaled;
+
+    public IdempotencyStore(IdempotencySettings settings) {
+        this.settings = settings;
+    }
+
+    public synchronized void open() throws IOException {
+        Path file = settings.getFile();
+        if (file == null) return;
+
+        long now = System.currentTimeMillis();
+        for (Record record : read(file)) {
+            if (record.expiresAt <= now) continue;
+            Record previous = records.put(record.key, record);
+            if (previous != null) recorded.remove(previous);
+            recorded.add(record);
+        }
+        evict(now);
+        compact();
+    }
+
+    /**
+     * Sends an email with the given key, unless an email with the same key has already been sent in the
+     * same namespace within the window: returns the outcome of the email, recorded the first time it has
+     * been sent.
+     */
+    public Map<String, Serializable> sendOnce(String namespace, String key, Callable<Map<String, Serializable>> send) throws Exception {
+        long now = System.currentTimeMillis();
+        evict(now);
+
+        Record record = new Record(keyOf(namespace, key));
+        while (true) {
+            Record existing = records.putIfAbsent(record.key, record);
+            if (existing == null) return send(record, send);
+
+            if (existing.expiresAt <= now) {
+                records.remove(record.key, existing);
+                continue;
+            }
+            try {
+                return new HashMap<>(existing.outcome.get(settings.getWaitTimeout(), MILLISECONDS));
+            } catch (ExecutionException failed) {
+                // The key has been released: the email is sent again.
+            } catch (TimeoutException timeout) {
+                throw new TimeoutException(IDEMPOTENCY_KEY_WAIT_TIMEOUT.format(settings.getWaitTimeout(), key));
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException exception) {
+                // nothing we can do.
+            }
+            journal = null;
+        }
+        records.clear();
+        recorded.clear();
+    }
+
+    private Map<String, Serializable> send(Record record, Callable<Map<String, Serializable>> send) throws Exception {
+        Map<String, Serializable> outcome;
+        try {
+            outcome = send.call();
+        } catch (Exception | Error exception) {
+            records.remove(record.key, record);
+            record.outcome.completeExceptionally(exception);
+            throw exception;
+        }
+
+        record.expiresAt = System.currentTimeMillis() + settings.getWindow();
+        record.outcome.complete(new HashMap<>(outcome));
+        recorded.add(record);
+        append(record);
+        return outcome;
+    }
+
+    // The length of the namespace keeps apart e.g. namespace 'a:b' with key 'c' and namespace 'a' with key 'b:c'.
+    private static String keyOf(String namespace, String key) {
+        return namespace.length() + ":" + namespace + ":" + key;
+    }
+
+    private void evict(long now) {
+        synchronized (recorded) {
+            Record oldest;
+            while ((oldest = recorded.peek()) != null &&
+                    (oldest.expiresAt <= now || records.size() > settings.getMaxKeys())) {
+                recorded.poll();
+                records.remove(oldest.key, oldest);
+            }
+        }
+    }
+
+    private synchronized void append(Record record) {
+        if (journal == null) return;
+        try {
+            write(journal, record);
+            journal.flush();
+            if (++journaled > 2 * Math.max(records.size(), settings.getMaxKeys())) compact();
+        } catch (IOException exception) {
+            // The email has been sent: the key is still recorded in memory.
+            logger.warn(IDEMPOTENCY_STORE_WRITE_ERROR.format(settings.getFile(), exception.getMessage()), exception);
+        }
+    }
+
+    /**
+     * Rewrites the file with the keys currently recorded, then keeps appending to it.
+     */
+    private void compact() throws IOException {
+        Path file = settings.getFile();
+        Path tmp = file.resolveSibling(file.getFileName() + TMP_SUFFIX);
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            journaled = 0;
+            for (Record record : recorded) {
+                write(out, record);
+                journaled++;
+            }
+        }
+        Files.move(tmp, file, REPLACE_EXISTING, ATOMIC_MOVE);
+        journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.toFile(), true)));
+    }
+
+    private static void write(DataOutputStream out, Record record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream object = new ObjectOutputStream(bytes)) {
+            object.writeLong(record.expiresAt);
+            object.writeObject(record.key);
+            object.writeObject(record.outcome.getNow(null));
+        }
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Record> read(Path file) throws IOException {
+        List<Record> records = new ArrayList<>();
+        if (!Files.exists(file)) return records;
+
+        long size = Files.size(file);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                byte[] bytes;
+                try {
+                    int length = in.readInt();
+                    if (length < 0 || length > size) throw new EOFException();
+                    bytes = new byte[length];
+                    in.readFully(bytes);
+                } catch (EOFException exception) {
+                    // End of file, or a partially written key (crash) which is ignored.
+                    return records;
+                }
+                try (ObjectInputStream object = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    long expiresAt = object.readLong();
+                    Record record = new Record((String) object.readObject());
+                    record.expiresAt = expiresAt;
+                    record.outcome.complete((HashMap<String, Serializable>) object.readObject());
+                    records.add(record);
+                } catch (IOException | ClassNotFoundException | ClassCastException exception) {
+                    logger.warn(IDEMPOTENCY_STORE_READ_ERROR.format(file, exception.getMessage()), exception);
+                    return records;
+                }
+            }
+        }
+    }
+
+    private static class Record {
+
+        final CompletableFuture<HashMap<String, Serializable>> outcome = new CompletableFuture<>();
+        final String key;
+
+        // Not expired while the email is being sent.
+        volatile long expiresAt = Long.MAX_VALUE;
+
+        Record(String key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.reedelk.mail.internal.smtp.idempotency;
+
+import com.reedelk.mail.component.SMTPConfiguration;
+import com.reedelk.mail.internal.exception.MailMessageConfigurationException;
+import org.osgi.service.component.annotations.Component;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.IDEMPOTENCY_STORE_OPEN_ERROR;
+import static org.osgi.service.component.annotations.ServiceScope.SINGLETON;
+
+/**
+ * Keeps a single idempotency store for each distinct store settings, so that all the components
+ * whose SMTP configurations have the same settings share the recorded keys. Stores are reference
+ * counted and closed when the last component using them is disposed.
+ */
+@Component(service = IdempotencyStoreService.class, scope = SINGLETON, immediate = true)
+public class IdempotencyStoreService {
+
+    private final Map<IdempotencySettings, StoreEntry> stores = new HashMap<>();
+
+    public synchronized IdempotencyStore acquire(SMTPConfiguration configuration) {
+        IdempotencySettings settings = IdempotencySettings.create()
+                .configuration(configuration)
+                .build();
+
+        StoreEntry entry = stores.get(settings);
+        if (entry == null) {
+            IdempotencyStore store = new IdempotencyStore(settings);
+            try {
+                store.open();
+            } catch (IOException exception) {
+                store.close();
+                throw new MailMessageConfigurationException(IDEMPOTENCY_STORE_OPEN_ERROR.format(settings.getFile(), exception.getMessage()), exception);
+            }
+            entry = new StoreEntry(store);
+            stores.put(settings, entry);
+        }
+        entry.references++;
+        return entry.store;
+    }
+
+    public synchronized void release(IdempotencyStore store) {
+        stores.values().removeIf(entry -> {
+            if (entry.store != store) return false;
+            entry.references--;
+            if (entry.references > 0) return false;
+            entry.store.close();
+            return true;
+        });
+    }
+
+    public synchronized void closeAll() {
+        stores.values().forEach(entry -> entry.store.close());
+        stores.clear();
+    }
+
+    private static class StoreEntry {
+
+        final IdempotencyStore store;
+        int references;
+
+        StoreEntry(IdempotencyStore store) {
+            this.store = store;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.reedelk.mail.internal.smtp.merge;
+
+import com.reedelk.mail.internal.exception.MailMessageConfigurationException;
+import com.reedelk.mail.internal.smtp.attachment.cache.EncodedBodyPart;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.MERGE_RECORD_TO_ERROR;
+import static com.reedelk.runtime.api.commons.StringUtils.isBlank;
+
+/**
+ * The parts of a mail merge which are the same for all its recipients: they are evaluated,
+ * parsed and encoded once. The message of each recipient is built from these parts and
+ * from the fields of the recipient record, e.g: {'to': 'john@domain.com', 'name': 'John'}.
+ */
+public class MailMerge {
+
+    public static final String TO = "to";
+
+    private static final String PLAIN = "plain";
+    private static final String HTML = "html";
+
+    private Session session;
+    private InternetAddress from;
+    private MailMergeTemplate subject;
+    private MailMergeTemplate body;
+    private String charset;
+    private boolean html;
+    private List<ByteBuffer> attachments;
+
+    private MailMerge() {
+    }
+
+    public MimeMessage messageFor(Map<String, Object> record, int index) throws MessagingException {
+        Object to = record.get(TO);
+        if (to == null || isBlank(to.toString())) {
+            throw new MailMessageConfigurationException(MERGE_RECORD_TO_ERROR.format(index));
+        }
+
+        MimeMessage message = new MimeMessage(session);
+        message.setFrom(from);
+        message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(to.toString()));
+        if (subject != null) {
+            message.setSubject(subject.render(record, index), charset);
+        }
+        message.setSentDate(new Date());
+
+        String text = body.render(record, index);
+        String subtype = html ? HTML : PLAIN;
+        if (attachments.isEmpty()) {
+            message.setText(text, charset, subtype);
+            return message;
+        }
+
+        MimeMultipart content = new MimeMultipart();
+        MimeBodyPart textPart = new MimeBodyPart();
+        textPart.setText(text, charset, subtype);
+        content.addBodyPart(textPart);
+        for (ByteBuffer attachment : attachments) {
+            // Each message has its own parts, sharing the encoded attachment.
+            content.addBodyPart(new EncodedBodyPart(attachment));
+        }
+        message.setContent(content);
+        return message;
+    }
+
+    public static Builder create() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private Session session;
+        private String from;
+        private String subject;
+        private String body;
+        private String charset;
+        private boolean html;
+        private List<ByteBuffer> attachments;
+
+        public Builder session(Session session) {
+            this.session = session;
+            return this;
+        }
+
+        public Builder from(String from) {
+            this.from = from;
+            return this;
+        }
+
+        public Builder subject(String subject) {
+            this.subject = subject;
+            return this;
+        }
+
+        public Builder body(String body) {
+            this.body = body;
+            return this;
+        }
+
+        public Builder charset(String charset) {
+            this.charset = charset;
+            return this;
+        }
+
+        public Builder html(boolean html) {
+            this.html = html;
+            return this;
+        }
+
+        public Builder attachments(List<ByteBuffer> attachments) {
+            this.attachments = attachments;
+            return this;
+        }
+
+        public MailMerge build() throws MessagingException {
+            MailMerge merge = new MailMerge();
+            merge.session = session;
+            merge.from = new InternetAddress(from);
+            merge.subject = isBlank(subject) ? null : MailMergeTemplate.parse(subject);
+            // The subject is never HTML: only the values filled in an HTML body are escaped.
+            merge.body = html ? MailMergeTemplate.parseHtml(body) : MailMergeTemplate.parse(body);
+            merge.charset = charset;
+            merge.html = html;
+            merge.attachments = attachments == null ? Collections.emptyList() : attachments;
+            return merge;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.reedelk.mail.internal.smtp.merge;
+
+import com.reedelk.mail.internal.smtp.attachment.StreamAttachments;
+import com.reedelk.mail.internal.smtp.attachment.cache.EncodedBodyPart;
+import org.apache.commons.mail.MultiPartEmail;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMultipart;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the attachments of a mail merge, using the same attachment strategies as the mail send component.
+ * The attachments are encoded once and shared by all the messages of the mail merge.
+ */
+public class MailMergeAttachments extends MultiPartEmail {
+
+    public List<ByteBuffer> encoded() throws MessagingException, IOException {
+        MimeMultipart container = getContainer();
+        List<ByteBuffer> encoded = new ArrayList<>(container.getCount());
+        for (int index = 0; index < container.getCount(); index++) {
+            encoded.add(ByteBuffer.wrap(EncodedBodyPart.encode(container.getBodyPart(index))));
+        }
+        return encoded;
+    }
+
+    /**
+     * Closes the streams of the attachments, which are not read anymore once they have been encoded.
+     */
+    public void close() {
+        StreamAttachments.close(getContainer());
+    }
+}
@@ -0,0 +1,53 @@
+package com.reedelk.mail.internal.smtp.merge;
+
+import java.io.Serializable;
+import java.util.HashMap;
+
+public class MailMergeResult {
+
+    static final String INDEX = "index";
+    static final String TO = "to";
+    static final String ACCEPTED = "accepted";
+    static final String MESSAGE_ID = "messageId";
+    static final String LATENCY = "latency";
+    static final String ERROR = "error";
+
+    private final int index;
+    private final String to;
+    private final boolean accepted;
+    private final String messageId;
+    private final long latency;
+    private final String error;
+
+    private MailMergeResult(int index, String to, boolean accepted, String messageId, long latency, String error) {
+        this.index = index;
+        this.to = to;
+        this.accepted = accepted;
+        this.messageId = messageId;
+        this.latency = latency;
+        this.error = error;
+    }
+
+    public static MailMergeResult accepted(int index, String to, String messageId, long latency) {
+        return new MailMergeResult(index, to, true, messageId, latency, null);
+    }
+
+    public static MailMergeResult rejected(int index, String to, long latency, String error) {
+        return new MailMergeResult(index, to, false, null, latency, error);
+    }
+
+    public boolean isAccepted() {
+        return accepted;
+    }
+
+    public HashMap<String, Serializable> asMap() {
+        HashMap<String, Serializable> result = new HashMap<>();
+        result.put(INDEX, index);
+        result.put(TO, to);
+        result.put(ACCEPTED, accepted);
+        result.put(MESSAGE_ID, messageId);
+        result.put(LATENCY, latency);
+        result.put(ERROR, error);
+        return result;
+    }
+}
@@ -0,0 +1,89 @@
+package com.reedelk.mail.internal.smtp.merge;
+
+import com.reedelk.mail.internal.exception.MailMessageConfigurationException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.MERGE_FIELD_NOT_FOUND;
+
+/**
+ * A subject or body template with placeholders, e.g: 'Dear {{name}}'. The template is parsed
+ * once, each recipient record then only fills in the values of its fields. The values filled
+ * in an HTML template are escaped, so that they are shown as text and not rendered as markup.
+ */
+public class MailMergeTemplate {
+
+    private static final String PLACEHOLDER_START = "{{";
+    private static final String PLACEHOLDER_END = "}}";
+
+    // There is always one more literal than fields: fields go in between literals.
+    private final List<String> literals = new ArrayList<>();
+    private final List<String> fields = new ArrayList<>();
+    private final int literalsLength;
+    private final boolean html;
+
+    private MailMergeTemplate(String template, boolean html) {
+        this.html = html;
+        int length = 0;
+        int position = 0;
+        int start;
+        while ((start = template.indexOf(PLACEHOLDER_START, position)) != -1) {
+            int end = template.indexOf(PLACEHOLDER_END, start + PLACEHOLDER_START.length());
+            if (end == -1) break;
+            String literal = template.substring(position, start);
+            literals.add(literal);
+            length += literal.length();
+            fields.add(template.substring(start + PLACEHOLDER_START.length(), end).trim());
+            position = end + PLACEHOLDER_END.length();
+        }
+        String literal = template.substring(position);
+        literals.add(literal);
+        this.literalsLength = length + literal.length();
+    }
+
+    public static MailMergeTemplate parse(String template) {
+        return new MailMergeTemplate(template, false);
+    }
+
+    public static MailMergeTemplate parseHtml(String template) {
+        return new MailMergeTemplate(template, true);
+    }
+
+    /**
+     * Returns the template with its placeholders replaced by the values of the given recipient record.
+     * A field with a null value is replaced by an empty string, a missing field is an error.
+     */
+    public String render(Map<String, Object> record, int index) {
+        if (fields.isEmpty()) return literals.get(0);
+
+        StringBuilder rendered = new StringBuilder(literalsLength + fields.size() * 16);
+        for (int i = 0; i < fields.size(); i++) {
+            String field = fields.get(i);
+            if (!record.containsKey(field)) {
+                throw new MailMessageConfigurationException(MERGE_FIELD_NOT_FOUND.format(field, index));
+            }
+            Object value = record.get(field);
+            rendered.append(literals.get(i));
+            if (value == null) continue;
+            if (html) escape(value.toString(), rendered);
+            else rendered.append(value);
+        }
+        return rendered.append(literals.get(fields.size())).toString();
+    }
+
+    private static void escape(String value, StringBuilder rendered) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '<': rendered.append("&lt;"); break;
+                case '>': rendered.append("&gt;"); break;
+                case '&': rendered.append("&amp;"); break;
+                case '"': rendered.append("&quot;"); break;
+                case '\'': rendered.append("&#39;"); break;
+                default: rendered.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.reedelk.mail.internal.smtp.rate;
+
+import com.reedelk.mail.internal.commons.MBeans;
+
+import javax.management.ObjectName;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Enforces the messages, recipients and bytes per second limits of an SMTP configuration,
+ * each one with its own token bucket. A limit equal to zero means no limit. The time spent
+ * waiting for the limits is exposed through JMX.
+ */
+public class SMTPRateLimiter implements SMTPRateLimiterMXBean {
+
+    private final LongAdder throttledTime = new LongAdder();
+    private final LongAdder throttledMessages = new LongAdder();
+
+    private final int maxMessagesPerSecond;
+    private final int maxRecipientsPerSecond;
+    private final int maxBytesPerSecond;
+
+    private final TokenBucket messages;
+    private final TokenBucket recipients;
+    private final TokenBucket bytes;
+
+    private ObjectName objectName;
+
+    public SMTPRateLimiter(int maxMessagesPerSecond, int maxRecipientsPerSecond, int maxBytesPerSecond) {
+        this.maxMessagesPerSecond = maxMessagesPerSecond;
+        this.maxRecipientsPerSecond = maxRecipientsPerSecond;
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        this.messages = maxMessagesPerSecond > 0 ? new TokenBucket(maxMessagesPerSecond) : null;
+        this.recipients = maxRecipientsPerSecond > 0 ? new TokenBucket(maxRecipientsPerSecond) : null;
+        this.bytes = maxBytesPerSecond > 0 ? new TokenBucket(maxBytesPerSecond) : null;
+    }
+
+    public boolean isEnabled() {
+        return messages != null || recipients != null || bytes != null;
+    }
+
+    /**
+     * Reserves one message with the given number of recipients and returns the time in
+     * nanoseconds to wait before sending it. The size of a message is known only once it
+     * has been sent: previously sent bytes exceeding the limit delay the following messages.
+     */
+    public long reserve(int recipientsCount) {
+        long delay = 0;
+        if (messages != null) delay = messages.reserve(1);
+        if (recipients != null) delay = Math.max(delay, recipients.reserve(recipientsCount));
+        if (bytes != null) delay = Math.max(delay, bytes.reserve(0));
+        if (delay > 0) {
+            throttledTime.add(delay);
+            throttledMessages.increment();
+        }
+        return delay;
+    }
+
+    /**
+     * Charges the bytes of a message which has been sent.
+     */
+    public void sent(long bytesCount) {
+        if (bytes != null && bytesCount > 0) bytes.reserve(bytesCount);
+    }
+
+    public void register(String name) {
+        if (isEnabled()) objectName = MBeans.register(this, "SMTPRateLimiter", name);
+    }
+
+    public void unregister() {
+        MBeans.unregister(objectName);
+        objectName = null;
+    }
+
+    @Override
+    public int getMaxMessagesPerSecond() {
+        return maxMessagesPerSecond;
+    }
+
+    @Override
+    public int getMaxRecipientsPerSecond() {
+        return maxRecipientsPerSecond;
+    }
+
+    @Override
+    public int getMaxBytesPerSecond() {
+        return maxBytesPerSecond;
+    }
+
+    @Override
+    public long getThrottledTime() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledTime.sum());
+    }
+
+    @Override
+    public long getThrottledMessages() {
+        return throttledMessages.sum();
+    }
+}
@@ -0,0 +1,20 @@
+package com.reedelk.mail.internal.smtp.rate;
+
+public interface SMTPRateLimiterMXBean {
+
+    int getMaxMessagesPerSecond();
+
+    int getMaxRecipientsPerSecond();
+
+    int getMaxBytesPerSecond();
+
+    /**
+     * The total time in milliseconds messages have been held back by the rate limits.
+     */
+    long getThrottledTime();
+
+    /**
+     * The number of messages which have been held back by the rate limits.
+     */
+    long getThrottledMessages();
+}
@@ -0,0 +1,43 @@
+package com.reedelk.mail.internal.smtp.rate;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket refilled at a constant rate and holding at most one second
+ * worth of tokens. Tokens are reserved ahead: a reservation never fails, it returns how
+ * long the caller must wait before using the reserved tokens. Callers can therefore wait
+ * without holding any lock, or schedule their work after the returned delay.
+ */
+public class TokenBucket {
+
+    private static final long ONE_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final double nanosPerToken;
+
+    // The time at which all the tokens reserved so far have been refilled:
+    // the tokens available at time t are (t - refilledAt) / nanosPerToken.
+    private final AtomicLong refilledAt;
+
+    public TokenBucket(long tokensPerSecond) {
+        this.nanosPerToken = (double) ONE_SECOND / tokensPerSecond;
+        this.refilledAt = new AtomicLong(System.nanoTime() - ONE_SECOND);
+    }
+
+    /**
+     * Reserves the given number of tokens and returns the time in nanoseconds
+     * to wait before the tokens are available, zero if they are available now.
+     */
+    public long reserve(long tokens) {
+        long cost = (long) (tokens * nanosPerToken);
+        while (true) {
+            long now = System.nanoTime();
+            long current = refilledAt.get();
+            // The bucket can not hold more than one second worth of tokens.
+            long next = Math.max(current, now - ONE_SECOND) + cost;
+            if (refilledAt.compareAndSet(current, next)) {
+                return Math.max(0, next - now);
+            }
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package com.reedelk.mail.internal.smtp.spool;
+
+import com.reedelk.mail.internal.commons.NamedThreadFactory;
+import com.reedelk.mail.internal.smtp.transport.EnvelopeResult;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPool;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.internet.MimeMessage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.*;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * A durable outbound mail spool. Messages are appended to segment files and synced to disk
+ * before the sender is acknowledged: concurrent senders are written in batches sharing a
+ * single sync. Delivery workers drain the spool through the SMTP transport pool, retrying
+ * failed deliveries with an exponential backoff. Delivered messages are recorded in a log,
+ * so that on restart only the messages which were not delivered are sent again.
+ */
+public class MailSpool implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MailSpool.class);
+
+    private static final String DELIVERED_LOG = "delivered.log";
+    private static final String DELIVERED_LOG_TMP = "delivered.log.tmp";
+    private static final int WRITER_POLL_TIMEOUT = 500;
+    private static final int TERMINATION_AWAIT_TIME = 60000;
+
+    private final BlockingQueue<PendingWrite> pending = new LinkedBlockingQueue<>();
+    private final DelayQueue<SpoolRecord> deliveries = new DelayQueue<>();
+    private final Map<Long, SpoolSegment> segments = new HashMap<>();
+
+    private final SMTPTransportPool transportPool;
+    private final SMTPSpoolSettings settings;
+    private final ExecutorService writer;
+    private final ExecutorService workers;
+    private final int workersCount;
+
+    private FileChannel delivered;
+    private SpoolSegment current;
+    private long nextId;
+
+    private volatile boolean closed;
+
+    public MailSpool(SMTPTransportPool transportPool, SMTPSpoolSettings settings, int workersCount) {
+        this.transportPool = transportPool;
+        this.settings = settings;
+        this.workersCount = workersCount;
+        this.writer = Executors.newSingleThreadExecutor(new NamedThreadFactory("mail-spool-writer"));
+        this.workers = Executors.newFixedThreadPool(workersCount, new NamedThreadFactory("mail-spool-delivery"));
+    }
+
+    public void open() throws IOException {
+        recover();
+        writer.execute(this::write);
+        for (int i = 0; i < workersCount; i++) {
+            workers.execute(this::deliver);
+        }
+    }
+
+    /**
+     * Returns as soon as the message has been durably stored in the spool.
+     */
+    public void append(MimeMessage message) throws MessagingException, IOException {
+        // Spooled messages are sent as they are stored, therefore the
+        // headers (e.g. Message-ID) must be updated before writing them.
+        message.saveChanges();
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        message.writeTo(content);
+
+        PendingWrite write = new PendingWrite(content.toByteArray());
+        synchronized (pending) {
+            if (closed) throw new MessagingException(SPOOL_CLOSED.format());
+            pending.add(write);
+        }
+        write.await();
+    }
+
+    SMTPTransportPool transportPool() {
+        return transportPool;
+    }
+
+    @Override
+    public void close() {
+        synchronized (pending) {
+            if (closed) return;
+            closed = true;
+        }
+
+        // The writer terminates once all the pending messages have been written.
+        writer.shutdown();
+        awaitTermination(writer);
+
+        // Messages not delivered yet stay in the spool and they are delivered on the next start.
+        workers.shutdownNow();
+        awaitTermination(workers);
+
+        synchronized (this) {
+            try {
+                if (delivered != null) {
+                    delivered.force(false);
+                    delivered.close();
+                }
+            } catch (IOException exception) {
+                // nothing we can do.
+            }
+            for (SpoolSegment segment : segments.values()) {
+                try {
+                    segment.close();
+                } catch (IOException exception) {
+                    // nothing we can do.
+                }
+            }
+            segments.clear();
+        }
+    }
+
+    private void write() {
+        List<PendingWrite> batch = new ArrayList<>(settings.getSyncBatchSize());
+        while (true) {
+            PendingWrite first;
+            try {
+                first = pending.poll(WRITER_POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (first == null) {
+                if (closed) break;
+                continue;
+            }
+            batch.add(first);
+            pending.drainTo(batch, settings.getSyncBatchSize() - 1);
+            write(batch);
+            batch.clear();
+        }
+
+        // Only possible if the writer was interrupted.
+        pending.forEach(write -> write.failed(new IOException(SPOOL_CLOSED.format())));
+    }
+
+    private void write(List<PendingWrite> batch) {
+        List<SpoolRecord> records = new ArrayList<>(batch.size());
+        // The size of each segment written before the batch, to take the batch back if it fails.
+        Map<SpoolSegment, Long> sizes = new LinkedHashMap<>();
+        try {
+            for (PendingWrite write : batch) {
+                if (current.size() >= settings.getSegmentSize()) roll();
+                sizes.putIfAbsent(current, current.size());
+                SpoolRecord record = current.append(nextId++, write.content);
+                // Counted right away, so that a segment rolled over in the middle of the batch is not deleted.
+                synchronized (this) {
+                    record.segment.added();
+                }
+                records.add(record);
+            }
+            // One sync for the whole batch.
+            current.force();
+
+        } catch (IOException exception) {
+            discard(records, sizes);
+            batch.forEach(write -> write.failed(exception));
+            return;
+        }
+
+        deliveries.addAll(records);
+        batch.forEach(PendingWrite::written);
+    }
+
+    /**
+     * Takes back the records of a batch which could not be written: the senders are told that the messages
+     * were not stored and they might send them again, thus the messages must not be delivered after a restart.
+     */
+    private void discard(List<SpoolRecord> records, Map<SpoolSegment, Long> sizes) {
+        synchronized (this) {
+            records.forEach(record -> record.segment.removed());
+        }
+        sizes.forEach((segment, size) -> {
+            try {
+                segment.truncate(size);
+            } catch (IOException exception) {
+                logger.error(SPOOL_DISCARD_ERROR.format(segment.path(), exception.getMessage()), exception);
+            }
+        });
+    }
+
+    private void roll() throws IOException {
+        current.force();
+        SpoolSegment next = SpoolSegment.create(settings.getDirectory(), current.index + 1);
+        synchronized (this) {
+            SpoolSegment previous = current;
+            segments.put(next.index, next);
+            current = next;
+            if (previous.isEmpty()) {
+                segments.remove(previous.index);
+                previous.delete();
+            }
+        }
+    }
+
+    private void deliver() {
+        while (!Thread.currentThread().isInterrupted()) {
+            SpoolRecord record;
+            try {
+                record = deliveries.take();
+            } catch (InterruptedException exception) {
+                break;
+            }
+            deliver(record);
+        }
+    }
+
+    private void deliver(SpoolRecord record) {
+        MimeMessage message;
+        try {
+            byte[] content = record.segment.read(record);
+            message = new SpooledMimeMessage(transportPool.session(), new ByteArrayInputStream(content));
+        } catch (IOException | MessagingException exception) {
+            logger.error(SPOOL_READ_ERROR.format(record.id, exception.getMessage()), exception);
+            remove(record);
+            return;
+        }
+
+        try {
+            List<EnvelopeResult> envelopes = transportPool.send(message);
+            // Sent separately to each domain and rejected by some of them only: as for any partial
+            // delivery, it is not retried since the other domains would receive the message twice.
+            for (EnvelopeResult envelope : envelopes) {
+                if (!envelope.isAccepted()) {
+                    logger.error(SPOOL_DELIVERY_PARTIAL.format(record.id, Arrays.toString(envelope.getAddresses()), envelope.getError()));
+                }
+            }
+            remove(record);
+
+        } catch (MessagingException exception) {
+            // The message is delivered on the next start.
+            if (closed) return;
+
+            long delay = record.failed(settings.getRetryInterval(), settings.getMaxRetryInterval());
+            if (isPermanent(exception) || record.attempts() >= settings.getMaxAttempts()) {
+                logger.error(SPOOL_DELIVERY_DISCARDED.format(record.id, record.attempts(), exception.getMessage()), exception);
+                remove(record);
+            } else {
+                logger.warn(SPOOL_DELIVERY_RETRY.format(record.id, record.attempts(), delay, exception.getMessage()));
+                deliveries.add(record);
+            }
+        }
+    }
+
+    private synchronized void remove(SpoolRecord record) {
+        try {
+            ByteBuffer id = ByteBuffer.allocate(Long.BYTES).putLong(record.id);
+            id.flip();
+            while (id.hasRemaining()) delivered.write(id);
+        } catch (IOException exception) {
+            // The message might be delivered again on the next start.
+            logger.warn(exception.getMessage(), exception);
+        }
+
+        SpoolSegment segment = record.segment;
+        if (segment.removed() && segment != current) {
+            segments.remove(segment.index);
+            try {
+                segment.delete();
+            } catch (IOException exception) {
+                // The segment is deleted on the next start.
+                logger.warn(exception.getMessage(), exception);
+            }
+        }
+    }
+
+    private void recover() throws IOException {
+        Path directory = settings.getDirectory();
+        Files.createDirectories(directory);
+
+        Set<Long> deliveredIds = readDelivered(directory.resolve(DELIVERED_LOG));
+        Set<Long> stillDelivered = new HashSet<>();
+        List<SpoolRecord> recovered = new ArrayList<>();
+        long lastId = -1;
+        long lastIndex = -1;
+
+        for (Path path : segmentFiles(directory)) {
+            // Segments which can not be recovered stay in the directory: new segments must come after them.
+            lastIndex = Math.max(lastIndex, SpoolSegment.indexOf(path));
+
+            List<SpoolRecord> records = new ArrayList<>();
+            SpoolSegment segment;
+            try {
+                segment = SpoolSegment.recover(path, records::add);
+            } catch (IOException | RuntimeException exception) {
+                logger.error(SPOOL_RECOVERY_ERROR.format(path, exception.getMessage()), exception);
+                continue;
+            }
+
+            for (SpoolRecord record : records) {
+                lastId = Math.max(lastId, record.id);
+                if (deliveredIds.contains(record.id)) {
+                    stillDelivered.add(record.id);
+                } else {
+                    segment.added();
+                    recovered.add(record);
+                }
+            }
+
+            if (segment.isEmpty()) segment.delete();
+            else segments.put(segment.index, segment);
+        }
+
+        // The delivered log is rewritten keeping only the messages of the segments still in use.
+        writeDelivered(directory, stillDelivered);
+        delivered = FileChannel.open(directory.resolve(DELIVERED_LOG), CREATE, WRITE, APPEND);
+
+        nextId = lastId + 1;
+        current = SpoolSegment.create(directory, lastIndex + 1);
+        segments.put(current.index, current);
+
+        deliveries.addAll(recovered);
+    }
+
+    private static List<Path> segmentFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> {
+                String fileName = path.getFileName().toString();
+                return fileName.matches(SpoolSegment.PATTERN);
+            }).sorted().collect(toList());
+        }
+    }
+
+    private static Set<Long> readDelivered(Path path) throws IOException {
+        Set<Long> ids = new HashSet<>();
+        if (!Files.exists(path)) return ids;
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        // A partially written id (crash) is ignored.
+        while (buffer.remaining() >= Long.BYTES) {
+            ids.add(buffer.getLong());
+        }
+        return ids;
+    }
+
+    private static void writeDelivered(Path directory, Set<Long> ids) throws IOException {
+        Path tmp = directory.resolve(DELIVERED_LOG_TMP);
+        ByteBuffer buffer = ByteBuffer.allocate(ids.size() * Long.BYTES);
+        ids.forEach(buffer::putLong);
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(tmp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) channel.write(buffer);
+            channel.force(false);
+        }
+        Files.move(tmp, directory.resolve(DELIVERED_LOG), REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    private static boolean isPermanent(MessagingException exception) {
+        if (exception instanceof SendFailedException) {
+            SendFailedException sendFailed = (SendFailedException) exception;
+            Address[] validSent = sendFailed.getValidSentAddresses();
+            // Retrying after a partial delivery would send the message twice to the same recipients.
+            if (validSent != null && validSent.length > 0) return true;
+            // 5xx replies mean the server will never accept the message as it is.
+            if (exception instanceof SMTPSendFailedException) {
+                return ((SMTPSendFailedException) exception).getReturnCode() >= 500;
+            }
+            Address[] validUnsent = sendFailed.getValidUnsentAddresses();
+            return validUnsent == null || validUnsent.length == 0;
+        }
+        // Connection and I/O errors.
+        return false;
+    }
+
+    private static void awaitTermination(ExecutorService executorService) {
+        try {
+            if (!executorService.awaitTermination(TERMINATION_AWAIT_TIME, TimeUnit.MILLISECONDS)) {
+                executorService.shutdownNow();
+            }
+        } catch (InterruptedException exception) {
+            executorService.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class PendingWrite {
+
+        final byte[] content;
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        PendingWrite(byte[] content) {
+            this.content = content;
+        }
+
+        void written() {
+            result.complete(null);
+        }
+
+        void failed(IOException exception) {
+            result.completeExceptionally(exception);
+        }
+
+        void await() throws IOException {
+            try {
+                result.get();
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new IOException(exception);
+            } catch (ExecutionException exception) {
+                throw (IOException) exception.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.reedelk.mail.internal.smtp.spool;
+
+import com.reedelk.mail.component.SMTPConfiguration;
+import com.reedelk.mail.internal.exception.MailMessageConfigurationException;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPool;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPoolService;
+import org.osgi.service.component.annotations.Component;
+
+import javax.mail.Session;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.SPOOL_OPEN_ERROR;
+import static org.osgi.service.component.annotations.ServiceScope.SINGLETON;
+
+/**
+ * Keeps a single mail spool for each spool directory. Spools are reference counted
+ * and closed when the last component using them is disposed. Each spool holds its own
+ * reference to the transport pool it delivers through, released when the spool is closed:
+ * the pool stays open as long as the spool, whichever component acquired it first.
+ */
+@Component(service = SMTPSpoolService.class, scope = SINGLETON, immediate = true)
+public class SMTPSpoolService {
+
+    private final Map<Path, SpoolEntry> spools = new HashMap<>();
+
+    public synchronized MailSpool acquire(SMTPConfiguration configuration, Session session, SMTPTransportPoolService transportPoolService) {
+        SMTPSpoolSettings settings = SMTPSpoolSettings.create()
+                .configuration(configuration)
+                .build();
+
+        Path directory = settings.getDirectory();
+        SpoolEntry entry = spools.get(directory);
+        if (entry == null) {
+            SMTPTransportPool transportPool = transportPoolService.acquire(configuration, session);
+            // One delivery worker for each connection of the pool.
+            int workers = transportPool.settings().getMaxSize();
+            MailSpool spool = new MailSpool(transportPool, settings, workers);
+            try {
+                spool.open();
+            } catch (IOException exception) {
+                spool.close();
+                transportPoolService.release(transportPool);
+                throw new MailMessageConfigurationException(SPOOL_OPEN_ERROR.format(directory, exception.getMessage()), exception);
+            }
+            entry = new SpoolEntry(spool, transportPoolService);
+            spools.put(directory, entry);
+        }
+        entry.references++;
+        return entry.spool;
+    }
+
+    public synchronized void release(MailSpool spool) {
+        spools.values().removeIf(entry -> {
+            if (entry.spool != spool) return false;
+            entry.references--;
+            if (entry.references > 0) return false;
+            entry.close();
+            return true;
+        });
+    }
+
+    public synchronized void closeAll() {
+        spools.values().forEach(SpoolEntry::close);
+        spools.clear();
+    }
+
+    private static class SpoolEntry {
+
+        final MailSpool spool;
+        final SMTPTransportPoolService transportPoolService;
+        int references;
+
+        SpoolEntry(MailSpool spool, SMTPTransportPoolService transportPoolService) {
+            this.spool = spool;
+            this.transportPoolService = transportPoolService;
+        }
+
+        void close() {
+            // The pending deliveries are still using the pool while the spool is being closed.
+            spool.close();
+            transportPoolService.release(spool.transportPool());
+        }
+    }
+}
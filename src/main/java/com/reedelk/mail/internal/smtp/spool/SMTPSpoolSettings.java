@@ -0,0 +1,119 @@
+package com.reedelk.mail.internal.smtp.spool;
+
+import com.reedelk.mail.component.SMTPConfiguration;
+import com.reedelk.mail.internal.commons.Defaults;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+
+import static com.reedelk.runtime.api.commons.StringUtils.isNotBlank;
+
+public class SMTPSpoolSettings {
+
+    private Path directory;
+    private int maxAttempts;
+    private int retryInterval;
+    private int maxRetryInterval;
+    private int syncBatchSize;
+    private long segmentSize;
+
+    private SMTPSpoolSettings() {
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public int getRetryInterval() {
+        return retryInterval;
+    }
+
+    public int getMaxRetryInterval() {
+        return maxRetryInterval;
+    }
+
+    public int getSyncBatchSize() {
+        return syncBatchSize;
+    }
+
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+
+    public static Builder create() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private Path directory;
+        private Integer maxAttempts;
+        private Integer retryInterval;
+        private Integer maxRetryInterval;
+        private Integer syncBatchSize;
+        private Long segmentSize;
+
+        public Builder configuration(SMTPConfiguration configuration) {
+            this.directory = isNotBlank(configuration.getSpoolDirectory()) ?
+                    Paths.get(configuration.getSpoolDirectory()) :
+                    defaultDirectory(configuration);
+            this.maxAttempts = configuration.getSpoolMaxAttempts();
+            this.retryInterval = configuration.getSpoolRetryInterval();
+            return this;
+        }
+
+        public Builder directory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        public Builder maxAttempts(Integer maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        public Builder retryInterval(Integer retryInterval) {
+            this.retryInterval = retryInterval;
+            return this;
+        }
+
+        public Builder maxRetryInterval(Integer maxRetryInterval) {
+            this.maxRetryInterval = maxRetryInterval;
+            return this;
+        }
+
+        public Builder syncBatchSize(Integer syncBatchSize) {
+            this.syncBatchSize = syncBatchSize;
+            return this;
+        }
+
+        public Builder segmentSize(Long segmentSize) {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        public SMTPSpoolSettings build() {
+            SMTPSpoolSettings settings = new SMTPSpoolSettings();
+            settings.directory = directory.toAbsolutePath().normalize();
+            settings.maxAttempts = Optional.ofNullable(maxAttempts).orElse(Defaults.Spool.MAX_ATTEMPTS);
+            settings.retryInterval = Optional.ofNullable(retryInterval).orElse(Defaults.Spool.RETRY_INTERVAL);
+            settings.maxRetryInterval = Optional.ofNullable(maxRetryInterval).orElse(Defaults.Spool.MAX_RETRY_INTERVAL);
+            settings.syncBatchSize = Optional.ofNullable(syncBatchSize).orElse(Defaults.Spool.SYNC_BATCH_SIZE);
+            settings.segmentSize = Optional.ofNullable(segmentSize).orElse(Defaults.Spool.SEGMENT_SIZE);
+            return settings;
+        }
+
+        // Different SMTP configurations must not share the same spool.
+        private static Path defaultDirectory(SMTPConfiguration configuration) {
+            String name = configuration.getHost() + "_" + configuration.getPort() + "_" + configuration.getUsername();
+            return Paths.get(System.getProperty("java.io.tmpdir"),
+                    Defaults.Spool.DIRECTORY_NAME,
+                    name.replaceAll("[^A-Za-z0-9._-]", "_"));
+        }
+    }
+}
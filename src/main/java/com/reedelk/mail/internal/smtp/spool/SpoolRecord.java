@@ -0,0 +1,54 @@
+package com.reedelk.mail.internal.smtp.spool;
+
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+class SpoolRecord implements Delayed {
+
+    final long id;
+    final SpoolSegment segment;
+    final long position;
+    final int length;
+
+    private int attempts;
+    private long nextAttemptTime;
+
+    SpoolRecord(long id, SpoolSegment segment, long position, int length) {
+        this.id = id;
+        this.segment = segment;
+        this.position = position;
+        this.length = length;
+    }
+
+    int attempts() {
+        return attempts;
+    }
+
+    /**
+     * Records a failed delivery attempt and schedules the next one
+     * doubling the retry interval after each failure.
+     *
+     * @return the time in milliseconds before the next attempt.
+     */
+    long failed(int retryInterval, int maxRetryInterval) {
+        attempts++;
+        long delay = Math.min((long) retryInterval << Math.min(attempts - 1, 20), maxRetryInterval);
+        nextAttemptTime = System.currentTimeMillis() + delay;
+        return delay;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+        return unit.convert(nextAttemptTime - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+        if (other instanceof SpoolRecord) {
+            int compare = Long.compare(nextAttemptTime, ((SpoolRecord) other).nextAttemptTime);
+            // Messages due at the same time are delivered in the order they were spooled.
+            return compare != 0 ? compare : Long.compare(id, ((SpoolRecord) other).id);
+        }
+        return Long.compare(getDelay(TimeUnit.MILLISECONDS), other.getDelay(TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,149 @@
+package com.reedelk.mail.internal.smtp.spool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * An append-only spool file. Each record is made of the message id,
+ * the length of the message and the message content in RFC 822 format.
+ */
+class SpoolSegment {
+
+    static final String PREFIX = "segment-";
+    static final String SUFFIX = ".spool";
+    static final String PATTERN = PREFIX + "\\d+\\" + SUFFIX;
+
+    private static final int HEADER_SIZE = Long.BYTES + Integer.BYTES;
+
+    final long index;
+
+    private final Path path;
+    private final FileChannel channel;
+
+    private long size;
+    private int outstanding;
+
+    private SpoolSegment(long index, Path path, FileChannel channel, long size) {
+        this.index = index;
+        this.path = path;
+        this.channel = channel;
+        this.size = size;
+    }
+
+    static SpoolSegment create(Path directory, long index) throws IOException {
+        Path path = directory.resolve(PREFIX + String.format("%019d", index) + SUFFIX);
+        FileChannel channel = FileChannel.open(path, CREATE_NEW, READ, WRITE);
+        return new SpoolSegment(index, path, channel, 0);
+    }
+
+    /**
+     * Opens an existing segment, passing to the consumer each record found. A record partially
+     * written because of a crash is truncated, so that new records can be appended after it.
+     */
+    static SpoolSegment recover(Path path, Consumer<SpoolRecord> consumer) throws IOException {
+        long index = indexOf(path);
+
+        FileChannel channel = FileChannel.open(path, READ, WRITE);
+        SpoolSegment segment = new SpoolSegment(index, path, channel, 0);
+
+        long fileSize = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        long position = 0;
+        while (position + HEADER_SIZE <= fileSize) {
+            header.clear();
+            channel.read(header, position);
+            header.flip();
+            long id = header.getLong();
+            int length = header.getInt();
+            if (length < 0 || position + HEADER_SIZE + length > fileSize) break;
+            consumer.accept(new SpoolRecord(id, segment, position + HEADER_SIZE, length));
+            position += HEADER_SIZE + length;
+        }
+
+        if (position < fileSize) channel.truncate(position);
+        segment.size = position;
+        return segment;
+    }
+
+    /**
+     * The index of the segment with the given path, matching the segment file name pattern.
+     */
+    static long indexOf(Path path) {
+        String fileName = path.getFileName().toString();
+        return Long.parseLong(fileName.substring(PREFIX.length(), fileName.length() - SUFFIX.length()));
+    }
+
+    SpoolRecord append(long id, byte[] content) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + content.length);
+        buffer.putLong(id).putInt(content.length).put(content);
+        buffer.flip();
+
+        long position = size;
+        while (buffer.hasRemaining()) {
+            size += channel.write(buffer, size);
+        }
+        return new SpoolRecord(id, this, position + HEADER_SIZE, content.length);
+    }
+
+    byte[] read(SpoolRecord record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(record.length);
+        long position = record.position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new IOException("Unexpected end of spool segment " + path);
+            position += read;
+        }
+        return buffer.array();
+    }
+
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Removes the records appended after the given size.
+     */
+    void truncate(long size) throws IOException {
+        channel.truncate(size);
+        channel.force(false);
+        this.size = size;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    long size() {
+        return size;
+    }
+
+    void added() {
+        outstanding++;
+    }
+
+    /**
+     * @return true if all the records of this segment have been delivered or discarded.
+     */
+    boolean removed() {
+        return --outstanding == 0;
+    }
+
+    boolean isEmpty() {
+        return outstanding == 0;
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    void delete() throws IOException {
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+}
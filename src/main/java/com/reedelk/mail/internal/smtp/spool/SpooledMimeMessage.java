@@ -0,0 +1,23 @@
+package com.reedelk.mail.internal.smtp.spool;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.io.InputStream;
+
+/**
+ * A mail message read back from the spool. Its headers were already updated before
+ * the message was spooled: saving the changes again would assign a new Message-ID
+ * and re-encode the content, therefore the message is sent exactly as it was stored.
+ */
+class SpooledMimeMessage extends MimeMessage {
+
+    SpooledMimeMessage(Session session, InputStream content) throws MessagingException {
+        super(session, content);
+    }
+
+    @Override
+    public void saveChanges() {
+        // Already saved before being spooled.
+    }
+}
@@ -0,0 +1,223 @@
+package com.reedelk.mail.internal.smtp.transport;
+
+import javax.activation.DataHandler;
+import javax.mail.BodyPart;
+import javax.mail.EncodingAware;
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimePart;
+import javax.mail.internet.MimePartDataSource;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Chooses the transfer encodings of the parts of a message according to the extensions supported
+ * by the server it is sent to. With 8BITMIME, text parts are sent as they are instead of being
+ * quoted-printable or base64 encoded.
+ *
+ * It also tells whether the message can be sent with BDAT: the data stream of the transport
+ * dot-stuffs the content sent with BDAT as it does with DATA, while the server removes the
+ * stuffing of DATA content only. A message is sent with BDAT only if none of its lines starts
+ * with a dot.
+ *
+ * Only the parts whose content is available as an object or a data source are changed: the
+ * parts which have been parsed or which are already encoded are written as they are. The
+ * original encodings are restored once the message has been sent, since the same message
+ * might be sent again, over a connection to a server not supporting these extensions.
+ */
+class BodyEncodings {
+
+    static final String EIGHT_BIT_MIME = "8BITMIME";
+
+    private static final String CONTENT_TRANSFER_ENCODING = "Content-Transfer-Encoding";
+    private static final String BASE64 = "base64";
+    private static final String QUOTED_PRINTABLE = "quoted-printable";
+    private static final String EIGHT_BIT = "8bit";
+
+    // The longest line allowed by RFC 5322, without the line terminator.
+    private static final int MAX_LINE_LENGTH = 998;
+
+    private final Map<MimePart, String[]> original = new LinkedHashMap<>();
+    private final boolean eightBit;
+    private final boolean chunking;
+
+    // False if some line of the message might start with a dot.
+    private boolean dotFree = true;
+    private boolean eightBitText;
+
+    private BodyEncodings(boolean eightBit, boolean chunking) {
+        this.eightBit = eightBit;
+        this.chunking = chunking;
+    }
+
+    /**
+     * Changes the encodings of the parts of the given message, if 8BITMIME is supported, and
+     * checks whether it can be sent with BDAT, if CHUNKING is supported.
+     */
+    static BodyEncodings of(MimeMessage message, boolean eightBit, boolean chunking) throws MessagingException {
+        BodyEncodings encodings = new BodyEncodings(eightBit, chunking);
+        if (eightBit || chunking) {
+            try {
+                encodings.encode(message);
+            } catch (IOException exception) {
+                encodings.restore();
+                throw new MessagingException(exception.getMessage(), exception);
+            }
+        }
+        return encodings;
+    }
+
+    /**
+     * Returns the value of the BODY parameter of the MAIL FROM command, or null if the message is 7bit.
+     */
+    String body() {
+        return eightBitText ? EIGHT_BIT_MIME : null;
+    }
+
+    /**
+     * Returns true if none of the lines of the message content starts with a dot:
+     * the message can be sent with BDAT.
+     */
+    boolean isDotFree() {
+        return dotFree;
+    }
+
+    /**
+     * Restores the original encodings of the parts of the message.
+     */
+    void restore() throws MessagingException {
+        for (Map.Entry<MimePart, String[]> entry : original.entrySet()) {
+            String encoding = entry.getValue()[0];
+            if (encoding == null) entry.getKey().removeHeader(CONTENT_TRANSFER_ENCODING);
+            else entry.getKey().setHeader(CONTENT_TRANSFER_ENCODING, encoding);
+        }
+        original.clear();
+        eightBitText = false;
+    }
+
+    private void encode(MimePart part) throws MessagingException, IOException {
+        DataHandler dataHandler = part.getDataHandler();
+        if (dataHandler.getDataSource() instanceof MimePartDataSource) {
+            // Parsed or already encoded: the content is written as it is.
+            dotFree = false;
+            return;
+        }
+
+        if (part.isMimeType("multipart/*")) {
+            Object content = dataHandler.getContent();
+            if (!(content instanceof Multipart)) {
+                dotFree = false;
+                return;
+            }
+            Multipart multipart = (Multipart) content;
+            for (int i = 0; i < multipart.getCount(); i++) {
+                BodyPart bodyPart = multipart.getBodyPart(i);
+                if (bodyPart instanceof MimePart) encode((MimePart) bodyPart);
+                else dotFree = false;
+            }
+            return;
+        }
+
+        String encoding = part.getEncoding();
+        if (encoding == null || part.isMimeType("message/*")) {
+            dotFree = false;
+            return;
+        }
+
+        if (part.isMimeType("text/*")) {
+            encodeText(part, dataHandler, encoding);
+        } else if (!BASE64.equalsIgnoreCase(encoding)) {
+            // Base64 lines never start with a dot, other contents are not checked.
+            dotFree = false;
+        }
+    }
+
+    private void encodeText(MimePart part, DataHandler dataHandler, String encoding) throws MessagingException, IOException {
+        boolean base64 = BASE64.equalsIgnoreCase(encoding);
+        boolean encoded = base64 || QUOTED_PRINTABLE.equalsIgnoreCase(encoding);
+        boolean switchable = encoded && eightBit;
+        if (!switchable && !(chunking && !base64)) return;
+
+        if (dataHandler.getDataSource() instanceof EncodingAware) {
+            // The content might be readable only once, e.g. a stream.
+            if (!base64) dotFree = false;
+            return;
+        }
+
+        TextCheck check = new TextCheck();
+        dataHandler.writeTo(check);
+
+        if (switchable && check.isEightBit()) {
+            set(part, EIGHT_BIT);
+            eightBitText = true;
+            encoding = EIGHT_BIT;
+        }
+
+        if (QUOTED_PRINTABLE.equalsIgnoreCase(encoding)) {
+            // A soft line break might be followed by any of the dots of the text.
+            if (check.hasDot()) dotFree = false;
+        } else if (!BASE64.equalsIgnoreCase(encoding)) {
+            if (check.hasDotLine()) dotFree = false;
+        }
+    }
+
+    private void set(MimePart part, String encoding) throws MessagingException {
+        if (!original.containsKey(part)) {
+            String[] current = part.getHeader(CONTENT_TRANSFER_ENCODING);
+            original.put(part, new String[]{current == null ? null : current[0]});
+        }
+        part.setHeader(CONTENT_TRANSFER_ENCODING, encoding);
+    }
+
+    /**
+     * Checks the content of a text part as it is written: whether it can be sent as 8bit text,
+     * i.e. its lines are not longer than 998 bytes and they do not contain NUL bytes, and
+     * whether it contains dots, at the start of a line or anywhere else.
+     */
+    private static class TextCheck extends OutputStream {
+
+        private boolean valid = true;
+        private boolean dot;
+        private boolean dotLine;
+        private int lineLength;
+        private int previous = '\n';
+
+        @Override
+        public void write(int b) {
+            b &= 0xff;
+            if (b == '\n' || b == '\r') {
+                lineLength = 0;
+            } else {
+                if (b == '.') {
+                    dot = true;
+                    if (previous == '\n' || previous == '\r') dotLine = true;
+                }
+                if (b == 0) valid = false;
+                if (++lineLength > MAX_LINE_LENGTH) valid = false;
+            }
+            previous = b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                write(bytes[i]);
+            }
+        }
+
+        boolean isEightBit() {
+            return valid;
+        }
+
+        boolean hasDot() {
+            return dot;
+        }
+
+        boolean hasDotLine() {
+            return dotLine;
+        }
+    }
+}
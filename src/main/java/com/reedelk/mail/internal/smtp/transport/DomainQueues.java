@@ -0,0 +1,161 @@
+package com.reedelk.mail.internal.smtp.transport;
+
+import com.reedelk.mail.internal.smtp.rate.TokenBucket;
+
+import javax.mail.Address;
+import javax.mail.internet.InternetAddress;
+import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One delivery queue for each recipient domain, so that a domain throttling the messages sent to
+ * it holds back its own messages only. Each queue starts at most the maximum number of concurrent
+ * deliveries to its domain, spaced out according to the maximum messages per second to its domain;
+ * the other deliveries wait in the queue, without keeping any delivery thread busy.
+ * A limit equal to zero means no limit. Queues are removed once they have been idle for longer
+ * than a second: by then the messages sent to their domain no longer count towards its rate.
+ */
+class DomainQueues {
+
+    // The domain of the recipients without one.
+    private static final String NO_DOMAIN = "";
+    private static final long IDLE_TIMEOUT = TimeUnit.SECONDS.toNanos(1);
+
+    private final Map<String, DomainQueue> queues = new HashMap<>();
+    // The deliveries held back by the rate of their domain.
+    private final Set<QueuedDelivery> delayed = new HashSet<>();
+    private final ScheduledExecutorService scheduler;
+    private final int maxConcurrency;
+    private final int maxMessagesPerSecond;
+
+    private long lastSweep = System.nanoTime();
+
+    DomainQueues(int maxConcurrency, int maxMessagesPerSecond, ScheduledExecutorService scheduler) {
+        this.maxConcurrency = maxConcurrency;
+        this.maxMessagesPerSecond = maxMessagesPerSecond;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Groups the given recipients by domain, in order of first appearance.
+     */
+    static Map<String, Address[]> partition(Address[] recipients) {
+        Map<String, List<Address>> byDomain = new LinkedHashMap<>();
+        for (Address recipient : recipients) {
+            byDomain.computeIfAbsent(domainOf(recipient), domain -> new ArrayList<>()).add(recipient);
+        }
+        Map<String, Address[]> partitioned = new LinkedHashMap<>();
+        byDomain.forEach((domain, addresses) -> partitioned.put(domain, addresses.toArray(new Address[0])));
+        return partitioned;
+    }
+
+    /**
+     * Queues the given delivery in the queue of the domain of the given recipients, all with the same domain.
+     */
+    synchronized void submit(Address[] recipients, QueuedDelivery delivery) {
+        String domain = domainOf(recipients[0]);
+        long now = System.nanoTime();
+        if (now - lastSweep > IDLE_TIMEOUT) {
+            queues.values().removeIf(queue -> queue.isIdleFor(now, IDLE_TIMEOUT));
+            lastSweep = now;
+        }
+
+        DomainQueue queue = queues.computeIfAbsent(domain, DomainQueue::new);
+        queue.pending.add(delivery);
+        drain(queue);
+    }
+
+    /**
+     * Rejects the deliveries not started yet.
+     */
+    synchronized void close(RuntimeException exception) {
+        List<QueuedDelivery> rejected = new ArrayList<>(delayed);
+        queues.values().forEach(queue -> rejected.addAll(queue.pending));
+        delayed.clear();
+        queues.clear();
+        rejected.forEach(delivery -> delivery.rejected(exception));
+    }
+
+    private synchronized void completed(DomainQueue queue) {
+        queue.running--;
+        queue.lastUsed = System.nanoTime();
+        drain(queue);
+    }
+
+    // Called with the lock held.
+    private void drain(DomainQueue queue) {
+        while (!queue.pending.isEmpty() && (maxConcurrency <= 0 || queue.running < maxConcurrency)) {
+            QueuedDelivery delivery = queue.pending.poll();
+            queue.running++;
+            queue.lastUsed = System.nanoTime();
+
+            long delay = queue.rate != null ? queue.rate.reserve(1) : 0;
+            if (delay > 0) {
+                delayed.add(delivery);
+                try {
+                    scheduler.schedule(() -> {
+                        synchronized (this) {
+                            if (!delayed.remove(delivery)) return;
+                        }
+                        start(queue, delivery);
+                    }, delay, TimeUnit.NANOSECONDS);
+                } catch (RuntimeException exception) {
+                    delayed.remove(delivery);
+                    queue.running--;
+                    delivery.rejected(exception);
+                }
+            } else {
+                start(queue, delivery);
+            }
+        }
+    }
+
+    private void start(DomainQueue queue, QueuedDelivery delivery) {
+        try {
+            delivery.start(() -> completed(queue));
+        } catch (RuntimeException exception) {
+            delivery.rejected(exception);
+            completed(queue);
+        }
+    }
+
+    private static String domainOf(Address recipient) {
+        if (!(recipient instanceof InternetAddress)) return NO_DOMAIN;
+        String address = ((InternetAddress) recipient).getAddress();
+        int at = address == null ? -1 : address.lastIndexOf('@');
+        return at < 0 ? NO_DOMAIN : address.substring(at + 1).toLowerCase(Locale.ROOT);
+    }
+
+    interface QueuedDelivery {
+
+        /**
+         * Starts delivering the message without waiting for it, e.g. from a delivery thread,
+         * then runs the given completion once done, successfully or not.
+         */
+        void start(Runnable completion);
+
+        /**
+         * The delivery could not be started, e.g. the pool has been closed.
+         */
+        void rejected(RuntimeException exception);
+    }
+
+    private class DomainQueue {
+
+        final Queue<QueuedDelivery> pending = new ArrayDeque<>();
+        final TokenBucket rate = maxMessagesPerSecond > 0 ? new TokenBucket(maxMessagesPerSecond) : null;
+        final String domain;
+
+        int running;
+        long lastUsed = System.nanoTime();
+
+        DomainQueue(String domain) {
+            this.domain = domain;
+        }
+
+        boolean isIdleFor(long now, long timeout) {
+            return running == 0 && pending.isEmpty() && now - lastUsed > timeout;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.reedelk.mail.internal.smtp.transport;
+
+import javax.mail.Address;
+import java.io.Serializable;
+import java.util.HashMap;
+
+/**
+ * The outcome of an envelope, i.e. the delivery of a message to a subset of its recipients.
+ */
+public class EnvelopeResult {
+
+    static final String INDEX = "index";
+    static final String RECIPIENTS = "recipients";
+    static final String ACCEPTED = "accepted";
+    static final String LATENCY = "latency";
+    static final String ERROR = "error";
+
+    private final int index;
+    private final int recipients;
+    private final boolean accepted;
+    private final long latency;
+    private final String error;
+    private final Address[] addresses;
+
+    private EnvelopeResult(int index, Address[] addresses, boolean accepted, long latency, String error) {
+        this.index = index;
+        this.addresses = addresses;
+        this.recipients = addresses.length;
+        this.accepted = accepted;
+        this.latency = latency;
+        this.error = error;
+    }
+
+    static EnvelopeResult accepted(int index, Address[] addresses, long latency) {
+        return new EnvelopeResult(index, addresses, true, latency, null);
+    }
+
+    static EnvelopeResult rejected(int index, Address[] addresses, long latency, String error) {
+        return new EnvelopeResult(index, addresses, false, latency, error);
+    }
+
+    public boolean isAccepted() {
+        return accepted;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * The recipients of the envelope, not part of the output attributes.
+     */
+    public Address[] getAddresses() {
+        return addresses;
+    }
+
+    public HashMap<String, Serializable> asMap() {
+        HashMap<String, Serializable> result = new HashMap<>();
+        result.put(INDEX, index);
+        result.put(RECIPIENTS, recipients);
+        result.put(ACCEPTED, accepted);
+        result.put(LATENCY, latency);
+        result.put(ERROR, error);
+        return result;
+    }
+}
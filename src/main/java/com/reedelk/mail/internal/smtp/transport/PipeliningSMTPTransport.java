@@ -0,0 +1,300 @@
+package com.reedelk.mail.internal.smtp.transport;
+
+import com.reedelk.mail.internal.commons.Defaults;
+import com.sun.mail.smtp.SMTPMessage;
+import com.sun.mail.smtp.SMTPTransport;
+import com.sun.mail.util.PropUtil;
+
+import javax.mail.*;
+import javax.mail.event.ConnectionEvent;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * An SMTP transport using command pipelining (RFC 2920) when the server advertises it:
+ * the RCPT TO commands of a message, and its DATA command when it is safe to do so, are
+ * written together with its MAIL FROM command and the replies are read afterwards, in order.
+ * Therefore the envelope of a message costs a single round trip to the server, whatever
+ * the number of its recipients.
+ *
+ * The SMTP conversation is still driven by the SMTPTransport super class: the commands
+ * it issues which have already been written as part of the group are not sent again.
+ *
+ * The content of a message is written by the super class, as for any SMTPTransport; this
+ * transport only counts its bytes, which are accounted by the byte rate limit of the pool.
+ *
+ * When the server supports the 8BITMIME extension, text parts are sent unencoded; when it supports
+ * CHUNKING, the content is sent with BDAT in chunks of the configured chunk size, unless some of its
+ * lines start with a dot: the BDAT stream of the super class dot-stuffs them as for DATA, and only
+ * the stuffing of DATA content is removed by the server. The extensions of the server are read once
+ * for each connection.
+ */
+class PipeliningSMTPTransport extends SMTPTransport {
+
+    static final String PIPELINING_PROPERTY = "mail.smtp.pipelining";
+    static final String EIGHT_BIT_MIME_PROPERTY = "mail.smtp.eightbitmime";
+    static final String CHUNK_SIZE_PROPERTY = "mail.smtp.chunksize";
+
+    private static final String PIPELINING = "PIPELINING";
+    private static final String MAIL_FROM = "MAIL FROM:";
+    private static final String RCPT_TO = "RCPT TO:";
+    private static final String DATA = "DATA";
+    private static final String BODY = " BODY=";
+    private static final String CHUNKING = "CHUNKING";
+    private static final String DATA_END = ".";
+    private static final String CRLF = "\r\n";
+    private static final int DATA_READY = 354;
+
+    private final Deque<String> grouped = new ArrayDeque<>();
+    private final boolean pipelining;
+    private final boolean eightBitMime;
+    private final int chunkSize;
+
+    // The extensions supported by the server, read for each new connection.
+    private Capabilities capabilities;
+    // The encodings of the message being sent.
+    private BodyEncodings encodings;
+
+    // The commands to be written together with the next MAIL FROM command.
+    private List<String> group;
+    private boolean groupedData;
+    private int unreadReplies;
+
+    private ContentOutputStream content;
+
+    PipeliningSMTPTransport(Session session) {
+        // The same URL name used by session.getTransport("smtp").
+        super(session, new URLName(Defaults.SMTP.TRANSPORT, null, -1, null, null, null));
+        this.pipelining = PropUtil.getBooleanProperty(session.getProperties(), PIPELINING_PROPERTY, true);
+        this.eightBitMime = PropUtil.getBooleanProperty(session.getProperties(), EIGHT_BIT_MIME_PROPERTY, false);
+        // The super class sends the content with BDAT if the chunk size is positive.
+        this.chunkSize = PropUtil.getIntProperty(session.getProperties(), CHUNK_SIZE_PROPERTY, -1);
+    }
+
+    @Override
+    public synchronized void sendMessage(Message message, Address[] addresses) throws MessagingException {
+        content = null;
+        if (message instanceof MimeMessage) {
+            Capabilities capabilities = capabilities();
+            encodings = BodyEncodings.of((MimeMessage) message, capabilities.eightBitMime, capabilities.chunking);
+        }
+        if (pipelining && supportsExtension(PIPELINING)) {
+            group = groupOf(message, addresses);
+        }
+        try {
+            super.sendMessage(message, addresses);
+        } finally {
+            group = null;
+            grouped.clear();
+            drainQuietly();
+            if (encodings != null) {
+                encodings.restore();
+                encodings = null;
+            }
+        }
+    }
+
+    @Override
+    protected void sendCommand(String cmd) throws MessagingException {
+        if (encodings != null && encodings.body() != null && cmd.startsWith(MAIL_FROM)) {
+            cmd += BODY + encodings.body();
+        }
+
+        if (group != null && cmd.startsWith(MAIL_FROM)) {
+            List<String> commands = group;
+            group = null;
+            super.sendCommand(cmd + CRLF + String.join(CRLF, commands));
+            grouped.addAll(commands);
+            unreadReplies = commands.size() + 1;
+            return;
+        }
+
+        if (!grouped.isEmpty()) {
+            // Already written to the server, its reply is read next.
+            if (grouped.peekFirst().equals(cmd)) {
+                grouped.removeFirst();
+                return;
+            }
+            // The conversation has been interrupted, e.g. a RSET
+            // because some recipients have been rejected.
+            grouped.clear();
+        }
+
+        drain();
+        super.sendCommand(cmd);
+    }
+
+    @Override
+    protected OutputStream data() throws MessagingException {
+        content = new ContentOutputStream(super.data());
+        return content;
+    }
+
+    @Override
+    protected OutputStream bdat() throws MessagingException {
+        content = new ContentOutputStream(super.bdat());
+        return content;
+    }
+
+    @Override
+    public boolean supportsExtension(String ext) {
+        // The super class sends the content with BDAT if CHUNKING is supported: a message
+        // with lines starting with a dot is sent with DATA, which is unstuffed by the server.
+        if (CHUNKING.equalsIgnoreCase(ext) && encodings != null && !encodings.isDotFree()) return false;
+        return super.supportsExtension(ext);
+    }
+
+    /**
+     * Returns the size in bytes of the content of the last message sent.
+     */
+    synchronized long lastMessageSize() {
+        return content == null ? 0 : content.count;
+    }
+
+    @Override
+    protected int readServerResponse() throws MessagingException {
+        int returnCode = super.readServerResponse();
+        if (unreadReplies > 0) unreadReplies--;
+        return returnCode;
+    }
+
+    @Override
+    protected void notifyConnectionListeners(int type) {
+        if (type == ConnectionEvent.CLOSED) {
+            // Nothing left to read from a closed connection.
+            grouped.clear();
+            unreadReplies = 0;
+        }
+        // The extensions might differ after reconnecting.
+        capabilities = null;
+        super.notifyConnectionListeners(type);
+    }
+
+    /**
+     * Reads the replies to the grouped commands the super class did not get to
+     * because it stopped before, e.g. when the MAIL FROM command was rejected.
+     */
+    private void drain() throws MessagingException {
+        while (unreadReplies > 0) {
+            boolean dataReply = groupedData && unreadReplies == 1;
+            int returnCode = readServerResponse();
+            if (dataReply && returnCode == DATA_READY) {
+                // The server should not have accepted DATA with no valid recipients,
+                // the empty content terminates the transaction without any delivery.
+                super.sendCommand(DATA_END);
+                super.readServerResponse();
+            }
+        }
+    }
+
+    private void drainQuietly() {
+        try {
+            drain();
+        } catch (MessagingException exception) {
+            // The connection is not valid anymore and it is
+            // not reused: the pool validates it before reuse.
+            unreadReplies = 0;
+        }
+    }
+
+    /**
+     * Returns the commands following MAIL FROM for the given message, or null if
+     * the envelope of the message can not be determined before sending it.
+     */
+    private List<String> groupOf(Message message, Address[] addresses) {
+        for (Address address : addresses) {
+            // Group addresses are expanded by the super class while sending.
+            if (!(address instanceof InternetAddress) || ((InternetAddress) address).isGroup()) return null;
+        }
+
+        String notify = null;
+        if (supportsExtension("DSN")) {
+            // The notify options of an SMTP message are not accessible to build the commands.
+            if (message instanceof SMTPMessage && ((SMTPMessage) message).getNotifyOptions() != 0) return null;
+            notify = session.getProperty("mail.smtp.dsn.notify");
+        }
+
+        List<String> commands = new ArrayList<>(addresses.length + 1);
+        for (Address address : addresses) {
+            String cmd = RCPT_TO + normalize(((InternetAddress) address).getAddress());
+            if (notify != null) cmd += " NOTIFY=" + notify;
+            commands.add(cmd);
+        }
+
+        // DATA is grouped only if partial sending is allowed or if there is a single recipient:
+        // otherwise a server might accept DATA after rejecting some of the recipients, while
+        // the message must not be delivered to any of them.
+        boolean sendPartial = message instanceof SMTPMessage && ((SMTPMessage) message).getSendPartial();
+        if (!sendPartial) sendPartial = PropUtil.getBooleanProperty(session.getProperties(), "mail.smtp.sendpartial", false);
+        boolean chunking = PropUtil.getIntProperty(session.getProperties(), "mail.smtp.chunksize", -1) > 0 &&
+                supportsExtension("CHUNKING");
+
+        groupedData = !chunking && (sendPartial || addresses.length == 1);
+        if (groupedData) commands.add(DATA);
+        return commands;
+    }
+
+    private Capabilities capabilities() {
+        if (capabilities == null) {
+            capabilities = new Capabilities(
+                    eightBitMime && super.supportsExtension(BodyEncodings.EIGHT_BIT_MIME),
+                    chunkSize > 0 && super.supportsExtension(CHUNKING));
+        }
+        return capabilities;
+    }
+
+    // Same as the address normalization done by the super class.
+    private static String normalize(String address) {
+        return !address.startsWith("<") && !address.endsWith(">") ?
+                "<" + address + ">" :
+                address;
+    }
+
+    /**
+     * Counts the bytes of the encoded content of a message written to the data stream of the connection,
+     * for the byte rate limit. Nothing is buffered: the output stream of the connection is buffered already.
+     */
+    private static class ContentOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        ContentOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() {
+            // The data stream is terminated by the transport.
+        }
+    }
+
+    private static class Capabilities {
+
+        private final boolean eightBitMime;
+        private final boolean chunking;
+
+        Capabilities(boolean eightBitMime, boolean chunking) {
+            this.eightBitMime = eightBitMime;
+            this.chunking = chunking;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.reedelk.mail.internal.smtp.transport;
+
+import com.reedelk.mail.internal.commons.CloseableUtils;
+import com.sun.mail.smtp.SMTPTransport;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.NO_RECIPIENT_ADDRESSES;
+
+public class PooledTransport {
+
+    private final Transport transport;
+    private final RelayHosts hosts;
+    private final RelayHost host;
+
+    private int sentMessages;
+    private long lastUsedTime;
+
+    PooledTransport(Transport transport, RelayHosts hosts, RelayHost host) {
+        this.transport = transport;
+        this.hosts = hosts;
+        this.host = host;
+        this.lastUsedTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the size in bytes of the message sent.
+     */
+    public long send(MimeMessage message) throws MessagingException {
+        // Transport.send(message) would save the changes for us,
+        // when sending over an already open transport we must do it ourselves.
+        message.saveChanges();
+
+        Address[] recipients = message.getAllRecipients();
+        if (recipients == null || recipients.length == 0) {
+            throw new SendFailedException(NO_RECIPIENT_ADDRESSES.format());
+        }
+
+        return send(message, recipients);
+    }
+
+    /**
+     * Sends the message to the given recipients only. The changes of the message must have been saved already.
+     * Returns the size in bytes of the message sent.
+     */
+    public long send(MimeMessage message, Address[] recipients) throws MessagingException {
+        sentMessages++;
+        long start = System.nanoTime();
+        try {
+            transport.sendMessage(message, recipients);
+        } catch (MessagingException exception) {
+            hosts.failed(host, exception);
+            throw exception;
+        }
+        hosts.succeeded(host, System.nanoTime() - start);
+
+        return transport instanceof PipeliningSMTPTransport ?
+                ((PipeliningSMTPTransport) transport).lastMessageSize() :
+                0;
+    }
+
+    /**
+     * Issues an RSET command, so that the server discards any state
+     * left over by the previous message sent on this connection.
+     */
+    void reset() throws MessagingException {
+        if (transport instanceof SMTPTransport) {
+            ((SMTPTransport) transport).issueCommand("RSET", 250);
+        }
+    }
+
+    /**
+     * Returns the server this transport is connected to.
+     */
+    RelayHost host() {
+        return host;
+    }
+
+    boolean hasCapacity(int maxMessagesPerConnection) {
+        return sentMessages < maxMessagesPerConnection;
+    }
+
+    boolean isIdleFor(long millis) {
+        return System.currentTimeMillis() - lastUsedTime >= millis;
+    }
+
+    /**
+     * For SMTP transports this issues a NOOP command to the server,
+     * the connection is closed if the server does not reply as expected.
+     */
+    boolean isValid() {
+        return transport.isConnected();
+    }
+
+    void touch() {
+        this.lastUsedTime = System.currentTimeMillis();
+    }
+
+    void close() {
+        CloseableUtils.close(transport);
+    }
+}
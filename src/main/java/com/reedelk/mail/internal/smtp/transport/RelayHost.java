@@ -0,0 +1,112 @@
+package com.reedelk.mail.internal.smtp.transport;
+
+import com.reedelk.mail.internal.exception.MailMessageConfigurationException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.HOST_PORT_INVALID;
+
+/**
+ * One of the SMTP servers a pool sends messages to, with its passively tracked health:
+ * the number of messages being sent to it, the exponentially weighted moving average
+ * of its latency and, after a failure, the time until which it is not used.
+ */
+public class RelayHost {
+
+    // The weight of the last latency sample in the moving average.
+    private static final double ALPHA = 0.2;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final String host;
+    private final int port;
+
+    private volatile double latency;
+    private volatile long ejectedUntil;
+
+    RelayHost(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Parses a comma separated list of hosts, each one optionally followed by its port,
+     * e.g. 'relay1.domain.com, relay2.domain.com:2525, [2001:db8::1]:25'.
+     */
+    public static List<RelayHost> parse(String hosts, int defaultPort) {
+        List<RelayHost> relayHosts = new ArrayList<>();
+        for (String entry : hosts.split(",")) {
+            String value = entry.trim();
+            if (value.isEmpty()) continue;
+
+            String host = value;
+            int port = defaultPort;
+            int separator = value.lastIndexOf(':');
+            // An IPv6 address has its own colons: its port follows the closing bracket.
+            if (separator > 0 && value.indexOf(':') == separator || value.startsWith("[") && separator > value.indexOf(']')) {
+                host = value.substring(0, separator);
+                port = portOf(value, value.substring(separator + 1).trim());
+            }
+            if (host.startsWith("[") && host.endsWith("]")) host = host.substring(1, host.length() - 1);
+            relayHosts.add(new RelayHost(host, port));
+        }
+        return relayHosts;
+    }
+
+    private static int portOf(String entry, String port) {
+        try {
+            return Integer.parseInt(port);
+        } catch (NumberFormatException exception) {
+            throw new MailMessageConfigurationException(HOST_PORT_INVALID.format(entry));
+        }
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    int outstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * The moving average of the latency in nanoseconds, zero if no message has been sent yet.
+     */
+    double latency() {
+        return latency;
+    }
+
+    boolean isEjected(long now) {
+        return now < ejectedUntil;
+    }
+
+    long ejectedUntil() {
+        return ejectedUntil;
+    }
+
+    void acquired() {
+        outstanding.incrementAndGet();
+    }
+
+    void released() {
+        outstanding.decrementAndGet();
+    }
+
+    synchronized void succeeded(long latency) {
+        this.latency = this.latency == 0 ? latency : this.latency + ALPHA * (latency - this.latency);
+    }
+
+    void eject(long until) {
+        ejectedUntil = until;
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
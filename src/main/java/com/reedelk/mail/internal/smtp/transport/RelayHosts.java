@@ -0,0 +1,115 @@
+package com.reedelk.mail.internal.smtp.transport;
+
+import com.reedelk.mail.component.smtp.HostSelectionPolicy;
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.smtp.SMTPSenderFailedException;
+
+import java.net.SocketTimeoutException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The SMTP servers a pool sends messages to, and the policy selecting the server each message
+ * is sent to. The health of the servers is tracked passively, from the outcome of the messages
+ * sent: a server replying with a transient failure (4xx) or timing out is ejected, and no
+ * message is sent to it until the ejection time has elapsed. If all the servers have been
+ * ejected, the one whose ejection ends first is selected.
+ */
+class RelayHosts {
+
+    private final AtomicInteger next = new AtomicInteger();
+    private final List<RelayHost> hosts;
+    private final HostSelectionPolicy policy;
+    private final int ejectionTime;
+
+    RelayHosts(List<RelayHost> hosts, HostSelectionPolicy policy, int ejectionTime) {
+        this.hosts = hosts;
+        this.policy = policy;
+        this.ejectionTime = ejectionTime;
+    }
+
+    List<RelayHost> hosts() {
+        return hosts;
+    }
+
+    RelayHost select() {
+        return select(Collections.emptySet());
+    }
+
+    /**
+     * Selects the host of the next message among the given ones excluded,
+     * or returns null if all the hosts have been excluded.
+     */
+    RelayHost select(Collection<RelayHost> excluded) {
+        long now = System.currentTimeMillis();
+        // Ties are broken in round robin order.
+        int start = Math.floorMod(next.getAndIncrement(), hosts.size());
+
+        RelayHost selected = null;
+        double selectedCost = 0;
+        for (int i = 0; i < hosts.size(); i++) {
+            RelayHost host = hosts.get((start + i) % hosts.size());
+            if (excluded.contains(host) || host.isEjected(now)) continue;
+            if (policy == HostSelectionPolicy.ROUND_ROBIN) return host;
+
+            double cost = costOf(host);
+            if (selected == null || cost < selectedCost) {
+                selected = host;
+                selectedCost = cost;
+            }
+        }
+        return selected != null ? selected : firstReadmitted(excluded);
+    }
+
+    void succeeded(RelayHost host, long latency) {
+        host.succeeded(latency);
+    }
+
+    void failed(RelayHost host, Exception exception) {
+        if (isHostFailure(exception)) eject(host);
+    }
+
+    void eject(RelayHost host) {
+        host.eject(System.currentTimeMillis() + ejectionTime);
+    }
+
+    private double costOf(RelayHost host) {
+        if (policy == HostSelectionPolicy.LEAST_OUTSTANDING) return host.outstanding();
+        // The expected time to send a message, given the ones already being sent.
+        // A host with no latency yet is selected first, to get a sample of it.
+        return host.latency() * (host.outstanding() + 1);
+    }
+
+    private RelayHost firstReadmitted(Collection<RelayHost> excluded) {
+        RelayHost selected = null;
+        for (RelayHost host : hosts) {
+            if (excluded.contains(host)) continue;
+            if (selected == null || host.ejectedUntil() < selected.ejectedUntil()) selected = host;
+        }
+        return selected;
+    }
+
+    /**
+     * Returns true if the failure is caused by the server rather than by the message:
+     * a timeout, or a transient failure reply to a command other than RCPT TO, since
+     * a recipient might be rejected temporarily for reasons of its own, e.g. greylisting.
+     */
+    private static boolean isHostFailure(Exception exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SMTPAddressFailedException) return false;
+        }
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SocketTimeoutException) return true;
+            if (cause instanceof SMTPSendFailedException && isTransient(((SMTPSendFailedException) cause).getReturnCode())) return true;
+            if (cause instanceof SMTPSenderFailedException && isTransient(((SMTPSenderFailedException) cause).getReturnCode())) return true;
+        }
+        return false;
+    }
+
+    private static boolean isTransient(int returnCode) {
+        return returnCode >= 400 && returnCode < 500;
+    }
+}
@@ -0,0 +1,86 @@
+package com.reedelk.mail.internal.smtp.transport;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.io.Closeable;
+
+/**
+ * Sends a sequence of messages holding a single connection borrowed from the pool.
+ * An RSET command is issued between messages, and the connection is replaced only
+ * when it breaks or when it reaches the maximum number of messages per connection.
+ *
+ * Once a connection could not be borrowed, e.g. because the pool is exhausted, the
+ * following messages fail right away with the same error instead of each one waiting
+ * for the borrow timeout again.
+ */
+public class SMTPBulkTransport implements Closeable {
+
+    private final SMTPTransportPool pool;
+    private final int maxMessagesPerConnection;
+
+    private PooledTransport current;
+    private MessagingException borrowFailure;
+
+    SMTPBulkTransport(SMTPTransportPool pool, int maxMessagesPerConnection) {
+        this.pool = pool;
+        this.maxMessagesPerConnection = maxMessagesPerConnection;
+    }
+
+    public void send(MimeMessage message) throws MessagingException {
+        PooledTransport transport = next();
+        pool.throttle(message);
+        try {
+            pool.sent(transport.send(message));
+        } catch (MessagingException exception) {
+            // A rejected message leaves the connection usable,
+            // a broken connection must be replaced for the next message.
+            if (!transport.isValid()) discard();
+            throw exception;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (current != null) {
+            pool.release(current, true);
+            current = null;
+        }
+    }
+
+    private PooledTransport next() throws MessagingException {
+        if (current != null && !current.hasCapacity(maxMessagesPerConnection)) {
+            // Releasing a connection with no capacity left closes it.
+            close();
+        }
+
+        if (current == null) {
+            current = borrow();
+            return current;
+        }
+
+        try {
+            current.reset();
+        } catch (MessagingException exception) {
+            discard();
+            current = borrow();
+        }
+        return current;
+    }
+
+    private PooledTransport borrow() throws MessagingException {
+        if (borrowFailure != null) {
+            throw new MessagingException(borrowFailure.getMessage(), borrowFailure);
+        }
+        try {
+            return pool.borrow();
+        } catch (MessagingException exception) {
+            borrowFailure = exception;
+            throw exception;
+        }
+    }
+
+    private void discard() {
+        pool.release(current, false);
+        current = null;
+    }
+}
@@ -0,0 +1,586 @@
+package com.reedelk.mail.internal.smtp.transport;
+
+import com.reedelk.mail.internal.commons.NamedThreadFactory;
+import com.reedelk.mail.internal.smtp.dispatch.DispatchQueue;
+import com.reedelk.mail.internal.smtp.dispatch.Priority;
+import com.reedelk.mail.internal.smtp.dispatch.WeightedLanes;
+import com.reedelk.mail.internal.smtp.rate.SMTPRateLimiter;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+import javax.mail.util.SharedByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.DELIVERY_QUEUE_FULL;
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.NO_RECIPIENT_ADDRESSES;
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.RATE_LIMIT_INTERRUPTED;
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.TRANSPORT_POOL_CLOSED;
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.TRANSPORT_POOL_EXHAUSTED;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * A pool of connected and authenticated SMTP transports. Connections are validated
+ * with a NOOP command before being reused, they are replaced after a maximum number
+ * of messages and closed when they have been idle for longer than the idle timeout.
+ * Messages sent through the pool are subject to the rate limits of its settings.
+ *
+ * The pool might connect to several relay hosts: the host of each message is selected
+ * first, then an idle connection to it is reused or a new one is opened. A host which
+ * can not be connected to is ejected and the connection is opened to another one.
+ *
+ * The emails waiting for a connection are queued in priority lanes, each one getting
+ * a share of the connections freed up proportional to the weight of its priority. The
+ * emails waiting for a delivery thread are queued in priority lanes the same way.
+ *
+ * If the settings limit the emails sent to each recipient domain, the emails are sent
+ * separately to each domain of their recipients, from the delivery queue of the domain:
+ * an email sent to several domains fails only if it could not be sent to any of them,
+ * the outcome for each domain is returned otherwise.
+ *
+ * The emails sent from the delivery threads are bounded by the maximum number of queued
+ * deliveries, from the moment they are handed over until their delivery completes: the
+ * asynchronous sends fail fast when it is reached, the others wait for a place.
+ */
+public class SMTPTransportPool implements Closeable {
+
+    private static final int MIN_EVICTION_INTERVAL = 1000;
+    private static final AtomicInteger POOL_SEQUENCE = new AtomicInteger();
+
+    private final BlockingDeque<PooledTransport> idle = new LinkedBlockingDeque<>();
+    private final Set<CompletableFuture<Void>> delayed = ConcurrentHashMap.newKeySet();
+    // The deliveries waiting for a delivery thread.
+    private final WeightedLanes<Runnable> pending = new WeightedLanes<>();
+    private final ThreadPoolExecutor delivery;
+    private final ScheduledExecutorService scheduler;
+    private final SMTPRateLimiter rateLimiter;
+    private final RelayHosts hosts;
+    // Null if the emails sent to each recipient domain are not limited.
+    private final DomainQueues domains;
+    private final SMTPTransportPoolSettings settings;
+    private final DispatchQueue permits;
+    private final Semaphore queued;
+    private final Session session;
+
+    private volatile boolean closed;
+
+    public SMTPTransportPool(Session session, SMTPTransportPoolSettings settings) {
+        this.session = session;
+        this.settings = settings;
+        String name = session.getProperty("mail.smtp.host") + ":" +
+                session.getProperty("mail.smtp.port") + "#" + POOL_SEQUENCE.incrementAndGet();
+        this.permits = new DispatchQueue(settings.getMaxSize());
+        this.queued = new Semaphore(settings.getMaxQueuedDeliveries());
+        // There is no point in having more delivery threads than connections. The deliveries are
+        // started by weighted round robin among the priorities, then they wait for a connection in their lane.
+        this.delivery = new ThreadPoolExecutor(settings.getMaxSize(), settings.getMaxSize(),
+                settings.getIdleTimeout(), TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                new NamedThreadFactory("smtp-delivery-" + name));
+        this.delivery.allowCoreThreadTimeOut(true);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("smtp-scheduler-" + name));
+        long evictionInterval = Math.max(MIN_EVICTION_INTERVAL, settings.getIdleTimeout() / 2);
+        this.scheduler.scheduleWithFixedDelay(this::evictIdle, evictionInterval, evictionInterval, TimeUnit.MILLISECONDS);
+        this.rateLimiter = new SMTPRateLimiter(settings.getMaxMessagesPerSecond(),
+                settings.getMaxRecipientsPerSecond(), settings.getMaxBytesPerSecond());
+        this.rateLimiter.register(name);
+        this.permits.register(name);
+        String relayHosts = settings.getHosts() != null ? settings.getHosts() : session.getProperty("mail.smtp.host");
+        int port = Integer.parseInt(session.getProperty("mail.smtp.port"));
+        this.hosts = new RelayHosts(RelayHost.parse(relayHosts, port),
+                settings.getHostSelection(), settings.getHostEjectionTime());
+        this.domains = settings.getDomainMaxConcurrency() > 0 || settings.getDomainMaxMessagesPerSecond() > 0 ?
+                new DomainQueues(settings.getDomainMaxConcurrency(), settings.getDomainMaxMessagesPerSecond(), scheduler) :
+                null;
+    }
+
+    public Session session() {
+        return session;
+    }
+
+    public SMTPTransportPoolSettings settings() {
+        return settings;
+    }
+
+    public List<EnvelopeResult> send(MimeMessage message) throws MessagingException {
+        return send(message, Priority.NORMAL);
+    }
+
+    /**
+     * Sends the message. Returns the outcome for each domain if it has been sent separately
+     * to several recipient domains, otherwise an empty list.
+     */
+    public List<EnvelopeResult> send(MimeMessage message, Priority priority) throws MessagingException {
+        if (domains != null) {
+            return await(sendByDomain(message, priority, true));
+        }
+        throttle(message);
+        deliver(message, null, priority);
+        return Collections.emptyList();
+    }
+
+    /**
+     * Sends the message from one of the delivery threads of this pool. The returned future
+     * completes when the message has been accepted by the server or the delivery has failed,
+     * with the outcome for each domain if it has been sent separately to several recipient domains.
+     * A message held back by the rate limits is scheduled for later, without keeping any
+     * delivery thread waiting.
+     */
+    public CompletableFuture<List<EnvelopeResult>> sendAsync(MimeMessage message) {
+        return sendAsync(message, Priority.NORMAL);
+    }
+
+    public CompletableFuture<List<EnvelopeResult>> sendAsync(MimeMessage message, Priority priority) {
+        return domains != null ?
+                sendByDomain(message, priority, false) :
+                completeWith(sendAsync(message, null, priority, false), Collections.emptyList());
+    }
+
+    /**
+     * Sends the message to its recipients split in envelopes of at most the given number of recipients.
+     * The message is rendered once, and its envelopes are sent in parallel from the delivery threads
+     * of this pool, each one over its own connection. Returns the outcome of each envelope, in order.
+     */
+    public List<EnvelopeResult> sendEnvelopes(MimeMessage message, int maxRecipientsPerEnvelope) throws MessagingException {
+        return sendEnvelopes(message, maxRecipientsPerEnvelope, Priority.NORMAL);
+    }
+
+    public List<EnvelopeResult> sendEnvelopes(MimeMessage message, int maxRecipientsPerEnvelope, Priority priority) throws MessagingException {
+        message.saveChanges();
+
+        Address[] recipients = message.getAllRecipients();
+        if (recipients == null || recipients.length == 0) {
+            throw new SendFailedException(NO_RECIPIENT_ADDRESSES.format());
+        }
+
+        RenderedMessage rendered = render(message);
+
+        // The envelopes are queued by domain: each one has the recipients of a single domain.
+        List<Address[]> groups = domains != null ?
+                new ArrayList<>(DomainQueues.partition(recipients).values()) :
+                Collections.singletonList(recipients);
+
+        List<CompletableFuture<EnvelopeResult>> envelopes = new ArrayList<>();
+        for (Address[] group : groups) {
+            for (int from = 0; from < group.length; from += maxRecipientsPerEnvelope) {
+                int index = envelopes.size();
+                Address[] envelopeRecipients = Arrays.copyOfRange(group, from,
+                        Math.min(from + maxRecipientsPerEnvelope, group.length));
+
+                // Each envelope has its own message, sharing the rendered content:
+                // the transport might change the message while sending it.
+                MimeMessage envelope = new MimeMessage(session, rendered.newStream());
+
+                long start = System.currentTimeMillis();
+                envelopes.add(sendAsync(envelope, envelopeRecipients, priority, true).handle((unused, throwable) ->
+                        resultOf(index, envelopeRecipients, start, throwable)));
+            }
+        }
+
+        return envelopes.stream()
+                .map(CompletableFuture::join)
+                .collect(toList());
+    }
+
+    public SMTPBulkTransport bulk() {
+        return new SMTPBulkTransport(this, settings.getMaxMessagesPerConnection());
+    }
+
+    /**
+     * Waits until the message can be sent within the rate limits.
+     */
+    void throttle(MimeMessage message) throws MessagingException {
+        long delay = rateLimiter.reserve(recipientsOf(message));
+        if (delay <= 0) return;
+        try {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException(RATE_LIMIT_INTERRUPTED.format(), exception);
+        }
+    }
+
+    void sent(long bytes) {
+        rateLimiter.sent(bytes);
+    }
+
+    public PooledTransport borrow() throws MessagingException {
+        return borrow(Priority.NORMAL);
+    }
+
+    /**
+     * Waits for a connection in the lane of the given priority.
+     */
+    public PooledTransport borrow(Priority priority) throws MessagingException {
+        if (closed) throw new MessagingException(TRANSPORT_POOL_CLOSED.format());
+
+        acquirePermit(priority);
+
+        try {
+            RelayHost host = hosts.select();
+            PooledTransport transport = idleTo(host);
+            if (transport == null) transport = open(host);
+            transport.host().acquired();
+            return transport;
+
+        } catch (MessagingException | RuntimeException exception) {
+            permits.release();
+            throw exception;
+        }
+    }
+
+    public void release(PooledTransport transport, boolean reusable) {
+        transport.host().released();
+        try {
+            if (reusable && !closed && transport.hasCapacity(settings.getMaxMessagesPerConnection())) {
+                transport.touch();
+                // Most recently used first: the connections at the tail are the ones left to expire.
+                idle.offerFirst(transport);
+                // The pool might have been closed while we were giving the connection back.
+                if (closed && idle.remove(transport)) transport.close();
+            } else {
+                transport.close();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        // Pending deliveries fail fast since the pool is closed.
+        delivery.shutdown();
+        scheduler.shutdownNow();
+        rateLimiter.unregister();
+        permits.unregister();
+        if (domains != null) domains.close(new RejectedExecutionException(TRANSPORT_POOL_CLOSED.format()));
+        delayed.forEach(future -> {
+            if (delayed.remove(future)) {
+                future.completeExceptionally(new MessagingException(TRANSPORT_POOL_CLOSED.format()));
+            }
+        });
+        PooledTransport transport;
+        while ((transport = idle.pollFirst()) != null) {
+            transport.close();
+        }
+    }
+
+    // If recipients is null the message is sent to all its recipients. If wait is false and the
+    // maximum number of queued deliveries has been reached, the returned future fails right away.
+    private CompletableFuture<Void> sendAsync(MimeMessage message, Address[] recipients, Priority priority, boolean wait) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            reserve(wait);
+            future.whenComplete((unused, throwable) -> queued.release());
+
+            long delay = rateLimiter.reserve(recipients == null ? recipientsOf(message) : recipients.length);
+            if (delay > 0) {
+                delayed.add(future);
+                scheduler.schedule(() -> {
+                    if (delayed.remove(future)) execute(message, recipients, priority, future);
+                }, delay, TimeUnit.NANOSECONDS);
+            } else {
+                execute(message, recipients, priority, future);
+            }
+        } catch (MessagingException exception) {
+            future.completeExceptionally(exception);
+        } catch (RejectedExecutionException exception) {
+            delayed.remove(future);
+            future.completeExceptionally(new MessagingException(TRANSPORT_POOL_CLOSED.format(), exception));
+        }
+        return future;
+    }
+
+    /**
+     * Sends the message separately to the recipients of each one of its domains. The message is
+     * rendered once if it has several domains. The returned future completes when the message
+     * has been sent to all the domains, with the outcome for each one of them, exceptionally if
+     * it could not be sent to any of them.
+     */
+    private CompletableFuture<List<EnvelopeResult>> sendByDomain(MimeMessage message, Priority priority, boolean wait) {
+        try {
+            message.saveChanges();
+
+            Address[] recipients = message.getAllRecipients();
+            if (recipients == null || recipients.length == 0) {
+                throw new SendFailedException(NO_RECIPIENT_ADDRESSES.format());
+            }
+
+            Map<String, Address[]> byDomain = DomainQueues.partition(recipients);
+            if (byDomain.size() == 1) {
+                return completeWith(sendAsync(message, recipients, priority, wait), Collections.emptyList());
+            }
+
+            RenderedMessage rendered = render(message);
+            List<CompletableFuture<Void>> sent = new ArrayList<>();
+            List<CompletableFuture<EnvelopeResult>> results = new ArrayList<>();
+            for (Address[] domainRecipients : byDomain.values()) {
+                int index = results.size();
+                long start = System.currentTimeMillis();
+                CompletableFuture<Void> domainSent = sendAsync(new MimeMessage(session, rendered.newStream()), domainRecipients, priority, wait);
+                sent.add(domainSent);
+                results.add(domainSent.handle((unused, throwable) -> resultOf(index, domainRecipients, start, throwable)));
+            }
+            CompletableFuture<List<EnvelopeResult>> outcome = new CompletableFuture<>();
+            CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+                List<EnvelopeResult> outcomes = results.stream()
+                        .map(CompletableFuture::join)
+                        .collect(toList());
+                // Not sent to any domain: fails as the first domain did.
+                if (outcomes.stream().anyMatch(EnvelopeResult::isAccepted)) outcome.complete(outcomes);
+                else sent.get(0).whenComplete((unused, throwable) -> outcome.completeExceptionally(throwable));
+            });
+            return outcome;
+
+        } catch (MessagingException exception) {
+            CompletableFuture<List<EnvelopeResult>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(exception);
+            return failed;
+        }
+    }
+
+    /**
+     * Completes with the given value once the delivery completes, exceptionally with the failure of the
+     * delivery itself: unlike thenApply, the failure is not wrapped in a CompletionException.
+     */
+    private static <T> CompletableFuture<T> completeWith(CompletableFuture<Void> sent, T value) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        sent.whenComplete((unused, throwable) -> {
+            if (throwable != null) result.completeExceptionally(throwable);
+            else result.complete(value);
+        });
+        return result;
+    }
+
+    private static <T> T await(CompletableFuture<T> sent) throws MessagingException {
+        try {
+            return sent.join();
+        } catch (CompletionException exception) {
+            Throwable cause = exception.getCause();
+            if (cause instanceof MessagingException) throw (MessagingException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new MessagingException(cause.getMessage(), (Exception) cause);
+        }
+    }
+
+    private static EnvelopeResult resultOf(int index, Address[] recipients, long start, Throwable throwable) {
+        long latency = System.currentTimeMillis() - start;
+        return throwable == null ?
+                EnvelopeResult.accepted(index, recipients, latency) :
+                EnvelopeResult.rejected(index, recipients, latency, throwable.getMessage());
+    }
+
+    private void deliver(MimeMessage message, Address[] recipients, Priority priority) throws MessagingException {
+        PooledTransport transport = borrow(priority);
+        boolean reusable = false;
+        try {
+            sent(recipients == null ?
+                    transport.send(message) :
+                    transport.send(message, recipients));
+            reusable = true;
+        } finally {
+            release(transport, reusable);
+        }
+    }
+
+    private void execute(MimeMessage message, Address[] recipients, Priority priority, CompletableFuture<Void> future) {
+        if (domains != null && recipients != null) {
+            queue(message, recipients, priority, future);
+            return;
+        }
+        try {
+            submit(priority, () -> {
+                try {
+                    deliver(message, recipients, priority);
+                    future.complete(null);
+                } catch (Exception exception) {
+                    future.completeExceptionally(exception);
+                }
+            });
+        } catch (RejectedExecutionException exception) {
+            future.completeExceptionally(new MessagingException(TRANSPORT_POOL_CLOSED.format(), exception));
+        }
+    }
+
+    /**
+     * Queues the delivery in the queue of the domain of the recipients, all with the same domain.
+     */
+    private void queue(MimeMessage message, Address[] recipients, Priority priority, CompletableFuture<Void> future) {
+        domains.submit(recipients, new DomainQueues.QueuedDelivery() {
+
+            @Override
+            public void start(Runnable completion) {
+                submit(priority, () -> {
+                    try {
+                        deliver(message, recipients, priority);
+                        future.complete(null);
+                    } catch (Exception exception) {
+                        future.completeExceptionally(exception);
+                    } finally {
+                        completion.run();
+                    }
+                });
+            }
+
+            @Override
+            public void rejected(RuntimeException exception) {
+                future.completeExceptionally(new MessagingException(TRANSPORT_POOL_CLOSED.format(), exception));
+            }
+        });
+    }
+
+    /**
+     * Queues the task in the lane of its priority and hands a delivery thread over to the lanes:
+     * the threads take the pending tasks by weighted round robin, so that the tasks of the lower
+     * priorities are still started under a sustained load of higher priority ones.
+     */
+    private void submit(Priority priority, Runnable task) {
+        synchronized (pending) {
+            pending.add(priority, task);
+        }
+        try {
+            delivery.execute(this::runPending);
+        } catch (RejectedExecutionException exception) {
+            synchronized (pending) {
+                // Otherwise it has been taken by a running delivery thread.
+                if (pending.remove(priority, task)) throw exception;
+            }
+        }
+    }
+
+    private void runPending() {
+        Runnable task;
+        while (true) {
+            synchronized (pending) {
+                task = pending.poll();
+            }
+            if (task == null) return;
+            task.run();
+        }
+    }
+
+    private static RenderedMessage render(MimeMessage message) throws MessagingException {
+        try {
+            RenderedMessage rendered = new RenderedMessage();
+            // Bcc recipients are in the envelopes only.
+            message.writeTo(rendered, new String[]{"Bcc"});
+            return rendered;
+        } catch (IOException exception) {
+            throw new MessagingException(exception.getMessage(), exception);
+        }
+    }
+
+    private static int recipientsOf(MimeMessage message) throws MessagingException {
+        Address[] recipients = message.getAllRecipients();
+        return recipients == null ? 0 : recipients.length;
+    }
+
+    private boolean isReusable(PooledTransport transport) {
+        return !transport.host().isEjected(System.currentTimeMillis()) &&
+                !transport.isIdleFor(settings.getIdleTimeout()) &&
+                transport.hasCapacity(settings.getMaxMessagesPerConnection()) &&
+                transport.isValid();
+    }
+
+    /**
+     * Returns a reusable idle connection to the given host, most recently used first, if any.
+     */
+    private PooledTransport idleTo(RelayHost host) {
+        for (PooledTransport transport : idle) {
+            if (transport.host() != host || !idle.remove(transport)) continue;
+            if (isReusable(transport)) return transport;
+            transport.close();
+        }
+        return null;
+    }
+
+    /**
+     * Opens a connection to the given host or, if it fails, to any other host not ejected yet.
+     */
+    private PooledTransport open(RelayHost selected) throws MessagingException {
+        // The idle connections to the other hosts count towards the maximum size of the pool.
+        PooledTransport leastRecentlyUsed;
+        while (idle.size() > permits.availablePermits() && (leastRecentlyUsed = idle.pollLast()) != null) {
+            leastRecentlyUsed.close();
+        }
+
+        Set<RelayHost> tried = new HashSet<>();
+        MessagingException failure = null;
+        RelayHost host = selected;
+        while (host != null) {
+            tried.add(host);
+            try {
+                Transport transport = new PipeliningSMTPTransport(session);
+                transport.connect(host.getHost(), host.getPort(), null, null);
+                return new PooledTransport(transport, hosts, host);
+            } catch (MessagingException exception) {
+                hosts.eject(host);
+                if (failure == null) failure = exception;
+                else failure.addSuppressed(exception);
+                host = hosts.select(tried);
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Takes a place among the queued deliveries, waiting for one at most the borrow timeout if wait is true.
+     */
+    private void reserve(boolean wait) throws MessagingException {
+        try {
+            boolean reserved = wait ?
+                    queued.tryAcquire(settings.getBorrowTimeout(), TimeUnit.MILLISECONDS) :
+                    queued.tryAcquire();
+            if (!reserved) {
+                throw new MessagingException(DELIVERY_QUEUE_FULL.format(settings.getMaxQueuedDeliveries()));
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException(DELIVERY_QUEUE_FULL.format(settings.getMaxQueuedDeliveries()), exception);
+        }
+    }
+
+    private void acquirePermit(Priority priority) throws MessagingException {
+        try {
+            int borrowTimeout = settings.getBorrowTimeout();
+            if (!permits.acquire(priority, borrowTimeout)) {
+                throw new MessagingException(TRANSPORT_POOL_EXHAUSTED.format(borrowTimeout));
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException(TRANSPORT_POOL_EXHAUSTED.format(settings.getBorrowTimeout()), exception);
+        }
+    }
+
+    private void evictIdle() {
+        for (PooledTransport transport : idle) {
+            if (transport.isIdleFor(settings.getIdleTimeout()) && idle.remove(transport)) {
+                transport.close();
+            }
+        }
+    }
+
+    /**
+     * The envelopes read the rendered message from its buffer, without copying it.
+     */
+    private static class RenderedMessage extends ByteArrayOutputStream {
+
+        SharedByteArrayInputStream newStream() {
+            return new SharedByteArrayInputStream(buf, 0, count);
+        }
+    }
+}
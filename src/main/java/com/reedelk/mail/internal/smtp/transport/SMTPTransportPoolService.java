@@ -0,0 +1,88 @@
+package com.reedelk.mail.internal.smtp.transport;
+
+import com.reedelk.mail.component.SMTPConfiguration;
+import org.osgi.service.component.annotations.Component;
+
+import javax.mail.Session;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import static org.osgi.service.component.annotations.ServiceScope.SINGLETON;
+
+/**
+ * Keeps a single SMTP transport pool for each distinct SMTP configuration, so that
+ * all the components sharing the same configuration also share the same connections.
+ * Pools are reference counted and closed when the last component using them is disposed.
+ */
+@Component(service = SMTPTransportPoolService.class, scope = SINGLETON, immediate = true)
+public class SMTPTransportPoolService {
+
+    private final Map<PoolKey, PoolEntry> pools = new HashMap<>();
+
+    /**
+     * The session must be the one cached by the mail session service for the given configuration:
+     * components sharing the same configuration share the same session and therefore the same pool.
+     */
+    public synchronized SMTPTransportPool acquire(SMTPConfiguration configuration, Session session) {
+        SMTPTransportPoolSettings settings = SMTPTransportPoolSettings.create()
+                .configuration(configuration)
+                .build();
+
+        PoolKey key = new PoolKey(session, settings);
+        PoolEntry entry = pools.computeIfAbsent(key, poolKey -> new PoolEntry(new SMTPTransportPool(session, settings)));
+        entry.references++;
+        return entry.pool;
+    }
+
+    public synchronized void release(SMTPTransportPool pool) {
+        pools.entrySet().removeIf(poolEntry -> {
+            PoolEntry entry = poolEntry.getValue();
+            if (entry.pool != pool) return false;
+            entry.references--;
+            if (entry.references > 0) return false;
+            entry.pool.close();
+            return true;
+        });
+    }
+
+    public synchronized void closeAll() {
+        pools.values().forEach(entry -> entry.pool.close());
+        pools.clear();
+    }
+
+    private static class PoolEntry {
+
+        final SMTPTransportPool pool;
+        int references;
+
+        PoolEntry(SMTPTransportPool pool) {
+            this.pool = pool;
+        }
+    }
+
+    private static class PoolKey {
+
+        final Session session;
+        final SMTPTransportPoolSettings settings;
+
+        PoolKey(Session session, SMTPTransportPoolSettings settings) {
+            this.session = session;
+            this.settings = settings;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            PoolKey poolKey = (PoolKey) o;
+            return session == poolKey.session &&
+                    settings.equals(poolKey.settings);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(session, settings);
+        }
+    }
+}
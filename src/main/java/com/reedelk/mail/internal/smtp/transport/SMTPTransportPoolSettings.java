@@ -0,0 +1,241 @@
+package com.reedelk.mail.internal.smtp.transport;
+
+import com.reedelk.mail.component.SMTPConfiguration;
+import com.reedelk.mail.component.smtp.HostSelectionPolicy;
+import com.reedelk.mail.internal.commons.Defaults;
+import com.reedelk.mail.internal.exception.MailMessageConfigurationException;
+
+import java.util.Objects;
+import java.util.Optional;
+
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.DELIVERY_QUEUE_SIZE_INVALID;
+import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.TRANSPORT_POOL_MAX_SIZE_INVALID;
+
+public class SMTPTransportPoolSettings {
+
+    private int maxSize;
+    private int maxMessagesPerConnection;
+    private int idleTimeout;
+    private int borrowTimeout;
+    private int maxQueuedDeliveries;
+    private int maxMessagesPerSecond;
+    private int maxRecipientsPerSecond;
+    private int maxBytesPerSecond;
+    private String hosts;
+    private HostSelectionPolicy hostSelection;
+    private int hostEjectionTime;
+    private int domainMaxConcurrency;
+    private int domainMaxMessagesPerSecond;
+
+    private SMTPTransportPoolSettings() {
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getMaxMessagesPerConnection() {
+        return maxMessagesPerConnection;
+    }
+
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public int getBorrowTimeout() {
+        return borrowTimeout;
+    }
+
+    public int getMaxQueuedDeliveries() {
+        return maxQueuedDeliveries;
+    }
+
+    public int getMaxMessagesPerSecond() {
+        return maxMessagesPerSecond;
+    }
+
+    public int getMaxRecipientsPerSecond() {
+        return maxRecipientsPerSecond;
+    }
+
+    public int getMaxBytesPerSecond() {
+        return maxBytesPerSecond;
+    }
+
+    /**
+     * The comma separated relay hosts, or null to use the host of the session.
+     */
+    public String getHosts() {
+        return hosts;
+    }
+
+    public HostSelectionPolicy getHostSelection() {
+        return hostSelection;
+    }
+
+    public int getHostEjectionTime() {
+        return hostEjectionTime;
+    }
+
+    public int getDomainMaxConcurrency() {
+        return domainMaxConcurrency;
+    }
+
+    public int getDomainMaxMessagesPerSecond() {
+        return domainMaxMessagesPerSecond;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SMTPTransportPoolSettings that = (SMTPTransportPoolSettings) o;
+        return maxSize == that.maxSize &&
+                maxMessagesPerConnection == that.maxMessagesPerConnection &&
+                idleTimeout == that.idleTimeout &&
+                borrowTimeout == that.borrowTimeout &&
+                maxQueuedDeliveries == that.maxQueuedDeliveries &&
+                maxMessagesPerSecond == that.maxMessagesPerSecond &&
+                maxRecipientsPerSecond == that.maxRecipientsPerSecond &&
+                maxBytesPerSecond == that.maxBytesPerSecond &&
+                hostEjectionTime == that.hostEjectionTime &&
+                domainMaxConcurrency == that.domainMaxConcurrency &&
+                domainMaxMessagesPerSecond == that.domainMaxMessagesPerSecond &&
+                Objects.equals(hosts, that.hosts) &&
+                hostSelection == that.hostSelection;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(maxSize, maxMessagesPerConnection, idleTimeout, borrowTimeout, maxQueuedDeliveries,
+                maxMessagesPerSecond, maxRecipientsPerSecond, maxBytesPerSecond,
+                hosts, hostSelection, hostEjectionTime, domainMaxConcurrency, domainMaxMessagesPerSecond);
+    }
+
+    public static Builder create() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private Integer maxSize;
+        private Integer maxMessagesPerConnection;
+        private Integer idleTimeout;
+        private Integer borrowTimeout;
+        private Integer maxQueuedDeliveries;
+        private Integer maxMessagesPerSecond;
+        private Integer maxRecipientsPerSecond;
+        private Integer maxBytesPerSecond;
+        private String hosts;
+        private HostSelectionPolicy hostSelection;
+        private Integer hostEjectionTime;
+        private Integer domainMaxConcurrency;
+        private Integer domainMaxMessagesPerSecond;
+
+        public Builder configuration(SMTPConfiguration configuration) {
+            this.maxSize = configuration.getPoolMaxSize();
+            this.maxMessagesPerConnection = configuration.getPoolMaxMessagesPerConnection();
+            this.idleTimeout = configuration.getPoolIdleTimeout();
+            this.borrowTimeout = configuration.getPoolBorrowTimeout();
+            this.maxQueuedDeliveries = configuration.getPoolMaxQueuedDeliveries();
+            this.maxMessagesPerSecond = configuration.getMaxMessagesPerSecond();
+            this.maxRecipientsPerSecond = configuration.getMaxRecipientsPerSecond();
+            this.maxBytesPerSecond = configuration.getMaxBytesPerSecond();
+            this.hosts = configuration.getHost();
+            this.hostSelection = configuration.getHostSelection();
+            this.hostEjectionTime = configuration.getHostEjectionTime();
+            this.domainMaxConcurrency = configuration.getDomainMaxConnections();
+            this.domainMaxMessagesPerSecond = configuration.getDomainMaxMessagesPerSecond();
+            return this;
+        }
+
+        public Builder maxSize(Integer maxSize) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        public Builder maxMessagesPerConnection(Integer maxMessagesPerConnection) {
+            this.maxMessagesPerConnection = maxMessagesPerConnection;
+            return this;
+        }
+
+        public Builder idleTimeout(Integer idleTimeout) {
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        public Builder borrowTimeout(Integer borrowTimeout) {
+            this.borrowTimeout = borrowTimeout;
+            return this;
+        }
+
+        public Builder maxQueuedDeliveries(Integer maxQueuedDeliveries) {
+            this.maxQueuedDeliveries = maxQueuedDeliveries;
+            return this;
+        }
+
+        public Builder maxMessagesPerSecond(Integer maxMessagesPerSecond) {
+            this.maxMessagesPerSecond = maxMessagesPerSecond;
+            return this;
+        }
+
+        public Builder maxRecipientsPerSecond(Integer maxRecipientsPerSecond) {
+            this.maxRecipientsPerSecond = maxRecipientsPerSecond;
+            return this;
+        }
+
+        public Builder maxBytesPerSecond(Integer maxBytesPerSecond) {
+            this.maxBytesPerSecond = maxBytesPerSecond;
+            return this;
+        }
+
+        public Builder hosts(String hosts) {
+            this.hosts = hosts;
+            return this;
+        }
+
+        public Builder hostSelection(HostSelectionPolicy hostSelection) {
+            this.hostSelection = hostSelection;
+            return this;
+        }
+
+        public Builder hostEjectionTime(Integer hostEjectionTime) {
+            this.hostEjectionTime = hostEjectionTime;
+            return this;
+        }
+
+        public Builder domainMaxConcurrency(Integer domainMaxConcurrency) {
+            this.domainMaxConcurrency = domainMaxConcurrency;
+            return this;
+        }
+
+        public Builder domainMaxMessagesPerSecond(Integer domainMaxMessagesPerSecond) {
+            this.domainMaxMessagesPerSecond = domainMaxMessagesPerSecond;
+            return this;
+        }
+
+        public SMTPTransportPoolSettings build() {
+            SMTPTransportPoolSettings settings = new SMTPTransportPoolSettings();
+            settings.maxSize = Optional.ofNullable(maxSize).orElse(Defaults.TransportPool.MAX_SIZE);
+            if (settings.maxSize <= 0) {
+                throw new MailMessageConfigurationException(TRANSPORT_POOL_MAX_SIZE_INVALID.format(settings.maxSize));
+            }
+            settings.maxMessagesPerConnection = Optional.ofNullable(maxMessagesPerConnection).orElse(Defaults.TransportPool.MAX_MESSAGES_PER_CONNECTION);
+            settings.idleTimeout = Optional.ofNullable(idleTimeout).orElse(Defaults.TransportPool.IDLE_TIMEOUT);
+            settings.borrowTimeout = Optional.ofNullable(borrowTimeout).orElse(Defaults.TransportPool.BORROW_TIMEOUT);
+            settings.maxQueuedDeliveries = Optional.ofNullable(maxQueuedDeliveries).orElse(Defaults.TransportPool.MAX_QUEUED_DELIVERIES);
+            if (settings.maxQueuedDeliveries <= 0) {
+                throw new MailMessageConfigurationException(DELIVERY_QUEUE_SIZE_INVALID.format(settings.maxQueuedDeliveries));
+            }
+            settings.maxMessagesPerSecond = Optional.ofNullable(maxMessagesPerSecond).orElse(Defaults.RateLimit.UNLIMITED);
+            settings.maxRecipientsPerSecond = Optional.ofNullable(maxRecipientsPerSecond).orElse(Defaults.RateLimit.UNLIMITED);
+            settings.maxBytesPerSecond = Optional.ofNullable(maxBytesPerSecond).orElse(Defaults.RateLimit.UNLIMITED);
+            settings.hosts = hosts;
+            settings.hostSelection = Optional.ofNullable(hostSelection).orElse(Defaults.RelayHosts.SELECTION);
+            settings.hostEjectionTime = Optional.ofNullable(hostEjectionTime).orElse(Defaults.RelayHosts.EJECTION_TIME);
+            settings.domainMaxConcurrency = Optional.ofNullable(domainMaxConcurrency).orElse(Defaults.RateLimit.UNLIMITED);
+            settings.domainMaxMessagesPerSecond = Optional.ofNullable(domainMaxMessagesPerSecond).orElse(Defaults.RateLimit.UNLIMITED);
+            return settings;
+        }
+    }
+}
@@ -1,47 +1,120 @@
 package com.reedelk.mail.internal.smtp.type;
 
-import com.reedelk.mail.component.SMTPMailSend;
 import com.reedelk.mail.component.smtp.BodyDefinition;
+import com.reedelk.mail.internal.commons.MBeans;
+import com.reedelk.mail.internal.commons.ThreadAllocations;
 import com.reedelk.mail.internal.exception.MailMessageConfigurationException;
 import com.reedelk.mail.internal.smtp.MailAttachmentBuilder;
 import com.reedelk.mail.internal.smtp.MailMessageBuilder;
+import com.reedelk.mail.internal.smtp.MailSendDefinition;
 import com.reedelk.mail.internal.smtp.MailSessionBuilder;
 import com.reedelk.runtime.api.commons.DynamicValueUtils;
+import com.reedelk.runtime.api.commons.StreamUtils;
 import com.reedelk.runtime.api.converter.ConverterService;
 import com.reedelk.runtime.api.flow.FlowContext;
 import com.reedelk.runtime.api.message.Message;
+import com.reedelk.runtime.api.message.content.MimeType;
 import com.reedelk.runtime.api.message.content.Pair;
 import com.reedelk.runtime.api.script.ScriptEngineService;
 import com.reedelk.runtime.api.script.dynamicvalue.DynamicString;
 import org.apache.commons.mail.Email;
 import org.apache.commons.mail.EmailException;
 import org.apache.commons.mail.MultiPartEmail;
+import org.reactivestreams.Publisher;
 
+import javax.management.ObjectName;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import static com.reedelk.mail.internal.commons.Messages.MailSendComponent.MAIL_BODY_EMPTY_ERROR;
 import static com.reedelk.runtime.api.commons.StringUtils.isBlank;
 import static java.util.Optional.ofNullable;
 
-abstract class AbstractMailType implements MailTypeStrategy {
+/**
+ * A mail type strategy is resolved once, when the component is initialized, and it is used
+ * to build all the mail messages of the component: it must not hold any per message state.
+ * The number of messages built and the bytes allocated to build them are exposed through JMX.
+ */
+abstract class AbstractMailType implements MailTypeStrategy, MailTypeStrategyMXBean {
+
+    private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+    protected static final String PLAIN = "plain";
 
     protected final ConverterService converterService;
-    protected final SMTPMailSend component;
+    protected final MailSendDefinition component;
+    protected final String charset;
+
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private ObjectName objectName;
 
-    public AbstractMailType(SMTPMailSend component, ConverterService converterService) {
+    public AbstractMailType(MailSendDefinition component, ConverterService converterService) {
         this.component = component;
         this.converterService = converterService;
+        this.charset = charsetFrom(component.getBody());
+    }
+
+    @Override
+    public MailTypeStrategyResult create(FlowContext context, Message message) throws EmailException {
+        long allocatedBefore = ThreadAllocations.current();
+        try {
+            return build(context, message);
+        } finally {
+            messages.increment();
+            if (allocatedBefore != ThreadAllocations.NOT_SUPPORTED) {
+                allocatedBytes.add(ThreadAllocations.current() - allocatedBefore);
+            }
+        }
+    }
+
+    protected abstract MailTypeStrategyResult build(FlowContext context, Message message) throws EmailException;
+
+    void register(String name) {
+        objectName = MBeans.register(this, "MailTypeStrategy", name + "-" + SEQUENCE.incrementAndGet());
+    }
+
+    @Override
+    public void dispose() {
+        MBeans.unregister(objectName);
+        objectName = null;
+    }
+
+    @Override
+    public String getType() {
+        return getClass().getSimpleName();
+    }
+
+    @Override
+    public long getMessages() {
+        return messages.sum();
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return ThreadAllocations.isSupported() ? allocatedBytes.sum() : ThreadAllocations.NOT_SUPPORTED;
+    }
+
+    @Override
+    public long getAllocatedBytesPerMessage() {
+        long count = getMessages();
+        long allocated = getAllocatedBytes();
+        return count == 0 || allocated == ThreadAllocations.NOT_SUPPORTED ? allocated : allocated / count;
     }
 
     protected void configureConnection(Email email) {
         MailSessionBuilder.builder(email)
-                .configuration(component.getConnection())
+                .session(component.getSession())
                 .build();
     }
 
     protected void configureBaseMessage(FlowContext context, Message message, Email email) throws EmailException {
         MailMessageBuilder.get(email)
                 .scriptService(component.getScriptService())
+                .fields(component.getMessageFields())
                 .replyTo(component.getReplyTo())
                 .subject(component.getSubject())
                 .from(component.getFrom())
@@ -62,21 +135,50 @@ abstract class AbstractMailType implements MailTypeStrategy {
                 .converter(component.getConverterService())
                 .scriptEngine(component.getScriptService())
                 .attachmentsMap(component.getAttachmentsMap())
+                .cache(component.getAttachmentCache())
+                .loader(component.getAttachmentLoader())
                 .build();
     }
 
-    protected Pair<String,String> buildCharsetAndMailBody(FlowContext context, Message message) {
-        // Mail message body
-        BodyDefinition body = component.getBody();
+    /**
+     * Returns the body of the mail message. A binary or stream message payload used as body is
+     * not converted to a string: its bytes, encoded with the body charset, are referenced as they are.
+     * A payload whose mime type has a different charset is transcoded to the body charset instead.
+     */
+    @SuppressWarnings("unchecked")
+    protected MailBody mailBodyOf(FlowContext context, Message message) {
+        if (DynamicValueUtils.isNullOrBlank(contentExpression())) {
+            Object messageData = message.payload();
+            if (messageData instanceof byte[]) {
+                return mailBodyOf(message, (byte[]) messageData);
+            }
+            if (messageData instanceof Publisher) {
+                // A stream can be read only once, while the mail message might be written more than once.
+                byte[] content = StreamUtils.FromByteArray.consume((Publisher<byte[]>) messageData);
+                return mailBodyOf(message, content);
+            }
+        }
+        Pair<String, String> charsetAndBody = buildCharsetAndMailBody(context, message);
+        return MailBody.text(charsetAndBody.left(), charsetAndBody.right());
+    }
+
+    private MailBody mailBodyOf(Message message, byte[] content) {
+        Optional<Charset> payloadCharset = ofNullable(message.content())
+                .flatMap(typedContent -> ofNullable(typedContent.mimeType()))
+                .flatMap(MimeType::getCharset);
+        if (payloadCharset.isPresent() && !payloadCharset.get().equals(Charset.forName(charset))) {
+            return MailBody.text(charset, new String(content, payloadCharset.get()));
+        }
+        return MailBody.bytes(charset, content);
+    }
 
+    protected Pair<String,String> buildCharsetAndMailBody(FlowContext context, Message message) {
         String bodyContent;
 
         // If the user has not set the mail body content expression from the body definition,
         // we use the message payload as mail content. Note that the message payload
         // is converted to string first.
-        DynamicString contentDynamicExpression = ofNullable(body)
-                .flatMap(bodyDefinition -> ofNullable(bodyDefinition.getContent()))
-                .orElse(null);
+        DynamicString contentDynamicExpression = contentExpression();
 
         if (DynamicValueUtils.isNullOrBlank(contentDynamicExpression)) {
             // We take the mail message body from the message payload.
@@ -90,12 +192,16 @@ abstract class AbstractMailType implements MailTypeStrategy {
                     .orElseThrow(() -> new MailMessageConfigurationException(MAIL_BODY_EMPTY_ERROR.format()));
         }
 
-        String charset = charsetFrom(body);
-
         return Pair.create(charset, bodyContent);
     }
 
-    protected String charsetFrom(BodyDefinition definition) {
+    private DynamicString contentExpression() {
+        return ofNullable(component.getBody())
+                .flatMap(bodyDefinition -> ofNullable(bodyDefinition.getContent()))
+                .orElse(null);
+    }
+
+    private static String charsetFrom(BodyDefinition definition) {
         if (definition == null) return StandardCharsets.UTF_8.toString();
         if (isBlank(definition.getCharset())) return StandardCharsets.UTF_8.toString();
         else return definition.getCharset();
@@ -0,0 +1,33 @@
+package com.reedelk.mail.internal.smtp.type;
+
+import org.apache.commons.mail.EmailException;
+import org.apache.commons.mail.SimpleEmail;
+
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import javax.mail.MessagingException;
+
+/**
+ * A plain text email whose body is either set as a string, or read from
+ * a data source when the message is written.
+ */
+class BytesBodyEmail extends SimpleEmail {
+
+    private DataSource body;
+
+    void setBody(DataSource body) {
+        this.body = body;
+    }
+
+    @Override
+    public void buildMimeMessage() throws EmailException {
+        super.buildMimeMessage();
+        if (body == null) return;
+        try {
+            // Replaces the empty text set by default, together with its content headers.
+            getMimeMessage().setDataHandler(new DataHandler(body));
+        } catch (MessagingException exception) {
+            throw new EmailException(exception);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.reedelk.mail.internal.smtp.type;
+
+import org.apache.commons.mail.EmailException;
+import org.apache.commons.mail.MultiPartEmail;
+
+import javax.mail.BodyPart;
+import javax.mail.MessagingException;
+
+/**
+ * An email with attachments whose body is either set as a string, or given
+ * as a body part, e.g. reading the body from a data source.
+ */
+class BytesBodyMultiPartEmail extends MultiPartEmail {
+
+    void setBody(BodyPart body) throws EmailException {
+        try {
+            // The body is always the first part, whether or not the attachments have been added already.
+            getContainer().addBodyPart(body, 0);
+        } catch (MessagingException exception) {
+            throw new EmailException(exception);
+        }
+    }
+}
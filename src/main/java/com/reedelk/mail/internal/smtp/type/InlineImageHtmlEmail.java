@@ -0,0 +1,27 @@
+package com.reedelk.mail.internal.smtp.type;
+
+import com.reedelk.mail.internal.smtp.attachment.cache.CachedAttachmentDataSource;
+import org.apache.commons.mail.EmailException;
+import org.apache.commons.mail.ImageHtmlEmail;
+
+import javax.activation.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * An HTML email embedding the cached images with a content id derived from their cache key
+ * instead of a random one: the inline parts of the same image are identical in all the emails,
+ * therefore their encoded form can be cached as well.
+ */
+class InlineImageHtmlEmail extends ImageHtmlEmail {
+
+    @Override
+    public String embed(DataSource dataSource, String name) throws EmailException {
+        if (!(dataSource instanceof CachedAttachmentDataSource) || inlineEmbeds.containsKey(name)) {
+            return super.embed(dataSource, name);
+        }
+        String key = ((CachedAttachmentDataSource) dataSource).getKey();
+        String cid = UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+        return embed(dataSource, name, cid);
+    }
+}
@@ -0,0 +1,53 @@
+package com.reedelk.mail.internal.smtp.type;
+
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.util.ByteArrayDataSource;
+
+/**
+ * The body of a mail message: either a text, or the bytes of the message payload already
+ * encoded with the body charset. Bytes are referenced by the mail message as they are,
+ * without being converted to a string first.
+ */
+class MailBody {
+
+    private static final String TEXT = "text/";
+
+    final String charset;
+    final String text;
+    final byte[] content;
+
+    private MailBody(String charset, String text, byte[] content) {
+        this.charset = charset;
+        this.text = text;
+        this.content = content;
+    }
+
+    static MailBody text(String charset, String text) {
+        return new MailBody(charset, text, null);
+    }
+
+    static MailBody bytes(String charset, byte[] content) {
+        return new MailBody(charset, null, content);
+    }
+
+    boolean isText() {
+        return text != null;
+    }
+
+    /**
+     * Returns a data source reading the body bytes, e.g. subtype 'plain' for a text/plain body.
+     */
+    DataSource dataSource(String subtype) {
+        // The byte array data source does not copy the given bytes.
+        return new ByteArrayDataSource(content, TEXT + subtype + "; charset=" + charset);
+    }
+
+    MimeBodyPart part(String subtype) throws MessagingException {
+        MimeBodyPart part = new MimeBodyPart();
+        part.setDataHandler(new DataHandler(dataSource(subtype)));
+        return part;
+    }
+}
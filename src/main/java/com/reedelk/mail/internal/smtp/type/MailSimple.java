@@ -1,31 +1,33 @@
 package com.reedelk.mail.internal.smtp.type;
 
-import com.reedelk.mail.component.SMTPMailSend;
+import com.reedelk.mail.internal.smtp.MailSendDefinition;
 import com.reedelk.runtime.api.converter.ConverterService;
 import com.reedelk.runtime.api.flow.FlowContext;
 import com.reedelk.runtime.api.message.Message;
 import com.reedelk.runtime.api.message.content.MimeType;
-import com.reedelk.runtime.api.message.content.Pair;
-import org.apache.commons.mail.Email;
 import org.apache.commons.mail.EmailException;
-import org.apache.commons.mail.SimpleEmail;
 
 public class MailSimple extends AbstractMailType {
 
-    public MailSimple(SMTPMailSend component, ConverterService converterService) {
+    public MailSimple(MailSendDefinition component, ConverterService converterService) {
         super(component, converterService);
     }
 
     @Override
-    public MailTypeStrategyResult create(FlowContext context, Message message) throws EmailException {
-        Email email = new SimpleEmail();
+    protected MailTypeStrategyResult build(FlowContext context, Message message) throws EmailException {
+        BytesBodyEmail email = new BytesBodyEmail();
         configureConnection(email);
         configureBaseMessage(context, message, email);
 
-        Pair<String, String> charsetAndBody = buildCharsetAndMailBody(context, message);
-        email.setCharset(charsetAndBody.left());
-        email.setMsg(charsetAndBody.right());
+        MailBody body = mailBodyOf(context, message);
+        email.setCharset(body.charset);
 
-        return MailTypeStrategyResult.create(email, charsetAndBody.right(), MimeType.TEXT_PLAIN);
+        if (body.isText()) {
+            email.setMsg(body.text);
+            return MailTypeStrategyResult.create(email, body.text, MimeType.TEXT_PLAIN);
+        }
+
+        email.setBody(body.dataSource(PLAIN));
+        return MailTypeStrategyResult.create(email, body.content, MimeType.TEXT_PLAIN);
     }
 }
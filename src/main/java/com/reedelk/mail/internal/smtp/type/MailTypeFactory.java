@@ -1,6 +1,6 @@
 package com.reedelk.mail.internal.smtp.type;
 
-import com.reedelk.mail.component.SMTPMailSend;
+import com.reedelk.mail.internal.smtp.MailSendDefinition;
 import com.reedelk.runtime.api.converter.ConverterService;
 import com.reedelk.runtime.api.message.content.MimeType;
 
@@ -13,7 +13,18 @@ public class MailTypeFactory {
     private MailTypeFactory() {
     }
 
-    public static MailTypeStrategy from(SMTPMailSend component, ConverterService converterService) {
+    /**
+     * Resolves the mail type strategy of the given component: it must be called
+     * once, when the component is initialized, and the strategy reused for each message.
+     * The strategy must be disposed together with the component.
+     */
+    public static MailTypeStrategy from(MailSendDefinition component, ConverterService converterService) {
+        AbstractMailType strategy = strategyOf(component, converterService);
+        strategy.register(component.getClass().getSimpleName());
+        return strategy;
+    }
+
+    private static AbstractMailType strategyOf(MailSendDefinition component, ConverterService converterService) {
 
         MimeType mimeType = Optional.ofNullable(component.getBody())
                 .flatMap(definition -> Optional.ofNullable(definition.getContentType()))
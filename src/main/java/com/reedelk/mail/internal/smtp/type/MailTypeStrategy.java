@@ -7,4 +7,9 @@ import org.apache.commons.mail.EmailException;
 public interface MailTypeStrategy {
 
     MailTypeStrategyResult create(FlowContext context, Message message) throws EmailException;
+
+    /**
+     * Releases the resources of the strategy, e.g. its metrics.
+     */
+    void dispose();
 }
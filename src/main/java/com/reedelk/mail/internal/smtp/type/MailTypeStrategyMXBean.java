@@ -0,0 +1,18 @@
+package com.reedelk.mail.internal.smtp.type;
+
+public interface MailTypeStrategyMXBean {
+
+    String getType();
+
+    /**
+     * The number of mail messages built by the strategy.
+     */
+    long getMessages();
+
+    /**
+     * The bytes allocated while building the mail messages, -1 if not supported by the JVM.
+     */
+    long getAllocatedBytes();
+
+    long getAllocatedBytesPerMessage();
+}
@@ -7,15 +7,24 @@ public class MailTypeStrategyResult {
 
     public final Email email;
     public final String text;
+    public final byte[] content;
     public final MimeType mimeType;
 
-    private MailTypeStrategyResult(Email email, String text, MimeType mimeType) {
+    private MailTypeStrategyResult(Email email, String text, byte[] content, MimeType mimeType) {
         this.mimeType = mimeType;
         this.email = email;
         this.text = text;
+        this.content = content;
     }
 
     public static MailTypeStrategyResult create(Email email, String text, MimeType mimeType) {
-        return new MailTypeStrategyResult(email, text, mimeType);
+        return new MailTypeStrategyResult(email, text, null, mimeType);
+    }
+
+    /**
+     * The body of the email is the given content, encoded with the body charset.
+     */
+    public static MailTypeStrategyResult create(Email email, byte[] content, MimeType mimeType) {
+        return new MailTypeStrategyResult(email, null, content, mimeType);
     }
 }
@@ -1,31 +1,40 @@
 package com.reedelk.mail.internal.smtp.type;
 
-import com.reedelk.mail.component.SMTPMailSend;
+import com.reedelk.mail.internal.smtp.MailSendDefinition;
 import com.reedelk.runtime.api.converter.ConverterService;
 import com.reedelk.runtime.api.flow.FlowContext;
 import com.reedelk.runtime.api.message.Message;
 import com.reedelk.runtime.api.message.content.MimeType;
-import com.reedelk.runtime.api.message.content.Pair;
 import org.apache.commons.mail.EmailException;
-import org.apache.commons.mail.MultiPartEmail;
+
+import javax.mail.MessagingException;
 
 public class MailWithAttachments extends AbstractMailType {
 
-    public MailWithAttachments(SMTPMailSend component, ConverterService converterService) {
+    public MailWithAttachments(MailSendDefinition component, ConverterService converterService) {
         super(component, converterService);
     }
 
     @Override
-    public MailTypeStrategyResult create(FlowContext context, Message message) throws EmailException {
-        MultiPartEmail email = new MultiPartEmail();
+    protected MailTypeStrategyResult build(FlowContext context, Message message) throws EmailException {
+        BytesBodyMultiPartEmail email = new BytesBodyMultiPartEmail();
         configureConnection(email);
         configureBaseMessage(context, message, email);
         configureAttachments(context, message, email);
 
-        Pair<String, String> charsetAndBody = buildCharsetAndMailBody(context, message);
-        email.setCharset(charsetAndBody.left());
-        email.setMsg(charsetAndBody.right());
+        MailBody body = mailBodyOf(context, message);
+        email.setCharset(body.charset);
+
+        if (body.isText()) {
+            email.setMsg(body.text);
+            return MailTypeStrategyResult.create(email, body.text, MimeType.TEXT_PLAIN);
+        }
 
-        return MailTypeStrategyResult.create(email, charsetAndBody.right(), MimeType.TEXT_PLAIN);
+        try {
+            email.setBody(body.part(PLAIN));
+        } catch (MessagingException exception) {
+            throw new EmailException(exception);
+        }
+        return MailTypeStrategyResult.create(email, body.content, MimeType.TEXT_PLAIN);
     }
 }
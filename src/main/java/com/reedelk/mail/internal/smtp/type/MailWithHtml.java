@@ -1,24 +1,24 @@
 package com.reedelk.mail.internal.smtp.type;
 
-import com.reedelk.mail.component.SMTPMailSend;
+import com.reedelk.mail.internal.smtp.MailSendDefinition;
 import com.reedelk.runtime.api.converter.ConverterService;
 import com.reedelk.runtime.api.flow.FlowContext;
 import com.reedelk.runtime.api.message.Message;
 import com.reedelk.runtime.api.message.content.MimeType;
 import com.reedelk.runtime.api.message.content.Pair;
 import org.apache.commons.mail.EmailException;
-import org.apache.commons.mail.ImageHtmlEmail;
 
 public class MailWithHtml extends AbstractMailType {
 
-    public MailWithHtml(SMTPMailSend component, ConverterService converterService) {
+    public MailWithHtml(MailSendDefinition component, ConverterService converterService) {
         super(component, converterService);
     }
 
     @Override
-    public MailTypeStrategyResult create(FlowContext context, Message message) throws EmailException {
+    protected MailTypeStrategyResult build(FlowContext context, Message message) throws EmailException {
 
-        ImageHtmlEmail email = new ImageHtmlEmail();
+        InlineImageHtmlEmail email = new InlineImageHtmlEmail();
+        email.setDataSourceResolver(component.getInlineImageResolver());
 
         configureConnection(email);
         configureBaseMessage(context, message, email);
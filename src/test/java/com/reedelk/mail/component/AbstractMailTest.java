@@ -113,6 +113,13 @@ abstract class AbstractMailTest {
         assertThat(mailServer.getReceivedMessages()).hasSize(expected);
     }
 
+    protected void awaitReceivedMessagesCountIs(int expected) {
+        // GreenMail acknowledges the DATA command before storing the message: since
+        // SMTP connections are pooled and not closed after sending, we must wait for it.
+        mailServer.waitForIncomingEmail(5000, expected);
+        assertReceivedMessagesCountIs(expected);
+    }
+
     protected void assertReceivedMessagesIsEmpty() {
         assertThat(mailServer.getReceivedMessages()).isEmpty();
     }
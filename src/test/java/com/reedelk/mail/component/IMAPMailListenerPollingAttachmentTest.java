@@ -4,6 +4,7 @@ import com.icegreen.greenmail.util.ServerSetup;
 import com.reedelk.mail.component.imap.IMAPListeningStrategy;
 import com.reedelk.mail.component.imap.IMAPProtocol;
 import com.reedelk.mail.internal.CloseableService;
+import com.reedelk.mail.internal.MailSessionService;
 import com.reedelk.mail.internal.type.MailMessage;
 import com.reedelk.runtime.api.message.Message;
 import com.reedelk.runtime.api.message.content.Attachment;
@@ -43,6 +44,7 @@ public class IMAPMailListenerPollingAttachmentTest extends AbstractMailTest {
 
         listener = new IMAPMailListener();
         listener.closeableService = closeableService;
+        listener.sessionService = new MailSessionService();
         listener.setStrategy(IMAPListeningStrategy.POLLING);
         listener.setConnection(configuration);
         listener.setPollInterval(1000);
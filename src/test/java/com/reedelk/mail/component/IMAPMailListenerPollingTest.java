@@ -6,6 +6,7 @@ import com.reedelk.mail.component.imap.IMAPFlags;
 import com.reedelk.mail.component.imap.IMAPListeningStrategy;
 import com.reedelk.mail.component.imap.IMAPProtocol;
 import com.reedelk.mail.internal.CloseableService;
+import com.reedelk.mail.internal.MailSessionService;
 import com.reedelk.mail.internal.type.MailMessage;
 import com.reedelk.runtime.api.message.Message;
 import org.junit.jupiter.api.BeforeEach;
@@ -44,6 +45,7 @@ class IMAPMailListenerPollingTest extends AbstractMailTest {
 
         listener = new IMAPMailListener();
         listener.closeableService = closeableService;
+        listener.sessionService = new MailSessionService();
         listener.setStrategy(IMAPListeningStrategy.POLLING);
         listener.setConnection(configuration);
         listener.setPollInterval(1000);
@@ -3,6 +3,7 @@ package com.reedelk.mail.component;
 import com.icegreen.greenmail.util.ServerSetup;
 import com.reedelk.mail.component.pop3.POP3Protocol;
 import com.reedelk.mail.internal.CloseableService;
+import com.reedelk.mail.internal.MailSessionService;
 import com.reedelk.mail.internal.type.MailMessage;
 import com.reedelk.runtime.api.message.Message;
 import org.junit.jupiter.api.BeforeEach;
@@ -38,6 +39,7 @@ public class POP3MailListenerPollingTest extends AbstractMailTest {
 
         listener = new POP3MailListener();
         listener.closeableService = closeableService;
+        listener.sessionService = new MailSessionService();
         listener.setConnection(configuration);
         listener.setPollInterval(1000);
     }
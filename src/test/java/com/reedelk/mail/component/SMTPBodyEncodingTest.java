@@ -0,0 +1,249 @@
+package com.reedelk.mail.component;
+
+import com.reedelk.mail.internal.MailSessionService;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPool;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPoolService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.activation.DataHandler;
+import javax.mail.BodyPart;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.util.ByteArrayDataSource;
+import java.io.*;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static javax.mail.Message.RecipientType.TO;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Uses a stand-in SMTP server advertising the 8BITMIME and CHUNKING extensions,
+ * which keeps the commands and the content of the messages it receives.
+ */
+class SMTPBodyEncodingTest {
+
+    private static final String TEXT = "Grüße from the body\nand a second line\n";
+    private static final String DOT_TEXT = "Grüße from the body\n.a line starting with a dot\n";
+
+    private MailSessionService sessionService = new MailSessionService();
+    private SMTPTransportPoolService transportPoolService = new SMTPTransportPoolService();
+
+    private StandInServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new StandInServer();
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        transportPoolService.closeAll();
+        server.close();
+    }
+
+    @Test
+    void shouldSendTextUnencodedWithBdat() throws MessagingException, IOException {
+        // Given
+        SMTPTransportPool transportPool = transportPool(true);
+        byte[] binary = allBytes();
+        MimeMessage message = message(transportPool, binary);
+
+        // When
+        transportPool.send(message);
+
+        // Then
+        assertThat(server.commands).anyMatch(command -> command.endsWith(" BODY=8BITMIME"));
+        assertThat(server.commands).anyMatch(command -> command.startsWith("BDAT ") && command.endsWith(" LAST"));
+        assertThat(server.commands).doesNotContain("DATA");
+
+        MimeMessage received = received();
+        MimeMultipart content = (MimeMultipart) received.getContent();
+
+        BodyPart textPart = content.getBodyPart(0);
+        assertThat(textPart.getHeader("Content-Transfer-Encoding")).containsExactly("8bit");
+        assertThat(textPart.getContent()).isEqualTo(TEXT.replace("\n", "\r\n"));
+
+        BodyPart binaryPart = content.getBodyPart(1);
+        assertThat(binaryPart.getHeader("Content-Transfer-Encoding")).containsExactly("base64");
+        assertThat(readAll(binaryPart.getInputStream())).containsExactly(binary);
+
+        // The encodings of the message are restored once it has been sent.
+        MimeMultipart sent = (MimeMultipart) message.getContent();
+        assertThat(sent.getBodyPart(0).getHeader("Content-Transfer-Encoding")).containsExactly("quoted-printable");
+        assertThat(sent.getBodyPart(1).getHeader("Content-Transfer-Encoding")).containsExactly("base64");
+    }
+
+    @Test
+    void shouldSendTextWithLinesStartingWithDotWithDataWhenChunkingIsEnabled() throws MessagingException, IOException {
+        // Given
+        SMTPTransportPool transportPool = transportPool(true);
+        byte[] binary = allBytes();
+        MimeMessage message = message(transportPool, DOT_TEXT, binary);
+
+        // When
+        transportPool.send(message);
+
+        // Then
+        assertThat(server.commands).anyMatch(command -> command.endsWith(" BODY=8BITMIME"));
+        assertThat(server.commands).contains("DATA");
+        assertThat(server.commands).noneMatch(command -> command.startsWith("BDAT "));
+
+        MimeMultipart content = (MimeMultipart) received().getContent();
+
+        BodyPart textPart = content.getBodyPart(0);
+        assertThat(textPart.getHeader("Content-Transfer-Encoding")).containsExactly("8bit");
+        // Dot-stuffed by the transport, unstuffed by the server.
+        assertThat(textPart.getContent()).isEqualTo(DOT_TEXT.replace("\n", "\r\n"));
+
+        assertThat(readAll(content.getBodyPart(1).getInputStream())).containsExactly(binary);
+    }
+
+    @Test
+    void shouldSendTextUnencodedWithDataWhenChunkingIsDisabled() throws MessagingException, IOException {
+        // Given
+        SMTPTransportPool transportPool = transportPool(false);
+        byte[] binary = allBytes();
+        MimeMessage message = message(transportPool, DOT_TEXT, binary);
+
+        // When
+        transportPool.send(message);
+
+        // Then
+        assertThat(server.commands).anyMatch(command -> command.endsWith(" BODY=8BITMIME"));
+        assertThat(server.commands).contains("DATA");
+
+        MimeMultipart content = (MimeMultipart) received().getContent();
+
+        BodyPart textPart = content.getBodyPart(0);
+        assertThat(textPart.getHeader("Content-Transfer-Encoding")).containsExactly("8bit");
+        assertThat(textPart.getContent()).isEqualTo(DOT_TEXT.replace("\n", "\r\n"));
+
+        BodyPart binaryPart = content.getBodyPart(1);
+        assertThat(binaryPart.getHeader("Content-Transfer-Encoding")).containsExactly("base64");
+        assertThat(readAll(binaryPart.getInputStream())).containsExactly(binary);
+    }
+
+    private SMTPTransportPool transportPool(boolean chunking) {
+        SMTPConfiguration configuration = new SMTPConfiguration();
+        configuration.setHost("localhost");
+        configuration.setPort(server.port());
+        configuration.setUsername("testUser");
+        configuration.setPassword("testPassword");
+        configuration.setEightBitMimeEnabled(true);
+        configuration.setChunkingEnabled(chunking);
+
+        Session session = sessionService.acquire(configuration);
+        return transportPoolService.acquire(configuration, session);
+    }
+
+    private MimeMessage message(SMTPTransportPool transportPool, byte[] binary) throws MessagingException {
+        return message(transportPool, TEXT, binary);
+    }
+
+    private MimeMessage message(SMTPTransportPool transportPool, String text, byte[] binary) throws MessagingException {
+        MimeBodyPart textPart = new MimeBodyPart();
+        textPart.setText(text, "UTF-8");
+
+        MimeBodyPart binaryPart = new MimeBodyPart();
+        binaryPart.setDataHandler(new DataHandler(new ByteArrayDataSource(binary, "application/octet-stream")));
+        binaryPart.setFileName("data.bin");
+
+        MimeMessage message = new MimeMessage(transportPool.session());
+        message.setFrom(new InternetAddress("from@test.com"));
+        message.addRecipient(TO, new InternetAddress("to@test.com"));
+        message.setSubject("My email subject");
+        message.setContent(new MimeMultipart(textPart, binaryPart));
+        return message;
+    }
+
+    private MimeMessage received() throws MessagingException {
+        return new MimeMessage(Session.getInstance(System.getProperties()), new ByteArrayInputStream(server.content));
+    }
+
+    private static byte[] allBytes() {
+        byte[] bytes = new byte[1024];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    private static byte[] readAll(InputStream stream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = stream.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * A minimal SMTP server, reading the content of a message either with DATA or with BDAT.
+     */
+    static class StandInServer extends StandInSMTPServer {
+
+        private final List<String> commands = new CopyOnWriteArrayList<>();
+
+        private volatile byte[] content;
+
+        StandInServer() throws IOException {
+        }
+
+        @Override
+        protected void converse(InputStream input, OutputStream out) throws IOException {
+            InputStream in = new BufferedInputStream(input);
+
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            String line;
+            while ((line = readLine(in)) != null) {
+                String command = line.toUpperCase();
+                if (!command.startsWith("EHLO")) commands.add(line);
+
+                if (command.startsWith("EHLO")) {
+                    reply(out, "250-localhost\r\n250-8BITMIME\r\n250 CHUNKING");
+                } else if (command.equals("DATA")) {
+                    reply(out, "354 Start mail input");
+                    String dataLine;
+                    while (!(dataLine = readLine(in)).equals(".")) {
+                        if (dataLine.startsWith(".")) dataLine = dataLine.substring(1);
+                        received.write(dataLine.getBytes(UTF_8));
+                        received.write('\r');
+                        received.write('\n');
+                    }
+                    content = received.toByteArray();
+                    received.reset();
+                    reply(out, "250 OK");
+                } else if (command.startsWith("BDAT ")) {
+                    String[] arguments = line.split(" ");
+                    byte[] chunk = new byte[Integer.parseInt(arguments[1])];
+                    int offset = 0;
+                    while (offset < chunk.length) {
+                        offset += in.read(chunk, offset, chunk.length - offset);
+                    }
+                    received.write(chunk);
+                    if (arguments.length > 2) {
+                        content = received.toByteArray();
+                        received.reset();
+                    }
+                    reply(out, "250 OK");
+                } else if (command.equals("QUIT")) {
+                    reply(out, "221 Bye");
+                    return;
+                } else {
+                    // HELO, MAIL FROM, RCPT TO, RSET and NOOP.
+                    reply(out, "250 OK");
+                }
+            }
+        }
+    }
+}
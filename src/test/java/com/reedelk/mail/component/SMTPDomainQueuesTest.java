@@ -0,0 +1,212 @@
+package com.reedelk.mail.component;
+
+import com.reedelk.mail.internal.MailSessionService;
+import com.reedelk.mail.internal.smtp.transport.EnvelopeResult;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPool;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPoolService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.util.Arrays.asList;
+import static javax.mail.Message.RecipientType.TO;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Uses a stand-in SMTP server slow to accept the emails to one domain and rejecting the recipients
+ * of the domains starting with 'rejected', which keeps track of the emails being received at
+ * the same time for each domain.
+ */
+class SMTPDomainQueuesTest {
+
+    private static final String SLOW_DOMAIN = "slow.com";
+    private static final int SLOW_DELAY = 200;
+    private static final String REJECTED_DOMAIN = "rejected";
+
+    private MailSessionService sessionService = new MailSessionService();
+    private SMTPTransportPoolService transportPoolService = new SMTPTransportPoolService();
+
+    private StandInServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new StandInServer();
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        transportPoolService.closeAll();
+        server.close();
+    }
+
+    @Test
+    void shouldLimitConcurrentDeliveriesPerDomainWithoutHoldingBackOtherDomains() throws MessagingException {
+        // Given
+        SMTPTransportPool transportPool = transportPool();
+
+        // When
+        List<CompletableFuture<List<EnvelopeResult>>> sent = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            sent.add(transportPool.sendAsync(message(transportPool, "to" + i + "@" + SLOW_DOMAIN)));
+        }
+        sent.add(transportPool.sendAsync(message(transportPool, "to@fast.com")));
+        sent.forEach(CompletableFuture::join);
+
+        // Then
+        assertThat(server.maxConcurrent.get(SLOW_DOMAIN).get()).isEqualTo(1);
+        assertThat(server.received).hasSize(4);
+        assertThat(server.received.get(0)).containsExactly("to@fast.com");
+    }
+
+    @Test
+    void shouldSendEmailSeparatelyToEachRecipientDomain() throws MessagingException {
+        // Given
+        SMTPTransportPool transportPool = transportPool();
+        MimeMessage message = message(transportPool, "to1@" + SLOW_DOMAIN, "to@fast.com", "to2@" + SLOW_DOMAIN);
+
+        // When
+        List<EnvelopeResult> envelopes = transportPool.send(message);
+
+        // Then
+        assertThat(server.received).containsExactlyInAnyOrder(
+                asList("to1@" + SLOW_DOMAIN, "to2@" + SLOW_DOMAIN),
+                asList("to@fast.com"));
+        assertThat(envelopes).hasSize(2).allMatch(EnvelopeResult::isAccepted);
+    }
+
+    @Test
+    void shouldReturnOutcomeOfEachDomainWhenEmailIsRejectedBySomeOfThem() throws MessagingException {
+        // Given
+        SMTPTransportPool transportPool = transportPool();
+        MimeMessage message = message(transportPool, "to@fast.com", "to@" + REJECTED_DOMAIN + ".com");
+
+        // When
+        List<EnvelopeResult> envelopes = transportPool.send(message);
+
+        // Then
+        assertThat(server.received).containsExactly(asList("to@fast.com"));
+        assertThat(envelopes).hasSize(2);
+        assertThat(envelopes.get(0).isAccepted()).isTrue();
+        assertThat(envelopes.get(1).isAccepted()).isFalse();
+        assertThat(envelopes.get(1).getError()).isNotBlank();
+        assertThat(envelopes.get(1).getAddresses()).extracting(Address::toString)
+                .containsExactly("to@" + REJECTED_DOMAIN + ".com");
+    }
+
+    @Test
+    void shouldFailWhenEmailIsRejectedByAllDomains() throws MessagingException {
+        // Given
+        SMTPTransportPool transportPool = transportPool();
+        MimeMessage message = message(transportPool, "to@" + REJECTED_DOMAIN + "1.com", "to@" + REJECTED_DOMAIN + "2.com");
+
+        // When
+        Throwable thrown = catchThrowable(() -> transportPool.send(message));
+
+        // Then
+        assertThat(thrown).isInstanceOf(MessagingException.class);
+        assertThat(server.received).isEmpty();
+    }
+
+    private SMTPTransportPool transportPool() {
+        SMTPConfiguration configuration = new SMTPConfiguration();
+        configuration.setHost("localhost");
+        configuration.setPort(server.port());
+        configuration.setUsername("testUser");
+        configuration.setPassword("testPassword");
+        configuration.setPoolMaxSize(4);
+        configuration.setDomainMaxConnections(1);
+
+        Session session = sessionService.acquire(configuration);
+        return transportPoolService.acquire(configuration, session);
+    }
+
+    private MimeMessage message(SMTPTransportPool transportPool, String... to) throws MessagingException {
+        MimeMessage message = new MimeMessage(transportPool.session());
+        message.setFrom(new InternetAddress("from@test.com"));
+        for (String recipient : to) {
+            message.addRecipient(TO, new InternetAddress(recipient));
+        }
+        message.setSubject("My email subject");
+        message.setText("My email body");
+        return message;
+    }
+
+    /**
+     * A minimal SMTP server, keeping the recipients of each email it receives in order of reception.
+     */
+    static class StandInServer extends StandInSMTPServer {
+
+        private final Map<String, AtomicInteger> concurrent = new ConcurrentHashMap<>();
+        private final Map<String, AtomicInteger> maxConcurrent = new ConcurrentHashMap<>();
+        private final List<List<String>> received = new CopyOnWriteArrayList<>();
+
+        StandInServer() throws IOException {
+        }
+
+        @Override
+        protected void converse(InputStream input, OutputStream out) throws IOException {
+            BufferedReader in = new BufferedReader(new InputStreamReader(input, US_ASCII));
+
+            List<String> recipients = new ArrayList<>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                String command = line.toUpperCase();
+                if (command.startsWith("EHLO")) {
+                    reply(out, "250 localhost");
+                } else if (command.startsWith("RCPT TO:")) {
+                    String recipient = line.substring(line.indexOf('<') + 1, line.indexOf('>'));
+                    if (recipient.substring(recipient.indexOf('@') + 1).startsWith(REJECTED_DOMAIN)) {
+                        reply(out, "550 No such user");
+                    } else {
+                        recipients.add(recipient);
+                        reply(out, "250 OK");
+                    }
+                } else if (command.equals("DATA")) {
+                    reply(out, "354 Start mail input");
+                    while (!".".equals(in.readLine())) {
+                        // content discarded.
+                    }
+                    receive(recipients);
+                    recipients = new ArrayList<>();
+                    reply(out, "250 OK");
+                } else if (command.equals("QUIT")) {
+                    reply(out, "221 Bye");
+                    return;
+                } else {
+                    // HELO, MAIL FROM, RSET and NOOP.
+                    reply(out, "250 OK");
+                }
+            }
+        }
+
+        private void receive(List<String> recipients) {
+            String domain = recipients.get(0).substring(recipients.get(0).indexOf('@') + 1);
+            int current = concurrent.computeIfAbsent(domain, key -> new AtomicInteger()).incrementAndGet();
+            maxConcurrent.computeIfAbsent(domain, key -> new AtomicInteger()).accumulateAndGet(current, Math::max);
+            try {
+                if (SLOW_DOMAIN.equals(domain)) Thread.sleep(SLOW_DELAY);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+            received.add(recipients);
+            concurrent.get(domain).decrementAndGet();
+        }
+    }
+}
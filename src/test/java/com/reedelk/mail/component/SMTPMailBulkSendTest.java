@@ -0,0 +1,288 @@
+package com.reedelk.mail.component;
+
+import com.icegreen.greenmail.util.ServerSetup;
+import com.reedelk.mail.internal.MailSessionService;
+import com.reedelk.mail.internal.script.MailAttachmentBuilder;
+import com.reedelk.mail.internal.smtp.transport.PooledTransport;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPool;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPoolService;
+import com.reedelk.runtime.api.message.Message;
+import com.reedelk.runtime.api.message.MessageAttributes;
+import com.reedelk.runtime.api.message.content.Attachment;
+import com.reedelk.runtime.api.script.dynamicvalue.DynamicString;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.mail.BodyPart;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static com.icegreen.greenmail.util.ServerSetup.PORT_SMTP;
+import static com.icegreen.greenmail.util.ServerSetup.PROTOCOL_SMTP;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doReturn;
+
+class SMTPMailBulkSendTest extends AbstractMailTest {
+
+    private ServerSetup serverSetup = new ServerSetup(1000 + PORT_SMTP, null, PROTOCOL_SMTP);
+
+    private SMTPMailBulkSend component = new SMTPMailBulkSend();
+
+    @BeforeEach
+    void setUp() {
+        super.setUp();
+        SMTPConfiguration configuration = new SMTPConfiguration();
+        configuration.setPort(serverSetup.getPort());
+        configuration.setHost(address);
+        configuration.setUsername(username);
+        configuration.setPassword(password);
+
+        mockScriptEngineEvaluation();
+        component.setConnection(configuration);
+        component.scriptService = scriptEngine;
+        component.sessionService = new MailSessionService();
+        component.transportPoolService = new SMTPTransportPoolService();
+    }
+
+    @AfterEach
+    void disposeComponent() {
+        component.dispose();
+    }
+
+    @Test
+    void shouldSendAllMailMessagesOfTheList() throws MessagingException, IOException {
+        // Given
+        List<Map<String, Object>> mails = asList(
+                mail("first@test.com", "First subject", "First body"),
+                mail("second@test.com", "Second subject", "Second body"),
+                mail("third@test.com", "Third subject", "Third body"));
+        doReturn(mails).when(message).payload();
+
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.initialize();
+
+        // When
+        Message actual = component.apply(context, message);
+
+        // Then
+        awaitReceivedMessagesCountIs(3);
+
+        MimeMessage first = receivedMessage(0);
+        assertThatToIs(first, "first@test.com");
+        assertThatFromIs(first, "from@test.com");
+        assertThatSubjectIs(first, "First subject");
+        assertThatBodyContentIs(first, "First body\r\n");
+
+        MimeMessage third = receivedMessage(2);
+        assertThatToIs(third, "third@test.com");
+        assertThatSubjectIs(third, "Third subject");
+        assertThatBodyContentIs(third, "Third body\r\n");
+
+        MessageAttributes attributes = actual.getAttributes();
+        assertThat(attributes).containsEntry("sent", 3);
+        assertThat(attributes).containsEntry("failed", 0);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldContinueSendingWhenOneMailMessageIsInvalid() {
+        // Given
+        Map<String, Object> invalid = mail("first@test.com", "Invalid", "Without from");
+        Map<String, Object> valid = mail("second@test.com", "Valid", "With from");
+        valid.put("from", "from@test.com");
+        doReturn(asList(invalid, valid)).when(message).payload();
+
+        component.initialize();
+
+        // When
+        Message actual = component.apply(context, message);
+
+        // Then
+        awaitReceivedMessagesCountIs(1);
+
+        MessageAttributes attributes = actual.getAttributes();
+        assertThat(attributes).containsEntry("sent", 1);
+        assertThat(attributes).containsEntry("failed", 1);
+
+        List<Map<String, Object>> results = (List<Map<String, Object>>) attributes.get("results");
+        assertThat(results.get(0)).containsEntry("accepted", false);
+        assertThat(results.get(0).get("error")).isNotNull();
+        assertThat(results.get(1)).containsEntry("accepted", true);
+        assertThat(results.get(1).get("messageId")).isNotNull();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldFailRemainingMailMessagesWithoutWaitingAgainWhenNoConnectionCanBeBorrowed() throws MessagingException {
+        // Given
+        doReturn(asList(
+                mail("first@test.com", "First subject", "First body"),
+                mail("second@test.com", "Second subject", "Second body"),
+                mail("third@test.com", "Third subject", "Third body"))).when(message).payload();
+
+        component.getConnection().setPoolMaxSize(1);
+        component.getConnection().setPoolBorrowTimeout(500);
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.initialize();
+
+        // The only connection of the pool is in use.
+        Session session = component.sessionService.acquire(component.getConnection());
+        SMTPTransportPool transportPool = component.transportPoolService.acquire(component.getConnection(), session);
+        PooledTransport busy = transportPool.borrow();
+
+        try {
+            // When
+            long start = System.currentTimeMillis();
+            Message actual = component.apply(context, message);
+            long elapsed = System.currentTimeMillis() - start;
+
+            // Then
+            assertThat(elapsed).isLessThan(1000);
+
+            MessageAttributes attributes = actual.getAttributes();
+            assertThat(attributes).containsEntry("sent", 0);
+            assertThat(attributes).containsEntry("failed", 3);
+
+            List<Map<String, Object>> results = (List<Map<String, Object>>) attributes.get("results");
+            assertThat(results).allSatisfy(result -> assertThat(result)
+                    .containsEntry("accepted", false)
+                    .containsEntry("error", "Could not obtain an SMTP connection from the pool within [500] ms"));
+        } finally {
+            transportPool.release(busy, true);
+            component.transportPoolService.release(transportPool);
+            component.sessionService.release(session);
+        }
+    }
+
+    @Test
+    void shouldSendFileStreamAndTextAttachmentObjects(@TempDir Path directory) throws MessagingException, IOException {
+        // Given
+        Path file = directory.resolve("report.csv");
+        Files.write(file, "id,name,report".getBytes(StandardCharsets.UTF_8));
+
+        MailAttachmentBuilder builder = new MailAttachmentBuilder();
+        Map<String, Attachment> attachments = new LinkedHashMap<>();
+        attachments.put("file", builder.create().file(file.toString(), "text/csv").build());
+        attachments.put("stream", builder.create()
+                .filename("data.bin")
+                .stream(new ByteArrayInputStream(new byte[]{0, 1, 2, (byte) 255}))
+                .build());
+        attachments.put("text", builder.create()
+                .filename("note.txt")
+                .text("Grüße", "text/plain", "ISO-8859-1")
+                .build());
+
+        Map<String, Object> mail = mail("to@test.com", "Attachments", "See attachments");
+        mail.put("attachments", attachments);
+        doReturn(Collections.singletonList(mail)).when(message).payload();
+
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.initialize();
+
+        // When
+        Message actual = component.apply(context, message);
+
+        // Then
+        assertThat(actual.getAttributes()).containsEntry("sent", 1);
+        awaitReceivedMessagesCountIs(1);
+
+        MimeMultipart content = (MimeMultipart) receivedMessage(0).getContent();
+
+        BodyPart filePart = content.getBodyPart(1);
+        assertThat(filePart.getFileName()).isEqualTo("report.csv");
+        assertThat(filePart.getContentType()).startsWith("text/csv");
+        assertThat(new String(readAll(filePart), StandardCharsets.UTF_8)).isEqualTo("id,name,report");
+
+        BodyPart streamPart = content.getBodyPart(2);
+        assertThat(streamPart.getFileName()).isEqualTo("data.bin");
+        assertThat(streamPart.getHeader("Content-Transfer-Encoding")).containsExactly("base64");
+        assertThat(readAll(streamPart)).containsExactly(0, 1, 2, (byte) 255);
+
+        BodyPart textPart = content.getBodyPart(3);
+        assertThat(textPart.getContentType()).contains("charset=ISO-8859-1");
+        assertThat(textPart.getContent()).isEqualTo("Grüße");
+    }
+
+    @Test
+    void shouldSendCopiedStreamAttachmentObjectAndCloseItsStream() throws MessagingException, IOException {
+        // Given
+        boolean[] closed = new boolean[1];
+        ByteArrayInputStream stream = new ByteArrayInputStream(new byte[]{0, 1, 2, (byte) 255}) {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+                super.close();
+            }
+        };
+
+        MailAttachmentBuilder builder = new MailAttachmentBuilder();
+        Attachment original = builder.create()
+                .filename("data.bin")
+                .stream(stream)
+                .build();
+
+        // The attributes of the copy are not the same string instances.
+        Attachment.Builder copy = Attachment.builder();
+        original.attributes().forEach((key, value) -> copy.attribute(key, new String(value)));
+
+        Map<String, Attachment> attachments = new LinkedHashMap<>();
+        attachments.put("stream", copy.build());
+        attachments.put("text", builder.create()
+                .filename("note.txt")
+                .text("Grüße")
+                .build());
+
+        Map<String, Object> mail = mail("to@test.com", "Attachments", "See attachments");
+        mail.put("attachments", attachments);
+        doReturn(Collections.singletonList(mail)).when(message).payload();
+
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.initialize();
+
+        // When
+        Message actual = component.apply(context, message);
+
+        // Then
+        assertThat(actual.getAttributes()).containsEntry("sent", 1);
+        assertThat(closed[0]).isTrue();
+        awaitReceivedMessagesCountIs(1);
+
+        MimeMultipart content = (MimeMultipart) receivedMessage(0).getContent();
+        assertThat(readAll(content.getBodyPart(1))).containsExactly(0, 1, 2, (byte) 255);
+
+        BodyPart textPart = content.getBodyPart(2);
+        assertThat(textPart.getContentType()).contains("charset=UTF-8");
+        assertThat(textPart.getContent()).isEqualTo("Grüße");
+    }
+
+    @Override
+    protected ServerSetup serverSetup() {
+        return serverSetup;
+    }
+
+    private static byte[] readAll(BodyPart part) throws MessagingException, IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        part.getDataHandler().writeTo(out);
+        return out.toByteArray();
+    }
+
+    private Map<String, Object> mail(String to, String subject, String body) {
+        Map<String, Object> mail = new HashMap<>();
+        mail.put("to", to);
+        mail.put("subject", subject);
+        mail.put("body", body);
+        return mail;
+    }
+}
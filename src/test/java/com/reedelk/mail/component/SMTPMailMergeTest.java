@@ -0,0 +1,194 @@
+package com.reedelk.mail.component;
+
+import com.icegreen.greenmail.util.ServerSetup;
+import com.reedelk.mail.component.smtp.AttachmentDefinition;
+import com.reedelk.mail.component.smtp.AttachmentSourceType;
+import com.reedelk.mail.component.smtp.BodyDefinition;
+import com.reedelk.mail.internal.MailSessionService;
+import com.reedelk.mail.internal.smtp.attachment.cache.AttachmentCacheService;
+import com.reedelk.mail.internal.smtp.attachment.loader.AttachmentLoaderService;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPoolService;
+import com.reedelk.runtime.api.message.Message;
+import com.reedelk.runtime.api.message.MessageAttributes;
+import com.reedelk.runtime.api.message.content.MimeType;
+import com.reedelk.runtime.api.script.dynamicvalue.DynamicByteArray;
+import com.reedelk.runtime.api.script.dynamicvalue.DynamicString;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import java.io.IOException;
+import java.util.*;
+
+import static com.icegreen.greenmail.util.ServerSetup.PORT_SMTP;
+import static com.icegreen.greenmail.util.ServerSetup.PROTOCOL_SMTP;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doReturn;
+
+class SMTPMailMergeTest extends AbstractMailTest {
+
+    private ServerSetup serverSetup = new ServerSetup(1000 + PORT_SMTP, null, PROTOCOL_SMTP);
+
+    private SMTPMailMerge component = new SMTPMailMerge();
+
+    @BeforeEach
+    void setUp() {
+        super.setUp();
+        SMTPConfiguration configuration = new SMTPConfiguration();
+        configuration.setPort(serverSetup.getPort());
+        configuration.setHost(address);
+        configuration.setUsername(username);
+        configuration.setPassword(password);
+
+        mockScriptEngineEvaluation();
+        component.setConnection(configuration);
+        component.scriptService = scriptEngine;
+        component.sessionService = new MailSessionService();
+        component.transportPoolService = new SMTPTransportPoolService();
+        component.attachmentCacheService = new AttachmentCacheService();
+        component.attachmentLoaderService = new AttachmentLoaderService();
+    }
+
+    @AfterEach
+    void disposeComponent() {
+        component.dispose();
+    }
+
+    @Test
+    void shouldSendPersonalizedMailToEachRecipientRecord() throws MessagingException, IOException {
+        // Given
+        List<Map<String, Object>> records = asList(
+                record("john@test.com", "John"),
+                record("mark@test.com", "Mark"));
+        doReturn(records).when(message).payload();
+
+        AttachmentDefinition attachment = new AttachmentDefinition();
+        attachment.setSourceType(AttachmentSourceType.EXPRESSION);
+        attachment.setName("Terms");
+        attachment.setContentType(MimeType.AsString.TEXT_PLAIN);
+        attachment.setExpression(DynamicByteArray.from("Terms and conditions"));
+        attachment.setFileName(DynamicString.from("terms.txt"));
+
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.setSubject(DynamicString.from("Hello {{name}}"));
+        component.setBody(body("Dear {{name}}, your code is {{code}}."));
+        component.setAttachments(Collections.singletonList(attachment));
+        component.initialize();
+
+        // When
+        Message actual = component.apply(context, message);
+
+        // Then
+        awaitReceivedMessagesCountIs(2);
+
+        MimeMessage john = receivedMessageTo("john@test.com");
+        assertThatFromIs(john, "from@test.com");
+        assertThatSubjectIs(john, "Hello John");
+        assertThatBodyContentIs(john, "Dear John, your code is JOHN-1.");
+        MimeMultipart johnContent = (MimeMultipart) john.getContent();
+        assertThat(johnContent.getBodyPart(1).getContent()).isEqualTo("Terms and conditions");
+        assertThat(johnContent.getBodyPart(1).getFileName()).isEqualTo("terms.txt");
+
+        MimeMessage mark = receivedMessageTo("mark@test.com");
+        assertThatSubjectIs(mark, "Hello Mark");
+        assertThatBodyContentIs(mark, "Dear Mark, your code is MARK-1.");
+        MimeMultipart markContent = (MimeMultipart) mark.getContent();
+        assertThat(markContent.getBodyPart(1).getContent()).isEqualTo("Terms and conditions");
+
+        MessageAttributes attributes = actual.getAttributes();
+        assertThat(attributes).containsEntry("sent", 2);
+        assertThat(attributes).containsEntry("failed", 0);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldContinueSendingWhenOneRecipientRecordIsInvalid() {
+        // Given
+        Map<String, Object> missingField = new HashMap<>();
+        missingField.put("to", "john@test.com");
+        Map<String, Object> valid = record("mark@test.com", "Mark");
+        doReturn(asList(missingField, "not a record", valid)).when(message).payload();
+
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.setSubject(DynamicString.from("Hello {{name}}"));
+        component.setBody(body("Dear {{name}}"));
+        component.setMaxInFlight(1);
+        component.initialize();
+
+        // When
+        Message actual = component.apply(context, message);
+
+        // Then
+        awaitReceivedMessagesCountIs(1);
+
+        MessageAttributes attributes = actual.getAttributes();
+        assertThat(attributes).containsEntry("sent", 1);
+        assertThat(attributes).containsEntry("failed", 2);
+
+        List<Map<String, Object>> results = (List<Map<String, Object>>) attributes.get("results");
+        assertThat(results.get(0)).containsEntry("accepted", false);
+        assertThat(results.get(0)).containsEntry("to", "john@test.com");
+        assertThat((String) results.get(0).get("error")).contains("name");
+        assertThat(results.get(1)).containsEntry("accepted", false);
+        assertThat(results.get(2)).containsEntry("accepted", true);
+        assertThat(results.get(2).get("messageId")).isNotNull();
+    }
+
+    @Test
+    void shouldEscapeFieldValuesInHtmlBody() throws MessagingException, IOException {
+        // Given
+        Map<String, Object> record = record("john@test.com", "<b>John</b> & Co");
+        doReturn(Collections.singletonList(record)).when(message).payload();
+
+        BodyDefinition body = body("<p>Dear {{name}}</p>");
+        body.setContentType("text/html; charset=UTF-8");
+
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.setSubject(DynamicString.from("Hello {{name}}"));
+        component.setBody(body);
+        component.initialize();
+
+        // When
+        component.apply(context, message);
+
+        // Then
+        awaitReceivedMessagesCountIs(1);
+
+        MimeMessage received = receivedMessage(0);
+        assertThat(received.getContentType()).startsWith("text/html");
+        assertThatSubjectIs(received, "Hello <b>John</b> & Co");
+        assertThatBodyContentIs(received, "<p>Dear &lt;b&gt;John&lt;/b&gt; &amp; Co</p>\r\n");
+    }
+
+    @Override
+    protected ServerSetup serverSetup() {
+        return serverSetup;
+    }
+
+    // Emails are delivered in parallel: they might be received in any order.
+    private MimeMessage receivedMessageTo(String to) throws MessagingException {
+        for (int index = 0; index < 2; index++) {
+            MimeMessage received = receivedMessage(index);
+            if (to.equals(received.getHeader("To", ","))) return received;
+        }
+        throw new AssertionError("No email received for: " + to);
+    }
+
+    private BodyDefinition body(String template) {
+        BodyDefinition body = new BodyDefinition();
+        body.setContent(DynamicString.from(template));
+        return body;
+    }
+
+    private Map<String, Object> record(String to, String name) {
+        Map<String, Object> record = new HashMap<>();
+        record.put("to", to);
+        record.put("name", name);
+        record.put("code", name.toUpperCase() + "-1");
+        return record;
+    }
+}
@@ -0,0 +1,211 @@
+package com.reedelk.mail.component;
+
+import com.icegreen.greenmail.util.ServerSetup;
+import com.reedelk.mail.component.smtp.BodyDefinition;
+import com.reedelk.mail.internal.MailSessionService;
+import com.reedelk.mail.internal.exception.MailMessageConfigurationException;
+import com.reedelk.mail.internal.smtp.attachment.cache.AttachmentCacheService;
+import com.reedelk.mail.internal.smtp.attachment.loader.AttachmentLoaderService;
+import com.reedelk.mail.internal.smtp.transport.PooledTransport;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPoolService;
+import com.reedelk.runtime.api.component.OnResult;
+import com.reedelk.runtime.api.flow.FlowContext;
+import com.reedelk.runtime.api.message.Message;
+import com.reedelk.runtime.api.message.MessageAttributes;
+import com.reedelk.runtime.api.script.dynamicvalue.DynamicString;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.AddressException;
+import javax.mail.internet.MimeMessage;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.icegreen.greenmail.util.ServerSetup.PORT_SMTP;
+import static com.icegreen.greenmail.util.ServerSetup.PROTOCOL_SMTP;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SMTPMailSendAsyncTest extends AbstractMailTest {
+
+    private ServerSetup serverSetup = new ServerSetup(1000 + PORT_SMTP, null, PROTOCOL_SMTP);
+
+    private SMTPMailSendAsync component = new SMTPMailSendAsync();
+
+    @BeforeEach
+    void setUp() {
+        super.setUp();
+        SMTPConfiguration configuration = new SMTPConfiguration();
+        configuration.setPort(serverSetup.getPort());
+        configuration.setHost(address);
+        configuration.setUsername(username);
+        configuration.setPassword(password);
+
+        mockScriptEngineEvaluation();
+        component.setConnection(configuration);
+        component.scriptService = scriptEngine;
+        component.sessionService = new MailSessionService();
+        component.transportPoolService = new SMTPTransportPoolService();
+        component.attachmentCacheService = new AttachmentCacheService();
+        component.attachmentLoaderService = new AttachmentLoaderService();
+    }
+
+    @AfterEach
+    void disposeComponent() {
+        component.dispose();
+    }
+
+    @Test
+    void shouldSendEmailAndCompleteFlowWithResult() throws InterruptedException, MessagingException, IOException {
+        // Given
+        BodyDefinition bodyDefinition = new BodyDefinition();
+        bodyDefinition.setContent(DynamicString.from("My email body"));
+
+        component.setBody(bodyDefinition);
+        component.setTo(DynamicString.from("to@test.com"));
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.setSubject(DynamicString.from("My email subject"));
+        component.initialize();
+
+        TestOnResult onResult = new TestOnResult();
+
+        // When
+        component.apply(context, message, onResult);
+
+        // Then
+        assertThat(onResult.latch.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(onResult.error).isNull();
+
+        Message actual = onResult.result;
+        assertThat((Object) actual.payload()).isEqualTo("My email body");
+
+        MessageAttributes attributes = actual.getAttributes();
+        assertThat(attributes).containsEntry("component", "com.reedelk.mail.component.SMTPMailSendAsync");
+        assertThat(attributes).containsEntry("subject", "My email subject");
+
+        awaitReceivedMessagesCountIs(1);
+
+        MimeMessage received = firstReceivedMessage();
+        assertThatToIs(received, "to@test.com");
+        assertThatFromIs(received, "from@test.com");
+        assertThatBodyContentIs(received, "My email body\r\n");
+    }
+
+    @Test
+    void shouldCompleteFlowWithErrorWhenMailMessageIsNotValid() throws InterruptedException {
+        // Given
+        BodyDefinition bodyDefinition = new BodyDefinition();
+        bodyDefinition.setContent(DynamicString.from("My email body"));
+
+        component.setBody(bodyDefinition);
+        component.setTo(DynamicString.from("not a valid address"));
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.initialize();
+
+        TestOnResult onResult = new TestOnResult();
+
+        // When
+        component.apply(context, message, onResult);
+
+        // Then
+        assertThat(onResult.latch.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(onResult.result).isNull();
+        assertThat(onResult.error).isInstanceOf(MailMessageConfigurationException.class)
+                .hasMessage("Local address contains control or whitespace")
+                .hasCauseInstanceOf(AddressException.class);
+        assertReceivedMessagesIsEmpty();
+    }
+
+    @Test
+    void shouldCompleteFlowWithDeliveryErrorWhenServerCannotBeConnected() throws InterruptedException, IOException {
+        // Given
+        BodyDefinition bodyDefinition = new BodyDefinition();
+        bodyDefinition.setContent(DynamicString.from("My email body"));
+
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            closedPort = socket.getLocalPort();
+        }
+        component.getConnection().setPort(closedPort);
+        component.setBody(bodyDefinition);
+        component.setTo(DynamicString.from("to@test.com"));
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.initialize();
+
+        TestOnResult onResult = new TestOnResult();
+
+        // When
+        component.apply(context, message, onResult);
+
+        // Then
+        assertThat(onResult.latch.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(onResult.result).isNull();
+        // The failure of the delivery itself, not wrapped in a CompletionException.
+        assertThat(onResult.error).isInstanceOf(MailMessageConfigurationException.class)
+                .hasMessageContaining("error=[Couldn't connect to host")
+                .hasCauseInstanceOf(MessagingException.class);
+    }
+
+    @Test
+    void shouldCompleteFlowWithErrorWhenDeliveryQueueIsFull() throws InterruptedException, MessagingException {
+        // Given
+        BodyDefinition bodyDefinition = new BodyDefinition();
+        bodyDefinition.setContent(DynamicString.from("My email body"));
+
+        component.getConnection().setPoolMaxSize(1);
+        component.getConnection().setPoolMaxQueuedDeliveries(1);
+        component.setBody(bodyDefinition);
+        component.setTo(DynamicString.from("to@test.com"));
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.setSubject(DynamicString.from("My email subject"));
+        component.initialize();
+
+        // The only connection is in use: the first email waits in the delivery queue.
+        PooledTransport busy = component.transportPool().borrow();
+
+        TestOnResult queued = new TestOnResult();
+        TestOnResult rejected = new TestOnResult();
+
+        // When
+        component.apply(context, message, queued);
+        component.apply(context, message, rejected);
+
+        // Then
+        assertThat(rejected.latch.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(rejected.error).hasMessageContaining("The SMTP delivery queue is full, max queued deliveries=[1]");
+
+        component.transportPool().release(busy, true);
+
+        assertThat(queued.latch.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(queued.error).isNull();
+        awaitReceivedMessagesCountIs(1);
+    }
+
+    @Override
+    protected ServerSetup serverSetup() {
+        return serverSetup;
+    }
+
+    static class TestOnResult implements OnResult {
+
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        volatile Message result;
+        volatile Throwable error;
+
+        @Override
+        public void onResult(FlowContext flowContext, Message message) {
+            result = message;
+            latch.countDown();
+        }
+
+        @Override
+        public void onError(FlowContext flowContext, Throwable throwable) {
+            error = throwable;
+            latch.countDown();
+        }
+    }
+}
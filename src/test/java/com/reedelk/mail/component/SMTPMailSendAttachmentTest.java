@@ -4,33 +4,59 @@ import com.icegreen.greenmail.util.ServerSetup;
 import com.reedelk.mail.component.smtp.AttachmentDefinition;
 import com.reedelk.mail.component.smtp.AttachmentSourceType;
 import com.reedelk.mail.component.smtp.BodyDefinition;
+import com.reedelk.mail.internal.MailSessionService;
+import com.reedelk.mail.internal.smtp.attachment.cache.AttachmentCacheService;
+import com.reedelk.mail.internal.smtp.attachment.loader.AttachmentLoaderService;
+import com.reedelk.mail.internal.smtp.spool.SMTPSpoolService;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPoolService;
 import com.reedelk.runtime.api.message.content.MimeType;
+import com.reedelk.runtime.api.message.content.TypedContent;
 import com.reedelk.runtime.api.script.dynamicvalue.DynamicByteArray;
 import com.reedelk.runtime.api.script.dynamicvalue.DynamicString;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import javax.mail.BodyPart;
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.icegreen.greenmail.util.ServerSetup.PORT_SMTP;
 import static com.icegreen.greenmail.util.ServerSetup.PROTOCOL_SMTP;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
 
 public class SMTPMailSendAttachmentTest extends AbstractMailTest {
 
     private ServerSetup serverSetup = new ServerSetup(1000 + PORT_SMTP, null, PROTOCOL_SMTP);
 
     private SMTPMailSend component = new SMTPMailSend();
+    private SMTPConfiguration configuration;
 
     @BeforeEach
     void setUp() {
         super.setUp();
-        SMTPConfiguration configuration = new SMTPConfiguration();
+        configuration = new SMTPConfiguration();
         configuration.setHost(address);
         configuration.setUsername(username);
         configuration.setPassword(password);
@@ -39,6 +65,16 @@ public class SMTPMailSendAttachmentTest extends AbstractMailTest {
         mockScriptEngineEvaluation();
         component.setConnection(configuration);
         component.scriptService = scriptEngine;
+        component.sessionService = new MailSessionService();
+        component.transportPoolService = new SMTPTransportPoolService();
+        component.spoolService = new SMTPSpoolService();
+        component.attachmentCacheService = new AttachmentCacheService();
+        component.attachmentLoaderService = new AttachmentLoaderService();
+    }
+
+    @AfterEach
+    void disposeComponent() {
+        component.dispose();
     }
 
     @Test
@@ -64,7 +100,7 @@ public class SMTPMailSendAttachmentTest extends AbstractMailTest {
         component.apply(context, message);
 
         // Then
-        assertReceivedMessagesCountIs(1);
+        awaitReceivedMessagesCountIs(1);
 
         MimeMessage received = firstReceivedMessage();
 
@@ -85,8 +121,436 @@ public class SMTPMailSendAttachmentTest extends AbstractMailTest {
         assertThat(transferEncoding).containsExactly("7bit");
     }
 
+    @Test
+    void shouldCorrectlySendEmailWithFileAttachment(@TempDir Path directory) throws MessagingException, IOException {
+        // Given
+        Path file = directory.resolve("my-file.txt");
+        Files.write(file, "My file attachment content".getBytes(StandardCharsets.UTF_8));
+
+        AttachmentDefinition attachment = new AttachmentDefinition();
+        attachment.setSourceType(AttachmentSourceType.FILE);
+        attachment.setName("My File Attachment");
+        attachment.setContentType(MimeType.AsString.TEXT_PLAIN);
+        attachment.setFile(DynamicString.from(file.toString()));
+
+        BodyDefinition bodyDefinition = new BodyDefinition();
+        bodyDefinition.setContent(DynamicString.from("My email body"));
+
+        component.setBody(bodyDefinition);
+        component.setTo(DynamicString.from("to@test.com"));
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.setAttachments(Collections.singletonList(attachment));
+        component.initialize();
+
+        // When
+        component.apply(context, message);
+
+        // Then
+        awaitReceivedMessagesCountIs(1);
+
+        MimeMessage received = firstReceivedMessage();
+
+        MimeMultipart content = (MimeMultipart) received.getContent();
+        BodyPart attachmentPart = content.getBodyPart(1);
+        assertThat(attachmentPart.getContent()).isEqualTo("My file attachment content");
+
+        String[] contentType = attachmentPart.getHeader("Content-Type");
+        assertThat(contentType).containsExactly("text/plain; charset=UTF-8; name=my-file.txt");
+    }
+
+    @Test
+    void shouldSendCachedFileAttachment(@TempDir Path directory) throws MessagingException, IOException {
+        // Given
+        Path file = directory.resolve("my-file.txt");
+        Files.write(file, "My file attachment content".getBytes(StandardCharsets.UTF_8));
+
+        AttachmentDefinition attachment = new AttachmentDefinition();
+        attachment.setSourceType(AttachmentSourceType.FILE);
+        attachment.setName("My File Attachment");
+        attachment.setContentType(MimeType.AsString.TEXT_PLAIN);
+        attachment.setFile(DynamicString.from(file.toString()));
+
+        BodyDefinition bodyDefinition = new BodyDefinition();
+        bodyDefinition.setContent(DynamicString.from("My email body"));
+
+        configuration.setAttachmentCacheSize(1024 * 1024);
+        configuration.setAttachmentCacheOffHeap(true);
+
+        component.setBody(bodyDefinition);
+        component.setTo(DynamicString.from("to@test.com"));
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.setAttachments(Collections.singletonList(attachment));
+        component.initialize();
+
+        // When
+        component.apply(context, message);
+        component.apply(context, message);
+
+        // Then
+        awaitReceivedMessagesCountIs(2);
+
+        for (int index = 0; index < 2; index++) {
+            MimeMultipart content = (MimeMultipart) receivedMessage(index).getContent();
+            assertThat(content.getBodyPart(1).getContent()).isEqualTo("My file attachment content");
+        }
+
+        assertThat(component.getAttachmentCache().getMisses()).isEqualTo(1);
+        assertThat(component.getAttachmentCache().getHits()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldSendPreEncodedFileAttachment(@TempDir Path directory) throws MessagingException, IOException {
+        // Given
+        Path file = directory.resolve("my-file.bin");
+        byte[] fileContent = new byte[4096];
+        new Random(7).nextBytes(fileContent);
+        Files.write(file, fileContent);
+
+        AttachmentDefinition attachment = new AttachmentDefinition();
+        attachment.setSourceType(AttachmentSourceType.FILE);
+        attachment.setName("My File Attachment");
+        attachment.setContentType(MimeType.APPLICATION_BINARY.toString());
+        attachment.setFile(DynamicString.from(file.toString()));
+
+        BodyDefinition bodyDefinition = new BodyDefinition();
+        bodyDefinition.setContent(DynamicString.from("My email body"));
+
+        configuration.setAttachmentCacheSize(1024 * 1024);
+        configuration.setAttachmentCacheEncoded(true);
+
+        component.setBody(bodyDefinition);
+        component.setTo(DynamicString.from("to@test.com"));
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.setAttachments(Collections.singletonList(attachment));
+        component.initialize();
+
+        // When
+        component.apply(context, message);
+        component.apply(context, message);
+
+        // Then
+        awaitReceivedMessagesCountIs(2);
+
+        for (int index = 0; index < 2; index++) {
+            MimeMultipart content = (MimeMultipart) receivedMessage(index).getContent();
+            BodyPart attachmentPart = content.getBodyPart(1);
+            assertThat(attachmentPart.getFileName()).isEqualTo("my-file.bin");
+            assertThat(attachmentPart.getHeader("Content-Transfer-Encoding")).containsExactly("base64");
+            ByteArrayOutputStream attachmentContent = new ByteArrayOutputStream();
+            attachmentPart.getDataHandler().writeTo(attachmentContent);
+            assertThat(attachmentContent.toByteArray()).isEqualTo(fileContent);
+        }
+
+        // The file content and its encoded part are loaded once.
+        assertThat(component.getAttachmentCache().getMisses()).isEqualTo(2);
+        assertThat(component.getAttachmentCache().getHits()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldSendAttachmentLargerThanTransportWriteBuffer(@TempDir Path directory) throws MessagingException, IOException {
+        // Given
+        Path file = directory.resolve("my-large-file.bin");
+        byte[] fileContent = new byte[512 * 1024 + 7];
+        new Random(11).nextBytes(fileContent);
+        Files.write(file, fileContent);
+
+        AttachmentDefinition attachment = new AttachmentDefinition();
+        attachment.setSourceType(AttachmentSourceType.FILE);
+        attachment.setName("My Large File Attachment");
+        attachment.setContentType(MimeType.APPLICATION_BINARY.toString());
+        attachment.setFile(DynamicString.from(file.toString()));
+
+        BodyDefinition bodyDefinition = new BodyDefinition();
+        bodyDefinition.setContent(DynamicString.from("My email body"));
+
+        component.setBody(bodyDefinition);
+        component.setTo(DynamicString.from("to@test.com"));
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.setAttachments(Collections.singletonList(attachment));
+        component.initialize();
+
+        // When
+        component.apply(context, message);
+
+        // Then
+        awaitReceivedMessagesCountIs(1);
+
+        MimeMultipart content = (MimeMultipart) firstReceivedMessage().getContent();
+        assertThat(content.getBodyPart(0).getContent()).isEqualTo("My email body");
+        ByteArrayOutputStream attachmentContent = new ByteArrayOutputStream();
+        content.getBodyPart(1).getDataHandler().writeTo(attachmentContent);
+        assertThat(attachmentContent.toByteArray()).isEqualTo(fileContent);
+    }
+
+    @Test
+    void shouldLoadAttachmentsConcurrentlyAndKeepTheirOrder(@TempDir Path directory) throws MessagingException, IOException {
+        // Given
+        List<AttachmentDefinition> attachments = new ArrayList<>();
+        for (int index = 0; index < 6; index++) {
+            Path file = directory.resolve("my-file-" + index + ".txt");
+            Files.write(file, ("My file attachment content " + index).getBytes(StandardCharsets.UTF_8));
+
+            AttachmentDefinition attachment = new AttachmentDefinition();
+            attachment.setSourceType(AttachmentSourceType.FILE);
+            attachment.setName("My File Attachment " + index);
+            attachment.setContentType(MimeType.AsString.TEXT_PLAIN);
+            attachment.setFile(DynamicString.from(file.toString()));
+            attachments.add(attachment);
+        }
+
+        AttachmentDefinition expression = new AttachmentDefinition();
+        expression.setSourceType(AttachmentSourceType.EXPRESSION);
+        expression.setName("My Expression Attachment");
+        expression.setContentType(MimeType.AsString.TEXT_PLAIN);
+        expression.setExpression(DynamicByteArray.from("My expression attachment content"));
+        expression.setFileName(DynamicString.from("my-expression.txt"));
+        attachments.add(2, expression);
+
+        BodyDefinition bodyDefinition = new BodyDefinition();
+        bodyDefinition.setContent(DynamicString.from("My email body"));
+
+        configuration.setAttachmentLoadThreads(3);
+
+        component.setBody(bodyDefinition);
+        component.setTo(DynamicString.from("to@test.com"));
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.setAttachments(attachments);
+        component.initialize();
+
+        // When
+        component.apply(context, message);
+
+        // Then
+        awaitReceivedMessagesCountIs(1);
+
+        MimeMultipart content = (MimeMultipart) firstReceivedMessage().getContent();
+        assertThat(content.getCount()).isEqualTo(8);
+        assertThat(content.getBodyPart(1).getFileName()).isEqualTo("my-file-0.txt");
+        assertThat(content.getBodyPart(2).getFileName()).isEqualTo("my-file-1.txt");
+        assertThat(content.getBodyPart(3).getFileName()).isEqualTo("my-expression.txt");
+        assertThat(content.getBodyPart(3).getContent()).isEqualTo("My expression attachment content");
+        for (int index = 2; index < 6; index++) {
+            BodyPart attachmentPart = content.getBodyPart(index + 2);
+            assertThat(attachmentPart.getFileName()).isEqualTo("my-file-" + index + ".txt");
+            assertThat(attachmentPart.getContent()).isEqualTo("My file attachment content " + index);
+        }
+    }
+
+    @Test
+    void shouldNotLoadFurtherAttachmentsWhileTheFirstOneIsNotAdded() throws Exception {
+        // Given
+        List<AttachmentDefinition> attachments = new ArrayList<>();
+        for (int index = 0; index < 6; index++) {
+            AttachmentDefinition attachment = new AttachmentDefinition();
+            attachment.setSourceType(AttachmentSourceType.EXPRESSION);
+            attachment.setName("My Expression Attachment " + index);
+            attachment.setContentType(MimeType.AsString.TEXT_PLAIN);
+            attachment.setExpression(DynamicByteArray.from("My expression attachment content " + index));
+            attachment.setFileName(DynamicString.from("my-expression-" + index + ".txt"));
+            attachments.add(attachment);
+        }
+
+        DynamicByteArray first = attachments.get(0).getExpression();
+        CountDownLatch firstLoading = new CountDownLatch(1);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        AtomicInteger loadedAhead = new AtomicInteger();
+        lenient().doAnswer(invocation -> {
+            DynamicByteArray expression = invocation.getArgument(0);
+            if (expression == first) {
+                firstLoading.countDown();
+                releaseFirst.await();
+            } else {
+                loadedAhead.incrementAndGet();
+            }
+            return Optional.ofNullable(expression.value());
+        }).when(scriptEngine).evaluate(any(DynamicByteArray.class), eq(context), eq(message));
+
+        BodyDefinition bodyDefinition = new BodyDefinition();
+        bodyDefinition.setContent(DynamicString.from("My email body"));
+
+        configuration.setAttachmentLoadThreads(2);
+
+        component.setBody(bodyDefinition);
+        component.setTo(DynamicString.from("to@test.com"));
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.setAttachments(attachments);
+        component.initialize();
+
+        // When
+        CompletableFuture<Void> sent = CompletableFuture.runAsync(() -> component.apply(context, message));
+
+        // Then: with two loading threads, a single attachment is loaded ahead of the first one.
+        assertThat(firstLoading.await(5, TimeUnit.SECONDS)).isTrue();
+        Thread.sleep(500);
+        assertThat(loadedAhead.get()).isEqualTo(1);
+
+        releaseFirst.countDown();
+        sent.get(5, TimeUnit.SECONDS);
+        assertThat(loadedAhead.get()).isEqualTo(5);
+
+        awaitReceivedMessagesCountIs(1);
+        MimeMultipart content = (MimeMultipart) firstReceivedMessage().getContent();
+        assertThat(content.getCount()).isEqualTo(7);
+        for (int index = 0; index < 6; index++) {
+            assertThat(content.getBodyPart(index + 1).getFileName()).isEqualTo("my-expression-" + index + ".txt");
+        }
+    }
+
+    @Test
+    void shouldUseBinaryPayloadWithBodyCharsetAsBodyOfEmailWithAttachments() throws MessagingException, IOException {
+        // Given
+        byte[] payload = "Caffè e cornetto".getBytes(StandardCharsets.ISO_8859_1);
+        doReturn(payload).when(message).payload();
+
+        AttachmentDefinition attachment = new AttachmentDefinition();
+        attachment.setSourceType(AttachmentSourceType.EXPRESSION);
+        attachment.setName("My Attachment Name");
+        attachment.setContentType(MimeType.AsString.TEXT_PLAIN);
+        attachment.setExpression(DynamicByteArray.from("My attachment"));
+        attachment.setFileName(DynamicString.from("my-attachment.txt"));
+
+        BodyDefinition bodyDefinition = new BodyDefinition();
+        bodyDefinition.setCharset("ISO-8859-1");
+
+        component.setBody(bodyDefinition);
+        component.setTo(DynamicString.from("to@test.com"));
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.setAttachments(Collections.singletonList(attachment));
+        component.initialize();
+
+        // When
+        component.apply(context, message);
+
+        // Then
+        awaitReceivedMessagesCountIs(1);
+
+        MimeMultipart content = (MimeMultipart) firstReceivedMessage().getContent();
+        assertThat(content.getBodyPart(0).getContentType()).isEqualToIgnoringCase("text/plain; charset=ISO-8859-1");
+        assertThat(content.getBodyPart(0).getContent()).isEqualTo("Caffè e cornetto");
+        assertThat(content.getBodyPart(1).getContent()).isEqualTo("My attachment");
+    }
+
+    @Test
+    void shouldTranscodeBinaryPayloadWithOtherCharsetToBodyCharset() throws MessagingException, IOException {
+        // Given
+        byte[] payload = "Caffè e cornetto".getBytes(StandardCharsets.UTF_8);
+        TypedContent<?, ?> typedContent = mock(TypedContent.class);
+        doReturn(MimeType.parse("text/plain; charset=UTF-8")).when(typedContent).mimeType();
+        doReturn(payload).when(message).payload();
+        doReturn(typedContent).when(message).content();
+
+        AttachmentDefinition attachment = new AttachmentDefinition();
+        attachment.setSourceType(AttachmentSourceType.EXPRESSION);
+        attachment.setName("My Attachment Name");
+        attachment.setContentType(MimeType.AsString.TEXT_PLAIN);
+        attachment.setExpression(DynamicByteArray.from("My attachment"));
+        attachment.setFileName(DynamicString.from("my-attachment.txt"));
+
+        BodyDefinition bodyDefinition = new BodyDefinition();
+        bodyDefinition.setCharset("ISO-8859-1");
+
+        component.setBody(bodyDefinition);
+        component.setTo(DynamicString.from("to@test.com"));
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.setAttachments(Collections.singletonList(attachment));
+        component.initialize();
+
+        // When
+        component.apply(context, message);
+
+        // Then
+        awaitReceivedMessagesCountIs(1);
+
+        MimeMultipart content = (MimeMultipart) firstReceivedMessage().getContent();
+        assertThat(content.getBodyPart(0).getContentType()).isEqualToIgnoringCase("text/plain; charset=ISO-8859-1");
+        assertThat(content.getBodyPart(0).getContent()).isEqualTo("Caffè e cornetto");
+    }
+
+    @Test
+    void shouldEmbedInlineImagesFromTheImagesDirectory(@TempDir Path directory) throws Exception {
+        // Given
+        Path images = Files.createDirectory(directory.resolve("images"));
+        byte[] logo = new byte[2048];
+        new Random(13).nextBytes(logo);
+        Files.write(images.resolve("logo.png"), logo);
+        Files.write(directory.resolve("secret.png"), logo);
+
+        BodyDefinition bodyDefinition = new BodyDefinition();
+        bodyDefinition.setContentType(MimeType.AsString.TEXT_HTML);
+        bodyDefinition.setContent(DynamicString.from("<html><body>" +
+                "<img src=\"logo.png\"><img src=\"../secret.png\"><img src=\"http://localhost/remote.png\">" +
+                "</body></html>"));
+
+        configuration.setAttachmentCacheSize(1024 * 1024);
+        configuration.setAttachmentCacheEncoded(true);
+
+        component.setBody(bodyDefinition);
+        component.setTo(DynamicString.from("to@test.com"));
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.setInlineImagesDirectory(images.toString());
+        component.initialize();
+
+        // When
+        component.apply(context, message);
+        component.apply(context, message);
+
+        // Then
+        awaitReceivedMessagesCountIs(2);
+
+        String firstContentId = null;
+        for (int index = 0; index < 2; index++) {
+            MimeMessage received = receivedMessage(index);
+            BodyPart image = partWithContentId(received.getContent());
+            assertThat(image).isNotNull();
+            assertThat(image.getFileName()).isEqualTo("logo.png");
+            assertThat(image.getContentType()).startsWith("image/png");
+            ByteArrayOutputStream imageContent = new ByteArrayOutputStream();
+            image.getDataHandler().writeTo(imageContent);
+            assertThat(imageContent.toByteArray()).isEqualTo(logo);
+
+            String contentId = image.getHeader("Content-ID")[0];
+            String html = htmlOf(received.getContent());
+            assertThat(html).contains("cid:" + contentId.substring(1, contentId.length() - 1));
+            // Sources outside of the images directory and remote sources are not embedded.
+            assertThat(html).contains("src=\"../secret.png\"");
+            assertThat(html).contains("src=\"http://localhost/remote.png\"");
+
+            // The same image has the same content id in all the emails.
+            if (firstContentId == null) firstContentId = contentId;
+            assertThat(contentId).isEqualTo(firstContentId);
+        }
+
+        // The image content and its encoded part are loaded once.
+        assertThat(component.getAttachmentCache().getMisses()).isEqualTo(2);
+        assertThat(component.getAttachmentCache().getHits()).isEqualTo(2);
+    }
+
     @Override
     protected ServerSetup serverSetup() {
         return serverSetup;
     }
+
+    private static BodyPart partWithContentId(Object content) throws MessagingException, IOException {
+        if (!(content instanceof MimeMultipart)) return null;
+        MimeMultipart multipart = (MimeMultipart) content;
+        for (int index = 0; index < multipart.getCount(); index++) {
+            BodyPart part = multipart.getBodyPart(index);
+            if (part.getHeader("Content-ID") != null) return part;
+            BodyPart nested = partWithContentId(part.getContent());
+            if (nested != null) return nested;
+        }
+        return null;
+    }
+
+    private static String htmlOf(Object content) throws MessagingException, IOException {
+        if (!(content instanceof MimeMultipart)) return null;
+        MimeMultipart multipart = (MimeMultipart) content;
+        for (int index = 0; index < multipart.getCount(); index++) {
+            BodyPart part = multipart.getBodyPart(index);
+            if (part.isMimeType("text/html")) return (String) part.getContent();
+            String nested = htmlOf(part.getContent());
+            if (nested != null) return nested;
+        }
+        return null;
+    }
 }
@@ -2,24 +2,44 @@ package com.reedelk.mail.component;
 
 import com.icegreen.greenmail.util.ServerSetup;
 import com.reedelk.mail.component.smtp.BodyDefinition;
+import com.reedelk.mail.internal.MailSessionService;
+import com.reedelk.mail.internal.exception.MailMessageConfigurationException;
+import com.reedelk.mail.internal.smtp.attachment.cache.AttachmentCacheService;
+import com.reedelk.mail.internal.smtp.attachment.loader.AttachmentLoaderService;
+import com.reedelk.mail.internal.smtp.idempotency.IdempotencyStoreService;
+import com.reedelk.mail.internal.smtp.spool.SMTPSpoolService;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPoolService;
 import com.reedelk.runtime.api.converter.ConverterService;
 import com.reedelk.runtime.api.message.Message;
 import com.reedelk.runtime.api.message.MessageAttributes;
 import com.reedelk.runtime.api.script.dynamicvalue.DynamicString;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 
 import javax.mail.MessagingException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.mail.internet.MimeMessage;
 import java.io.IOException;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 
 import static com.icegreen.greenmail.util.ServerSetup.PORT_SMTP;
 import static com.icegreen.greenmail.util.ServerSetup.PROTOCOL_SMTP;
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.mockito.Mockito.doReturn;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Mockito.*;
 
 
 class SMTPMailSendTest extends AbstractMailTest {
@@ -44,6 +64,18 @@ class SMTPMailSendTest extends AbstractMailTest {
         component.setConnection(configuration);
         component.scriptService = scriptEngine;
         component.converterService = converterService;
+
+        component.sessionService = new MailSessionService();
+        component.transportPoolService = new SMTPTransportPoolService();
+        component.spoolService = new SMTPSpoolService();
+        component.attachmentCacheService = new AttachmentCacheService();
+        component.attachmentLoaderService = new AttachmentLoaderService();
+        component.idempotencyStoreService = new IdempotencyStoreService();
+    }
+
+    @AfterEach
+    void disposeComponent() {
+        component.dispose();
     }
 
     @Test
@@ -52,7 +84,6 @@ class SMTPMailSendTest extends AbstractMailTest {
         String mailMessageBodyText = "Mail message body";
         byte[] payload = mailMessageBodyText.getBytes();
         doReturn(payload).when(message).payload();
-        doReturn(mailMessageBodyText).when(converterService).convert(payload, String.class);
         BodyDefinition bodyDefinition = new BodyDefinition();
 
         component.setBody(bodyDefinition);
@@ -62,10 +93,10 @@ class SMTPMailSendTest extends AbstractMailTest {
         component.initialize();
 
         // When
-        component.apply(context, message);
+        Message actual = component.apply(context, message);
 
         // Then
-        assertReceivedMessagesCountIs(1);
+        awaitReceivedMessagesCountIs(1);
 
         MimeMessage received = firstReceivedMessage();
 
@@ -73,6 +104,10 @@ class SMTPMailSendTest extends AbstractMailTest {
         assertThatFromIs(received, "from@test.com");
         assertThatSubjectIs(received, "My email subject");
         assertThatBodyContentIs(received, "Mail message body\r\n");
+
+        // The binary payload is used as it is: it is not converted to a string.
+        verify(converterService, never()).convert(payload, String.class);
+        assertThat((Object) actual.payload()).isSameAs(payload);
     }
 
     @Test
@@ -91,7 +126,7 @@ class SMTPMailSendTest extends AbstractMailTest {
         component.apply(context, message);
 
         // Then
-        assertReceivedMessagesCountIs(1);
+        awaitReceivedMessagesCountIs(1);
 
         MimeMessage received = firstReceivedMessage();
 
@@ -119,7 +154,7 @@ class SMTPMailSendTest extends AbstractMailTest {
         component.apply(context, message);
 
         // Then
-        assertReceivedMessagesCountIs(3); // to, cc, bcc
+        awaitReceivedMessagesCountIs(3); // to, cc, bcc
 
         // To
         MimeMessage first = receivedMessage(0); // to
@@ -143,6 +178,366 @@ class SMTPMailSendTest extends AbstractMailTest {
         assertThatReplyToIs(third, "replyTo@test.com");
     }
 
+    @Test
+    void shouldEvaluateOnlyScriptFieldsForEachEmail() throws MessagingException {
+        // Given
+        BodyDefinition bodyDefinition = new BodyDefinition();
+        bodyDefinition.setContent(DynamicString.from("My email body"));
+
+        DynamicString from = DynamicString.from("from@test.com");
+        DynamicString to = DynamicString.from("to@test.com");
+        DynamicString subject = DynamicString.from("#['My ' + 'subject']");
+        doReturn(Optional.of("My subject")).when(scriptEngine).evaluate(subject, context, message);
+
+        component.setBody(bodyDefinition);
+        component.setFrom(from);
+        component.setTo(to);
+        component.setSubject(subject);
+        component.initialize();
+
+        // When
+        component.apply(context, message);
+        component.apply(context, message);
+
+        // Then
+        awaitReceivedMessagesCountIs(2);
+
+        MimeMessage second = receivedMessage(1);
+        assertThatToIs(second, "to@test.com");
+        assertThatFromIs(second, "from@test.com");
+        assertThatSubjectIs(second, "My subject");
+
+        verify(scriptEngine, never()).evaluate(from, context, message);
+        verify(scriptEngine, never()).evaluate(to, context, message);
+        verify(scriptEngine, times(2)).evaluate(subject, context, message);
+    }
+
+    @Test
+    void shouldResolveMailTypeOnceAndCountMessagesBuilt() throws Exception {
+        // Given
+        BodyDefinition bodyDefinition = new BodyDefinition();
+        bodyDefinition.setContent(DynamicString.from("My email body"));
+
+        component.setBody(bodyDefinition);
+        component.setTo(DynamicString.from("to@test.com"));
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.initialize();
+
+        // When
+        component.apply(context, message);
+        component.apply(context, message);
+
+        // Then
+        awaitReceivedMessagesCountIs(2);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Set<ObjectName> names = server.queryNames(new ObjectName("com.reedelk.mail:type=MailTypeStrategy,*"), null);
+        assertThat(names).hasSize(1);
+
+        ObjectName name = names.iterator().next();
+        assertThat(server.getAttribute(name, "Type")).isEqualTo("MailSimple");
+        assertThat(server.getAttribute(name, "Messages")).isEqualTo(2L);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldSplitRecipientsInParallelEnvelopes() throws MessagingException {
+        // Given
+        BodyDefinition bodyDefinition = new BodyDefinition();
+        bodyDefinition.setContent(DynamicString.from("My email body"));
+
+        component.setBody(bodyDefinition);
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.setTo(DynamicString.from("to1@test.com,to2@test.com,to3@test.com"));
+        component.setBcc(DynamicString.from("bcc1@test.com,bcc2@test.com"));
+        component.setMaxRecipientsPerEnvelope(2);
+        component.initialize();
+
+        // When
+        Message actual = component.apply(context, message);
+
+        // Then
+        awaitReceivedMessagesCountIs(5);
+
+        String messageId = receivedMessage(0).getMessageID();
+        for (int index = 0; index < 5; index++) {
+            MimeMessage received = receivedMessage(index);
+            assertThat(received.getMessageID()).isEqualTo(messageId);
+            assertThat(received.getHeader("To")).containsExactly("to1@test.com, to2@test.com, to3@test.com");
+            assertThat(received.getHeader("Bcc")).isNull();
+        }
+
+        List<Map<String, Serializable>> envelopes = (List<Map<String, Serializable>>) actual.getAttributes().get("envelopes");
+        assertThat(envelopes).hasSize(3);
+        assertThat(envelopes).allMatch(envelope -> Boolean.TRUE.equals(envelope.get("accepted")));
+        assertThat(envelopes).extracting(envelope -> envelope.get("recipients")).containsExactly(2, 2, 1);
+    }
+
+    @Test
+    void shouldSendConsecutiveEmailsOverPooledConnection() throws MessagingException, IOException {
+        // Given
+        BodyDefinition bodyDefinition = new BodyDefinition();
+        bodyDefinition.setContent(DynamicString.from("My email body"));
+
+        component.setBody(bodyDefinition);
+        component.setTo(DynamicString.from("to@test.com"));
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.setSubject(DynamicString.from("My email subject"));
+        component.initialize();
+
+        // When
+        component.apply(context, message);
+        component.apply(context, message);
+
+        // Then
+        awaitReceivedMessagesCountIs(2);
+
+        MimeMessage first = receivedMessage(0);
+        assertThatToIs(first, "to@test.com");
+        assertThatBodyContentIs(first, "My email body\r\n");
+
+        MimeMessage second = receivedMessage(1);
+        assertThatToIs(second, "to@test.com");
+        assertThatBodyContentIs(second, "My email body\r\n");
+    }
+
+    @Test
+    void shouldPaceEmailsWithinMaxMessagesPerSecond() throws MessagingException {
+        // Given
+        BodyDefinition bodyDefinition = new BodyDefinition();
+        bodyDefinition.setContent(DynamicString.from("My email body"));
+
+        component.getConnection().setMaxMessagesPerSecond(2);
+        component.setBody(bodyDefinition);
+        component.setTo(DynamicString.from("to@test.com"));
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.setSubject(DynamicString.from("My email subject"));
+        component.initialize();
+
+        // When
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 4; i++) {
+            component.apply(context, message);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+
+        // Then: the first two emails are sent right away, the other two half a second apart.
+        assertThat(elapsed).isGreaterThanOrEqualTo(900);
+        awaitReceivedMessagesCountIs(4);
+    }
+
+    @Test
+    void shouldNotInitializeWithPoolMaxSizeNotGreaterThanZero() {
+        // Given
+        component.getConnection().setPoolMaxSize(0);
+        component.setTo(DynamicString.from("to@test.com"));
+        component.setFrom(DynamicString.from("from@test.com"));
+
+        // When
+        Throwable thrown = catchThrowable(() -> component.initialize());
+
+        // Then
+        assertThat(thrown)
+                .isInstanceOf(MailMessageConfigurationException.class)
+                .hasMessage("The SMTP connection pool max size=[0] must be greater than 0");
+    }
+
+    @Test
+    void shouldDeliverSpooledEmail(@TempDir Path spoolDirectory) throws MessagingException, IOException {
+        // Given
+        BodyDefinition bodyDefinition = new BodyDefinition();
+        bodyDefinition.setContent(DynamicString.from("My spooled email body"));
+
+        component.getConnection().setSpoolDirectory(spoolDirectory.toString());
+        component.setSpool(true);
+        component.setBody(bodyDefinition);
+        component.setTo(DynamicString.from("to@test.com"));
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.setSubject(DynamicString.from("My email subject"));
+        component.initialize();
+
+        // When
+        component.apply(context, message);
+
+        // Then
+        awaitReceivedMessagesCountIs(1);
+
+        MimeMessage received = receivedMessage(0);
+        assertThatToIs(received, "to@test.com");
+        assertThatSubjectIs(received, "My email subject");
+        assertThatBodyContentIs(received, "My spooled email body\r\n");
+    }
+
+    @Test
+    void shouldDeliverSpooledEmailWhenComponentFirstUsingTheSpoolIsDisposed(@TempDir Path spoolDirectory) throws MessagingException, IOException {
+        // Given
+        BodyDefinition bodyDefinition = new BodyDefinition();
+        bodyDefinition.setContent(DynamicString.from("My spooled email body"));
+
+        component.getConnection().setSpoolDirectory(spoolDirectory.toString());
+        component.setSpool(true);
+        component.setBody(bodyDefinition);
+        component.setTo(DynamicString.from("to@test.com"));
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.setSubject(DynamicString.from("My email subject"));
+        component.initialize();
+
+        SMTPConfiguration configuration = new SMTPConfiguration();
+        configuration.setPort(serverSetup.getPort());
+        configuration.setHost(address);
+        configuration.setUsername(username);
+        configuration.setPassword(password);
+        configuration.setPoolMaxSize(2);
+        configuration.setSpoolDirectory(spoolDirectory.toString());
+
+        SMTPMailSend other = new SMTPMailSend();
+        other.setConnection(configuration);
+        other.setSpool(true);
+        other.setBody(bodyDefinition);
+        other.setTo(DynamicString.from("to@test.com"));
+        other.setFrom(DynamicString.from("from@test.com"));
+        other.setSubject(DynamicString.from("My email subject"));
+        other.scriptService = component.scriptService;
+        other.converterService = component.converterService;
+        other.sessionService = component.sessionService;
+        other.transportPoolService = component.transportPoolService;
+        other.spoolService = component.spoolService;
+        other.attachmentCacheService = component.attachmentCacheService;
+        other.attachmentLoaderService = component.attachmentLoaderService;
+        other.idempotencyStoreService = component.idempotencyStoreService;
+        other.initialize();
+
+        try {
+            // When
+            component.dispose();
+            other.apply(context, message);
+
+            // Then
+            awaitReceivedMessagesCountIs(1);
+            assertThatBodyContentIs(receivedMessage(0), "My spooled email body\r\n");
+        } finally {
+            other.dispose();
+        }
+    }
+
+    @Test
+    void shouldNotReuseSegmentIndexOfSegmentWhichCouldNotBeRecovered(@TempDir Path spoolDirectory) throws MessagingException, IOException {
+        // Given
+        Files.createDirectory(spoolDirectory.resolve("segment-0000000000000000000.spool"));
+
+        BodyDefinition bodyDefinition = new BodyDefinition();
+        bodyDefinition.setContent(DynamicString.from("My spooled email body"));
+
+        component.getConnection().setSpoolDirectory(spoolDirectory.toString());
+        component.setSpool(true);
+        component.setBody(bodyDefinition);
+        component.setTo(DynamicString.from("to@test.com"));
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.setSubject(DynamicString.from("My email subject"));
+        component.initialize();
+
+        // When
+        component.apply(context, message);
+
+        // Then
+        awaitReceivedMessagesCountIs(1);
+        assertThatBodyContentIs(receivedMessage(0), "My spooled email body\r\n");
+    }
+
+    @Test
+    void shouldNotSendEmailAgainWithSameIdempotencyKey() throws MessagingException {
+        // Given
+        BodyDefinition bodyDefinition = new BodyDefinition();
+        bodyDefinition.setContent(DynamicString.from("My email body"));
+
+        component.setBody(bodyDefinition);
+        component.setTo(DynamicString.from("to@test.com"));
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.setSubject(DynamicString.from("My email subject"));
+        component.setIdempotencyKey(DynamicString.from("order-1"));
+        component.setIdempotencyNamespace("order-confirmation");
+        component.initialize();
+
+        // When
+        Message first = component.apply(context, message);
+        Message second = component.apply(context, message);
+
+        // Then
+        awaitReceivedMessagesCountIs(1);
+        assertThat(second.getAttributes()).containsEntry("sentDate", first.getAttributes().get("sentDate"));
+        assertThat(second.getAttributes()).containsEntry("to", asSerializableList("to@test.com"));
+    }
+
+    @Test
+    void shouldSendEmailAgainWithSameIdempotencyKeyInOtherNamespace() throws MessagingException {
+        // Given
+        BodyDefinition bodyDefinition = new BodyDefinition();
+        bodyDefinition.setContent(DynamicString.from("My email body"));
+
+        component.setBody(bodyDefinition);
+        component.setTo(DynamicString.from("to@test.com"));
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.setSubject(DynamicString.from("My email subject"));
+        component.setIdempotencyKey(DynamicString.from("order-1"));
+        component.setIdempotencyNamespace("order-confirmation");
+        component.initialize();
+
+        component.apply(context, message);
+
+        // When
+        component.setIdempotencyNamespace("order-invoice");
+        component.apply(context, message);
+
+        // Then
+        awaitReceivedMessagesCountIs(2);
+    }
+
+    @Test
+    void shouldThrowExceptionWhenIdempotencyKeyIsSetWithoutNamespace() {
+        // Given
+        BodyDefinition bodyDefinition = new BodyDefinition();
+        bodyDefinition.setContent(DynamicString.from("My email body"));
+
+        component.setBody(bodyDefinition);
+        component.setTo(DynamicString.from("to@test.com"));
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.setIdempotencyKey(DynamicString.from("order-1"));
+
+        // When
+        Throwable thrown = catchThrowable(() -> component.initialize());
+
+        // Then
+        assertThat(thrown).hasMessage("'Idempotency Namespace' must not be blank when an idempotency key is set");
+    }
+
+    @Test
+    void shouldRememberIdempotencyKeysAfterRestart(@TempDir Path directory) throws MessagingException {
+        // Given
+        component.getConnection().setIdempotencyStoreFile(directory.resolve("idempotency.keys").toString());
+
+        BodyDefinition bodyDefinition = new BodyDefinition();
+        bodyDefinition.setContent(DynamicString.from("My email body"));
+
+        component.setBody(bodyDefinition);
+        component.setTo(DynamicString.from("to@test.com"));
+        component.setFrom(DynamicString.from("from@test.com"));
+        component.setSubject(DynamicString.from("My email subject"));
+        component.setIdempotencyKey(DynamicString.from("order-1"));
+        component.setIdempotencyNamespace("order-confirmation");
+        component.initialize();
+
+        Message first = component.apply(context, message);
+
+        // When
+        component.dispose();
+        component.initialize();
+        Message second = component.apply(context, message);
+
+        // Then
+        awaitReceivedMessagesCountIs(1);
+        assertThat(second.getAttributes()).containsEntry("sentDate", first.getAttributes().get("sentDate"));
+    }
+
     @Test
     void shouldCorrectlySetOutMessageAttributes() {
         // Given
@@ -0,0 +1,215 @@
+package com.reedelk.mail.component;
+
+import com.reedelk.mail.internal.MailSessionService;
+import com.reedelk.mail.internal.smtp.transport.SMTPBulkTransport;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPool;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPoolService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.io.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static javax.mail.Message.RecipientType.TO;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Uses a stand-in SMTP server adding a fixed latency to each one of its replies, so that
+ * the round trips needed to send an email with and without pipelining can be compared.
+ */
+class SMTPPipeliningTest {
+
+    private static final int LATENCY = 5;
+
+    private MailSessionService sessionService = new MailSessionService();
+    private SMTPTransportPoolService transportPoolService = new SMTPTransportPoolService();
+
+    private StandInServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new StandInServer(LATENCY);
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        transportPoolService.closeAll();
+        server.close();
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 10, 100})
+    void shouldSendEnvelopeInSingleRoundTripWhenPipelining(int recipients) throws MessagingException {
+        // When
+        int withoutPipelining = roundTrips(recipients, false);
+        int withPipelining = roundTrips(recipients, true);
+
+        // Then
+        // MAIL FROM, each RCPT TO, DATA and the content.
+        assertThat(withoutPipelining).isEqualTo(recipients + 3);
+        // MAIL FROM with all the RCPT TO (and DATA for a single recipient), DATA and the content.
+        assertThat(withPipelining).isEqualTo(recipients == 1 ? 2 : 3);
+        assertThat(server.acceptedRecipients.get()).isEqualTo(2 * recipients);
+    }
+
+    @Test
+    void shouldKeepConnectionUsableWhenPipelinedRecipientsAreRejected() throws MessagingException {
+        // Given
+        SMTPTransportPool transportPool = transportPool(true);
+
+        MimeMessage partiallyRejected = message(transportPool, "to@test.com", "rejected@test.com");
+        MimeMessage rejected = message(transportPool, "rejected@test.com");
+        MimeMessage accepted = message(transportPool, "to@test.com", "to2@test.com");
+
+        // When
+        Throwable partiallyRejectedError;
+        Throwable rejectedError;
+        try (SMTPBulkTransport transport = transportPool.bulk()) {
+            partiallyRejectedError = catchThrowable(() -> transport.send(partiallyRejected));
+            rejectedError = catchThrowable(() -> transport.send(rejected));
+            transport.send(accepted);
+        }
+
+        // Then
+        assertThat(partiallyRejectedError).isInstanceOf(SendFailedException.class);
+        assertThat(rejectedError).isInstanceOf(SendFailedException.class);
+        assertThat(server.deliveredMessages.get()).isEqualTo(1);
+        // All the messages have been sent over the same connection.
+        assertThat(server.connections()).isEqualTo(1);
+    }
+
+    private int roundTrips(int recipients, boolean pipelining) throws MessagingException {
+        SMTPTransportPool transportPool = transportPool(pipelining);
+
+        String[] to = new String[recipients];
+        for (int i = 0; i < recipients; i++) {
+            to[i] = "to" + i + "@test.com";
+        }
+        MimeMessage message = message(transportPool, to);
+
+        transportPool.send(message);
+
+        return server.lastTransactionRoundTrips;
+    }
+
+    private SMTPTransportPool transportPool(boolean pipelining) {
+        SMTPConfiguration configuration = new SMTPConfiguration();
+        configuration.setHost("localhost");
+        configuration.setPort(server.port());
+        configuration.setUsername("testUser");
+        configuration.setPassword("testPassword");
+        configuration.setPipeliningEnabled(pipelining);
+
+        Session session = sessionService.acquire(configuration);
+        return transportPoolService.acquire(configuration, session);
+    }
+
+    private MimeMessage message(SMTPTransportPool transportPool, String... to) throws MessagingException {
+        MimeMessage message = new MimeMessage(transportPool.session());
+        message.setFrom(new InternetAddress("from@test.com"));
+        message.setSubject("My email subject");
+        message.setText("My email body");
+        for (String address : to) {
+            message.addRecipient(TO, new InternetAddress(address));
+        }
+        return message;
+    }
+
+    /**
+     * A minimal SMTP server advertising the PIPELINING extension. Replies are written once
+     * all the commands received so far have been processed, after the given latency:
+     * each write of the replies counts as one round trip.
+     */
+    static class StandInServer extends StandInSMTPServer {
+
+        private final AtomicInteger acceptedRecipients = new AtomicInteger();
+        private final AtomicInteger deliveredMessages = new AtomicInteger();
+        private final int latency;
+
+        private volatile int lastTransactionRoundTrips;
+
+        StandInServer(int latency) throws IOException {
+            this.latency = latency;
+        }
+
+        @Override
+        protected void converse(InputStream input, OutputStream output) throws IOException, InterruptedException {
+            BufferedReader in = new BufferedReader(new InputStreamReader(input, US_ASCII));
+            Writer out = new BufferedWriter(new OutputStreamWriter(output, US_ASCII));
+
+            boolean data = false;
+            boolean transaction = false;
+            boolean completed = false;
+            int roundTrips = 0;
+            int recipients = 0;
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (data) {
+                    if (line.equals(".")) {
+                        data = false;
+                        completed = true;
+                        deliveredMessages.incrementAndGet();
+                        out.write("250 OK\r\n");
+                    }
+                } else {
+                    String command = line.toUpperCase();
+                    if (command.startsWith("EHLO")) {
+                        out.write("250-localhost\r\n250 PIPELINING\r\n");
+                    } else if (command.startsWith("MAIL FROM:")) {
+                        transaction = true;
+                        roundTrips = 0;
+                        recipients = 0;
+                        out.write("250 OK\r\n");
+                    } else if (command.startsWith("RCPT TO:<REJECTED")) {
+                        out.write("550 Mailbox unavailable\r\n");
+                    } else if (command.startsWith("RCPT TO:")) {
+                        recipients++;
+                        acceptedRecipients.incrementAndGet();
+                        out.write("250 OK\r\n");
+                    } else if (command.equals("DATA") && recipients == 0) {
+                        transaction = false;
+                        out.write("554 No valid recipients\r\n");
+                    } else if (command.equals("DATA")) {
+                        data = true;
+                        out.write("354 Start mail input\r\n");
+                    } else if (command.equals("QUIT")) {
+                        out.write("221 Bye\r\n");
+                        out.flush();
+                        return;
+                    } else if (command.equals("RSET")) {
+                        transaction = false;
+                        recipients = 0;
+                        out.write("250 OK\r\n");
+                    } else {
+                        // HELO and NOOP.
+                        out.write("250 OK\r\n");
+                    }
+                }
+
+                // Nothing else to process: the client is waiting for the replies.
+                if (!in.ready()) {
+                    if (transaction) roundTrips++;
+                    if (completed) {
+                        lastTransactionRoundTrips = roundTrips;
+                        transaction = false;
+                        completed = false;
+                    }
+                    Thread.sleep(latency);
+                    out.flush();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.reedelk.mail.component;
+
+import com.reedelk.mail.internal.MailSessionService;
+import com.reedelk.mail.internal.smtp.dispatch.Priority;
+import com.reedelk.mail.internal.smtp.transport.PooledTransport;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPool;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPoolService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static javax.mail.Message.RecipientType.TO;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Uses a pool with a single connection, so that the emails waiting for it are given it one at a time.
+ */
+class SMTPPriorityDispatchTest {
+
+    private MailSessionService sessionService = new MailSessionService();
+    private SMTPTransportPoolService transportPoolService = new SMTPTransportPoolService();
+
+    private SMTPRelayHostsTest.StandInServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new SMTPRelayHostsTest.StandInServer();
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        transportPoolService.closeAll();
+        server.close();
+    }
+
+    @Test
+    void shouldGiveConnectionsToHigherPriorityLanesFirstAndExposeWaitTimes() throws Exception {
+        // Given
+        SMTPTransportPool transportPool = transportPool();
+        ObjectName dispatchQueue = dispatchQueue();
+
+        List<Priority> dispatched = new CopyOnWriteArrayList<>();
+        List<Thread> waiting = new ArrayList<>();
+
+        PooledTransport busy = transportPool.borrow();
+        for (int i = 0; i < 3; i++) {
+            waiting.add(borrowInBackground(transportPool, Priority.LOW, dispatched));
+        }
+        awaitWaiting(dispatchQueue, Priority.LOW, 3);
+        for (int i = 0; i < 2; i++) {
+            waiting.add(borrowInBackground(transportPool, Priority.HIGH, dispatched));
+        }
+        awaitWaiting(dispatchQueue, Priority.HIGH, 2);
+
+        // When
+        transportPool.release(busy, true);
+        for (Thread thread : waiting) {
+            thread.join(5000);
+        }
+
+        // Then
+        assertThat(dispatched).containsExactly(Priority.HIGH, Priority.HIGH, Priority.LOW, Priority.LOW, Priority.LOW);
+
+        CompositeData high = lane(dispatchQueue, Priority.HIGH);
+        assertThat(high.get("dispatched")).isEqualTo(2L);
+        assertThat(high.get("waiting")).isEqualTo(0);
+
+        CompositeData low = lane(dispatchQueue, Priority.LOW);
+        assertThat(low.get("dispatched")).isEqualTo(3L);
+        assertThat((long) low.get("maxWaitTime")).isGreaterThanOrEqualTo((long) high.get("maxWaitTime"));
+    }
+
+    @Test
+    void shouldStillStartLowPriorityDeliveriesUnderSustainedHighPriorityLoad() throws Exception {
+        // Given
+        SMTPTransportPool transportPool = transportPool();
+        ObjectName dispatchQueue = dispatchQueue();
+
+        List<Priority> completed = new CopyOnWriteArrayList<>();
+        List<CompletableFuture<?>> sent = new ArrayList<>();
+
+        // The single delivery thread waits for the connection with the first email.
+        PooledTransport busy = transportPool.borrow();
+        sent.add(sendInBackground(transportPool, Priority.HIGH, completed));
+        awaitWaiting(dispatchQueue, Priority.HIGH, 1);
+        for (int i = 0; i < 19; i++) {
+            sent.add(sendInBackground(transportPool, Priority.HIGH, completed));
+        }
+        for (int i = 0; i < 2; i++) {
+            sent.add(sendInBackground(transportPool, Priority.LOW, completed));
+        }
+
+        // When
+        transportPool.release(busy, true);
+        CompletableFuture.allOf(sent.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+
+        // Then
+        assertThat(completed).hasSize(22);
+        assertThat(completed.lastIndexOf(Priority.LOW)).isLessThan(completed.lastIndexOf(Priority.HIGH));
+    }
+
+    private SMTPTransportPool transportPool() {
+        SMTPConfiguration configuration = new SMTPConfiguration();
+        configuration.setHost("localhost");
+        configuration.setPort(server.port());
+        configuration.setUsername("testUser");
+        configuration.setPassword("testPassword");
+        configuration.setPoolMaxSize(1);
+
+        Session session = sessionService.acquire(configuration);
+        return transportPoolService.acquire(configuration, session);
+    }
+
+    private static Thread borrowInBackground(SMTPTransportPool transportPool, Priority priority, List<Priority> dispatched) {
+        Thread thread = new Thread(() -> {
+            try {
+                PooledTransport transport = transportPool.borrow(priority);
+                dispatched.add(priority);
+                transportPool.release(transport, true);
+            } catch (MessagingException exception) {
+                throw new IllegalStateException(exception);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static CompletableFuture<?> sendInBackground(SMTPTransportPool transportPool, Priority priority, List<Priority> completed) throws MessagingException {
+        MimeMessage message = new MimeMessage(transportPool.session());
+        message.setFrom(new InternetAddress("from@test.com"));
+        message.addRecipient(TO, new InternetAddress("to@test.com"));
+        message.setSubject("My email subject");
+        message.setText("My email body");
+        return transportPool.sendAsync(message, priority)
+                .whenComplete((unused, throwable) -> completed.add(priority));
+    }
+
+    private ObjectName dispatchQueue() throws JMException {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        return mBeanServer.queryNames(new ObjectName("com.reedelk.mail:type=SMTPDispatchQueue,*"), null)
+                .stream()
+                .filter(name -> name.getKeyProperty("name").contains(":" + server.port() + "#"))
+                .findFirst()
+                .orElseThrow(IllegalStateException::new);
+    }
+
+    private static CompositeData lane(ObjectName dispatchQueue, Priority priority) throws JMException {
+        CompositeData[] lanes = (CompositeData[]) ManagementFactory.getPlatformMBeanServer().getAttribute(dispatchQueue, "Lanes");
+        for (CompositeData lane : lanes) {
+            if (priority.name().equals(lane.get("name"))) return lane;
+        }
+        throw new IllegalStateException(priority.name());
+    }
+
+    private static void awaitWaiting(ObjectName dispatchQueue, Priority priority, int expected) throws JMException, InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((int) lane(dispatchQueue, priority).get("waiting") < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.reedelk.mail.component;
+
+import com.reedelk.mail.component.smtp.HostSelectionPolicy;
+import com.reedelk.mail.internal.MailSessionService;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPool;
+import com.reedelk.mail.internal.smtp.transport.SMTPTransportPoolService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.io.*;
+import java.net.ServerSocket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static javax.mail.Message.RecipientType.TO;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Uses two stand-in SMTP servers as relay hosts, counting the emails each one of them receives.
+ */
+class SMTPRelayHostsTest {
+
+    private MailSessionService sessionService = new MailSessionService();
+    private SMTPTransportPoolService transportPoolService = new SMTPTransportPoolService();
+
+    private StandInServer server1;
+    private StandInServer server2;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server1 = new StandInServer();
+        server1.start();
+        server2 = new StandInServer();
+        server2.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        transportPoolService.closeAll();
+        server1.close();
+        server2.close();
+    }
+
+    @Test
+    void shouldSpreadEmailsAmongRelayHostsInTurn() throws MessagingException {
+        // Given
+        SMTPTransportPool transportPool = transportPool(
+                "localhost:" + server1.port() + ", localhost:" + server2.port(), HostSelectionPolicy.ROUND_ROBIN);
+
+        // When
+        for (int i = 0; i < 10; i++) {
+            transportPool.send(message(transportPool));
+        }
+
+        // Then
+        assertThat(server1.received.get()).isEqualTo(5);
+        assertThat(server2.received.get()).isEqualTo(5);
+    }
+
+    @Test
+    void shouldConnectToAnotherRelayHostWhenOneIsDown() throws IOException, MessagingException {
+        // Given
+        int closedPort = closedPort();
+        SMTPTransportPool transportPool = transportPool(
+                "localhost:" + closedPort + ", localhost:" + server1.port(), HostSelectionPolicy.LEAST_OUTSTANDING);
+
+        // When
+        for (int i = 0; i < 4; i++) {
+            transportPool.send(message(transportPool));
+        }
+
+        // Then
+        assertThat(server1.received.get()).isEqualTo(4);
+    }
+
+    @Test
+    void shouldEjectRelayHostReplyingWithTransientFailure() throws MessagingException {
+        // Given
+        server1.transientFailure = true;
+        SMTPTransportPool transportPool = transportPool(
+                "localhost:" + server1.port() + ", localhost:" + server2.port(), HostSelectionPolicy.ROUND_ROBIN);
+
+        // When
+        Throwable failure = catchThrowable(() -> transportPool.send(message(transportPool)));
+        for (int i = 0; i < 4; i++) {
+            transportPool.send(message(transportPool));
+        }
+
+        // Then: the failed email is not sent again to another host, the following ones are.
+        assertThat(failure).isInstanceOf(MessagingException.class);
+        assertThat(server1.received.get()).isZero();
+        assertThat(server2.received.get()).isEqualTo(4);
+    }
+
+    private SMTPTransportPool transportPool(String hosts, HostSelectionPolicy hostSelection) {
+        SMTPConfiguration configuration = new SMTPConfiguration();
+        configuration.setHost(hosts);
+        configuration.setPort(server1.port());
+        configuration.setUsername("testUser");
+        configuration.setPassword("testPassword");
+        configuration.setHostSelection(hostSelection);
+
+        Session session = sessionService.acquire(configuration);
+        return transportPoolService.acquire(configuration, session);
+    }
+
+    private MimeMessage message(SMTPTransportPool transportPool) throws MessagingException {
+        MimeMessage message = new MimeMessage(transportPool.session());
+        message.setFrom(new InternetAddress("from@test.com"));
+        message.addRecipient(TO, new InternetAddress("to@test.com"));
+        message.setSubject("My email subject");
+        message.setText("My email body");
+        return message;
+    }
+
+    private static int closedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * A minimal SMTP server, optionally replying to MAIL FROM with a transient failure.
+     */
+    static class StandInServer extends StandInSMTPServer {
+
+        private final AtomicInteger received = new AtomicInteger();
+
+        private volatile boolean transientFailure;
+
+        StandInServer() throws IOException {
+        }
+
+        @Override
+        protected void converse(InputStream input, OutputStream out) throws IOException {
+            BufferedReader in = new BufferedReader(new InputStreamReader(input, US_ASCII));
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                String command = line.toUpperCase();
+                if (command.startsWith("EHLO")) {
+                    reply(out, "250 localhost");
+                } else if (command.startsWith("MAIL FROM") && transientFailure) {
+                    reply(out, "451 Try again later");
+                } else if (command.equals("DATA")) {
+                    reply(out, "354 Start mail input");
+                    while (!".".equals(in.readLine())) {
+                        // content discarded.
+                    }
+                    received.incrementAndGet();
+                    reply(out, "250 OK");
+                } else if (command.equals("QUIT")) {
+                    reply(out, "221 Bye");
+                    return;
+                } else {
+                    // HELO, MAIL FROM, RCPT TO, RSET and NOOP.
+                    reply(out, "250 OK");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.reedelk.mail.component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A minimal SMTP server listening on a free local port: each test defines how the commands
+ * of a connection are handled, once the greeting has been sent. The server threads are daemon
+ * threads, and the connections still open are closed together with the server.
+ */
+abstract class StandInSMTPServer implements Closeable {
+
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final ServerSocket serverSocket;
+
+    StandInSMTPServer() throws IOException {
+        this.serverSocket = new ServerSocket(0);
+    }
+
+    /**
+     * Handles the commands of a connection until it is closed or the client quits.
+     */
+    protected abstract void converse(InputStream in, OutputStream out) throws IOException, InterruptedException;
+
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    int connections() {
+        return connections.get();
+    }
+
+    void start() {
+        daemon(this::accept).start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket client : clients) {
+            try {
+                client.close();
+            } catch (IOException exception) {
+                // already closed.
+            }
+        }
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                clients.add(socket);
+                connections.incrementAndGet();
+                daemon(() -> serve(socket)).start();
+            } catch (IOException exception) {
+                // server closed.
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket client = socket) {
+            OutputStream out = client.getOutputStream();
+            reply(out, "220 localhost ESMTP stand-in");
+            converse(client.getInputStream(), out);
+        } catch (IOException | InterruptedException exception) {
+            // connection closed.
+        } finally {
+            clients.remove(socket);
+        }
+    }
+
+    private Thread daemon(Runnable runnable) {
+        Thread thread = new Thread(runnable, "stand-in-smtp-" + port());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Reads a line without its terminator, byte by byte: the bytes following it are left
+     * in the stream, e.g. the content of a BDAT chunk. Returns null at the end of the stream.
+     */
+    static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                byte[] bytes = line.toByteArray();
+                int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+                return new String(bytes, 0, length, UTF_8);
+            }
+            line.write(b);
+        }
+        return null;
+    }
+
+    static void reply(OutputStream out, String reply) throws IOException {
+        out.write((reply + "\r\n").getBytes(US_ASCII));
+        out.flush();
+    }
+}
@@ -0,0 +1,194 @@
+package com.reedelk.mail.internal.smtp.idempotency;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+class IdempotencyStoreTest {
+
+    private static final String NAMESPACE = "order-confirmation";
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<IdempotencyStore> stores = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+        stores.forEach(IdempotencyStore::close);
+    }
+
+    @Test
+    void shouldSendAgainWhenFirstEmailWithSameKeyFailed() throws Exception {
+        // Given
+        IdempotencyStore store = open(IdempotencySettings.create().build());
+        AtomicInteger attempts = new AtomicInteger();
+
+        Throwable thrown = catchThrowable(() -> store.sendOnce(NAMESPACE, "order-1", () -> {
+            attempts.incrementAndGet();
+            throw new IOException("Connection refused");
+        }));
+
+        // When
+        Map<String, Serializable> outcome = store.sendOnce(NAMESPACE, "order-1", () -> {
+            attempts.incrementAndGet();
+            return outcome("second");
+        });
+
+        // Then
+        assertThat(thrown).isInstanceOf(IOException.class).hasMessage("Connection refused");
+        assertThat(attempts).hasValue(2);
+        assertThat(outcome).containsEntry("messageId", "second");
+    }
+
+    @Test
+    void shouldSendOnceEmailsSentConcurrentlyWithSameKey() throws Exception {
+        // Given
+        IdempotencyStore store = open(IdempotencySettings.create().build());
+        AtomicInteger sent = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch sending = new CountDownLatch(8);
+
+        List<Future<Map<String, Serializable>>> outcomes = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            outcomes.add(executor.submit(() -> {
+                start.await();
+                sending.countDown();
+                return store.sendOnce(NAMESPACE, "order-1", () -> {
+                    // The email is still being sent when all the others are sent with the same key.
+                    sending.await(5, TimeUnit.SECONDS);
+                    return outcome("sent-" + sent.incrementAndGet());
+                });
+            }));
+        }
+
+        // When
+        start.countDown();
+
+        // Then
+        for (Future<Map<String, Serializable>> outcome : outcomes) {
+            assertThat(outcome.get(5, TimeUnit.SECONDS)).containsEntry("messageId", "sent-1");
+        }
+        assertThat(sent).hasValue(1);
+    }
+
+    @Test
+    void shouldNotMatchKeysOfOtherNamespaces() throws Exception {
+        // Given
+        IdempotencyStore store = open(IdempotencySettings.create().build());
+        store.sendOnce("a:b", "c", () -> outcome("first"));
+
+        // When
+        Map<String, Serializable> outcome = store.sendOnce("a", "b:c", () -> outcome("second"));
+
+        // Then
+        assertThat(outcome).containsEntry("messageId", "second");
+    }
+
+    @Test
+    void shouldStopWaitingForEmailBeingSentWithSameKeyAfterWaitTimeout() throws Exception {
+        // Given
+        IdempotencyStore store = open(IdempotencySettings.create().waitTimeout(100L).build());
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<Map<String, Serializable>> first = executor.submit(() ->
+                store.sendOnce(NAMESPACE, "order-1", () -> {
+                    sending.countDown();
+                    release.await();
+                    return outcome("first");
+                }));
+        assertThat(sending.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // When
+        Throwable thrown = catchThrowable(() -> store.sendOnce(NAMESPACE, "order-1", () -> outcome("second")));
+
+        // Then
+        assertThat(thrown).isInstanceOf(TimeoutException.class)
+                .hasMessage("Timed out after [100] ms waiting for the email being sent with the same idempotency key=[order-1]");
+
+        release.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS)).containsEntry("messageId", "first");
+    }
+
+    @Test
+    void shouldReadKeysBeforeTornTailOfStoreFile(@TempDir Path directory) throws Exception {
+        // Given
+        Path file = directory.resolve("idempotency.keys");
+        IdempotencySettings settings = IdempotencySettings.create().file(file).build();
+
+        IdempotencyStore store = open(settings);
+        store.sendOnce(NAMESPACE, "order-1", () -> outcome("first"));
+        store.close();
+
+        // A key partially written before a crash: its length, then only some of its bytes.
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file, StandardOpenOption.APPEND))) {
+            out.writeInt(256);
+            out.write(new byte[]{1, 2, 3});
+        }
+
+        // When
+        IdempotencyStore reopened = open(settings);
+
+        // Then
+        assertThat(reopened.sendOnce(NAMESPACE, "order-1", () -> outcome("again"))).containsEntry("messageId", "first");
+        reopened.sendOnce(NAMESPACE, "order-2", () -> outcome("second"));
+        reopened.close();
+
+        // The torn tail has been dropped: the keys appended afterwards are read back.
+        IdempotencyStore restarted = open(settings);
+        assertThat(restarted.sendOnce(NAMESPACE, "order-2", () -> outcome("again"))).containsEntry("messageId", "second");
+    }
+
+    @Test
+    void shouldReadKeysBeforeCorruptTailOfStoreFile(@TempDir Path directory) throws Exception {
+        // Given
+        Path file = directory.resolve("idempotency.keys");
+        IdempotencySettings settings = IdempotencySettings.create().file(file).build();
+
+        IdempotencyStore store = open(settings);
+        store.sendOnce(NAMESPACE, "order-1", () -> outcome("first"));
+        store.close();
+
+        // A complete key whose bytes are not a serialized key.
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file, StandardOpenOption.APPEND))) {
+            out.writeInt(8);
+            out.write(new byte[]{0, 1, 2, 3, 4, 5, 6, 7});
+        }
+
+        // When
+        IdempotencyStore reopened = open(settings);
+
+        // Then
+        assertThat(reopened.sendOnce(NAMESPACE, "order-1", () -> outcome("again"))).containsEntry("messageId", "first");
+        assertThat(reopened.sendOnce(NAMESPACE, "order-2", () -> outcome("second"))).containsEntry("messageId", "second");
+    }
+
+    private IdempotencyStore open(IdempotencySettings settings) throws IOException {
+        IdempotencyStore store = new IdempotencyStore(settings);
+        stores.add(store);
+        store.open();
+        return store;
+    }
+
+    private static Map<String, Serializable> outcome(String messageId) {
+        Map<String, Serializable> outcome = new HashMap<>();
+        outcome.put("messageId", messageId);
+        return outcome;
+    }
+}